@@ -0,0 +1,131 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.applib;
+
+import java.util.Set;
+
+import org.jspecify.annotations.NonNull;
+
+import org.apache.causeway.applib.value.NamedWithMimeType.CommonMimeType;
+
+import lombok.With;
+
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor.Compression;
+
+/**
+ * {@link CompressionPolicy}, that does not compress
+ * <ul>
+ * <li>blobs smaller than {@code minSize}, where container overhead outweighs any gain,</li>
+ * <li>content that is compressed already by its format (e.g. ZIP, PNG, JPEG, MP4),</li>
+ * <li>samples whose Shannon entropy exceeds {@code maxBitsPerByte} (e.g. encrypted or random data),</li>
+ * </ul>
+ * otherwise uses {@code compression}, or {@code largeCompression} from {@code largeSize} on,
+ * where decompression speed matters most. Content of unknown size is treated as large.
+ */
+public record AdaptiveCompressionPolicy(
+        @With long minSize,
+        @With double maxBitsPerByte,
+        @With Compression compression,
+        @With long largeSize,
+        @With Compression largeCompression) implements CompressionPolicy {
+
+    /**
+     * Base types of mime types, whose content is compressed already.
+     */
+    private static final Set<String> PRECOMPRESSED = Set.of(
+            "application/zip",
+            "application/gzip",
+            "application/x-gzip",
+            "application/x-7z-compressed",
+            "application/x-bzip2",
+            "application/x-xz",
+            "application/zstd",
+            "application/x-lz4",
+            "application/vnd.rar",
+            "application/x-rar-compressed",
+            "application/java-archive",
+            "application/epub+zip",
+            "image/png",
+            "image/jpeg",
+            "image/gif",
+            "image/webp",
+            "image/avif",
+            "audio/mpeg",
+            "audio/aac",
+            "audio/ogg",
+            "video/mp4",
+            "video/mpeg",
+            "video/webm",
+            "video/ogg");
+
+    /**
+     * No compression below 1 KiB, ZSTD up to 64 MiB, LZ4 beyond.
+     */
+    public static AdaptiveCompressionPolicy defaults() {
+        return new AdaptiveCompressionPolicy(1024L, 7.5, Compression.ZSTD, 64L * 1024 * 1024, Compression.LZ4);
+    }
+
+    @Override
+    public Compression choose(final @NonNull CommonMimeType mimeType, final long size, final byte @NonNull [] sample) {
+        if(size>=0
+                && size<minSize) return Compression.NONE;
+        if(isPrecompressed(mimeType)) return Compression.NONE;
+        if(sample.length>=256
+                && bitsPerByte(sample)>maxBitsPerByte) return Compression.NONE;
+        return size<0
+                || size>=largeSize
+            ? largeCompression
+            : compression;
+    }
+
+    @Override
+    public String name() {
+        return "adaptive";
+    }
+
+    /**
+     * Whether the content of given mime type is compressed already by its format, so compressing again is futile.
+     */
+    public static boolean isPrecompressed(final @NonNull CommonMimeType mimeType) {
+        var baseType = mimeType.mimeType().getBaseType().toLowerCase();
+        return PRECOMPRESSED.contains(baseType)
+                // office open xml documents are zip containers
+                || baseType.startsWith("application/vnd.openxmlformats-officedocument.")
+                || baseType.startsWith("application/vnd.oasis.opendocument.");
+    }
+
+    /**
+     * Shannon entropy of the byte distribution of given sample, from 0 (constant) to 8 (uniformly random).
+     */
+    public static double bitsPerByte(final byte @NonNull [] sample) {
+        if(sample.length==0) return 0.;
+        var counts = new int[256];
+        for(var b : sample) {
+            counts[b & 0xff]++;
+        }
+        var entropy = 0.;
+        for(var count : counts) {
+            if(count==0) continue;
+            var p = (double) count / sample.length;
+            entropy -= p * Math.log(p);
+        }
+        return entropy / Math.log(2);
+    }
+
+}
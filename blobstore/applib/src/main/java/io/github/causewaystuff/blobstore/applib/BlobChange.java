@@ -0,0 +1,49 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.applib;
+
+import java.time.Instant;
+
+import org.jspecify.annotations.Nullable;
+
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+/**
+ * A mutation of a {@link BlobStore}, as emitted by its {@link BlobChangeFeed}.
+ *
+ * @param sequence strictly increasing per store, starting at {@code 1}
+ * @param descriptor as of after the change, {@code null} for {@link Type#DELETE}
+ * @param recordedOn when the change was recorded
+ */
+public record BlobChange(
+        long sequence,
+        Type type,
+        NamedPath path,
+        @Nullable BlobDescriptor descriptor,
+        Instant recordedOn) {
+
+    public enum Type {
+        /** blob written, either new or replacing */
+        PUT,
+        /** descriptor changed, while the content is not (e.g. attributes or compression) */
+        UPDATE,
+        DELETE
+    }
+
+}
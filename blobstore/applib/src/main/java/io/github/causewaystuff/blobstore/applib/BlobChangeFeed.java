@@ -0,0 +1,92 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.applib;
+
+import java.util.function.Consumer;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import org.apache.causeway.commons.collections.Can;
+
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+/**
+ * Ordered feed of the {@link BlobChange}(s) of a {@link BlobStore}, for consumers (e.g. indexers or replicators)
+ * to follow the store incrementally, instead of diffing full listings.
+ * <p>
+ * A consumer remembers the sequence of the last change it processed,
+ * and resumes from there, also after a restart, as long as the feed still retains the changes after it.
+ * Otherwise it has to start over from a full listing, then follow from the {@link #lastSequence()} as of before the listing.
+ * <p>
+ * Delivery is at-least-once: after a crash of the store, a change may be emitted again.
+ * Consumers are expected to be idempotent, which comes naturally as each change carries the resulting state.
+ * @see BlobStore#changeFeed()
+ */
+public interface BlobChangeFeed {
+
+    /**
+     * Sequence of the latest change, {@code 0} if there was none yet.
+     */
+    long lastSequence();
+
+    /**
+     * Sequence of the oldest change retained, changes before were discarded.
+     * Equals {@code lastSequence() + 1}, if none is retained.
+     */
+    long firstSequence();
+
+    /**
+     * Whether the changes following given sequence are still retained, such that a consumer can resume from it.
+     */
+    default boolean canResumeAfter(final long sequence) {
+        return sequence >= firstSequence() - 1
+                && sequence <= lastSequence();
+    }
+
+    /**
+     * Returns up to {@code limit} changes that follow given sequence, in order (pull style).
+     * @throws IllegalStateException if the changes following given sequence are no longer retained
+     */
+    Can<BlobChange> readAfter(long sequence, int limit);
+
+    /**
+     * Has given listener called for every change that follows given sequence, in order (push style),
+     * first catching up with the retained changes, then following live.
+     * Listeners are called from a single delivery thread, hence should return quickly.
+     * A listener that throws is unsubscribed.
+     * @param prefix only changes at or below given path are delivered, all if {@code null}
+     * @throws IllegalStateException if the changes following given sequence are no longer retained
+     */
+    Subscription subscribe(long afterSequence, @Nullable NamedPath prefix, @NonNull Consumer<BlobChange> listener);
+
+    interface Subscription extends AutoCloseable {
+        /**
+         * Sequence of the last change processed, whether delivered or filtered out by prefix.
+         * To be remembered, for resuming after a restart.
+         */
+        long lastSequence();
+        /**
+         * Stops delivery, changes retained are not affected.
+         */
+        @Override
+        void close();
+    }
+
+}
@@ -0,0 +1,225 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.applib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.compress.archivers.sevenz.SevenZMethod;
+
+import org.apache.causeway.applib.value.Blob;
+import org.apache.causeway.applib.value.NamedWithMimeType.CommonMimeType;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import lombok.SneakyThrows;
+import lombok.experimental.UtilityClass;
+
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor.Compression;
+import io.github.causewaystuff.commons.compression.Lz4Utils;
+import io.github.causewaystuff.commons.compression.SevenZUtils;
+import io.github.causewaystuff.commons.compression.ZstdUtils;
+
+/**
+ * (Un-)compression of blob content for each {@link Compression}, shared by {@link BlobStore} implementations,
+ * in memory, between files or between streams.
+ * <p>
+ * Zstandard content is written in the seekable format, which plain decoders read as well.
+ * 7z archives require random access, hence are buffered in a temporary file when streamed.
+ */
+@UtilityClass
+public class BlobContentCodec {
+
+    /**
+     * Codec options, that are not recorded with the blob, hence must be the same when reading as when writing.
+     * @param zstdLevel Zstandard compression level
+     * @param zstdDictionary optional pre-trained Zstandard dictionary,
+     *      blobs written with a dictionary cannot be read without it
+     */
+    public record CodecSettings(
+            int zstdLevel,
+            byte @Nullable [] zstdDictionary) {
+        public static final CodecSettings DEFAULT = new CodecSettings(ZstdUtils.DEFAULT_LEVEL, null);
+        public static CodecSettings ofZstdLevel(final int zstdLevel) {
+            return new CodecSettings(zstdLevel, null);
+        }
+    }
+
+    // -- IN MEMORY
+
+    public byte[] compress(
+            final byte @NonNull [] bytes,
+            final @NonNull String entryName,
+            final @NonNull Compression compression,
+            final @NonNull CodecSettings settings) {
+        return switch (compression) {
+            case NONE -> bytes;
+            case ZIP -> Blob.of(entryName, CommonMimeType.BIN, bytes).zip().bytes();
+            case SEVEN_ZIP -> SevenZUtils.compress(bytes, entryName, SevenZMethod.LZMA2);
+            case ZSTD -> ZstdUtils.compress(bytes, settings.zstdLevel(), settings.zstdDictionary());
+            case LZ4 -> Lz4Utils.compress(bytes);
+        };
+    }
+
+    public byte[] uncompress(
+            final byte @NonNull [] bytes,
+            final @NonNull String entryName,
+            final @NonNull Compression compression,
+            final @NonNull CodecSettings settings) {
+        return switch (compression) {
+            case NONE -> bytes;
+            case ZIP -> Blob.of(entryName + ".zip", CommonMimeType.ZIP, bytes).unZip(CommonMimeType.BIN).bytes();
+            case SEVEN_ZIP -> SevenZUtils.decompress(bytes);
+            case ZSTD -> ZstdUtils.decompress(bytes, settings.zstdDictionary());
+            case LZ4 -> Lz4Utils.decompress(bytes);
+        };
+    }
+
+    // -- FILES
+
+    /**
+     * Returns an {@link OutputStream} that compresses on the fly and writes to given file.
+     * The compressed container is finalized when the returned stream is closed.
+     */
+    @SneakyThrows
+    public OutputStream compressingOutputStream(
+            final @NonNull File file,
+            final @NonNull String entryName,
+            final @NonNull Compression compression,
+            final @NonNull CodecSettings settings) {
+        return compression==Compression.SEVEN_ZIP
+                ? SevenZUtils.compressingOutputStream(file, entryName, SevenZMethod.LZMA2)
+                : compressingOutputStream(new BufferedOutputStream(new FileOutputStream(file)), entryName, compression, settings);
+    }
+
+    /**
+     * Returns an {@link InputStream} that reads from given file and uncompresses on the fly.
+     */
+    @SneakyThrows
+    public InputStream uncompressingInputStream(
+            final @NonNull File file,
+            final @NonNull Compression compression,
+            final @NonNull CodecSettings settings) {
+        return compression==Compression.SEVEN_ZIP
+                ? SevenZUtils.decompressingInputStream(file)
+                : uncompressingInputStream(new BufferedInputStream(new FileInputStream(file)), compression, settings);
+    }
+
+    // -- STREAMS
+
+    /**
+     * Returns an {@link OutputStream} that compresses on the fly and writes to given stream,
+     * which is closed along with the returned one.
+     */
+    @SneakyThrows
+    public OutputStream compressingOutputStream(
+            final @NonNull OutputStream out,
+            final @NonNull String entryName,
+            final @NonNull Compression compression,
+            final @NonNull CodecSettings settings) {
+        return switch (compression) {
+            case NONE -> out;
+            case ZIP -> {
+                var zipOut = new ZipOutputStream(out);
+                zipOut.putNextEntry(new ZipEntry(entryName));
+                yield zipOut;
+            }
+            case SEVEN_ZIP -> sevenZipOutputStream(out, entryName);
+            case ZSTD -> ZstdUtils.seekableCompressingOutputStream(out, settings.zstdLevel(), settings.zstdDictionary());
+            case LZ4 -> Lz4Utils.compressingOutputStream(out);
+        };
+    }
+
+    /**
+     * Returns an {@link InputStream} that reads from given stream and uncompresses on the fly,
+     * closing given stream along with the returned one.
+     */
+    @SneakyThrows
+    public InputStream uncompressingInputStream(
+            final @NonNull InputStream in,
+            final @NonNull Compression compression,
+            final @NonNull CodecSettings settings) {
+        return switch (compression) {
+            case NONE -> in;
+            case ZIP -> {
+                var zipIn = new ZipInputStream(in);
+                if(zipIn.getNextEntry()==null) {
+                    zipIn.close();
+                    throw new IOException("zip archive has no entries");
+                }
+                yield zipIn;
+            }
+            case SEVEN_ZIP -> sevenZipInputStream(in);
+            case ZSTD -> ZstdUtils.decompressingInputStream(in, settings.zstdDictionary());
+            case LZ4 -> Lz4Utils.decompressingInputStream(in);
+        };
+    }
+
+    // -- HELPER
+
+    private OutputStream sevenZipOutputStream(final OutputStream target, final String entryName) throws IOException {
+        var tempFile = Files.createTempFile("blob-", ".7z");
+        var archiveOut = SevenZUtils.compressingOutputStream(tempFile.toFile(), entryName, SevenZMethod.LZMA2);
+        return new FilterOutputStream(archiveOut) {
+            @Override public void write(final byte[] b, final int off, final int len) throws IOException {
+                archiveOut.write(b, off, len);
+            }
+            @Override public void close() throws IOException {
+                try {
+                    archiveOut.close(); // finalizes the archive
+                    try(target) {
+                        Files.copy(tempFile, target);
+                    }
+                } finally {
+                    Files.deleteIfExists(tempFile);
+                }
+            }
+        };
+    }
+
+    private InputStream sevenZipInputStream(final InputStream source) throws IOException {
+        var tempFile = Files.createTempFile("blob-", ".7z");
+        try(source) {
+            Files.copy(source, tempFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return new FilterInputStream(SevenZUtils.decompressingInputStream(tempFile.toFile())) {
+            @Override public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    Files.deleteIfExists(tempFile);
+                }
+            }
+        };
+    }
+
+}
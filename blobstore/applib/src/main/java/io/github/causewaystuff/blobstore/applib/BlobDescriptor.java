@@ -50,29 +50,49 @@ public record BlobDescriptor(
     @RequiredArgsConstructor
     public enum Compression {
         NONE("", null),
-        ZIP(".zip", CommonMimeType.ZIP),
-        SEVEN_ZIP(".7z", CommonMimeType._7Z);
+        ZIP(".zip", "application/zip"),
+        SEVEN_ZIP(".7z", "application/x-7z-compressed"),
+        /**
+         * Zstandard, fast to write and very fast to read at a ratio close to ZIP or better.
+         */
+        ZSTD(".zst", "application/zstd"),
+        /**
+         * LZ4 frame format, fastest to write and read, at the expense of ratio.
+         */
+        LZ4(".lz4", "application/x-lz4");
         @Getter @Accessors(fluent=true)
         final String fileSuffix;
-        final @Nullable CommonMimeType commonMimeType;
+        /**
+         * base type of the compressed container's mime type, {@code null} for {@link #NONE}
+         */
+        @Getter @Accessors(fluent=true)
+        final @Nullable String mimeTypeBase;
         public static Compression valueOf(final @Nullable MimeType mimeType) {
             if(mimeType==null) return Compression.NONE;
+            var baseType = mimeType.getBaseType();
             for(var c : Compression.values()) {
                 if(c==NONE) {
 					continue;
 				}
-                if(c.commonMimeType.matches(mimeType)) return c;
+                if(c.mimeTypeBase.equalsIgnoreCase(baseType)) return c;
             }
             return Compression.NONE;
         }
         public static Compression valueOf(final @Nullable File file) {
             if(file==null) return Compression.NONE;
-            var fileName = file.getName().toLowerCase();
+            return valueOfFileName(file.getName());
+        }
+        /**
+         * Detects the compression by file name suffix, e.g. {@code ZSTD} for {@code data.json.zst}.
+         */
+        public static Compression valueOfFileName(final @Nullable String fileName) {
+            if(fileName==null) return Compression.NONE;
+            var lowerCaseName = fileName.toLowerCase();
             for(var c : Compression.values()) {
                 if(c==NONE) {
 					continue;
 				}
-                if(fileName.endsWith(c.fileSuffix)) return c;
+                if(lowerCaseName.endsWith(c.fileSuffix)) return c;
             }
             return Compression.NONE;
         }
@@ -0,0 +1,329 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.applib;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jspecify.annotations.Nullable;
+
+import org.apache.causeway.applib.value.NamedWithMimeType.CommonMimeType;
+import org.apache.causeway.commons.collections.Can;
+
+import lombok.SneakyThrows;
+import lombok.experimental.UtilityClass;
+
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor.Compression;
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+/**
+ * Compact, versioned binary encoding of {@link BlobDescriptor}(s),
+ * for implementations that keep descriptors in manifest files, journals or embedded key-value stores.
+ * <p>
+ * Self-contained encodings start with a fixed-layout header of {@value #HEADER_LENGTH} bytes:
+ * the magic {@code BDSC}, the format {@link #VERSION}, a flags byte and two reserved bytes.
+ * Numbers are written as varints, hence small values take a single byte.
+ * <p>
+ * Mime type, created-by, compression, attribute keys and qualifiers are interned by a {@link Dictionary}:
+ * the first occurrence defines an entry, later ones refer to it by index.
+ * A stream of many descriptors (e.g. an index snapshot) shares one dictionary,
+ * such that repeated values are written once per stream.
+ */
+@UtilityClass
+public class BlobDescriptorCodec {
+
+    public static final int MAGIC = 0x42445343; // BDSC
+    public static final byte VERSION = 1;
+    public static final int HEADER_LENGTH = 8;
+
+    private static final int HEADER_FLAG_PATH = 1;
+    private static final int FLAG_CREATED_BY = 1;
+    private static final int FLAG_CREATED_ON = 2;
+    /** guards against corrupt or forged input, e.g. continuation tokens */
+    private static final int MAX_STRING_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * Interns strings within one stream of encoded descriptors.
+     * Writer and reader each use one instance per stream, and must process the descriptors in the same order.
+     */
+    public static final class Dictionary {
+
+        private final List<String> entries = new ArrayList<>();
+        private final Map<String, Integer> indexByEntry = new HashMap<>();
+
+        public int size() {
+            return entries.size();
+        }
+
+        void write(final DataOutput out, final String string) throws IOException {
+            var index = indexByEntry.get(string);
+            if(index!=null) {
+                writeVarLong(out, index + 1);
+                return;
+            }
+            writeVarLong(out, 0);
+            writeString(out, string);
+            define(string);
+        }
+
+        String read(final DataInput in) throws IOException {
+            var ref = readVarLong(in);
+            if(ref==0) {
+                var string = readString(in);
+                define(string);
+                return string;
+            }
+            if(ref>entries.size()) throw new IOException("unknown dictionary entry %d".formatted(ref));
+            return entries.get((int) ref - 1);
+        }
+
+        private void define(final String string) {
+            indexByEntry.put(string, entries.size());
+            entries.add(string);
+        }
+    }
+
+    // -- SELF-CONTAINED
+
+    /**
+     * Encodes given descriptor including its path, prefixed by the header.
+     */
+    public byte[] encode(final BlobDescriptor descriptor) {
+        return encode(descriptor, true);
+    }
+
+    /**
+     * Encodes given descriptor without its path, prefixed by the header,
+     * for manifest files, whose location already implies the path.
+     */
+    public byte[] encodeManifest(final BlobDescriptor descriptor) {
+        return encode(descriptor, false);
+    }
+
+    /**
+     * Inverse of {@link #encode(BlobDescriptor)}.
+     * @throws IOException if not an encoded descriptor, or encoded by a later version
+     */
+    public BlobDescriptor decode(final byte[] bytes) throws IOException {
+        return decode(bytes, null);
+    }
+
+    /**
+     * Inverse of {@link #encodeManifest(BlobDescriptor)}.
+     * @param path of the manifest's blob
+     * @throws IOException if not an encoded descriptor, or encoded by a later version
+     */
+    public BlobDescriptor decodeManifest(final byte[] bytes, final NamedPath path) throws IOException {
+        return decode(bytes, path);
+    }
+
+    /**
+     * Whether given bytes start with the header's magic, e.g. to tell binary from YAML manifests.
+     */
+    public boolean isEncoded(final byte @Nullable [] bytes) {
+        return bytes!=null
+                && bytes.length>=HEADER_LENGTH
+                && ((bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8 | (bytes[3] & 0xff))==MAGIC;
+    }
+
+    // -- STREAMS
+
+    public void writePath(final DataOutput out, final NamedPath path) throws IOException {
+        writeVarLong(out, path.nameCount());
+        for(var name : path) {
+            writeString(out, name);
+        }
+    }
+
+    public NamedPath readPath(final DataInput in) throws IOException {
+        var nameCount = readVarLong(in);
+        if(nameCount<0
+                || nameCount>Short.MAX_VALUE) throw new IOException("invalid name count %d".formatted(nameCount));
+        var names = new ArrayList<String>((int) Math.min(nameCount, 16));
+        for (int i = 0; i < nameCount; i++) {
+            names.add(readString(in));
+        }
+        return new NamedPath(Can.ofCollection(names));
+    }
+
+    /**
+     * Writes given descriptor including its path, without header.
+     * @param dictionary shared by all descriptors of the stream
+     */
+    public void write(final DataOutput out, final BlobDescriptor descriptor, final Dictionary dictionary) throws IOException {
+        writePath(out, descriptor.path());
+        writeBody(out, descriptor, dictionary);
+    }
+
+    /**
+     * Inverse of {@link #write(DataOutput, BlobDescriptor, Dictionary)}.
+     */
+    public BlobDescriptor read(final DataInput in, final Dictionary dictionary) throws IOException {
+        return readBody(in, readPath(in), dictionary);
+    }
+
+    // -- HELPER
+
+    @SneakyThrows
+    private byte[] encode(final BlobDescriptor descriptor, final boolean withPath) {
+        var bytes = new ByteArrayOutputStream(128);
+        try(var out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(withPath ? HEADER_FLAG_PATH : 0);
+            out.writeShort(0); // reserved
+            if(withPath) {
+                writePath(out, descriptor.path());
+            }
+            writeBody(out, descriptor, new Dictionary());
+        }
+        return bytes.toByteArray();
+    }
+
+    private BlobDescriptor decode(final byte[] bytes, final @Nullable NamedPath path) throws IOException {
+        if(!isEncoded(bytes)) throw new IOException("not an encoded blob descriptor");
+        var in = new DataInputStream(new ByteArrayInputStream(bytes));
+        in.skipNBytes(Integer.BYTES);
+        var version = in.readByte();
+        if(version>VERSION) throw new IOException("unsupported format version %d".formatted(version));
+        var flags = in.readByte();
+        in.skipNBytes(Short.BYTES);
+        var effectivePath = (flags & HEADER_FLAG_PATH)!=0
+                ? readPath(in)
+                : path;
+        if(effectivePath==null) throw new IOException("encoded blob descriptor has no path");
+        return readBody(in, effectivePath, new Dictionary());
+    }
+
+    private void writeBody(final DataOutput out, final BlobDescriptor descriptor, final Dictionary dictionary) throws IOException {
+        var createdBy = descriptor.createdBy();
+        var createdOn = descriptor.createdOn();
+        out.writeByte((createdBy!=null ? FLAG_CREATED_BY : 0)
+                | (createdOn!=null ? FLAG_CREATED_ON : 0));
+        dictionary.write(out, descriptor.mimeType().name());
+        if(createdBy!=null) {
+            dictionary.write(out, createdBy);
+        }
+        if(createdOn!=null) {
+            writeVarLong(out, zigZag(createdOn.getEpochSecond()));
+            writeVarLong(out, createdOn.getNano());
+        }
+        writeVarLong(out, zigZag(descriptor.size()));
+        dictionary.write(out, descriptor.compression().name());
+        var attributes = descriptor.attributes()!=null
+                ? descriptor.attributes()
+                : Map.<String, String>of();
+        writeVarLong(out, attributes.size());
+        for(var entry : attributes.entrySet()) {
+            dictionary.write(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+        var qualifiers = descriptor.qualifiers()!=null
+                ? descriptor.qualifiers()
+                : Can.<BlobQualifier>empty();
+        writeVarLong(out, qualifiers.size());
+        for(var qualifier : qualifiers) {
+            dictionary.write(out, qualifier.name());
+        }
+    }
+
+    private BlobDescriptor readBody(final DataInput in, final NamedPath path, final Dictionary dictionary) throws IOException {
+        var flags = in.readByte();
+        var mimeType = CommonMimeType.valueOf(dictionary.read(in));
+        var createdBy = (flags & FLAG_CREATED_BY)!=0
+                ? dictionary.read(in)
+                : null;
+        var createdOn = (flags & FLAG_CREATED_ON)!=0
+                ? Instant.ofEpochSecond(unZigZag(readVarLong(in)), readVarLong(in))
+                : null;
+        var size = unZigZag(readVarLong(in));
+        var compression = Compression.valueOf(dictionary.read(in));
+        var attributeCount = (int) readVarLong(in);
+        var attributes = new HashMap<String, String>(attributeCount);
+        for (int i = 0; i < attributeCount; i++) {
+            attributes.put(dictionary.read(in), readString(in));
+        }
+        var qualifierCount = (int) readVarLong(in);
+        var qualifiers = new ArrayList<BlobQualifier>(qualifierCount);
+        for (int i = 0; i < qualifierCount; i++) {
+            qualifiers.add(new BlobQualifier(dictionary.read(in)));
+        }
+        return new BlobDescriptor(path, mimeType, createdBy, createdOn, size, compression,
+                Map.copyOf(attributes), Can.ofCollection(qualifiers));
+    }
+
+    /** unlike {@link DataOutput#writeUTF(String)} not limited to 64k */
+    private void writeString(final DataOutput out, final String string) throws IOException {
+        var bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private String readString(final DataInput in) throws IOException {
+        var length = readVarLong(in);
+        if(length<0
+                || length>MAX_STRING_LENGTH) throw new IOException("invalid string length %d".formatted(length));
+        var bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Unsigned LEB128, 7 bits per byte, least significant group first.
+     */
+    private void writeVarLong(final DataOutput out, final long value) throws IOException {
+        var remaining = value;
+        while((remaining & ~0x7FL)!=0) {
+            out.writeByte((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        out.writeByte((int) remaining);
+    }
+
+    private long readVarLong(final DataInput in) throws IOException {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            var b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80)==0) return value;
+        }
+        throw new IOException("malformed varint");
+    }
+
+    /** maps signed to unsigned, such that small negative numbers stay small */
+    private long zigZag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private long unZigZag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.applib;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import org.apache.causeway.commons.collections.Can;
+import org.apache.causeway.commons.internal.exceptions._Exceptions;
+
+import lombok.SneakyThrows;
+
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+/**
+ * A page of a listing, as returned by {@link BlobStore#listDescriptors(NamedPath, Can, boolean, String, int)}.
+ *
+ * @param descriptors in the store's listing order
+ * @param continuationToken opaque token to request the next page with, {@code null} if this is the last page
+ */
+public record BlobDescriptorPage(
+        Can<BlobDescriptor> descriptors,
+        @Nullable String continuationToken) {
+
+    public boolean hasNext() {
+        return continuationToken!=null;
+    }
+
+    /**
+     * Takes up to {@code pageSize} descriptors from given ordered stream, which is closed.
+     * Peeks one beyond, to tell whether there is a next page.
+     */
+    public static BlobDescriptorPage of(final @NonNull Stream<BlobDescriptor> ordered, final int pageSize) {
+        if(pageSize<1) throw _Exceptions.illegalArgument("pageSize must be positive, got %d", pageSize);
+        try(ordered) {
+            var descriptors = ordered.limit(pageSize + 1L).toList();
+            if(descriptors.size()<=pageSize) return new BlobDescriptorPage(Can.ofCollection(descriptors), null);
+            var page = descriptors.subList(0, pageSize);
+            return new BlobDescriptorPage(Can.ofCollection(page),
+                    continuationToken(page.get(pageSize - 1).path()));
+        }
+    }
+
+    /**
+     * Encodes given path, as the last one of a page, to resume after.
+     */
+    @SneakyThrows
+    public static String continuationToken(final @NonNull NamedPath lastPath) {
+        var bytes = new ByteArrayOutputStream(64);
+        try(var out = new DataOutputStream(bytes)) {
+            BlobDescriptorCodec.writePath(out, lastPath);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * Inverse of {@link #continuationToken(NamedPath)}, empty if given token is {@code null}.
+     * @throws IllegalArgumentException if given token is malformed
+     */
+    public static Optional<NamedPath> resumeAfter(final @Nullable String continuationToken) {
+        if(continuationToken==null) return Optional.empty();
+        try {
+            var bytes = Base64.getUrlDecoder().decode(continuationToken);
+            return Optional.of(BlobDescriptorCodec.readPath(new DataInputStream(new ByteArrayInputStream(bytes))));
+        } catch (IllegalArgumentException | IOException e) {
+            throw _Exceptions.illegalArgument("malformed continuation token '%s'", continuationToken);
+        }
+    }
+
+}
@@ -18,13 +18,23 @@
  */
 package io.github.causewaystuff.blobstore.applib;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
 
 import org.jspecify.annotations.NonNull;
 import org.jspecify.annotations.Nullable;
 
 import org.apache.causeway.applib.value.Blob;
+import org.apache.causeway.applib.value.NamedWithMimeType.CommonMimeType;
 import org.apache.causeway.commons.collections.Can;
 
 import io.github.causewaystuff.commons.base.types.NamedPath;
@@ -34,6 +44,9 @@ public interface BlobStore {
     /**
      * Puts a {@link Blob} onto the store, using {@link BlobDescriptor}'s path as the key.
      * Any existing blob and descriptor associated with this key will be overwritten.
+     * <p>
+     * The initial compression is chosen by the configured {@link CompressionPolicy},
+     * which the customizer may override.
      */
     BlobDescriptor putBlob(@NonNull NamedPath path, @NonNull Blob blob, UnaryOperator<BlobDescriptor> customizer);
     /**
@@ -60,6 +73,55 @@ public interface BlobStore {
         return putBlob(path.add(blob.name()), blob);
     }
 
+    /**
+     * Asynchronous variant of {@link #putBlob(NamedPath, Blob, UnaryOperator)}.
+     * Implementations may buffer and batch writes (write-behind), in which case
+     * the returned future completes once the blob is durably stored.
+     * <p>
+     * The default writes synchronously and returns a completed future.
+     * @see #flush()
+     */
+    default CompletableFuture<BlobDescriptor> putBlobAsync(@NonNull final NamedPath path, @NonNull final Blob blob,
+            final UnaryOperator<BlobDescriptor> customizer) {
+        try {
+            return CompletableFuture.completedFuture(putBlob(path, blob, customizer));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Barrier, that blocks until all writes issued before are durably stored.
+     * <p>
+     * The default is a no-op, suitable for implementations that write synchronously.
+     * @see #putBlobAsync(NamedPath, Blob, UnaryOperator)
+     */
+    default void flush() {
+    }
+
+    /**
+     * Puts the content read from given {@link InputStream} onto the store, using given path as the key.
+     * Any existing blob and descriptor associated with this key will be overwritten.
+     * <p>
+     * Unlike {@link #putBlob(NamedPath, Blob, UnaryOperator)} the content is never held in memory as a whole.
+     * Compression (as chosen by the {@link CompressionPolicy} or set by the customizer) happens on the fly, while attributes {@code sha256}
+     * and {@code uncompressed-size} are computed as the content passes through,
+     * unless already set by the customizer.
+     * <p>
+     * The stream is consumed, but not closed.
+     * @param mimeType of the uncompressed content
+     */
+    BlobDescriptor putBlob(@NonNull NamedPath path, @NonNull CommonMimeType mimeType, @NonNull InputStream content,
+            UnaryOperator<BlobDescriptor> customizer);
+    /**
+     * Shortcut equivalent to {@code putBlob(path, mimeType, Channels.newInputStream(content), customizer)}.
+     * @see #putBlob(NamedPath, CommonMimeType, InputStream, UnaryOperator)
+     */
+    default BlobDescriptor putBlob(@NonNull final NamedPath path, @NonNull final CommonMimeType mimeType,
+            @NonNull final ReadableByteChannel content, final UnaryOperator<BlobDescriptor> customizer) {
+        return putBlob(path, mimeType, Channels.newInputStream(content), customizer);
+    }
+
     /**
      * Returns all the {@link BlobDescriptor}(s) from given path that match
      * <em>all</em> given {@code qualifiers}. If {@code qualifiers} is empty or {@code null}
@@ -76,6 +138,55 @@ public interface BlobStore {
         return listDescriptors(path, Can.empty(), recursive);
     }
 
+    /**
+     * Lazy variant of {@link #listDescriptors(NamedPath, Can, boolean)}, that streams the {@link BlobDescriptor}(s)
+     * in a stable order, starting after given path (exclusive).
+     * <p>
+     * The order is that of the store's index, e.g. by key, and is the same for every call.
+     * Implementations backed by an ordered index iterate it in constant memory,
+     * the default sorts the materialized listing by path.
+     * <p>
+     * The stream should be closed, as it may hold resources.
+     * @param after path of the last descriptor consumed so far, {@code null} to start from the beginning
+     */
+    default Stream<BlobDescriptor> streamDescriptors(
+            @Nullable final NamedPath path,
+            @Nullable final Can<BlobQualifier> qualifiers,
+            final boolean recursive,
+            @Nullable final NamedPath after) {
+        var pathOrder = NamedPath.comparator();
+        return listDescriptors(path, qualifiers, recursive).stream()
+            .sorted((a, b)->pathOrder.compare(a.path(), b.path()))
+            .filter(descriptor->after==null
+                    || pathOrder.compare(descriptor.path(), after)>0);
+    }
+    /**
+     * Shortcut equivalent to {@code streamDescriptors(path, Can.empty(), recursive, null)}.
+     * @see #streamDescriptors(NamedPath, Can, boolean, NamedPath)
+     */
+    default Stream<BlobDescriptor> streamDescriptors(@Nullable final NamedPath path, final boolean recursive) {
+        return streamDescriptors(path, Can.empty(), recursive, null);
+    }
+
+    /**
+     * Paged variant of {@link #listDescriptors(NamedPath, Can, boolean)}, for callers to page through large stores,
+     * by passing the {@link BlobDescriptorPage#continuationToken()} of one page to request the next.
+     * <p>
+     * Pages follow the order of {@link #streamDescriptors(NamedPath, Can, boolean, NamedPath)}.
+     * Blobs put or deleted while paging may or may not show up, but no blob present throughout is skipped or repeated.
+     * @param continuationToken as returned with the previous page, {@code null} for the first page
+     * @param pageSize maximum number of descriptors per page
+     */
+    default BlobDescriptorPage listDescriptors(
+            @Nullable final NamedPath path,
+            @Nullable final Can<BlobQualifier> qualifiers,
+            final boolean recursive,
+            @Nullable final String continuationToken,
+            final int pageSize) {
+        var after = BlobDescriptorPage.resumeAfter(continuationToken).orElse(null);
+        return BlobDescriptorPage.of(streamDescriptors(path, qualifiers, recursive, after), pageSize);
+    }
+
     /**
      * Optionally returns the {@link BlobDescriptor} thats stored under given {@link NamedPath},
      * based on existence.
@@ -99,6 +210,59 @@ public interface BlobStore {
      */
     Optional<Blob> lookupBlobAndUncompress(@Nullable NamedPath path);
 
+    /**
+     * Optionally returns a read-only {@link ByteBuffer} view of the {@link Blob} thats stored under given {@link NamedPath},
+     * based on existence. The content is as stored, hence might be compressed.
+     * <p>
+     * File based implementations may return a memory-mapped buffer, which neither copies the content
+     * nor allocates heap. The default wraps the result of {@link #lookupBlob(NamedPath)}.
+     */
+    default Optional<ByteBuffer> mapBlob(@Nullable final NamedPath path) {
+        return lookupBlob(path)
+            .map(blob->ByteBuffer.wrap(blob.bytes()).asReadOnlyBuffer());
+    }
+
+    /**
+     * Optionally opens an {@link InputStream} to the {@link Blob} thats stored under given {@link NamedPath},
+     * based on existence. The content is streamed as stored, hence might be compressed.
+     * <p>
+     * The caller is responsible for closing the stream.
+     */
+    Optional<InputStream> openBlob(@Nullable NamedPath path);
+    /**
+     * Optionally opens an {@link InputStream} to the {@link Blob} thats stored under given {@link NamedPath},
+     * based on existence. The content is uncompressed on the fly (if required).
+     * <p>
+     * The caller is responsible for closing the stream.
+     */
+    Optional<InputStream> openBlobAndUncompress(@Nullable NamedPath path);
+
+    /**
+     * Optionally returns up to {@code length} bytes of the uncompressed content of the {@link Blob}
+     * thats stored under given {@link NamedPath}, starting at {@code offset}, based on existence.
+     * Fewer bytes are returned if the end of the content is reached, none if the offset lies beyond.
+     * <p>
+     * Suits serving HTTP range requests. The default uncompresses on the fly and skips up to the offset,
+     * implementations may read only the (compressed) blocks the range touches.
+     */
+    default Optional<byte[]> readRange(@Nullable final NamedPath path, final long offset, final int length) {
+        if(offset<0
+                || length<0) throw new IllegalArgumentException("invalid range: offset %d, length %d".formatted(offset, length));
+        return openBlobAndUncompress(path)
+            .map(in->{
+                try(in) {
+                    try {
+                        in.skipNBytes(offset);
+                    } catch (EOFException e) {
+                        return new byte[0];
+                    }
+                    return in.readNBytes(length);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+    }
+
     /**
      * Deletes blob and descriptor that are associated with given {@link NamedPath} (if any).
      */
@@ -116,4 +280,30 @@ public interface BlobStore {
      */
     Optional<BlobDescriptor> compress(@NonNull BlobDescriptor blobDescriptor, BlobDescriptor.@NonNull Compression compression);
 
+    /**
+     * Bulk variant of {@link #compress(BlobDescriptor, BlobDescriptor.Compression)}, that recompresses all blobs
+     * found under given prefix (recursively), that are not already compressed as requested.
+     * <p>
+     * The default works sequentially, implementations may recompress in parallel.
+     * @param prefix if {@code null} all blobs of the store are considered
+     * @return the new {@link BlobDescriptor}(s) of the blobs that were recompressed
+     */
+    default Can<BlobDescriptor> compressAll(@Nullable final NamedPath prefix, final BlobDescriptor.@NonNull Compression compression) {
+        return listDescriptors(prefix!=null ? prefix : NamedPath.empty(), true)
+            .stream()
+            .filter(descriptor->descriptor.compression()!=compression)
+            .map(descriptor->compress(descriptor, compression))
+            .flatMap(Optional::stream)
+            .collect(Can.toCan());
+    }
+
+    /**
+     * Optionally returns the {@link BlobChangeFeed} of this store, for consumers to follow its mutations incrementally.
+     * <p>
+     * The default returns empty, suitable for implementations that do not record their mutations.
+     */
+    default Optional<BlobChangeFeed> changeFeed() {
+        return Optional.empty();
+    }
+
 }
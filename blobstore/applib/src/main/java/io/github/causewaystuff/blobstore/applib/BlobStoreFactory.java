@@ -18,20 +18,64 @@
  */
 package io.github.causewaystuff.blobstore.applib;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
 import org.springframework.stereotype.Service;
 
 import lombok.SneakyThrows;
+import lombok.With;
 
 @Service
 public class BlobStoreFactory {
 
+    /**
+     * @param implementation the {@link BlobStore} type to instantiate
+     * @param resource implementation specific, e.g. the root directory of a file-system based store
+     * @param properties implementation specific options, with keys as documented by the implementation
+     * @param compressionPolicy chooses the compression of blobs written, defaults to {@link CompressionPolicy#PASS_THROUGH}
+     */
     public static record BlobStoreConfiguration(
             Class<? extends BlobStore> implementation,
-            String resource) {
+            String resource,
+            @With Map<String, String> properties,
+            @With CompressionPolicy compressionPolicy) {
+
+        public BlobStoreConfiguration {
+            properties = properties!=null
+                ? Map.copyOf(properties)
+                : Map.of();
+            compressionPolicy = compressionPolicy!=null
+                ? compressionPolicy
+                : CompressionPolicy.PASS_THROUGH;
+        }
+
+        public BlobStoreConfiguration(
+                final Class<? extends BlobStore> implementation,
+                final String resource,
+                final Map<String, String> properties) {
+            this(implementation, resource, properties, CompressionPolicy.PASS_THROUGH);
+        }
+
+        public BlobStoreConfiguration(
+                final Class<? extends BlobStore> implementation,
+                final String resource) {
+            this(implementation, resource, Map.of());
+        }
+
+        public Optional<String> property(final String key) {
+            return Optional.ofNullable(properties.get(key));
+        }
+
+        public BlobStoreConfiguration withProperty(final String key, final String value) {
+            var map = new HashMap<>(properties);
+            map.put(key, value);
+            return withProperties(map);
+        }
     }
 
     private @Autowired AutowireCapableBeanFactory beanFactory;
@@ -0,0 +1,444 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.applib;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import org.apache.causeway.commons.collections.Can;
+import org.apache.causeway.commons.internal.assertions._Assert;
+import org.apache.causeway.commons.internal.exceptions._Exceptions;
+
+import lombok.With;
+import lombok.extern.slf4j.Slf4j;
+
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+/**
+ * Replicates a source {@link BlobStore} to a target {@link BlobStore}, one-way and incrementally.
+ * <p>
+ * Blobs are compared by their {@code sha256} attribute, such that identical blobs are never transferred
+ * and nothing is ever re-hashed. A blob whose content is equal but whose metadata differs only has its
+ * descriptor updated. Transfers run in parallel streams, optionally throttled to a total bandwidth.
+ * Each transfer is verified, by comparing the checksum computed by the target while receiving with the source's.
+ * Blobs without checksum in the source cannot be compared, hence are transferred by every full sync.
+ * <p>
+ * If the source has a {@link BlobStore#changeFeed() change feed}, only the changes since the last sync are replicated.
+ * Otherwise (or if the feed no longer retains the changes since), the source is compared with the target as a whole,
+ * by streaming both listings. The sequence reached is exposed by {@link #checkpoint()},
+ * for callers to persist and resume from after a restart.
+ * <p>
+ * Stores are accessed via the {@link BlobStore} API only, hence the target may live in the same process
+ * or be a client of a remote store (e.g. S3).
+ */
+@Slf4j
+public class BlobStoreReplicator implements AutoCloseable {
+
+    /**
+     * Checkpoint, that makes the next {@link #sync()} a full one.
+     */
+    public static final long NO_CHECKPOINT = -1L;
+
+    private static final String SHA256_ATTRIBUTE = "sha256";
+    private static final String UNCOMPRESSED_SIZE_ATTRIBUTE = "uncompressed-size";
+
+    /**
+     * @param prefix only blobs at or below this path are replicated, all if {@code null}
+     * @param parallelism number of concurrent transfers
+     * @param bytesPerSecond total bandwidth of all transfers (uncompressed), {@code 0} for unlimited
+     * @param deleteExtraneous whether to delete blobs from the target, that do not exist in the source
+     * @param batchSize number of changes read from the change feed at a time
+     * @param syncInterval how often to {@link #sync()} in the background, or {@code null} to only sync on demand
+     */
+    @With
+    public record Options(
+            @Nullable NamedPath prefix,
+            int parallelism,
+            long bytesPerSecond,
+            boolean deleteExtraneous,
+            int batchSize,
+            @Nullable Duration syncInterval) {
+        public Options {
+            _Assert.assertTrue(parallelism>0, ()->"parallelism must be positive, got " + parallelism);
+            _Assert.assertTrue(bytesPerSecond>=0, ()->"bytesPerSecond must not be negative, got " + bytesPerSecond);
+            _Assert.assertTrue(batchSize>0, ()->"batchSize must be positive, got " + batchSize);
+        }
+        public static Options defaults() {
+            return new Options(null, 4, 0L, true, 1000, null);
+        }
+    }
+
+    /**
+     * Outcome of a {@link #sync()}.
+     * @param fullSync whether source and target were compared as a whole, rather than following the change feed
+     * @param checkpoint as of after the sync, see {@link BlobStoreReplicator#checkpoint()}
+     * @param transferred blobs whose content was transferred
+     * @param updated blobs whose content was equal, but descriptor was updated
+     * @param skipped blobs found identical
+     * @param deleted blobs deleted from the target
+     * @param bytesTransferred uncompressed bytes transferred
+     * @param failed paths that failed to replicate, to be retried by the next sync
+     */
+    public record Report(
+            boolean fullSync,
+            long checkpoint,
+            long transferred,
+            long updated,
+            long skipped,
+            long deleted,
+            long bytesTransferred,
+            Can<NamedPath> failed) {
+        public boolean isClean() {
+            return failed.isEmpty();
+        }
+    }
+
+    private enum Outcome {
+        TRANSFERRED,
+        UPDATED,
+        SKIPPED,
+        DELETED
+    }
+
+    private final BlobStore source;
+    private final BlobStore target;
+    private final Options options;
+    private final RateLimiter rateLimiter;
+    private final ExecutorService transferExecutor;
+    /** non-null only if a sync interval is configured */
+    private final @Nullable ScheduledExecutorService scheduler;
+    private volatile long checkpoint;
+    /** uncompressed bytes read from the source by all transfers */
+    private final LongAdder bytesTransferred = new LongAdder();
+
+    public BlobStoreReplicator(
+            final @NonNull BlobStore source,
+            final @NonNull BlobStore target,
+            final @NonNull Options options) {
+        this(source, target, options, NO_CHECKPOINT);
+    }
+
+    /**
+     * @param checkpoint as persisted after a previous sync, or {@link #NO_CHECKPOINT}
+     */
+    public BlobStoreReplicator(
+            final @NonNull BlobStore source,
+            final @NonNull BlobStore target,
+            final @NonNull Options options,
+            final long checkpoint) {
+        _Assert.assertTrue(source!=target, ()->"source and target must differ");
+        this.source = source;
+        this.target = target;
+        this.options = options;
+        this.checkpoint = checkpoint;
+        this.rateLimiter = new RateLimiter(options.bytesPerSecond());
+        this.transferExecutor = Executors.newFixedThreadPool(options.parallelism(), ThreadFactories.daemon("blobstore-replicate"));
+        if(options.syncInterval()!=null) {
+            var intervalMillis = options.syncInterval().toMillis();
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(ThreadFactories.daemon("blobstore-replicate-schedule"));
+            scheduler.scheduleWithFixedDelay(this::syncLogged, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Sequence of the source's change feed, up to which the target is in sync,
+     * or {@link #NO_CHECKPOINT} if the next sync is a full one.
+     */
+    public long checkpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Replicates the changes since the {@link #checkpoint()}, if the source's change feed still retains them,
+     * otherwise compares source and target as a whole.
+     */
+    public synchronized Report sync() {
+        var feed = source.changeFeed().orElse(null);
+        return feed!=null
+                && checkpoint!=NO_CHECKPOINT
+                && feed.canResumeAfter(checkpoint)
+                ? syncChanges(feed)
+                : fullSync(feed);
+    }
+
+    @Override
+    public void close() {
+        if(scheduler!=null) {
+            scheduler.shutdownNow();
+        }
+        transferExecutor.shutdown();
+        try {
+            transferExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // -- SYNC
+
+    private Report fullSync(final @Nullable BlobChangeFeed feed) {
+        // changes from here on are replayed by the next sync, which is harmless as replication is idempotent
+        var startSequence = feed!=null
+                ? feed.lastSequence()
+                : NO_CHECKPOINT;
+        var run = new Run();
+        var folder = Objects.requireNonNullElse(options.prefix(), NamedPath.empty());
+        try(var descriptors = source.streamDescriptors(folder, true)) {
+            descriptors.forEach(descriptor->run.submit(descriptor.path(), ()->replicate(descriptor)));
+        }
+        run.await();
+        if(options.deleteExtraneous()) {
+            try(var descriptors = target.streamDescriptors(folder, true)) {
+                descriptors
+                    .map(BlobDescriptor::path)
+                    .filter(path->source.lookupDescriptor(path).isEmpty())
+                    .forEach(path->run.submit(path, ()->delete(path)));
+            }
+            run.await();
+        }
+        // failed paths are not covered by the change feed, hence have to be retried by a full sync
+        this.checkpoint = run.failed.isEmpty()
+                ? startSequence
+                : NO_CHECKPOINT;
+        return run.report(true, checkpoint);
+    }
+
+    private Report syncChanges(final BlobChangeFeed feed) {
+        var run = new Run();
+        while(true) {
+            var changes = feed.readAfter(checkpoint, options.batchSize());
+            if(changes.isEmpty()) break;
+            // only the latest change of a path matters, as the current state is replicated
+            var latestByPath = new LinkedHashMap<NamedPath, BlobChange>();
+            changes.forEach(change->{
+                if(options.prefix()==null
+                        || change.path().startsWith(options.prefix())) {
+                    latestByPath.remove(change.path());
+                    latestByPath.put(change.path(), change);
+                }
+            });
+            latestByPath.values().forEach(change->run.submit(change.path(), ()->apply(change)));
+            run.await();
+            if(!run.failed.isEmpty()) break;
+            this.checkpoint = changes.getLastElseFail().sequence();
+        }
+        return run.report(false, checkpoint);
+    }
+
+    private void syncLogged() {
+        try {
+            var report = sync();
+            log.debug("replicated {}", report);
+            if(!report.isClean()) {
+                log.warn("failed to replicate {}", report.failed());
+            }
+        } catch (Exception e) {
+            log.error("replication failed", e);
+        }
+    }
+
+    // -- REPLICATE
+
+    private Outcome apply(final BlobChange change) {
+        if(change.type()==BlobChange.Type.DELETE) return delete(change.path());
+        // the source's current state, which might be newer than the change
+        return source.lookupDescriptor(change.path())
+            .map(this::replicate)
+            .orElseGet(()->delete(change.path()));
+    }
+
+    private Outcome replicate(final BlobDescriptor sourceDescriptor) {
+        var path = sourceDescriptor.path();
+        var targetDescriptor = target.lookupDescriptor(path).orElse(null);
+        var sha256 = sourceDescriptor.attributes().get(SHA256_ATTRIBUTE);
+        if(targetDescriptor!=null
+                && sha256!=null
+                && sha256.equals(targetDescriptor.attributes().get(SHA256_ATTRIBUTE))) {
+            if(isMetadataEqual(sourceDescriptor, targetDescriptor)) return Outcome.SKIPPED;
+            if(sourceDescriptor.compression()!=targetDescriptor.compression()) {
+                target.compress(targetDescriptor, sourceDescriptor.compression());
+            }
+            target.updateDescriptor(path, descriptor->withMetadataOf(descriptor, sourceDescriptor, true));
+            return Outcome.UPDATED;
+        }
+        var content = source.openBlobAndUncompress(path).orElse(null);
+        // deleted in the meantime, to be replicated as such by the next sync
+        if(content==null) return Outcome.SKIPPED;
+        BlobDescriptor written;
+        try(var in = new ThrottledInputStream(content, rateLimiter, bytesTransferred)) {
+            // the target computes the checksum while receiving
+            written = target.putBlob(path, sourceDescriptor.mimeType(), in, descriptor->
+                withMetadataOf(descriptor, sourceDescriptor, false)
+                    .withCompression(sourceDescriptor.compression()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if(sha256!=null
+                && !sha256.equals(written.attributes().get(SHA256_ATTRIBUTE))) {
+            target.deleteBlob(path);
+            throw _Exceptions.illegalState("checksum mismatch replicating %s, expected %s, got %s",
+                    path, sha256, written.attributes().get(SHA256_ATTRIBUTE));
+        }
+        return Outcome.TRANSFERRED;
+    }
+
+    private Outcome delete(final NamedPath path) {
+        if(!options.deleteExtraneous()
+                || target.lookupDescriptor(path).isEmpty()) return Outcome.SKIPPED;
+        target.deleteBlob(path);
+        return Outcome.DELETED;
+    }
+
+    // -- HELPER
+
+    private static boolean isMetadataEqual(final BlobDescriptor a, final BlobDescriptor b) {
+        return a.mimeType()==b.mimeType()
+                && a.compression()==b.compression()
+                && Objects.equals(a.createdBy(), b.createdBy())
+                && Objects.equals(a.createdOn(), b.createdOn())
+                && a.attributes().equals(b.attributes())
+                && Set.copyOf(a.qualifiers().toList()).equals(Set.copyOf(b.qualifiers().toList()));
+    }
+
+    /**
+     * Given descriptor of the target, with the metadata of the source's.
+     * @param withChecksum whether to copy the attributes computed from the content,
+     *      which are left to the target when transferring, as to verify the transfer
+     */
+    private static BlobDescriptor withMetadataOf(
+            final BlobDescriptor targetDescriptor,
+            final BlobDescriptor sourceDescriptor,
+            final boolean withChecksum) {
+        var attributes = new HashMap<>(sourceDescriptor.attributes());
+        if(!withChecksum) {
+            attributes.remove(SHA256_ATTRIBUTE);
+            attributes.remove(UNCOMPRESSED_SIZE_ATTRIBUTE);
+        }
+        return targetDescriptor
+                .withCreatedBy(sourceDescriptor.createdBy())
+                .withCreatedOn(sourceDescriptor.createdOn())
+                .withAttributes(Map.copyOf(attributes))
+                .withQualifiers(sourceDescriptor.qualifiers());
+    }
+
+    private static final class ThrottledInputStream extends FilterInputStream {
+        private final RateLimiter rateLimiter;
+        private final LongAdder bytesRead;
+
+        ThrottledInputStream(final InputStream in, final RateLimiter rateLimiter, final LongAdder bytesRead) {
+            super(in);
+            this.rateLimiter = rateLimiter;
+            this.bytesRead = bytesRead;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = super.read();
+            if(b>=0) {
+                account(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+            var n = super.read(buffer, offset, length);
+            if(n>0) {
+                account(n);
+            }
+            return n;
+        }
+
+        private void account(final int n) throws InterruptedIOException {
+            bytesRead.add(n);
+            rateLimiter.acquire(n);
+        }
+    }
+
+    /**
+     * Tasks of one sync, bounded to twice the parallelism in flight, as to stream listings in constant memory.
+     */
+    private final class Run {
+        private final Semaphore inFlight = new Semaphore(2 * options.parallelism());
+        private final Phaser pending = new Phaser(1);
+        private final LongAdder[] counts = new LongAdder[Outcome.values().length];
+        private final long bytesTransferredAtStart = bytesTransferred.sum();
+        private final ConcurrentLinkedQueue<NamedPath> failed = new ConcurrentLinkedQueue<>();
+
+        Run() {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        void submit(final NamedPath path, final Supplier<Outcome> task) {
+            inFlight.acquireUninterruptibly();
+            pending.register();
+            transferExecutor.execute(()->{
+                try {
+                    counts[task.get().ordinal()].increment();
+                } catch (Exception e) {
+                    log.warn("failed to replicate {}: {}", path, e.getMessage());
+                    failed.add(path);
+                } finally {
+                    pending.arriveAndDeregister();
+                    inFlight.release();
+                }
+            });
+        }
+
+        void await() {
+            pending.arriveAndAwaitAdvance();
+        }
+
+        Report report(final boolean fullSync, final long checkpoint) {
+            return new Report(fullSync, checkpoint,
+                    counts[Outcome.TRANSFERRED.ordinal()].sum(),
+                    counts[Outcome.UPDATED.ordinal()].sum(),
+                    counts[Outcome.SKIPPED.ordinal()].sum(),
+                    counts[Outcome.DELETED.ordinal()].sum(),
+                    bytesTransferred.sum() - bytesTransferredAtStart,
+                    Can.ofCollection(failed));
+        }
+    }
+
+}
@@ -0,0 +1,420 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.applib;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import org.apache.causeway.applib.value.Blob;
+import org.apache.causeway.applib.value.NamedWithMimeType.CommonMimeType;
+import org.apache.causeway.commons.collections.Can;
+import org.apache.causeway.commons.internal.assertions._Assert;
+
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+/**
+ * {@link BlobStore} decorator, that keeps uncompressed blobs
+ * (as returned by {@link #lookupBlobAndUncompress(NamedPath)}) in memory,
+ * bounded by their total size in bytes rather than by entry count.
+ * <p>
+ * Eviction follows the W-TinyLFU scheme: newly loaded blobs enter a small LRU window,
+ * blobs evicted from the window are only admitted to the main LRU region,
+ * if they were requested more frequently than the blobs they would displace.
+ * Access frequencies are tracked by a compact count-min sketch, that ages periodically.
+ * Hence a one-off scan over many (large) blobs does not flush the hot ones.
+ * <p>
+ * Entries are invalidated on {@link #putBlob}, {@link #deleteBlob(NamedPath)}, {@link #updateDescriptor},
+ * {@link #compress} and {@link #compressAll}, when routed through this decorator.
+ * Modifications that bypass it (e.g. directly on the delegate) are not observed.
+ */
+public class CachingBlobStore implements BlobStore {
+
+    /**
+     * Snapshot of the cache counters.
+     * @param hits number of lookups served from memory
+     * @param misses number of lookups delegated to the underlying store
+     * @param evictions number of blobs dropped for lack of capacity (including those not admitted)
+     * @param weightedSize total bytes currently held
+     * @param entryCount number of blobs currently held
+     */
+    public record Stats(
+            long hits,
+            long misses,
+            long evictions,
+            long weightedSize,
+            int entryCount) {
+        public double hitRate() {
+            var requests = hits + misses;
+            return requests==0
+                    ? 1.
+                    : (double)hits / requests;
+        }
+    }
+
+    /** share of the capacity reserved for the admission window */
+    private static final int WINDOW_PERCENT = 10;
+
+    private final BlobStore delegate;
+    private final long maximumBytes;
+    private final long windowBytes;
+
+    // guarded by this
+    private final LinkedHashMap<NamedPath, Blob> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<NamedPath, Blob> main = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+    private long windowSize;
+    private long mainSize;
+    /** incremented on each invalidation, such that concurrent loads don't cache stale content */
+    private long epoch;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param delegate the store to decorate
+     * @param maximumBytes upper bound for the total size of uncompressed blobs held in memory
+     */
+    public CachingBlobStore(final @NonNull BlobStore delegate, final long maximumBytes) {
+        _Assert.assertTrue(maximumBytes>0, ()->"maximumBytes must be positive");
+        this.delegate = delegate;
+        this.maximumBytes = maximumBytes;
+        this.windowBytes = Math.max(1L, maximumBytes * WINDOW_PERCENT / 100);
+        this.sketch = new FrequencySketch(maximumBytes);
+    }
+
+    public Stats stats() {
+        synchronized (this) {
+            return new Stats(hits.sum(), misses.sum(), evictions.sum(),
+                    windowSize + mainSize, window.size() + main.size());
+        }
+    }
+
+    /**
+     * Discards all cached blobs, keeping the counters.
+     */
+    public synchronized void invalidateAll() {
+        window.clear();
+        main.clear();
+        windowSize = 0L;
+        mainSize = 0L;
+        epoch++;
+    }
+
+    // -- CACHED
+
+    @Override
+    public Optional<Blob> lookupBlobAndUncompress(final @Nullable NamedPath path) {
+        if(path==null) return delegate.lookupBlobAndUncompress(path);
+        final long loadEpoch;
+        synchronized (this) {
+            sketch.increment(path);
+            var cached = window.get(path);
+            if(cached==null) {
+                cached = main.get(path);
+            }
+            if(cached!=null) {
+                hits.increment();
+                return Optional.of(cached);
+            }
+            loadEpoch = epoch;
+        }
+        misses.increment();
+        // load without holding the lock
+        var loaded = delegate.lookupBlobAndUncompress(path);
+        loaded.ifPresent(blob->admit(path, blob, loadEpoch));
+        return loaded;
+    }
+
+    // -- INVALIDATING
+
+    @Override
+    public BlobDescriptor putBlob(final @NonNull NamedPath path, final @NonNull Blob blob,
+            final UnaryOperator<BlobDescriptor> customizer) {
+        try {
+            return delegate.putBlob(path, blob, customizer);
+        } finally {
+            invalidate(path);
+        }
+    }
+
+    @Override
+    public BlobDescriptor putBlob(final @NonNull NamedPath path, final @NonNull CommonMimeType mimeType,
+            final @NonNull InputStream content, final UnaryOperator<BlobDescriptor> customizer) {
+        try {
+            return delegate.putBlob(path, mimeType, content, customizer);
+        } finally {
+            invalidate(path);
+        }
+    }
+
+    @Override
+    public CompletableFuture<BlobDescriptor> putBlobAsync(final @NonNull NamedPath path, final @NonNull Blob blob,
+            final UnaryOperator<BlobDescriptor> customizer) {
+        invalidate(path);
+        return delegate.putBlobAsync(path, blob, customizer)
+            .whenComplete((descriptor, failure)->invalidate(path));
+    }
+
+    @Override
+    public void deleteBlob(final @Nullable NamedPath path) {
+        try {
+            delegate.deleteBlob(path);
+        } finally {
+            invalidate(path);
+        }
+    }
+
+    @Override
+    public Optional<BlobDescriptor> updateDescriptor(final @NonNull NamedPath path,
+            final UnaryOperator<BlobDescriptor> customizer) {
+        try {
+            return delegate.updateDescriptor(path, customizer);
+        } finally {
+            invalidate(path);
+        }
+    }
+
+    @Override
+    public Optional<BlobDescriptor> compress(final @NonNull BlobDescriptor blobDescriptor,
+            final BlobDescriptor.@NonNull Compression compression) {
+        try {
+            return delegate.compress(blobDescriptor, compression);
+        } finally {
+            invalidate(blobDescriptor.path());
+        }
+    }
+
+    @Override
+    public Can<BlobDescriptor> compressAll(final @Nullable NamedPath prefix,
+            final BlobDescriptor.@NonNull Compression compression) {
+        try {
+            return delegate.compressAll(prefix, compression);
+        } finally {
+            // cannot tell which paths were affected
+            invalidateAll();
+        }
+    }
+
+    // -- DELEGATING
+
+    @Override
+    public void flush() {
+        delegate.flush();
+    }
+
+    @Override
+    public Optional<BlobChangeFeed> changeFeed() {
+        return delegate.changeFeed();
+    }
+
+    @Override
+    public Can<BlobDescriptor> listDescriptors(final @Nullable NamedPath path,
+            final @Nullable Can<BlobQualifier> qualifiers, final boolean recursive) {
+        return delegate.listDescriptors(path, qualifiers, recursive);
+    }
+
+    @Override
+    public Stream<BlobDescriptor> streamDescriptors(final @Nullable NamedPath path,
+            final @Nullable Can<BlobQualifier> qualifiers, final boolean recursive, final @Nullable NamedPath after) {
+        return delegate.streamDescriptors(path, qualifiers, recursive, after);
+    }
+
+    @Override
+    public Optional<BlobDescriptor> lookupDescriptor(final @Nullable NamedPath path) {
+        return delegate.lookupDescriptor(path);
+    }
+
+    @Override
+    public Optional<Blob> lookupBlob(final @Nullable NamedPath path) {
+        return delegate.lookupBlob(path);
+    }
+
+    @Override
+    public Optional<ByteBuffer> mapBlob(final @Nullable NamedPath path) {
+        return delegate.mapBlob(path);
+    }
+
+    @Override
+    public Optional<byte[]> readRange(final @Nullable NamedPath path, final long offset, final int length) {
+        return delegate.readRange(path, offset, length);
+    }
+
+    @Override
+    public Optional<InputStream> openBlob(final @Nullable NamedPath path) {
+        return delegate.openBlob(path);
+    }
+
+    @Override
+    public Optional<InputStream> openBlobAndUncompress(final @Nullable NamedPath path) {
+        return delegate.openBlobAndUncompress(path);
+    }
+
+    // -- HELPER
+
+    private synchronized void invalidate(final @Nullable NamedPath path) {
+        if(path==null) return;
+        epoch++;
+        var removed = window.remove(path);
+        if(removed!=null) {
+            windowSize -= weigh(removed);
+        }
+        removed = main.remove(path);
+        if(removed!=null) {
+            mainSize -= weigh(removed);
+        }
+    }
+
+    /**
+     * Newly loaded blobs always enter the window,
+     * overflowing window entries then compete for admission to the main region.
+     */
+    private synchronized void admit(final NamedPath path, final Blob blob, final long loadEpoch) {
+        if(loadEpoch!=epoch
+                || window.containsKey(path)
+                || main.containsKey(path)) {
+            return;
+        }
+        var weight = weigh(blob);
+        if(weight>maximumBytes) {
+            evictions.increment();
+            return;
+        }
+        window.put(path, blob);
+        windowSize += weight;
+        while(windowSize>windowBytes
+                && !window.isEmpty()) {
+            var eldest = window.entrySet().iterator().next();
+            window.remove(eldest.getKey());
+            windowSize -= weigh(eldest.getValue());
+            admitToMain(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    /**
+     * Admits the candidate only if it is accessed more frequently than each of the least recently used
+     * entries, it would displace.
+     */
+    private void admitToMain(final NamedPath candidateKey, final Blob candidate) {
+        var weight = weigh(candidate);
+        var mainBytes = maximumBytes - windowBytes;
+        if(weight>mainBytes) {
+            evictions.increment();
+            return;
+        }
+        var candidateFrequency = sketch.frequency(candidateKey);
+        var victims = new ArrayList<Map.Entry<NamedPath, Blob>>();
+        var freed = 0L;
+        var iterator = main.entrySet().iterator();
+        while(mainSize - freed + weight > mainBytes) {
+            var victim = iterator.next();
+            if(sketch.frequency(victim.getKey())>=candidateFrequency) {
+                // the candidate loses
+                evictions.increment();
+                return;
+            }
+            victims.add(victim);
+            freed += weigh(victim.getValue());
+        }
+        victims.forEach(victim->main.remove(victim.getKey()));
+        evictions.add(victims.size());
+        mainSize -= freed;
+        main.put(candidateKey, candidate);
+        mainSize += weight;
+    }
+
+    private static long weigh(final Blob blob) {
+        return blob.bytes().length;
+    }
+
+    /**
+     * Count-min sketch with 4 rows of saturating counters (max 15).
+     * All counters are halved once the number of recorded increments reaches 10 times the width,
+     * such that past popularity fades.
+     */
+    private static final class FrequencySketch {
+
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x97cb3127, 0xb8f7e9a1, 0x3c6ef372, 0xa54ff53a};
+
+        private final byte[][] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(final long maximumBytes) {
+            // assuming an average blob size of 4 KiB
+            var expectedEntries = (int) Math.min(1 << 20, Math.max(256, maximumBytes / 4096));
+            var width = Integer.highestOneBit(expectedEntries - 1) << 1;
+            this.table = new byte[DEPTH][width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * width;
+        }
+
+        void increment(final NamedPath key) {
+            var hash = key.hashCode();
+            for (int row = 0; row < DEPTH; row++) {
+                var index = indexOf(hash, row);
+                if(table[row][index]<MAX_COUNT) {
+                    table[row][index]++;
+                }
+            }
+            if(++additions>=sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(final NamedPath key) {
+            var hash = key.hashCode();
+            var min = MAX_COUNT;
+            for (int row = 0; row < DEPTH; row++) {
+                min = Math.min(min, table[row][indexOf(hash, row)]);
+            }
+            return min;
+        }
+
+        private int indexOf(final int hash, final int row) {
+            var h = (hash + SEEDS[row]) * SEEDS[row];
+            h ^= h >>> 16;
+            return h & mask;
+        }
+
+        private void reset() {
+            for (var row : table) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>>= 1;
+                }
+            }
+            additions /= 2;
+        }
+    }
+
+}
@@ -0,0 +1,398 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.applib;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import org.apache.causeway.commons.collections.Can;
+import org.apache.causeway.commons.internal.exceptions._Exceptions;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+import io.github.causewaystuff.blobstore.applib.BlobDescriptorCodec.Dictionary;
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+/**
+ * {@link BlobChangeFeed} implementation for {@link BlobStore} implementations to embed,
+ * which record each mutation by calling {@link #append}.
+ * <p>
+ * Assigns sequences, keeps the most recent changes in memory, discards changes beyond the retention
+ * (but never those a subscription has yet to process), and delivers to subscriptions from a single daemon thread.
+ * Persistence is up to the {@link Storage}, e.g. {@link #ofFolder(File, long) segment files},
+ * or a store's own transactional log.
+ */
+@Slf4j
+public class ChangeLog implements BlobChangeFeed, AutoCloseable {
+
+    /**
+     * Persistence of changes, accessed by the {@link ChangeLog} only while holding its monitor.
+     */
+    public interface Storage extends AutoCloseable {
+        /**
+         * Appends given change, whose sequence is {@code lastSequence() + 1}.
+         */
+        void append(BlobChange change);
+        /**
+         * Up to {@code limit} changes following given sequence, in order.
+         */
+        List<BlobChange> readAfter(long sequence, int limit);
+        /**
+         * Sequence of the last change appended, {@code 0} if none ever.
+         */
+        long lastSequence();
+        /**
+         * Sequence of the oldest change retained, {@code lastSequence() + 1} if none.
+         */
+        long firstSequence();
+        /**
+         * Sequence of the last change, that survives a crash. Changes are not delivered before they are durable.
+         */
+        default long durableSequence() {
+            return lastSequence();
+        }
+        /**
+         * Discards changes before given sequence, implementations may retain more.
+         */
+        void discardBefore(long sequence);
+        /**
+         * Forces changes appended so far to the storage device.
+         */
+        default void sync() {
+        }
+        @Override
+        void close();
+    }
+
+    private static final int RECENT_CAPACITY = 4096;
+    private static final int DELIVERY_BATCH = 256;
+
+    private final Storage storage;
+    private final long retention;
+    /** tail of the log, to serve subscriptions that follow live without reading from storage */
+    private final Deque<BlobChange> recent = new ArrayDeque<>();
+    private final List<SubscriptionImpl> subscriptions = new CopyOnWriteArrayList<>();
+    private final ExecutorService deliveryExecutor;
+    private final AtomicBoolean deliveryScheduled = new AtomicBoolean();
+
+    /**
+     * @param retention number of changes to retain at least
+     */
+    public ChangeLog(final @NonNull Storage storage, final long retention) {
+        if(retention<1) throw _Exceptions.illegalArgument("retention must be positive, got %d", retention);
+        this.storage = storage;
+        this.retention = retention;
+        this.deliveryExecutor = Executors.newSingleThreadExecutor(ThreadFactories.daemon("blobstore-change-feed"));
+    }
+
+    /**
+     * Changes are lost when the process ends.
+     */
+    public static ChangeLog inMemory(final long retention) {
+        return new ChangeLog(new InMemoryStorage(), retention);
+    }
+
+    /**
+     * Changes are kept in segment files within given folder.
+     */
+    public static ChangeLog ofFolder(final @NonNull File folder, final long retention) {
+        return new ChangeLog(new SegmentedChangeStorage(folder), retention);
+    }
+
+    // -- RECORDING
+
+    /**
+     * Records a mutation, to be called by the store once the mutation is about to complete,
+     * while holding whatever lock serializes mutations of given path.
+     */
+    public synchronized BlobChange append(
+            final BlobChange.@NonNull Type type,
+            final @NonNull NamedPath path,
+            final @Nullable BlobDescriptor descriptor) {
+        if(type!=BlobChange.Type.DELETE
+                && descriptor==null) throw _Exceptions.illegalArgument("%s of %s requires a descriptor", type, path);
+        var change = new BlobChange(storage.lastSequence() + 1, type, path,
+                type==BlobChange.Type.DELETE ? null : descriptor, Instant.now());
+        storage.append(change);
+        recent.addLast(change);
+        if(recent.size()>RECENT_CAPACITY) {
+            recent.removeFirst();
+        }
+        if(change.sequence() % 1024 == 0) {
+            discardBeyondRetention();
+        }
+        publish();
+        return change;
+    }
+
+    /**
+     * Schedules delivery to subscriptions, to be called by stores whose {@link Storage#durableSequence()}
+     * advances other than by {@link #append}, e.g. on commit.
+     */
+    public void publish() {
+        if(subscriptions.isEmpty()
+                || deliveryExecutor.isShutdown()) return;
+        if(deliveryScheduled.compareAndSet(false, true)) {
+            deliveryExecutor.execute(this::deliver);
+        }
+    }
+
+    public synchronized void sync() {
+        storage.sync();
+    }
+
+    @Override
+    public void close() {
+        deliveryExecutor.shutdown();
+        subscriptions.forEach(SubscriptionImpl::close);
+        synchronized (this) {
+            storage.close();
+        }
+    }
+
+    // -- FEED
+
+    @Override
+    public synchronized long lastSequence() {
+        return storage.durableSequence();
+    }
+
+    @Override
+    public synchronized long firstSequence() {
+        return storage.firstSequence();
+    }
+
+    @Override
+    public synchronized Can<BlobChange> readAfter(final long sequence, final int limit) {
+        checkRetained(sequence);
+        var durableSequence = storage.durableSequence();
+        if(sequence>=durableSequence) return Can.empty();
+        var maxCount = (int) Math.min(limit, durableSequence - sequence);
+        var first = recent.peekFirst();
+        if(first!=null
+                && first.sequence()<=sequence + 1) {
+            // served from memory
+            var changes = new ArrayList<BlobChange>(maxCount);
+            for(var change : recent) {
+                if(change.sequence()<=sequence) continue;
+                if(changes.size()==maxCount) break;
+                changes.add(change);
+            }
+            return Can.ofCollection(changes);
+        }
+        return Can.ofCollection(storage.readAfter(sequence, maxCount));
+    }
+
+    @Override
+    public Subscription subscribe(final long afterSequence, final @Nullable NamedPath prefix,
+            final @NonNull Consumer<BlobChange> listener) {
+        synchronized (this) {
+            checkRetained(afterSequence);
+        }
+        var subscription = new SubscriptionImpl(afterSequence, prefix, listener);
+        subscriptions.add(subscription);
+        publish();
+        return subscription;
+    }
+
+    // -- CODEC
+
+    /**
+     * Self-contained binary encoding, e.g. for a {@link Storage} that keeps changes in a key-value store.
+     */
+    @SneakyThrows
+    public static byte[] encode(final @NonNull BlobChange change) {
+        var bytes = new ByteArrayOutputStream(128);
+        try(var out = new DataOutputStream(bytes)) {
+            write(out, change, new Dictionary());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Inverse of {@link #encode(BlobChange)}.
+     */
+    @SneakyThrows
+    public static BlobChange decode(final byte @NonNull [] bytes) {
+        return read(new DataInputStream(new ByteArrayInputStream(bytes)), new Dictionary());
+    }
+
+    static void write(final DataOutput out, final BlobChange change, final Dictionary dictionary) throws IOException {
+        out.writeLong(change.sequence());
+        out.writeByte(change.type().ordinal());
+        out.writeLong(change.recordedOn().getEpochSecond());
+        out.writeInt(change.recordedOn().getNano());
+        if(change.type()==BlobChange.Type.DELETE) {
+            BlobDescriptorCodec.writePath(out, change.path());
+        } else {
+            BlobDescriptorCodec.write(out, change.descriptor(), dictionary);
+        }
+    }
+
+    static BlobChange read(final DataInput in, final Dictionary dictionary) throws IOException {
+        var sequence = in.readLong();
+        var type = BlobChange.Type.values()[in.readByte()];
+        var recordedOn = Instant.ofEpochSecond(in.readLong(), in.readInt());
+        if(type==BlobChange.Type.DELETE) {
+            return new BlobChange(sequence, type, BlobDescriptorCodec.readPath(in), null, recordedOn);
+        }
+        var descriptor = BlobDescriptorCodec.read(in, dictionary);
+        return new BlobChange(sequence, type, descriptor.path(), descriptor, recordedOn);
+    }
+
+    // -- HELPER
+
+    private void checkRetained(final long sequence) {
+        if(sequence<storage.firstSequence() - 1) throw _Exceptions.illegalState(
+                "changes following %d are no longer retained (oldest is %d), start over from a full listing",
+                sequence, storage.firstSequence());
+    }
+
+    private void discardBeyondRetention() {
+        var discardBefore = storage.lastSequence() - retention + 1;
+        for(var subscription : subscriptions) {
+            discardBefore = Math.min(discardBefore, subscription.lastSequence + 1);
+        }
+        if(discardBefore>storage.firstSequence()) {
+            storage.discardBefore(discardBefore);
+        }
+    }
+
+    /**
+     * Runs on the delivery thread.
+     */
+    private void deliver() {
+        deliveryScheduled.set(false);
+        for(var subscription : subscriptions) {
+            subscription.catchUp();
+        }
+    }
+
+    private final class SubscriptionImpl implements Subscription {
+
+        private volatile long lastSequence;
+        private final @Nullable NamedPath prefix;
+        private final Consumer<BlobChange> listener;
+        private volatile boolean closed;
+
+        SubscriptionImpl(final long afterSequence, final @Nullable NamedPath prefix, final Consumer<BlobChange> listener) {
+            this.lastSequence = afterSequence;
+            this.prefix = prefix;
+            this.listener = listener;
+        }
+
+        @Override
+        public long lastSequence() {
+            return lastSequence;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            subscriptions.remove(this);
+        }
+
+        void catchUp() {
+            while(!closed) {
+                var changes = readAfter(lastSequence, DELIVERY_BATCH);
+                if(changes.isEmpty()) return;
+                for(var change : changes) {
+                    if(closed) return;
+                    if(prefix==null
+                            || change.path().startsWith(prefix)) {
+                        try {
+                            listener.accept(change);
+                        } catch (Exception e) {
+                            log.error("unsubscribing listener, that failed on change {}", change.sequence(), e);
+                            close();
+                            return;
+                        }
+                    }
+                    lastSequence = change.sequence();
+                }
+            }
+        }
+    }
+
+    private static final class InMemoryStorage implements Storage {
+
+        private final Deque<BlobChange> changes = new ArrayDeque<>();
+        private long lastSequence;
+
+        @Override
+        public void append(final BlobChange change) {
+            changes.addLast(change);
+            lastSequence = change.sequence();
+        }
+
+        @Override
+        public List<BlobChange> readAfter(final long sequence, final int limit) {
+            return changes.stream()
+                .filter(change->change.sequence()>sequence)
+                .limit(limit)
+                .toList();
+        }
+
+        @Override
+        public long lastSequence() {
+            return lastSequence;
+        }
+
+        @Override
+        public long firstSequence() {
+            var first = changes.peekFirst();
+            return first!=null
+                    ? first.sequence()
+                    : lastSequence + 1;
+        }
+
+        @Override
+        public void discardBefore(final long sequence) {
+            while(!changes.isEmpty()
+                    && changes.peekFirst().sequence()<sequence) {
+                changes.removeFirst();
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
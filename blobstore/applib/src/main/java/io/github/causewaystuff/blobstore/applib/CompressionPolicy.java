@@ -0,0 +1,86 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.applib;
+
+import org.jspecify.annotations.NonNull;
+
+import org.apache.causeway.applib.value.NamedWithMimeType.CommonMimeType;
+
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor.Compression;
+
+/**
+ * Chooses the {@link Compression} of blobs written to a {@link BlobStore},
+ * before any customizer is applied, so an explicit choice by the caller still wins.
+ * <p>
+ * Policies other than {@link #PASS_THROUGH} record their {@link #name()}
+ * with the descriptor's {@value #ATTRIBUTE} attribute.
+ * @see BlobStoreFactory.BlobStoreConfiguration#compressionPolicy()
+ */
+@FunctionalInterface
+public interface CompressionPolicy {
+
+    /**
+     * Descriptor attribute, that records the policy, that chose the compression.
+     */
+    String ATTRIBUTE = "compression-policy";
+
+    /**
+     * Number of leading bytes, that are offered to {@link #choose(CommonMimeType, long, byte[])} as sample.
+     */
+    int SAMPLE_SIZE = 4096;
+
+    /**
+     * Leaves the compression to the caller ({@link Compression#NONE} unless customized).
+     */
+    CompressionPolicy PASS_THROUGH = new CompressionPolicy() {
+        @Override
+        public Compression choose(final CommonMimeType mimeType, final long size, final byte[] sample) {
+            return Compression.NONE;
+        }
+        @Override
+        public String name() {
+            return "pass-through";
+        }
+        @Override
+        public BlobDescriptor applyTo(final BlobDescriptor descriptor, final long size, final byte[] sample) {
+            return descriptor;
+        }
+    };
+
+    /**
+     * @param mimeType of the uncompressed content
+     * @param size of the uncompressed content, or {@code -1} if not known in advance (streaming)
+     * @param sample up to {@link #SAMPLE_SIZE} leading bytes of the uncompressed content
+     */
+    Compression choose(@NonNull CommonMimeType mimeType, long size, byte @NonNull [] sample);
+
+    default String name() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * Returns given descriptor with the compression chosen by this policy, and the policy recorded.
+     */
+    default BlobDescriptor applyTo(final @NonNull BlobDescriptor descriptor, final long size, final byte @NonNull [] sample) {
+        return descriptor
+            .withCompression(choose(descriptor.mimeType(), size, sample))
+            .withAttribute(ATTRIBUTE, name());
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.applib;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import lombok.SneakyThrows;
+
+/**
+ * Computes the SHA-256 digest and the byte count of the content that passes through,
+ * as recorded by {@link BlobStore} implementations with the {@code sha256} and {@code uncompressed-size} attributes.
+ */
+public final class HashingInputStream extends DigestInputStream {
+
+    private long count;
+
+    public HashingInputStream(final InputStream in) {
+        super(in, sha256());
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if(b!=-1) {
+            count++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        int n = super.read(b, off, len);
+        if(n>0) {
+            count+=n;
+        }
+        return n;
+    }
+
+    /**
+     * Number of bytes read so far.
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Hex representation of the SHA-256 digest, to be called once the content was fully consumed.
+     */
+    public String sha256Hex() {
+        return HexFormat.of().formatHex(getMessageDigest().digest());
+    }
+
+    /**
+     * Hex representation of the SHA-256 digest of given bytes, formatted the same as {@link #sha256Hex()}.
+     */
+    public static String sha256Hex(final byte[] bytes) {
+        return HexFormat.of().formatHex(sha256().digest(bytes));
+    }
+
+    // -- HELPER
+
+    @SneakyThrows
+    private static MessageDigest sha256() {
+        return MessageDigest.getInstance("SHA-256");
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.applib;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.causeway.commons.internal.assertions._Assert;
+
+/**
+ * Limits the throughput of background work (e.g. replication or scrubbing) to a given number of bytes per second,
+ * allowing bursts of up to {@value #MAX_BURST_MILLIS} ms worth of bytes after being idle.
+ * <p>
+ * Thread-safe, concurrent callers share the bandwidth.
+ */
+public final class RateLimiter {
+
+    private static final long MAX_BURST_MILLIS = 100;
+    private static final long MAX_BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(MAX_BURST_MILLIS);
+
+    private final long bytesPerSecond;
+    /** when the bytes accounted so far are due */
+    private long dueAt = System.nanoTime();
+
+    /**
+     * @param bytesPerSecond {@code 0} for unlimited
+     */
+    public RateLimiter(final long bytesPerSecond) {
+        _Assert.assertTrue(bytesPerSecond>=0, ()->"bytesPerSecond must not be negative, got " + bytesPerSecond);
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Accounts for given number of bytes, sleeping until they are due.
+     */
+    public void acquire(final int bytes) throws InterruptedIOException {
+        if(bytesPerSecond==0) return;
+        long waitNanos;
+        synchronized (this) {
+            var now = System.nanoTime();
+            dueAt = Math.max(dueAt, now - MAX_BURST_NANOS) + (long) (bytes * 1e9 / bytesPerSecond);
+            waitNanos = dueAt - now;
+        }
+        if(waitNanos<=0) return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while rate limited");
+        }
+    }
+
+}
@@ -0,0 +1,273 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.applib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.jspecify.annotations.Nullable;
+
+import org.apache.causeway.commons.io.FileUtils;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+import io.github.causewaystuff.blobstore.applib.BlobDescriptorCodec.Dictionary;
+
+/**
+ * {@link ChangeLog.Storage} that appends changes to segment files, named by the sequence of their first change.
+ * <p>
+ * Each record is framed by its length and CRC32. Strings are interned per segment, hence a segment is always read
+ * from its start. Retention is enforced by deleting whole segments, the one appended to is never deleted,
+ * such that sequences continue after a restart.
+ * A record cut short by a crash is truncated, when opening.
+ */
+@Slf4j
+final class SegmentedChangeStorage implements ChangeLog.Storage {
+
+    private static final int SEGMENT_MAGIC = 0x424C4331; // BLC1
+    private static final int SEGMENT_HEADER_LENGTH = 12;
+    private static final int SEGMENT_RECORDS = 16 * 1024;
+    private static final String SEGMENT_SUFFIX = ".changes";
+
+    private final File folder;
+    /** segment files by the sequence of their first change */
+    private final TreeMap<Long, File> segments = new TreeMap<>();
+    private long lastSequence;
+
+    private @Nullable FileOutputStream segmentOut;
+    private @Nullable DataOutputStream segmentData;
+    private Dictionary segmentDictionary = new Dictionary();
+    private int segmentRecordCount;
+
+    @SneakyThrows
+    SegmentedChangeStorage(final File folder) {
+        this.folder = folder;
+        FileUtils.makeDir(folder);
+        var files = folder.listFiles((dir, name)->name.endsWith(SEGMENT_SUFFIX));
+        if(files!=null) {
+            for(var file : files) {
+                var name = file.getName();
+                segments.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+            }
+        }
+        if(segments.isEmpty()) {
+            this.lastSequence = 0;
+            return;
+        }
+        recoverLastSegment(segments.lastEntry().getKey(), segments.lastEntry().getValue());
+    }
+
+    @SneakyThrows
+    @Override
+    public void append(final BlobChange change) {
+        if(segmentData==null) {
+            openSegment(change.sequence());
+        }
+        var bytes = new ByteArrayOutputStream(128);
+        try(var out = new DataOutputStream(bytes)) {
+            ChangeLog.write(out, change, segmentDictionary);
+        }
+        writeRecord(segmentData, bytes.toByteArray());
+        // hand over to the OS, such that the change survives a crash of the process
+        segmentData.flush();
+        this.lastSequence = change.sequence();
+        if(++segmentRecordCount >= SEGMENT_RECORDS) {
+            closeSegment();
+        }
+    }
+
+    @SneakyThrows
+    @Override
+    public List<BlobChange> readAfter(final long sequence, final int limit) {
+        var changes = new ArrayList<BlobChange>(Math.min(limit, 1024));
+        var startKey = segments.floorKey(sequence + 1);
+        if(startKey==null) {
+            startKey = segments.isEmpty() ? null : segments.firstKey();
+        }
+        if(startKey==null) return changes;
+        for(var segmentFile : segments.tailMap(startKey, true).values()) {
+            try(var in = new DataInputStream(new BufferedInputStream(new FileInputStream(segmentFile)))) {
+                readHeader(in, segmentFile);
+                var dictionary = new Dictionary();
+                byte[] payload;
+                while((payload = readRecord(in, segmentFile.length()))!=null) {
+                    var change = decode(payload, dictionary);
+                    if(change.sequence()<=sequence) continue;
+                    changes.add(change);
+                    if(changes.size()>=limit) return changes;
+                }
+            }
+        }
+        return changes;
+    }
+
+    @Override
+    public long lastSequence() {
+        return lastSequence;
+    }
+
+    @Override
+    public long firstSequence() {
+        return segments.isEmpty()
+                ? lastSequence + 1
+                : Math.min(segments.firstKey(), lastSequence + 1);
+    }
+
+    @SneakyThrows
+    @Override
+    public void discardBefore(final long sequence) {
+        // a segment can go, once the next one starts at or before given sequence
+        while(segments.size()>1) {
+            var first = segments.firstEntry();
+            var next = segments.higherKey(first.getKey());
+            if(next>sequence) return;
+            Files.deleteIfExists(first.getValue().toPath());
+            segments.remove(first.getKey());
+        }
+    }
+
+    @SneakyThrows
+    @Override
+    public void sync() {
+        if(segmentOut==null) return;
+        segmentData.flush();
+        segmentOut.getFD().sync();
+    }
+
+    @SneakyThrows
+    @Override
+    public void close() {
+        closeSegment();
+    }
+
+    // -- HELPER
+
+    private void openSegment(final long firstSequence) throws IOException {
+        var segmentFile = new File(folder, "%020d%s".formatted(firstSequence, SEGMENT_SUFFIX));
+        this.segmentOut = new FileOutputStream(segmentFile, true);
+        this.segmentData = new DataOutputStream(new BufferedOutputStream(segmentOut));
+        if(segmentFile.length()==0) {
+            segmentData.writeInt(SEGMENT_MAGIC);
+            segmentData.writeLong(firstSequence);
+            this.segmentDictionary = new Dictionary();
+            this.segmentRecordCount = 0;
+        }
+        segments.put(firstSequence, segmentFile);
+    }
+
+    private void closeSegment() throws IOException {
+        if(segmentData==null) return;
+        try {
+            segmentData.close();
+        } finally {
+            this.segmentOut = null;
+            this.segmentData = null;
+        }
+    }
+
+    /**
+     * Finds the last sequence, truncates a record cut short and prepares for continued appends.
+     */
+    private void recoverLastSegment(final long firstSequence, final File segmentFile) throws IOException {
+        this.lastSequence = firstSequence - 1;
+        var dictionary = new Dictionary();
+        int recordCount = 0;
+        long validLength = SEGMENT_HEADER_LENGTH;
+        try(var in = new DataInputStream(new BufferedInputStream(new FileInputStream(segmentFile)))) {
+            readHeader(in, segmentFile);
+            byte[] payload;
+            while((payload = readRecord(in, segmentFile.length()))!=null) {
+                this.lastSequence = decode(payload, dictionary).sequence();
+                validLength += 8 + payload.length;
+                recordCount++;
+            }
+        } catch (IOException e) {
+            log.warn("truncating change segment {} at offset {}: {}", segmentFile, validLength, e.getMessage());
+            if(validLength<=SEGMENT_HEADER_LENGTH) {
+                // not even the header is intact, start over
+                Files.delete(segmentFile.toPath());
+                segments.remove(firstSequence);
+                return;
+            }
+            try(var file = new RandomAccessFile(segmentFile, "rw")) {
+                file.setLength(validLength);
+            }
+        }
+        if(recordCount < SEGMENT_RECORDS) {
+            openSegment(firstSequence);
+            this.segmentDictionary = dictionary;
+            this.segmentRecordCount = recordCount;
+        }
+    }
+
+    private static void readHeader(final DataInputStream in, final File segmentFile) throws IOException {
+        if(in.readInt()!=SEGMENT_MAGIC) throw new IOException("not a change segment " + segmentFile);
+        in.readLong();
+    }
+
+    private static BlobChange decode(final byte[] payload, final Dictionary dictionary) throws IOException {
+        return ChangeLog.read(new DataInputStream(new ByteArrayInputStream(payload)), dictionary);
+    }
+
+    private static void writeRecord(final DataOutputStream out, final byte[] payload) throws IOException {
+        var crc = new CRC32();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+    }
+
+    /**
+     * Returns {@code null} if the end of the stream was reached before the record starts,
+     * while a record that is cut short throws.
+     */
+    private static byte @Nullable [] readRecord(final DataInputStream in, final long fileLength) throws IOException {
+        var firstByte = in.read();
+        if(firstByte==-1) return null;
+        var length = (firstByte << 24)
+                | (in.readUnsignedByte() << 16)
+                | (in.readUnsignedByte() << 8)
+                | in.readUnsignedByte();
+        if(length<0
+                || length>fileLength) throw new IOException("invalid record length %d".formatted(length));
+        var expectedCrc = in.readInt();
+        var payload = new byte[length];
+        in.readFully(payload);
+        var crc = new CRC32();
+        crc.update(payload);
+        if((int) crc.getValue()!=expectedCrc) throw new IOException("record checksum mismatch");
+        return payload;
+    }
+
+}
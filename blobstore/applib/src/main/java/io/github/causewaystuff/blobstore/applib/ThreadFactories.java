@@ -0,0 +1,50 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.applib;
+
+import java.util.concurrent.ThreadFactory;
+
+import lombok.experimental.UtilityClass;
+
+/**
+ * {@link ThreadFactory}(s) for the background workers of {@link BlobStore} implementations and decorators.
+ */
+@UtilityClass
+public class ThreadFactories {
+
+    /**
+     * Daemon threads of given name, such that background work does not prevent the JVM from exiting.
+     */
+    public ThreadFactory daemon(final String name) {
+        return daemon(name, Thread.NORM_PRIORITY);
+    }
+
+    /**
+     * Daemon threads of given name and priority, such that background work does not prevent the JVM from exiting.
+     */
+    public ThreadFactory daemon(final String name, final int priority) {
+        return runnable->{
+            var thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            thread.setPriority(priority);
+            return thread;
+        };
+    }
+
+}
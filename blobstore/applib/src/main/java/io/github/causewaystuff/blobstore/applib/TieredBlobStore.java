@@ -0,0 +1,441 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.applib;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import org.apache.causeway.applib.value.Blob;
+import org.apache.causeway.applib.value.NamedWithMimeType.CommonMimeType;
+import org.apache.causeway.commons.collections.Can;
+import org.apache.causeway.commons.internal.assertions._Assert;
+
+import lombok.extern.slf4j.Slf4j;
+
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor.Compression;
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+/**
+ * {@link BlobStore} composed of a fast tier holding uncompressed blobs and a cold tier holding compressed ones.
+ * <p>
+ * Blobs are written to the hot tier. Blobs not read within the idle window are demoted to the cold tier
+ * (see {@link #demote()}), compressed as configured. A cold blob that is read again is served from the cold tier,
+ * while its promotion back to the hot tier runs asynchronously.
+ * <p>
+ * Access statistics are kept in the {@value #ATTRIBUTE_LAST_READ} and {@value #ATTRIBUTE_READ_COUNT} attributes.
+ * To keep reads cheap, they are accumulated in memory and written to the descriptors of the hot tier
+ * on each {@link #demote()} sweep, as well as on promotion and demotion.
+ * Hence statistics of reads since the last sweep are lost on shutdown, which at worst demotes a blob early.
+ */
+@Slf4j
+public class TieredBlobStore implements BlobStore, AutoCloseable {
+
+    /** ISO-8601 instant of the last read, or of the write if never read */
+    public static final String ATTRIBUTE_LAST_READ = "last-read";
+    /** number of reads since written */
+    public static final String ATTRIBUTE_READ_COUNT = "read-count";
+
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * Reads not yet written to the descriptor.
+     */
+    private record Access(Instant lastRead, long readCount) {
+        Access add(final Access other) {
+            return new Access(lastRead.isAfter(other.lastRead) ? lastRead : other.lastRead,
+                    readCount + other.readCount);
+        }
+    }
+
+    private final BlobStore hot;
+    private final BlobStore cold;
+    private final Compression coldCompression;
+    private final Duration idleWindow;
+    private final Clock clock;
+
+    private final Object[] lockStripes = new Object[LOCK_STRIPES];
+    private final ConcurrentHashMap<NamedPath, Access> pendingAccess = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<NamedPath, CompletableFuture<Void>> promotions = new ConcurrentHashMap<>();
+    private final ExecutorService promoter;
+    /** non-null only if a sweep interval is configured */
+    private final @Nullable ScheduledExecutorService sweeper;
+
+    /**
+     * @param hot fast tier, blobs are stored uncompressed
+     * @param cold slow tier, blobs are stored with given compression
+     * @param coldCompression e.g. {@link Compression#SEVEN_ZIP} or {@link Compression#ZSTD}
+     * @param idleWindow blobs not read for this long are demoted
+     * @param sweepInterval how often to {@link #demote()} in the background, or {@code null} to only demote on demand
+     */
+    public TieredBlobStore(
+            final @NonNull BlobStore hot,
+            final @NonNull BlobStore cold,
+            final @NonNull Compression coldCompression,
+            final @NonNull Duration idleWindow,
+            final @Nullable Duration sweepInterval) {
+        this(hot, cold, coldCompression, idleWindow, sweepInterval, Clock.systemUTC());
+    }
+
+    /**
+     * @param clock source of the access times, e.g. a controllable one for testing
+     */
+    public TieredBlobStore(
+            final @NonNull BlobStore hot,
+            final @NonNull BlobStore cold,
+            final @NonNull Compression coldCompression,
+            final @NonNull Duration idleWindow,
+            final @Nullable Duration sweepInterval,
+            final @NonNull Clock clock) {
+        _Assert.assertTrue(idleWindow.isPositive(), ()->"idleWindow must be positive");
+        this.hot = hot;
+        this.cold = cold;
+        this.coldCompression = coldCompression;
+        this.idleWindow = idleWindow;
+        this.clock = clock;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            lockStripes[i] = new Object();
+        }
+        this.promoter = Executors.newSingleThreadExecutor(ThreadFactories.daemon("blobstore-promote"));
+        if(sweepInterval!=null) {
+            this.sweeper = Executors.newSingleThreadScheduledExecutor(ThreadFactories.daemon("blobstore-demote"));
+            sweeper.scheduleWithFixedDelay(this::demote,
+                    sweepInterval.toMillis(), sweepInterval.toMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            this.sweeper = null;
+        }
+    }
+
+    /**
+     * Moves all blobs of the hot tier, that were not read within the idle window, to the cold tier,
+     * and persists the access statistics of the others.
+     * @return the descriptors of the demoted blobs, as stored in the cold tier
+     */
+    public Can<BlobDescriptor> demote() {
+        var idleSince = clock.instant().minus(idleWindow);
+        return hot.listDescriptors(NamedPath.empty(), true).stream()
+            .flatMap(descriptor->withLock(descriptor.path(), ()->{
+                // re-read, as it might have changed since listed
+                var current = hot.lookupDescriptor(descriptor.path()).orElse(null);
+                if(current==null) return Optional.<BlobDescriptor>empty();
+                var access = pendingAccess.remove(current.path());
+                var withStats = withAccess(current, access);
+                if(lastRead(withStats).isBefore(idleSince)) {
+                    return Optional.of(move(withStats, hot, cold, coldCompression));
+                }
+                if(access!=null) {
+                    hot.updateDescriptor(current.path(), desc->withAccess(desc, access));
+                }
+                return Optional.<BlobDescriptor>empty();
+            }).stream())
+            .collect(Can.toCan());
+    }
+
+    /**
+     * Waits for pending promotions to complete.
+     */
+    public void awaitPromotions() {
+        promotions.values().forEach(CompletableFuture::join);
+    }
+
+    @Override
+    public void close() {
+        if(sweeper!=null) {
+            sweeper.shutdownNow();
+        }
+        promoter.shutdown();
+        try {
+            promoter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // -- WRITE
+
+    @Override
+    public BlobDescriptor putBlob(final @NonNull NamedPath path, final @NonNull Blob blob,
+            final @Nullable UnaryOperator<BlobDescriptor> customizer) {
+        return withLock(path, ()->{
+            var descriptor = hot.putBlob(path, blob, hotCustomizer(customizer));
+            cold.deleteBlob(path);
+            return descriptor;
+        });
+    }
+
+    @Override
+    public BlobDescriptor putBlob(final @NonNull NamedPath path, final @NonNull CommonMimeType mimeType,
+            final @NonNull InputStream content, final @Nullable UnaryOperator<BlobDescriptor> customizer) {
+        return withLock(path, ()->{
+            var descriptor = hot.putBlob(path, mimeType, content, hotCustomizer(customizer));
+            cold.deleteBlob(path);
+            return descriptor;
+        });
+    }
+
+    @Override
+    public CompletableFuture<BlobDescriptor> putBlobAsync(final @NonNull NamedPath path, final @NonNull Blob blob,
+            final @Nullable UnaryOperator<BlobDescriptor> customizer) {
+        return withLock(path, ()->{
+            // the hot tier is looked up first, hence serves the pending write, once the cold copy is gone
+            cold.deleteBlob(path);
+            return hot.putBlobAsync(path, blob, hotCustomizer(customizer));
+        });
+    }
+
+    @Override
+    public void flush() {
+        hot.flush();
+        cold.flush();
+    }
+
+    @Override
+    public Optional<BlobDescriptor> updateDescriptor(final @NonNull NamedPath path,
+            final @Nullable UnaryOperator<BlobDescriptor> customizer) {
+        return withLock(path, ()->hot.lookupDescriptor(path).isPresent()
+                ? hot.updateDescriptor(path, customizer)
+                : cold.updateDescriptor(path, customizer));
+    }
+
+    @Override
+    public void deleteBlob(final @Nullable NamedPath path) {
+        if(path==null) return;
+        withLock(path, ()->{
+            hot.deleteBlob(path);
+            cold.deleteBlob(path);
+            pendingAccess.remove(path);
+            return null;
+        });
+    }
+
+    @Override
+    public Optional<BlobDescriptor> compress(final @NonNull BlobDescriptor blobDescriptor,
+            final @NonNull Compression compression) {
+        var path = blobDescriptor.path();
+        return withLock(path, ()->hot.lookupDescriptor(path).isPresent()
+                ? hot.compress(blobDescriptor, compression)
+                : cold.compress(blobDescriptor, compression));
+    }
+
+    /**
+     * Recompresses the cold tier only, as the hot tier is meant to hold uncompressed blobs.
+     */
+    @Override
+    public Can<BlobDescriptor> compressAll(final @Nullable NamedPath prefix, final @NonNull Compression compression) {
+        return cold.compressAll(prefix, compression);
+    }
+
+    // -- READ
+
+    /**
+     * Merges the listings of both tiers, preferring the hot tier for paths found in both.
+     */
+    @Override
+    public Can<BlobDescriptor> listDescriptors(final @Nullable NamedPath path,
+            final @Nullable Can<BlobQualifier> qualifiers, final boolean recursive) {
+        var descriptorsByPath = new LinkedHashMap<NamedPath, BlobDescriptor>();
+        hot.listDescriptors(path, qualifiers, recursive)
+            .forEach(descriptor->descriptorsByPath.put(descriptor.path(), descriptor));
+        cold.listDescriptors(path, qualifiers, recursive)
+            .forEach(descriptor->descriptorsByPath.putIfAbsent(descriptor.path(), descriptor));
+        return Can.ofCollection(descriptorsByPath.values());
+    }
+
+    /**
+     * Like reads, re-checks the hot tier after missing both, see {@link #read(NamedPath, TierReader)}.
+     */
+    @Override
+    public Optional<BlobDescriptor> lookupDescriptor(final @Nullable NamedPath path) {
+        return hot.lookupDescriptor(path)
+            .or(()->cold.lookupDescriptor(path))
+            .or(()->hot.lookupDescriptor(path));
+    }
+
+    @Override
+    public Optional<Blob> lookupBlob(final @Nullable NamedPath path) {
+        return read(path, BlobStore::lookupBlob);
+    }
+
+    @Override
+    public Optional<Blob> lookupBlobAndUncompress(final @Nullable NamedPath path) {
+        return read(path, BlobStore::lookupBlobAndUncompress);
+    }
+
+    @Override
+    public Optional<ByteBuffer> mapBlob(final @Nullable NamedPath path) {
+        return read(path, BlobStore::mapBlob);
+    }
+
+    @Override
+    public Optional<InputStream> openBlob(final @Nullable NamedPath path) {
+        return read(path, BlobStore::openBlob);
+    }
+
+    @Override
+    public Optional<InputStream> openBlobAndUncompress(final @Nullable NamedPath path) {
+        return read(path, BlobStore::openBlobAndUncompress);
+    }
+
+    @Override
+    public Optional<byte[]> readRange(final @Nullable NamedPath path, final long offset, final int length) {
+        return read(path, (tier, p)->tier.readRange(p, offset, length));
+    }
+
+    // -- HELPER
+
+    @FunctionalInterface
+    private interface TierReader<T> {
+        Optional<T> read(BlobStore tier, @Nullable NamedPath path);
+    }
+
+    /**
+     * Reads from the hot tier, else from the cold tier, scheduling promotion.
+     * Both record the access.
+     * <p>
+     * Moves write the new tier before deleting from the former, without this reader holding the path's lock.
+     * A demoted blob missed in the hot tier is hence found in the cold one, while a blob promoted in between
+     * is found by checking the hot tier once more, after missing the cold one.
+     */
+    private <T> Optional<T> read(final @Nullable NamedPath path, final TierReader<T> reader) {
+        if(path==null) return Optional.empty();
+        var fromHot = reader.read(hot, path);
+        if(fromHot.isPresent()) {
+            recordAccess(path);
+            return fromHot;
+        }
+        var fromCold = reader.read(cold, path);
+        if(fromCold.isPresent()) {
+            recordAccess(path);
+            schedulePromotion(path);
+            return fromCold;
+        }
+        var promoted = reader.read(hot, path);
+        if(promoted.isPresent()) {
+            recordAccess(path);
+        }
+        return promoted;
+    }
+
+    private void recordAccess(final NamedPath path) {
+        pendingAccess.merge(path, new Access(clock.instant(), 1L), Access::add);
+    }
+
+    private void schedulePromotion(final NamedPath path) {
+        promotions.computeIfAbsent(path, __->CompletableFuture
+            .runAsync(()->promote(path), promoter)
+            .whenComplete((result, failure)->{
+                promotions.remove(path);
+                if(failure!=null) {
+                    log.warn("failed to promote {}", path, failure);
+                }
+            }));
+    }
+
+    private void promote(final NamedPath path) {
+        withLock(path, ()->{
+            // a concurrent write or delete might have superseded the cold blob
+            if(hot.lookupDescriptor(path).isPresent()) return null;
+            var descriptor = cold.lookupDescriptor(path).orElse(null);
+            if(descriptor==null) return null;
+            log.debug("promoting {}", path);
+            move(withAccess(descriptor, pendingAccess.remove(path)), cold, hot, Compression.NONE);
+            return null;
+        });
+    }
+
+    /**
+     * Copies given blob from one tier to the other (keeping its metadata), then deletes it from the former.
+     */
+    private static BlobDescriptor move(final BlobDescriptor descriptor, final BlobStore from, final BlobStore to,
+            final Compression compression) {
+        var path = descriptor.path();
+        try(var content = from.openBlobAndUncompress(path).orElseThrow()) {
+            var moved = to.putBlob(path, descriptor.mimeType(), content, desc->desc
+                    .withCreatedBy(descriptor.createdBy())
+                    .withCreatedOn(descriptor.createdOn())
+                    .withCompression(compression)
+                    .withAttributes(descriptor.attributes())
+                    .withQualifiers(descriptor.qualifiers()));
+            from.deleteBlob(path);
+            return moved;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Written blobs are uncompressed and count as just read, such that they are not demoted right away.
+     */
+    private UnaryOperator<BlobDescriptor> hotCustomizer(final @Nullable UnaryOperator<BlobDescriptor> customizer) {
+        var now = clock.instant();
+        return desc->{
+            var customized = customizer!=null
+                    ? customizer.apply(desc)
+                    : desc;
+            var attributes = new HashMap<>(customized.attributes());
+            attributes.put(ATTRIBUTE_LAST_READ, now.toString());
+            attributes.put(ATTRIBUTE_READ_COUNT, "0");
+            return customized
+                    .withCompression(Compression.NONE)
+                    .withAttributes(attributes);
+        };
+    }
+
+    private static BlobDescriptor withAccess(final BlobDescriptor descriptor, final @Nullable Access access) {
+        if(access==null) return descriptor;
+        var readCount = Optional.ofNullable(descriptor.attributes().get(ATTRIBUTE_READ_COUNT))
+                .map(Long::parseLong)
+                .orElse(0L);
+        return descriptor
+                .withAttribute(ATTRIBUTE_LAST_READ, access.lastRead().toString())
+                .withAttribute(ATTRIBUTE_READ_COUNT, "" + (readCount + access.readCount()));
+    }
+
+    private static Instant lastRead(final BlobDescriptor descriptor) {
+        return Optional.ofNullable(descriptor.attributes().get(ATTRIBUTE_LAST_READ))
+                .map(Instant::parse)
+                .or(()->Optional.ofNullable(descriptor.createdOn()))
+                .orElse(Instant.EPOCH);
+    }
+
+    private <T> T withLock(final NamedPath path, final Supplier<T> action) {
+        synchronized (lockStripes[Math.floorMod(path.hashCode(), LOCK_STRIPES)]) {
+            return action.get();
+        }
+    }
+
+}
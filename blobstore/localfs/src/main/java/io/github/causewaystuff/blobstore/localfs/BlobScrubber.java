@@ -0,0 +1,368 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.localfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import org.apache.causeway.commons.collections.Can;
+import org.apache.causeway.commons.internal.assertions._Assert;
+import org.apache.causeway.commons.io.FileUtils;
+
+import lombok.SneakyThrows;
+import lombok.With;
+import lombok.extern.slf4j.Slf4j;
+
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor;
+import io.github.causewaystuff.blobstore.applib.BlobDescriptorPage;
+import io.github.causewaystuff.blobstore.applib.BlobQualifier;
+import io.github.causewaystuff.blobstore.applib.HashingInputStream;
+import io.github.causewaystuff.blobstore.applib.RateLimiter;
+import io.github.causewaystuff.blobstore.applib.ThreadFactories;
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+/**
+ * Verifies that the blob files of a {@link LocalFsBlobStore} still match the {@code sha256}
+ * (and {@code uncompressed-size}) attributes recorded when they were put, by re-hashing their uncompressed content.
+ * <p>
+ * Reads are paced to a configured bandwidth and run on a single (low priority) thread,
+ * which bounds the CPU spent on uncompressing and hashing as well. Path locks are held only while opening
+ * a blob file, hence foreground reads and writes are not blocked by a scrub.
+ * <p>
+ * Blobs are visited in index order. The last path visited is checkpointed every
+ * {@link Options#checkpointInterval()} blobs to the store's internal folder,
+ * such that a pass interrupted by a restart resumes rather than starts over.
+ * <p>
+ * Blobs found corrupt or missing are reported by the {@link Report} and tagged with the
+ * {@link #CORRUPT} or {@link #MISSING} qualifier, such that they can be listed via the store.
+ * The tag is removed, once a blob is found intact again (e.g. after being restored from a replica).
+ */
+@Slf4j
+public class BlobScrubber implements AutoCloseable {
+
+    /**
+     * Tags blobs, whose content does not match their recorded checksum or size, or cannot be uncompressed.
+     */
+    public static final BlobQualifier CORRUPT = new BlobQualifier("scrub_corrupt");
+    /**
+     * Tags blobs, whose blob file does not exist.
+     */
+    public static final BlobQualifier MISSING = new BlobQualifier("scrub_missing");
+
+    static final String CHECKPOINT_FILE_NAME = "scrub";
+
+    private static final String SHA256_ATTRIBUTE = "sha256";
+    private static final String UNCOMPRESSED_SIZE_ATTRIBUTE = "uncompressed-size";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** bytes accounted for opening a blob file, such that small blobs are paced as well */
+    private static final int OPEN_COST = 4 * 1024;
+
+    /**
+     * @param bytesPerSecond read bandwidth (uncompressed), {@code 0} for unlimited
+     * @param checkpointInterval number of blobs visited between checkpoints
+     * @param passInterval how long to pause between passes in the background,
+     *      or {@code null} to only {@link BlobScrubber#scrub()} on demand
+     * @param tagging whether to tag blobs found corrupt or missing with a qualifier
+     */
+    @With
+    public record Options(
+            long bytesPerSecond,
+            int checkpointInterval,
+            @Nullable Duration passInterval,
+            boolean tagging) {
+        public Options {
+            _Assert.assertTrue(bytesPerSecond>=0, ()->"bytesPerSecond must not be negative, got " + bytesPerSecond);
+            _Assert.assertTrue(checkpointInterval>0, ()->"checkpointInterval must be positive, got " + checkpointInterval);
+        }
+        public static Options defaults() {
+            return new Options(8L * 1024 * 1024, 100, null, true);
+        }
+    }
+
+    /**
+     * Outcome of a {@link #scrub()}.
+     * @param passCompleted whether the last blob was reached, such that the next scrub starts a new pass
+     * @param verified blobs found intact
+     * @param unverifiable blobs without recorded checksum
+     * @param bytesVerified uncompressed bytes read
+     * @param corrupt paths whose content does not match
+     * @param missing paths whose blob file does not exist
+     */
+    public record Report(
+            boolean passCompleted,
+            long verified,
+            long unverifiable,
+            long bytesVerified,
+            Can<NamedPath> corrupt,
+            Can<NamedPath> missing) {
+        public boolean isClean() {
+            return corrupt.isEmpty()
+                    && missing.isEmpty();
+        }
+    }
+
+    private enum Outcome {
+        INTACT,
+        UNVERIFIABLE,
+        CORRUPT,
+        MISSING,
+        /** written or deleted while verified, hence left to the next pass */
+        CHANGED,
+        /** scrub interrupted, the blob is visited again */
+        INTERRUPTED
+    }
+
+    private final LocalFsBlobStore store;
+    private final Options options;
+    private final File checkpointFile;
+    private final RateLimiter rateLimiter;
+    /** non-null only if a pass interval is configured */
+    private final @Nullable ScheduledExecutorService scheduler;
+    private volatile boolean closed;
+    private long bytesVerified;
+
+    public BlobScrubber(
+            final @NonNull LocalFsBlobStore store,
+            final @NonNull Options options) {
+        this.store = store;
+        this.options = options;
+        this.checkpointFile = new File(store.internalFolder(), CHECKPOINT_FILE_NAME);
+        this.rateLimiter = new RateLimiter(options.bytesPerSecond());
+        if(options.passInterval()!=null) {
+            var intervalMillis = options.passInterval().toMillis();
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                    ThreadFactories.daemon("blobstore-scrub", Thread.MIN_PRIORITY));
+            // a pass interrupted by a restart is resumed right away
+            var initialDelayMillis = checkpointFile.exists()
+                    ? 0L
+                    : intervalMillis;
+            scheduler.scheduleWithFixedDelay(this::scrubLogged, initialDelayMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Scrubs from the checkpoint to the end of the pass.
+     */
+    public Report scrub() {
+        return scrub(Long.MAX_VALUE);
+    }
+
+    /**
+     * Scrubs from the checkpoint, visiting at most given number of blobs.
+     * Stops early (having checkpointed), once closed.
+     */
+    public synchronized Report scrub(final long maxBlobs) {
+        var after = readCheckpoint().orElse(null);
+        var counts = new EnumMap<Outcome, Long>(Outcome.class);
+        var corrupt = new ArrayList<NamedPath>();
+        var missing = new ArrayList<NamedPath>();
+        var bytesVerifiedAtStart = bytesVerified;
+        var lastVisited = after;
+        long visited = 0;
+        var interrupted = false;
+        boolean passCompleted;
+        try(var descriptors = store.streamDescriptors(NamedPath.empty(), null, true, after)) {
+            var iterator = descriptors.iterator();
+            while(!closed
+                    && visited<maxBlobs
+                    && iterator.hasNext()) {
+                var descriptor = iterator.next();
+                var outcome = verify(descriptor);
+                if(outcome==Outcome.INTERRUPTED) {
+                    interrupted = true;
+                    break;
+                }
+                counts.merge(outcome, 1L, Long::sum);
+                switch (outcome) {
+                    case CORRUPT -> corrupt.add(descriptor.path());
+                    case MISSING -> missing.add(descriptor.path());
+                    default -> {}
+                }
+                lastVisited = descriptor.path();
+                if(++visited % options.checkpointInterval()==0) {
+                    writeCheckpoint(lastVisited);
+                }
+            }
+            passCompleted = !interrupted
+                    && !iterator.hasNext();
+        }
+        if(passCompleted) {
+            deleteCheckpoint();
+        } else if(lastVisited!=null) {
+            writeCheckpoint(lastVisited);
+        }
+        var report = new Report(
+                passCompleted,
+                count(counts, Outcome.INTACT),
+                count(counts, Outcome.UNVERIFIABLE),
+                bytesVerified - bytesVerifiedAtStart,
+                Can.ofCollection(corrupt),
+                Can.ofCollection(missing));
+        if(!report.isClean()) {
+            log.warn("scrub found corrupt {}, missing {}", report.corrupt(), report.missing());
+        }
+        return report;
+    }
+
+    /**
+     * Stops any scrub in progress, after checkpointing it.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if(scheduler!=null) {
+            scheduler.shutdownNow();
+            try {
+                scheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // -- VERIFY
+
+    private Outcome verify(final BlobDescriptor descriptor) {
+        var sha256 = descriptor.attributes().get(SHA256_ATTRIBUTE);
+        if(sha256==null) return Outcome.UNVERIFIABLE;
+        Outcome outcome;
+        try {
+            rateLimiter.acquire(OPEN_COST);
+            var content = store.openForVerification(descriptor).orElse(null);
+            outcome = content!=null
+                    ? hash(content, descriptor, sha256)
+                    : Outcome.MISSING;
+        } catch (InterruptedIOException e) {
+            return Outcome.INTERRUPTED;
+        } catch (IOException | RuntimeException e) {
+            // e.g. a damaged compression frame
+            log.warn("failed to read {}: {}", descriptor.path(), e.getMessage());
+            outcome = Outcome.CORRUPT;
+        }
+        if(outcome!=Outcome.INTACT
+                && !store.lookupDescriptor(descriptor.path()).map(descriptor::equals).orElse(false)) {
+            // the blob file was replaced or deleted while verified
+            return Outcome.CHANGED;
+        }
+        tag(descriptor, outcome);
+        return outcome;
+    }
+
+    private Outcome hash(
+            final InputStream content,
+            final BlobDescriptor descriptor,
+            final String sha256) throws IOException {
+        try(var in = new HashingInputStream(content)) {
+            var buffer = new byte[BUFFER_SIZE];
+            int n;
+            while((n = in.read(buffer))>0) {
+                bytesVerified += n;
+                rateLimiter.acquire(n);
+            }
+            var uncompressedSize = descriptor.attributes().get(UNCOMPRESSED_SIZE_ATTRIBUTE);
+            return sha256.equals(in.sha256Hex())
+                    && (uncompressedSize==null
+                        || uncompressedSize.equals("" + in.count()))
+                    ? Outcome.INTACT
+                    : Outcome.CORRUPT;
+        }
+    }
+
+    /**
+     * Adds or removes the {@link #CORRUPT} and {@link #MISSING} qualifiers, unless already as required.
+     */
+    private void tag(final BlobDescriptor descriptor, final Outcome outcome) {
+        if(!options.tagging()) return;
+        var qualifiers = descriptor.qualifiers()
+                .filter(qualifier->!qualifier.equals(CORRUPT)
+                        && !qualifier.equals(MISSING));
+        switch (outcome) {
+            case CORRUPT -> qualifiers = qualifiers.add(CORRUPT);
+            case MISSING -> qualifiers = qualifiers.add(MISSING);
+            default -> {}
+        }
+        if(Set.copyOf(qualifiers.toList()).equals(Set.copyOf(descriptor.qualifiers().toList()))) return;
+        var tagged = qualifiers;
+        // unless written meanwhile
+        store.updateDescriptor(descriptor.path(), current->current.equals(descriptor)
+                ? current.withQualifiers(tagged)
+                : current);
+    }
+
+    // -- CHECKPOINT
+
+    private Optional<NamedPath> readCheckpoint() {
+        if(!checkpointFile.exists()) return Optional.empty();
+        try {
+            return BlobDescriptorPage.resumeAfter(Files.readString(checkpointFile.toPath()).trim());
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("ignoring unreadable scrub checkpoint {}, starting a new pass", checkpointFile, e);
+            return Optional.empty();
+        }
+    }
+
+    @SneakyThrows
+    private void writeCheckpoint(final NamedPath lastVisited) {
+        FileUtils.makeDir(checkpointFile.getParentFile());
+        var tempFile = FileLocator.tempFileFor(checkpointFile);
+        Files.writeString(tempFile.toPath(), BlobDescriptorPage.continuationToken(lastVisited));
+        Files.move(tempFile.toPath(), checkpointFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void deleteCheckpoint() {
+        if(checkpointFile.exists()) {
+            FileUtils.deleteFile(checkpointFile);
+        }
+    }
+
+    // -- HELPER
+
+    private void scrubLogged() {
+        try {
+            var report = scrub();
+            log.debug("scrubbed {}", report);
+        } catch (Exception e) {
+            log.error("scrub failed", e);
+        }
+    }
+
+    private static long count(final Map<Outcome, Long> counts, final Outcome outcome) {
+        return counts.getOrDefault(outcome, 0L);
+    }
+
+}
@@ -18,16 +18,31 @@
  */
 package io.github.causewaystuff.blobstore.localfs;
 
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import jakarta.activation.MimeType;
+
 import org.apache.commons.compress.archivers.sevenz.SevenZMethod;
 
 import org.apache.causeway.applib.value.Blob;
 import org.apache.causeway.applib.value.NamedWithMimeType.CommonMimeType;
 
 import org.jspecify.annotations.NonNull;
+import lombok.SneakyThrows;
 import lombok.experimental.UtilityClass;
 
+import io.github.causewaystuff.blobstore.applib.BlobContentCodec;
+import io.github.causewaystuff.blobstore.applib.BlobContentCodec.CodecSettings;
 import io.github.causewaystuff.blobstore.applib.BlobDescriptor;
+import io.github.causewaystuff.commons.compression.Lz4Utils;
 import io.github.causewaystuff.commons.compression.SevenZUtils;
+import io.github.causewaystuff.commons.compression.ZstdUtils;
 
 @UtilityClass
 class CompressUtils {
@@ -36,13 +51,17 @@ class CompressUtils {
             final @NonNull Blob blob,
             final @NonNull CommonMimeType mimeForUncompressed,
             final BlobDescriptor.@NonNull Compression compressionIn,
-            final BlobDescriptor.@NonNull Compression compressionOut) {
+            final BlobDescriptor.@NonNull Compression compressionOut,
+            final @NonNull CodecSettings settings) {
         if(compressionIn == compressionOut) return blob;
-        final Blob base = uncompressBlob(blob, mimeForUncompressed, compressionIn);
+        final Blob base = uncompressBlob(blob, mimeForUncompressed, compressionIn, settings);
         final Blob compressed = switch (compressionOut) {
             case NONE -> base;
             case ZIP -> base.zip();
             case SEVEN_ZIP -> SevenZUtils.compress(base, SevenZMethod.LZMA2);
+            case ZSTD -> asStored(base.name(), compressionOut,
+                    ZstdUtils.compress(base.bytes(), settings.zstdLevel(), settings.zstdDictionary()));
+            case LZ4 -> asStored(base.name(), compressionOut, Lz4Utils.compress(base.bytes()));
         };
         return compressed;
     }
@@ -50,12 +69,74 @@ class CompressUtils {
     Blob uncompressBlob(
             final @NonNull Blob blob,
             final @NonNull CommonMimeType mimeForUncompressed,
-            final BlobDescriptor.@NonNull Compression compressionIn) {
+            final BlobDescriptor.@NonNull Compression compressionIn,
+            final @NonNull CodecSettings settings) {
         return switch (compressionIn) {
             case NONE -> blob;
             case ZIP -> blob.unZip(mimeForUncompressed);
             case SEVEN_ZIP -> SevenZUtils.decompress(blob, mimeForUncompressed);
+            case ZSTD -> Blob.of(blob.name(), mimeForUncompressed,
+                    ZstdUtils.decompress(blob.bytes(), settings.zstdDictionary()));
+            case LZ4 -> Blob.of(blob.name(), mimeForUncompressed, Lz4Utils.decompress(blob.bytes()));
         };
     }
 
+    /**
+     * Wraps given (compressed) bytes as a {@link Blob} with the mime type of the compressed container.
+     */
+    @SneakyThrows
+    Blob asStored(
+            final @NonNull String name,
+            final BlobDescriptor.@NonNull Compression compression,
+            final byte[] bytes) {
+        return new Blob(name, new MimeType(compression.mimeTypeBase()), bytes);
+    }
+
+    // -- RANGE READS
+
+    /**
+     * Reads up to {@code length} bytes of the uncompressed content, starting at {@code offset}.
+     * <p>
+     * Uncompressed blobs are read positioned, LZ4 frames and seekable Zstandard files
+     * only have the blocks decompressed, that the range touches.
+     * Other formats are uncompressed on the fly, skipping up to the offset.
+     */
+    @SneakyThrows
+    byte[] readRange(
+            final @NonNull File blobFile,
+            final BlobDescriptor.@NonNull Compression compression,
+            final long offset,
+            final int length,
+            final @NonNull CodecSettings settings) {
+        try(var channel = FileChannel.open(blobFile.toPath(), StandardOpenOption.READ)) {
+            var range = switch (compression) {
+                case NONE -> readAt(channel, offset, length);
+                case LZ4 -> Lz4Utils.readRange(channel, offset, length);
+                case ZSTD -> ZstdUtils.readRange(channel, offset, length, settings.zstdDictionary());
+                case ZIP, SEVEN_ZIP -> null;
+            };
+            if(range!=null) return range;
+        }
+        // not seekable
+        try(var in = BlobContentCodec.uncompressingInputStream(blobFile, compression, settings)) {
+            try {
+                in.skipNBytes(offset);
+            } catch (EOFException e) {
+                return new byte[0];
+            }
+            return in.readNBytes(length);
+        }
+    }
+
+    // -- HELPER
+
+    private byte[] readAt(final FileChannel channel, final long offset, final int length) throws IOException {
+        var available = Math.max(0L, Math.min(length, channel.size() - offset));
+        var buffer = ByteBuffer.allocate((int) available);
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, offset + buffer.position())<0) break;
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
 }
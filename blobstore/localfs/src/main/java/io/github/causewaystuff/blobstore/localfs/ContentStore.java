@@ -0,0 +1,174 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.localfs;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.apache.causeway.commons.internal.exceptions._Exceptions;
+import org.apache.causeway.commons.io.FileUtils;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor;
+
+/**
+ * Content-addressed storage of blob files, used by the {@link LocalFsBlobStore.Layout#CONTENT_ADDRESSED} layout.
+ * <p>
+ * Equal content (same SHA-256 of the uncompressed bytes and same compression) is stored only once,
+ * shared by all paths whose descriptor references it via its {@value #SHA256_ATTRIBUTE} attribute.
+ * A content file is deleted once the last descriptor referencing it is released.
+ * <p>
+ * Reference counts are not persisted, instead derived from the descriptors on startup,
+ * when content files no descriptor references are found and deleted.
+ * Hence all descriptors must carry the attribute, which is why an existing store cannot simply
+ * be switched over from the {@link LocalFsBlobStore.Layout#PLAIN} layout.
+ */
+@Slf4j
+final class ContentStore {
+
+    static final String SHA256_ATTRIBUTE = "sha256";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File contentFolder;
+    private final Map<String, Integer> refCountsByContentName = new HashMap<>();
+
+    ContentStore(final File contentFolder) {
+        this.contentFolder = contentFolder;
+        FileUtils.makeDir(contentFolder);
+        // temporary files are left behind only by a crash
+        var tempFiles = contentFolder.listFiles((dir, name)->name.endsWith(TEMP_SUFFIX));
+        if(tempFiles!=null) {
+            for(var tempFile : tempFiles) {
+                log.warn("deleting orphaned {}", tempFile);
+                FileUtils.deleteFile(tempFile);
+            }
+        }
+    }
+
+    /**
+     * Counts the references of given descriptors, as part of startup.
+     * @return content files referenced by none of them, as left behind by a crash after the content was stored,
+     *      but before the manifest was written, for the caller to delete
+     */
+    synchronized List<File> retainAll(final Collection<BlobDescriptor> descriptors) {
+        descriptors.forEach(descriptor->
+            refCountsByContentName.merge(contentName(descriptor), 1, Integer::sum));
+        var orphans = new ArrayList<File>();
+        var prefixFolders = contentFolder.listFiles(File::isDirectory);
+        if(prefixFolders!=null) {
+            for(var prefixFolder : prefixFolders) {
+                var contentFiles = prefixFolder.listFiles(File::isFile);
+                if(contentFiles==null) continue;
+                for(var contentFile : contentFiles) {
+                    if(!refCountsByContentName.containsKey(contentFile.getName())) {
+                        orphans.add(contentFile);
+                    }
+                }
+            }
+        }
+        return orphans;
+    }
+
+    File contentFile(final BlobDescriptor descriptor) {
+        var contentName = contentName(descriptor);
+        // sub-folders by hash prefix, to keep directories small
+        return new File(new File(contentFolder, contentName.substring(0, 2)), contentName);
+    }
+
+    /**
+     * Retains a reference to the content of given descriptor, and in case it is not stored yet,
+     * has given writer write it (to a temporary file, that is then moved into place).
+     * @param writer writes the (compressed) content to the file it is passed
+     */
+    void storeIfAbsent(final BlobDescriptor descriptor, final Consumer<File> writer) {
+        if(retain(descriptor)) return;
+        var tempFile = newTempFile();
+        writer.accept(tempFile);
+        // concurrent writers of the same content are harmless, as they write identical bytes
+        moveIntoPlace(tempFile, contentFile(descriptor));
+    }
+
+    /**
+     * Retains a reference to the content of given descriptor, where given temporary file already holds
+     * the (compressed) content. The file is either moved into place or discarded, if the content is already stored.
+     */
+    synchronized void storeWritten(final BlobDescriptor descriptor, final File tempFile) {
+        if(retain(descriptor)) {
+            FileUtils.deleteFile(tempFile);
+            return;
+        }
+        moveIntoPlace(tempFile, contentFile(descriptor));
+    }
+
+    /**
+     * Releases a reference to the content of given descriptor,
+     * deleting the content file if this was the last reference.
+     */
+    synchronized void release(final BlobDescriptor descriptor) {
+        var contentName = contentName(descriptor);
+        var refCount = refCountsByContentName.merge(contentName, -1, Integer::sum);
+        if(refCount<=0) {
+            refCountsByContentName.remove(contentName);
+            var contentFile = contentFile(descriptor);
+            if(contentFile.exists()) {
+                FileUtils.deleteFile(contentFile);
+            }
+        }
+    }
+
+    @SneakyThrows
+    File newTempFile() {
+        return File.createTempFile("content-", TEMP_SUFFIX, contentFolder);
+    }
+
+    // -- HELPER
+
+    /**
+     * Increments the reference count and returns whether the content is already stored.
+     */
+    private synchronized boolean retain(final BlobDescriptor descriptor) {
+        refCountsByContentName.merge(contentName(descriptor), 1, Integer::sum);
+        return contentFile(descriptor).exists();
+    }
+
+    @SneakyThrows
+    private static void moveIntoPlace(final File tempFile, final File contentFile) {
+        FileUtils.makeDir(contentFile.getParentFile());
+        Files.move(tempFile.toPath(), contentFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String contentName(final BlobDescriptor descriptor) {
+        var sha256 = descriptor.attributes().get(SHA256_ATTRIBUTE);
+        if(sha256==null
+                || sha256.length()<2) throw _Exceptions.illegalState(
+                    "content-addressed blob %s has no '%s' attribute", descriptor.path(), SHA256_ATTRIBUTE);
+        return sha256 + descriptor.compression().fileSuffix();
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.localfs;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+import org.jspecify.annotations.Nullable;
+
+import org.apache.causeway.commons.collections.Can;
+
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor;
+import io.github.causewaystuff.blobstore.applib.BlobQualifier;
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+/**
+ * Holds {@link BlobDescriptor}(s) sorted by parent path, then by name.
+ * <p>
+ * Parent paths are compared name by name, where a path sorts before all paths it is a prefix of.
+ * Hence both, the children of a folder and all descendants of a folder, form contiguous ranges,
+ * such that listings only ever touch the requested sub-tree.
+ * <p>
+ * Thread-safe, with iteration being weakly consistent.
+ */
+final class DescriptorTree {
+
+    /**
+     * Sort key of a blob.
+     */
+    record Key(
+            NamedPath parent,
+            String name) implements Comparable<Key> {
+
+        static Key of(final NamedPath path) {
+            return new Key(path.parentElseFail(), path.lastNameElseFail());
+        }
+
+        /**
+         * Orders paths as their keys, which is the order of all listings.
+         */
+        static int comparePaths(final NamedPath a, final NamedPath b) {
+            return Key.of(a).compareTo(Key.of(b));
+        }
+
+        /**
+         * Sorts before all keys of given parent (as no blob has an empty name).
+         */
+        static Key lowerBound(final NamedPath parent) {
+            return new Key(parent, "");
+        }
+
+        @Override
+        public int compareTo(final Key other) {
+            int c = compareNameByName(parent, other.parent);
+            return c!=0
+                    ? c
+                    : name.compareTo(other.name);
+        }
+
+        private static int compareNameByName(final NamedPath a, final NamedPath b) {
+            int commonCount = Math.min(a.nameCount(), b.nameCount());
+            for (int i = 0; i < commonCount; i++) {
+                int c = a.getName(i).compareTo(b.getName(i));
+                if(c!=0) return c;
+            }
+            return Integer.compare(a.nameCount(), b.nameCount());
+        }
+    }
+
+    private final ConcurrentNavigableMap<Key, BlobDescriptor> descriptorsByKey = new ConcurrentSkipListMap<>();
+    private final QualifierIndex qualifierIndex = new QualifierIndex();
+
+    DescriptorTree(final Map<NamedPath, BlobDescriptor> descriptorsByPath) {
+        descriptorsByPath.values().forEach(this::put);
+    }
+
+    Optional<BlobDescriptor> get(final @Nullable NamedPath path) {
+        return path!=null
+                && !path.isEmpty()
+                ? Optional.ofNullable(descriptorsByKey.get(Key.of(path)))
+                : Optional.empty();
+    }
+
+    void put(final BlobDescriptor descriptor) {
+        descriptorsByKey.put(Key.of(descriptor.path()), descriptor);
+        qualifierIndex.put(descriptor);
+    }
+
+    void remove(final NamedPath path) {
+        descriptorsByKey.remove(Key.of(path));
+        qualifierIndex.remove(path);
+    }
+
+    int size() {
+        return descriptorsByKey.size();
+    }
+
+    Collection<BlobDescriptor> values() {
+        return descriptorsByKey.values();
+    }
+
+    /**
+     * Blobs immediately contained in given folder, in key order.
+     * @param after if not {@code null}, only blobs that sort after given path
+     */
+    Stream<BlobDescriptor> streamChildren(final NamedPath folder, final @Nullable NamedPath after) {
+        return tailFrom(Key.lowerBound(folder), after).entrySet().stream()
+                .takeWhile(entry->entry.getKey().parent().equals(folder))
+                .map(Map.Entry::getValue);
+    }
+
+    /**
+     * Blobs whose path starts with given path, that is, a blob at given path itself (if any)
+     * followed by all descendants of given folder, in key order.
+     * @param after if not {@code null}, only blobs that sort after given path
+     */
+    Stream<BlobDescriptor> streamSubtree(final NamedPath folder, final @Nullable NamedPath after) {
+        var descendants = tailFrom(Key.lowerBound(folder), after).entrySet().stream()
+                .takeWhile(entry->entry.getKey().parent().startsWith(folder))
+                .map(Map.Entry::getValue);
+        var self = isAfter(folder, after)
+                ? get(folder).stream()
+                : Stream.<BlobDescriptor>empty();
+        return Stream.concat(self, descendants);
+    }
+
+    /**
+     * Blobs that carry <em>all</em> of given (non-empty) qualifiers, either contained in given folder
+     * or (if recursive) with a path starting with given path, in key order.
+     * <p>
+     * Resolved via the {@link QualifierIndex}, hence only touches qualifying blobs.
+     * @param after if not {@code null}, only blobs that sort after given path
+     */
+    Stream<BlobDescriptor> streamQualified(
+            final NamedPath folder,
+            final Can<BlobQualifier> requiredQualifiers,
+            final boolean recursive,
+            final @Nullable NamedPath after) {
+        return qualifierIndex.lookupAll(requiredQualifiers).stream()
+                .filter(path->recursive
+                        ? path.startsWith(folder)
+                        : path.parentElseFail().equals(folder))
+                .filter(path->isAfter(path, after))
+                .map(Key::of)
+                .sorted()
+                .map(descriptorsByKey::get)
+                .filter(Objects::nonNull);
+    }
+
+    // -- HELPER
+
+    /**
+     * Entries from given lower bound (inclusive) or after given path (exclusive), whichever comes later.
+     */
+    private ConcurrentNavigableMap<Key, BlobDescriptor> tailFrom(final Key lowerBound, final @Nullable NamedPath after) {
+        if(after==null
+                || after.isEmpty()) return descriptorsByKey.tailMap(lowerBound);
+        var afterKey = Key.of(after);
+        return afterKey.compareTo(lowerBound)<0
+                ? descriptorsByKey.tailMap(lowerBound)
+                : descriptorsByKey.tailMap(afterKey, false);
+    }
+
+    private static boolean isAfter(final NamedPath path, final @Nullable NamedPath after) {
+        return after==null
+                || after.isEmpty()
+                || path.isEmpty()
+                || Key.comparePaths(path, after)>0;
+    }
+
+}
@@ -36,17 +36,32 @@ record FileLocator(
         File manifestFile,
         File blobFile) {
 
-    static final String MANIFEST_SUFFIX = "~.yaml";
+    /**
+     * Suffix of binary manifests, as written by the store.
+     */
+    static final String MANIFEST_SUFFIX = "~.manifest";
+    /**
+     * Suffix of YAML manifests, as written before binary manifests were introduced.
+     * Still read, but converted to binary ones by the {@link Scanner}.
+     */
+    static final String YAML_MANIFEST_SUFFIX = "~.yaml";
+    /**
+     * Top level folder reserved for the store's own bookkeeping (e.g. the index), not holding any blobs.
+     */
+    static final String INTERNAL_FOLDER = ".blobstore";
+    /**
+     * Suffix of files being written, that are then atomically moved into place.
+     * Any such file found on startup is left behind by a crash.
+     */
+    static final String TEMP_SUFFIX = "~.tmp";
 
     // -- FACTORIES
 
     static FileLocator of(
             final ResourceFolder rootDirectory,
+            final Sharding sharding,
             final @NonNull BlobDescriptor blobDescriptor) {
-        var path = blobDescriptor.path();
-        var destFolderAsNamedPath = path.parentElseFail();
-        var manifestPath = destFolderAsNamedPath.add(path.lastNameElseFail() + MANIFEST_SUFFIX);
-        var manifestFile = rootDirectory.relativeFile(manifestPath);
+        var manifestFile = manifestFile(rootDirectory, sharding, blobDescriptor.path());
         return new FileLocator(
                 blobDescriptor,
                 manifestFile,
@@ -55,8 +70,9 @@ record FileLocator(
 
     static FileLocator forManifestFile(
             final ResourceFolder rootDirectory,
+            final Sharding sharding,
             final File manifestFile) {
-        var blobDescriptor = blobDescriptor(rootDirectory, manifestFile);
+        var blobDescriptor = blobDescriptor(rootDirectory, sharding, manifestFile);
         return new FileLocator(
                 blobDescriptor,
                 manifestFile,
@@ -65,11 +81,12 @@ record FileLocator(
 
     static FileLocator forBlobFile(
             final ResourceFolder rootDirectory,
+            final Sharding sharding,
             final File blobFile) {
         var dto = DescriptorDto.autoDetect(blobFile);
         var compression = dto.compression();
-        var relPath = NamedPath.of(blobFile.getParentFile())
-                .toRelativePath(NamedPath.of(rootDirectory.root()));
+        var relPath = sharding.logicalFolder(NamedPath.of(blobFile.getParentFile())
+                .toRelativePath(NamedPath.of(rootDirectory.root())));
         var baseName = baseNameFromBlobName(blobFile.getName(), compression);
         var fallbackDescriptor = dto
                 .toBlobDescriptor(relPath.add(baseName));
@@ -79,8 +96,42 @@ record FileLocator(
                 blobFile);
     }
 
+    static File manifestFile(
+            final ResourceFolder rootDirectory,
+            final Sharding sharding,
+            final NamedPath path) {
+        var destFolderAsNamedPath = path.parentElseFail();
+        var baseName = path.lastNameElseFail();
+        var manifestPath = destFolderAsNamedPath.add(baseName + MANIFEST_SUFFIX);
+        return sharding.shard(rootDirectory.relativeFile(manifestPath), baseName);
+    }
+
+    /**
+     * Where to write the content of given target file first, before moving it into place.
+     */
+    static File tempFileFor(final File target) {
+        return new File(target.getParentFile(), target.getName() + TEMP_SUFFIX);
+    }
+
+    static boolean isTempFile(final File file) {
+        return file.getName().endsWith(TEMP_SUFFIX);
+    }
+
+    static boolean isManifestFile(final File file) {
+        return file.getName().endsWith(MANIFEST_SUFFIX)
+                || isYamlManifestFile(file);
+    }
+
+    static boolean isYamlManifestFile(final File file) {
+        return file.getName().endsWith(YAML_MANIFEST_SUFFIX);
+    }
+
     // -- UTILS
 
+    FileLocator withBlobFile(final File blobFile) {
+        return new FileLocator(blobDescriptor, manifestFile, blobFile);
+    }
+
     void makeDir() {
         FileUtils.makeDir(manifestFile.getParentFile());
     }
@@ -93,9 +144,10 @@ record FileLocator(
 
     private static BlobDescriptor blobDescriptor(
             final ResourceFolder rootDirectory,
+            final Sharding sharding,
             final File manifestFile) {
-        var relPath = NamedPath.of(manifestFile.getParentFile())
-                .toRelativePath(NamedPath.of(rootDirectory.root()));
+        var relPath = sharding.logicalFolder(NamedPath.of(manifestFile.getParentFile())
+                .toRelativePath(NamedPath.of(rootDirectory.root())));
         return DescriptorDto.readFrom(manifestFile)
                 .toBlobDescriptor(relPath
                         .add(baseNameFromManifestName(manifestFile.getName())));
@@ -118,7 +170,10 @@ record FileLocator(
     }
 
     private static String baseNameFromManifestName(final String manifestName) {
-        return manifestName.substring(0, manifestName.length()-FileLocator.MANIFEST_SUFFIX.length());
+        var suffix = manifestName.endsWith(YAML_MANIFEST_SUFFIX)
+                ? YAML_MANIFEST_SUFFIX
+                : MANIFEST_SUFFIX;
+        return manifestName.substring(0, manifestName.length()-suffix.length());
     }
     private static String baseNameFromBlobName(final String blobName, final BlobDescriptor.Compression compression) {
         return blobName.substring(0, blobName.length()-compression.fileSuffix().length());
@@ -0,0 +1,382 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.localfs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+import org.jspecify.annotations.Nullable;
+
+import org.apache.causeway.commons.io.FileUtils;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor;
+import io.github.causewaystuff.blobstore.applib.BlobDescriptorCodec;
+import io.github.causewaystuff.blobstore.applib.BlobDescriptorCodec.Dictionary;
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+/**
+ * Persistent index of all {@link BlobDescriptor}(s) of a {@link LocalFsBlobStore},
+ * such that on startup the descriptors can be loaded with one sequential read,
+ * instead of walking the tree and parsing every manifest.
+ * <p>
+ * Consists of a snapshot file and an append-only journal of mutations since.
+ * Once the journal grows beyond {@link #SNAPSHOT_THRESHOLD} records, a new snapshot is taken
+ * and the journal is started over. Both files share a generation number, so a journal
+ * left behind by an interrupted snapshot is never replayed on top of its successor.
+ * <p>
+ * Every record is framed by its length and CRC32. A journal record cut short by a crash while appending
+ * is truncated, when loading. Any other inconsistency renders the index corrupt,
+ * in which case the store falls back to a full {@link Scanner} run.
+ * Descriptors are encoded by {@link BlobDescriptorCodec}, with one {@link Dictionary} per file.
+ * <p>
+ * Before touching any files, writers record their intent for the path, which the subsequent put or delete record
+ * resolves. Intents still open when loading the index, point to the paths a crash might have left inconsistent.
+ * <p>
+ * Changes made to the file-system by other means than the store are not tracked.
+ */
+@Slf4j
+final class IndexJournal {
+
+    static final int SNAPSHOT_THRESHOLD = 10_000;
+
+    /*
+     * Bumped with any change of the record encoding, an index of a previous version is discarded,
+     * hence rebuilt by a full scan (that also migrates manifests).
+     */
+    private static final int SNAPSHOT_MAGIC = 0x424C5332; // BLS2
+    private static final int JOURNAL_MAGIC = 0x424C4A32; // BLJ2
+    private static final int JOURNAL_HEADER_LENGTH = 12;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+    private static final byte OP_INTENT = 3;
+
+    private final File snapshotFile;
+    private final File journalFile;
+    private final Supplier<Collection<BlobDescriptor>> liveState;
+
+    private long generation;
+    private int journalRecordCount;
+    /** kept open between appends, closed when a snapshot starts over with a new journal */
+    private @Nullable FileOutputStream journalOut;
+    private @Nullable DataOutputStream journalData;
+    /** of the journal file, continued when appending to a journal that was replayed */
+    private Dictionary journalDictionary = new Dictionary();
+    /** intents appended, but not yet resolved by a put or delete */
+    private final Set<NamedPath> pendingIntents = new HashSet<>();
+    /** intents found open when loading */
+    private Set<NamedPath> recoveredIntents = Set.of();
+
+    /**
+     * @param indexFolder where to keep the index files
+     * @param liveState provides the current descriptors, when taking a snapshot
+     */
+    IndexJournal(final File indexFolder, final Supplier<Collection<BlobDescriptor>> liveState) {
+        this.snapshotFile = new File(indexFolder, "snapshot.bin");
+        this.journalFile = new File(indexFolder, "journal.bin");
+        this.liveState = liveState;
+    }
+
+    /**
+     * Optionally returns the descriptors as recovered from snapshot and journal,
+     * based on whether the index exists and is consistent.
+     */
+    synchronized Optional<Map<NamedPath, BlobDescriptor>> tryLoad() {
+        if(!snapshotFile.exists()) {
+            log.info("no index found at {}", snapshotFile.getParentFile());
+            return Optional.empty();
+        }
+        try {
+            var descriptorsByPath = new HashMap<NamedPath, BlobDescriptor>();
+            var openIntents = new HashSet<NamedPath>();
+            readSnapshot(descriptorsByPath);
+            this.journalRecordCount = replayJournal(descriptorsByPath, openIntents);
+            this.recoveredIntents = Set.copyOf(openIntents);
+            log.info("loaded {} descriptors from index at {}", descriptorsByPath.size(), snapshotFile.getParentFile());
+            return Optional.of(descriptorsByPath);
+        } catch (Exception e) {
+            log.warn("discarding corrupt index at {}: {}", snapshotFile.getParentFile(), e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Paths, whose intent was still open when the index was loaded,
+     * hence need to be reconciled with the file-system.
+     */
+    synchronized Set<NamedPath> recoveredIntents() {
+        return recoveredIntents;
+    }
+
+    /**
+     * Writes the live state to a new snapshot and starts over with a journal,
+     * that only holds the intents still pending.
+     */
+    @SneakyThrows
+    synchronized void writeSnapshot() {
+        FileUtils.makeDir(snapshotFile.getParentFile());
+        var nextGeneration = generation + 1;
+        var tempFile = new File(snapshotFile.getParentFile(), snapshotFile.getName() + ".tmp");
+        // materialize first, as the live state might change while writing
+        var descriptors = List.copyOf(liveState.get());
+        try(var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(nextGeneration);
+            out.writeInt(descriptors.size());
+            var dictionary = new Dictionary();
+            for(var descriptor : descriptors) {
+                writeRecord(out, encodePut(descriptor, dictionary));
+            }
+        }
+        Files.move(tempFile.toPath(), snapshotFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        closeJournal();
+        Files.deleteIfExists(journalFile.toPath());
+        this.generation = nextGeneration;
+        this.journalRecordCount = 0;
+        this.journalDictionary = new Dictionary();
+        this.recoveredIntents = Set.of();
+        for(var path : pendingIntents) {
+            append(encodePath(OP_INTENT, path));
+        }
+    }
+
+    /**
+     * Records the intent to modify the files of given path, to be resolved by {@link #appendPut(BlobDescriptor)}
+     * or {@link #appendDelete(NamedPath)}.
+     */
+    synchronized void appendIntent(final NamedPath path) {
+        pendingIntents.add(path);
+        append(encodePath(OP_INTENT, path));
+    }
+
+    synchronized void appendPut(final BlobDescriptor descriptor) {
+        pendingIntents.remove(descriptor.path());
+        append(encodePut(descriptor, journalDictionary));
+    }
+
+    synchronized void appendDelete(final NamedPath path) {
+        pendingIntents.remove(path);
+        append(encodePath(OP_DELETE, path));
+    }
+
+    /**
+     * Forces all records appended so far to the storage device.
+     */
+    @SneakyThrows
+    synchronized void sync() {
+        if(journalOut==null) return;
+        journalData.flush();
+        journalOut.getFD().sync();
+    }
+
+    @SneakyThrows
+    synchronized void close() {
+        closeJournal();
+    }
+
+    // -- HELPER
+
+    /**
+     * Appends to the journal, without forcing to the storage device (see {@link #sync()}).
+     */
+    @SneakyThrows
+    private synchronized void append(final byte[] payload) {
+        if(journalData==null) {
+            var isNewJournal = !journalFile.exists();
+            this.journalOut = new FileOutputStream(journalFile, true);
+            this.journalData = new DataOutputStream(new BufferedOutputStream(journalOut));
+            if(isNewJournal) {
+                journalData.writeInt(JOURNAL_MAGIC);
+                journalData.writeLong(generation);
+            }
+        }
+        writeRecord(journalData, payload);
+        // hand over to the OS, such that the journal survives a crash of the process
+        journalData.flush();
+        if(++journalRecordCount >= SNAPSHOT_THRESHOLD) {
+            writeSnapshot();
+        }
+    }
+
+    private void closeJournal() throws IOException {
+        if(journalData==null) return;
+        try {
+            journalData.close();
+        } finally {
+            this.journalOut = null;
+            this.journalData = null;
+        }
+    }
+
+    private void readSnapshot(final Map<NamedPath, BlobDescriptor> descriptorsByPath) throws IOException {
+        try(var in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+            if(in.readInt()!=SNAPSHOT_MAGIC) throw new IOException("not a snapshot file");
+            this.generation = in.readLong();
+            var count = in.readInt();
+            var dictionary = new Dictionary();
+            for (int i = 0; i < count; i++) {
+                var payload = readRecord(in, snapshotFile.length());
+                if(payload==null) throw new EOFException("snapshot is truncated");
+                applyRecord(payload, dictionary, descriptorsByPath, new HashSet<>());
+            }
+        }
+    }
+
+    private int replayJournal(
+            final Map<NamedPath, BlobDescriptor> descriptorsByPath,
+            final Set<NamedPath> openIntents) throws IOException {
+        this.journalDictionary = new Dictionary();
+        if(!journalFile.exists()) return 0;
+        if(journalFile.length()<JOURNAL_HEADER_LENGTH) {
+            // cut short while writing its first record, hence holds nothing to replay
+            log.warn("deleting truncated index journal {}", journalFile);
+            Files.delete(journalFile.toPath());
+            return 0;
+        }
+        try(var in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+            if(in.readInt()!=JOURNAL_MAGIC) throw new IOException("not a journal file");
+            if(in.readLong()!=generation) {
+                // left behind by an interrupted snapshot, its content is already covered by the snapshot
+                Files.delete(journalFile.toPath());
+                return 0;
+            }
+            int recordCount = 0;
+            long validLength = JOURNAL_HEADER_LENGTH;
+            while(true) {
+                byte[] payload;
+                try {
+                    payload = readRecord(in, journalFile.length());
+                } catch (EOFException e) {
+                    // the records before are intact, including the intent of the write that was cut short
+                    log.warn("truncating index journal {} at offset {}: {}", journalFile, validLength, e.getMessage());
+                    in.close();
+                    try(var file = new RandomAccessFile(journalFile, "rw")) {
+                        file.setLength(validLength);
+                    }
+                    break;
+                }
+                if(payload==null) break;
+                applyRecord(payload, journalDictionary, descriptorsByPath, openIntents);
+                validLength += 8 + payload.length;
+                recordCount++;
+            }
+            return recordCount;
+        }
+    }
+
+    private static void writeRecord(final DataOutputStream out, final byte[] payload) throws IOException {
+        var crc = new CRC32();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+    }
+
+    /**
+     * Returns {@code null} if the end of the stream was reached before the record starts,
+     * while a record that is cut short throws {@link EOFException}.
+     * That includes the last record failing its checksum, as left behind when its bytes were not all written.
+     */
+    private static byte @Nullable [] readRecord(final DataInputStream in, final long fileLength) throws IOException {
+        var firstByte = in.read();
+        if(firstByte==-1) return null;
+        var length = (firstByte << 24)
+                | (in.readUnsignedByte() << 16)
+                | (in.readUnsignedByte() << 8)
+                | in.readUnsignedByte();
+        if(length<0
+                || length>fileLength) throw new IOException("invalid record length %d".formatted(length));
+        var expectedCrc = in.readInt();
+        var payload = new byte[length];
+        in.readFully(payload);
+        var crc = new CRC32();
+        crc.update(payload);
+        if((int) crc.getValue()!=expectedCrc) {
+            if(in.available()==0) throw new EOFException("last record checksum mismatch");
+            throw new IOException("record checksum mismatch");
+        }
+        return payload;
+    }
+
+    private static void applyRecord(
+            final byte[] payload,
+            final Dictionary dictionary,
+            final Map<NamedPath, BlobDescriptor> descriptorsByPath,
+            final Set<NamedPath> openIntents) throws IOException {
+        var in = new DataInputStream(new ByteArrayInputStream(payload));
+        switch (in.readByte()) {
+            case OP_PUT -> {
+                var descriptor = BlobDescriptorCodec.read(in, dictionary);
+                descriptorsByPath.put(descriptor.path(), descriptor);
+                openIntents.remove(descriptor.path());
+            }
+            case OP_DELETE -> {
+                var path = BlobDescriptorCodec.readPath(in);
+                descriptorsByPath.remove(path);
+                openIntents.remove(path);
+            }
+            case OP_INTENT -> openIntents.add(BlobDescriptorCodec.readPath(in));
+            default -> throw new IOException("unknown record type");
+        }
+    }
+
+    @SneakyThrows
+    private static byte[] encodePut(final BlobDescriptor descriptor, final Dictionary dictionary) {
+        var bytes = new ByteArrayOutputStream(256);
+        var out = new DataOutputStream(bytes);
+        out.writeByte(OP_PUT);
+        BlobDescriptorCodec.write(out, descriptor, dictionary);
+        return bytes.toByteArray();
+    }
+
+    @SneakyThrows
+    private static byte[] encodePath(final byte op, final NamedPath path) {
+        var bytes = new ByteArrayOutputStream(64);
+        var out = new DataOutputStream(bytes);
+        out.writeByte(op);
+        BlobDescriptorCodec.writePath(out, path);
+        return bytes.toByteArray();
+    }
+
+}
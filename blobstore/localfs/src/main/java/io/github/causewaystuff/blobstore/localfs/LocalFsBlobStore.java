@@ -18,16 +18,32 @@
  */
 package io.github.causewaystuff.blobstore.localfs;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
-import java.util.function.Predicate;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
 import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
 
-import org.apache.commons.compress.archivers.sevenz.SevenZMethod;
 import org.jspecify.annotations.NonNull;
 import org.jspecify.annotations.Nullable;
 
@@ -39,45 +55,260 @@ import org.apache.causeway.applib.value.NamedWithMimeType.CommonMimeType;
 import org.apache.causeway.commons.collections.Can;
 import org.apache.causeway.commons.functional.Try;
 import org.apache.causeway.commons.internal.assertions._Assert;
-import org.apache.causeway.commons.internal.functions._Predicates;
-import org.apache.causeway.commons.io.DataSink;
 import org.apache.causeway.commons.io.DataSource;
 import org.apache.causeway.commons.io.FileUtils;
 import org.apache.causeway.commons.io.YamlUtils;
 
 import lombok.SneakyThrows;
-import lombok.Synchronized;
 import lombok.extern.slf4j.Slf4j;
 
+import io.github.causewaystuff.blobstore.applib.BlobChange;
+import io.github.causewaystuff.blobstore.applib.BlobChangeFeed;
+import io.github.causewaystuff.blobstore.applib.BlobContentCodec;
+import io.github.causewaystuff.blobstore.applib.BlobContentCodec.CodecSettings;
 import io.github.causewaystuff.blobstore.applib.BlobDescriptor;
 import io.github.causewaystuff.blobstore.applib.BlobDescriptor.Compression;
+import io.github.causewaystuff.blobstore.applib.BlobDescriptorCodec;
 import io.github.causewaystuff.blobstore.applib.BlobQualifier;
 import io.github.causewaystuff.blobstore.applib.BlobStore;
 import io.github.causewaystuff.blobstore.applib.BlobStoreFactory.BlobStoreConfiguration;
+import io.github.causewaystuff.blobstore.applib.ChangeLog;
+import io.github.causewaystuff.blobstore.applib.CompressionPolicy;
+import io.github.causewaystuff.blobstore.applib.HashingInputStream;
 import io.github.causewaystuff.commons.base.types.NamedPath;
 import io.github.causewaystuff.commons.base.types.ResourceFolder;
-import io.github.causewaystuff.commons.compression.SevenZUtils;
+import io.github.causewaystuff.commons.compression.ZstdUtils;
 
 @Repository
 @Slf4j
-public class LocalFsBlobStore implements BlobStore {
+public class LocalFsBlobStore implements BlobStore, AutoCloseable {
+
+    /**
+     * Configuration property, that selects the {@link Layout}, e.g. {@code layout=content-addressed}.
+     */
+    public static final String PROPERTY_LAYOUT = "layout";
+    /**
+     * Configuration property, that enables write-behind for {@link #putBlobAsync}, e.g. {@code write-behind-millis=50}.
+     * Submitted blobs are buffered for the given window, then written and synced to disk as a batch.
+     */
+    public static final String PROPERTY_WRITE_BEHIND_MILLIS = "write-behind-millis";
+    /**
+     * Configuration property, that bounds the number of worker threads used by {@link #compressAll},
+     * e.g. {@code compress-threads=2}. Defaults to the number of available processors.
+     */
+    public static final String PROPERTY_COMPRESS_THREADS = "compress-threads";
+    /**
+     * Configuration property, that sets the {@link Compression#ZSTD} level, e.g. {@code zstd-level=6}.
+     * Defaults to {@value ZstdUtils#DEFAULT_LEVEL}.
+     */
+    public static final String PROPERTY_ZSTD_LEVEL = "zstd-level";
+    /**
+     * Configuration property, that points to a pre-trained {@link Compression#ZSTD} dictionary file
+     * (see {@link ZstdUtils#trainDictionary}), e.g. {@code zstd-dictionary=/etc/blobstore/cache.dict}.
+     * Once used, the same dictionary must be configured for as long as blobs compressed with it exist.
+     */
+    public static final String PROPERTY_ZSTD_DICTIONARY = "zstd-dictionary";
+    /**
+     * Configuration property, that fans out the files of each folder into {@code 16^width} shard sub-folders,
+     * named by a hash prefix of the blob name, e.g. {@code shard-width=2}. Defaults to {@code 0} (no sharding).
+     * Recommended for folders holding more than some ten thousand blobs.
+     * <p>
+     * When enabled (or its width changed) for an existing store, the store's files are moved into place on startup.
+     */
+    public static final String PROPERTY_SHARD_WIDTH = "shard-width";
+    /**
+     * Configuration property, that enables the {@link #changeFeed()}, retaining at least the given number of changes,
+     * e.g. {@code change-feed-retention=100000}. Changes are kept in segment files below the store's internal folder.
+     */
+    public static final String PROPERTY_CHANGE_FEED_RETENTION = "change-feed-retention";
+
+    /**
+     * How blob files are organized on the file-system.
+     */
+    public enum Layout {
+        /**
+         * Each blob file is stored next to its manifest.
+         */
+        PLAIN,
+        /**
+         * Manifests are stored as with {@link #PLAIN}, but blob files are stored once per distinct content,
+         * keyed by the SHA-256 of the uncompressed bytes (as recorded by the {@code sha256} attribute)
+         * and the compression. Paths with equal content share the same blob file.
+         */
+        CONTENT_ADDRESSED;
+        static Layout parse(final String literal) {
+            return Layout.valueOf(literal.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
+    /**
+     * Outcome of the consistency checks on startup.
+     * @param reconciled paths, whose descriptor was corrected to match the files found
+     * @param orphans files deleted, as left behind by an interrupted write
+     */
+    public record RecoveryReport(
+            Can<NamedPath> reconciled,
+            Can<File> orphans) {
+        public boolean isClean() {
+            return reconciled.isEmpty()
+                    && orphans.isEmpty();
+        }
+    }
 
     private final ResourceFolder rootDirectory;
-    private final Map<NamedPath, BlobDescriptor> descriptorsByPath;
+    private final Sharding sharding;
+    private final DescriptorTree descriptorTree;
+    private final PathLocks pathLocks = new PathLocks();
+    private final IndexJournal indexJournal;
+    /** non-null only with {@link Layout#CONTENT_ADDRESSED} */
+    private final @Nullable ContentStore contentStore;
+    /** non-null only if {@value #PROPERTY_WRITE_BEHIND_MILLIS} is configured */
+    private final @Nullable WriteBehindQueue writeBehind;
+    /** non-null only if {@value #PROPERTY_CHANGE_FEED_RETENTION} is configured */
+    private final @Nullable ChangeLog changeLog;
+    private final int compressThreads;
+    private final CodecSettings codecSettings;
+    private final CompressionPolicy compressionPolicy;
+    private final RecoveryReport recoveryReport;
 
     public LocalFsBlobStore(final BlobStoreConfiguration config) {
         this.rootDirectory = ResourceFolder.ofFile(new File(config.resource()));
-        this.descriptorsByPath = new Scanner(rootDirectory).scan();
+        this.compressionPolicy = config.compressionPolicy();
+        this.codecSettings = new CodecSettings(
+                config.property(PROPERTY_ZSTD_LEVEL)
+                    .map(Integer::parseInt)
+                    .orElse(ZstdUtils.DEFAULT_LEVEL),
+                config.property(PROPERTY_ZSTD_DICTIONARY)
+                    .map(LocalFsBlobStore::readDictionary)
+                    .orElse(null));
+        var layout = config.property(PROPERTY_LAYOUT)
+                .map(Layout::parse)
+                .orElse(Layout.PLAIN);
+        this.contentStore = layout==Layout.CONTENT_ADDRESSED
+                ? new ContentStore(
+                        rootDirectory.relativeFile(NamedPath.of(FileLocator.INTERNAL_FOLDER, "content")))
+                : null;
+        this.sharding = config.property(PROPERTY_SHARD_WIDTH)
+                .map(Sharding::parse)
+                .orElse(Sharding.NONE);
+        var internalFolder = rootDirectory.relativeFile(NamedPath.of(FileLocator.INTERNAL_FOLDER));
+        var previousSharding = Sharding.readMarker(internalFolder);
+        // before recovery, which records the paths it reconciles
+        this.changeLog = config.property(PROPERTY_CHANGE_FEED_RETENTION)
+                .map(Long::parseLong)
+                .map(retention->ChangeLog.ofFolder(new File(internalFolder, "changes"), retention))
+                .orElse(null);
+        this.indexJournal = new IndexJournal(
+                new File(internalFolder, "index"),
+                ()->this.descriptorTree.values());
+        // a changed sharding invalidates the index, as files must be moved by a full scan
+        var indexed = previousSharding.orElse(Sharding.NONE).equals(sharding)
+                ? indexJournal.tryLoad()
+                : Optional.<Map<NamedPath, BlobDescriptor>>empty();
+        RecoveryReport recovered;
+        if(indexed.isPresent()) {
+            this.descriptorTree = new DescriptorTree(indexed.get());
+            // only paths with an open intent can be inconsistent
+            recovered = recover(indexJournal.recoveredIntents());
+        } else {
+            var scanResult = new Scanner(rootDirectory, sharding, this::locate).scan();
+            this.descriptorTree = new DescriptorTree(scanResult.descriptors());
+            recovered = new RecoveryReport(Can.empty(), deleteOrphans(scanResult.orphans()));
+            // full scan was required, so persist its result for the next startup
+            indexJournal.writeSnapshot();
+        }
+        if(!previousSharding.equals(Optional.of(sharding))) {
+            sharding.writeMarker(internalFolder);
+        }
+        if(contentStore!=null) {
+            var contentOrphans = deleteOrphans(contentStore.retainAll(descriptorTree.values()));
+            if(!contentOrphans.isEmpty()) {
+                log.warn("deleted unreferenced content {}", contentOrphans);
+                recovered = new RecoveryReport(recovered.reconciled(), recovered.orphans().addAll(contentOrphans));
+            }
+        }
+        this.recoveryReport = recovered;
+        var writeBehindMillis = config.property(PROPERTY_WRITE_BEHIND_MILLIS)
+                .map(Long::parseLong)
+                .orElse(0L);
+        this.writeBehind = writeBehindMillis>0
+                ? new WriteBehindQueue(writeBehindMillis, this::writeBatch)
+                : null;
+        this.compressThreads = config.property(PROPERTY_COMPRESS_THREADS)
+                .map(Integer::parseInt)
+                .orElseGet(Runtime.getRuntime()::availableProcessors);
+    }
+
+    public RecoveryReport recoveryReport() {
+        return recoveryReport;
+    }
+
+    /**
+     * Drains pending write-behind requests and releases the index journal and change feed.
+     */
+    @Override
+    public void close() {
+        if(writeBehind!=null) {
+            writeBehind.close();
+        }
+        indexJournal.close();
+        if(changeLog!=null) {
+            changeLog.close();
+        }
+    }
+
+    /**
+     * Present only if {@value #PROPERTY_CHANGE_FEED_RETENTION} is configured.
+     * Changes are recorded before they are registered with the index, hence after a crash
+     * a change may be emitted, that was rolled back or is emitted again by recovery.
+     */
+    @Override
+    public Optional<BlobChangeFeed> changeFeed() {
+        return Optional.ofNullable(changeLog);
     }
 
-    @Override @Synchronized
+    @Override
     public BlobDescriptor putBlob(@NonNull final NamedPath path, @NonNull final Blob blob,
         @Nullable final UnaryOperator<BlobDescriptor> customizer) {
+        awaitPending(path);
+        return writeBlob(path, blob, customizer);
+    }
+
+    /**
+     * With write-behind enabled (see {@value #PROPERTY_WRITE_BEHIND_MILLIS}),
+     * the blob is buffered and the returned future completes, once the batch it belongs to is synced to disk.
+     * Superseded puts to the same path within a window are dropped, their futures completing with the latest descriptor.
+     * <p>
+     * Otherwise, writes synchronously.
+     */
+    @Override
+    public CompletableFuture<BlobDescriptor> putBlobAsync(@NonNull final NamedPath path, @NonNull final Blob blob,
+        @Nullable final UnaryOperator<BlobDescriptor> customizer) {
+        return writeBehind!=null
+                ? writeBehind.submit(path, blob, customizer)
+                : BlobStore.super.putBlobAsync(path, blob, customizer);
+    }
+
+    @Override
+    public void flush() {
+        if(writeBehind!=null) {
+            writeBehind.drain();
+        }
+        indexJournal.sync();
+        if(changeLog!=null) {
+            changeLog.sync();
+        }
+    }
+
+    private BlobDescriptor writeBlob(final NamedPath path, final Blob blob,
+        @Nullable final UnaryOperator<BlobDescriptor> customizer) {
 
         _Assert.assertEquals(BlobDescriptor.Compression.NONE, BlobDescriptor.Compression.valueOf(blob.mimeType()),
             ()->"putBlob does not support compressed Blobs, instead pass an uncompressed blob, then set the desired compression with a customizer");
 
-        var blobDescriptor = new BlobDescriptor(
+        // hashing does not require the lock
+        var sha256 = HashingInputStream.sha256Hex(blob.bytes());
+        var initialDescriptor = new BlobDescriptor(
             path,
             CommonMimeType.valueOf(blob.mimeType()).orElseThrow(),
             null,
@@ -86,152 +317,638 @@ public class LocalFsBlobStore implements BlobStore {
             Compression.NONE,
             Map.of(
                 "uncompressed-size", "" + blob.bytes().length,
-                "sha256", blob.sha256Hex()),
+                ContentStore.SHA256_ATTRIBUTE, sha256),
             Can.empty());
+        var policyDescriptor = compressionPolicy.applyTo(initialDescriptor, blob.bytes().length,
+                Arrays.copyOf(blob.bytes(), Math.min(blob.bytes().length, CompressionPolicy.SAMPLE_SIZE)));
 
-        blobDescriptor = customizer!=null
-            ? Optional
-                .ofNullable(customizer.apply(blobDescriptor))
-                .orElse(blobDescriptor)
-            : blobDescriptor;
+        return pathLocks.write(path, ()->{
+            var blobDescriptor = customize(policyDescriptor, customizer);
+            var previous = descriptorTree.get(path).orElse(null);
+
+            if(contentStore!=null) {
+                // the content hash is the reference to the blob file
+                blobDescriptor = blobDescriptor.withAttribute(ContentStore.SHA256_ATTRIBUTE, sha256);
+            }
+            var locator = locate(blobDescriptor);
+            locator.makeDir();
+            indexJournal.appendIntent(path);
+            var compression = blobDescriptor.compression();
+            if(contentStore!=null) {
+                contentStore.storeIfAbsent(blobDescriptor, contentFile->
+                    writeBlobFile(contentFile, compression, blob.name(), new ByteArrayInputStream(blob.bytes())));
+            } else {
+                var tempFile = FileLocator.tempFileFor(locator.blobFile());
+                writeBlobFile(tempFile, compression, blob.name(), new ByteArrayInputStream(blob.bytes()));
+                moveIntoPlace(tempFile, locator.blobFile());
+            }
 
-        var blobToStore = switch (blobDescriptor.compression()) {
-                case NONE -> blob;
-                case ZIP -> blob.zip();
-                case SEVEN_ZIP -> SevenZUtils.compress(blob, SevenZMethod.LZMA2);
-            };
+            return writeDescriptor(locator, blobDescriptor
+                .withSize(locator.blobFile().length()), previous, BlobChange.Type.PUT);
+        });
+    }
 
-        blobDescriptor = blobDescriptor
-            .withSize(blobToStore.bytes().length);
+    @Override
+    public BlobDescriptor putBlob(@NonNull final NamedPath path, @NonNull final CommonMimeType mimeType,
+        @NonNull final InputStream content, @Nullable final UnaryOperator<BlobDescriptor> customizer) {
+        awaitPending(path);
+        // peek at the leading bytes, without consuming them
+        var bufferedContent = new BufferedInputStream(content, 2 * CompressionPolicy.SAMPLE_SIZE);
+        var sample = peek(bufferedContent, CompressionPolicy.SAMPLE_SIZE);
+        var policyDescriptor = compressionPolicy.applyTo(new BlobDescriptor(
+                path,
+                mimeType,
+                null,
+                Instant.now(),
+                0L,
+                Compression.NONE,
+                Map.of(),
+                Can.empty()), -1L, sample);
+        return pathLocks.write(path, ()->{
+            var blobDescriptor = customize(policyDescriptor, customizer);
+            var previous = descriptorTree.get(path).orElse(null);
 
-        var locator = FileLocator.of(rootDirectory, blobDescriptor);
-        locator.makeDir();
+            // with content-addressed layout, the target is only known once the content is hashed
+            var plainLocator = FileLocator.of(rootDirectory, sharding, blobDescriptor);
+            plainLocator.makeDir();
+            indexJournal.appendIntent(path);
+            var targetFile = contentStore!=null
+                    ? contentStore.newTempFile()
+                    : FileLocator.tempFileFor(plainLocator.blobFile());
 
-        // TODO specify override behavior
-        blobToStore.writeTo(locator.blobFile());
-        DescriptorDto.of(blobDescriptor).writeTo(locator.manifestFile());
+            // not closing, as the caller owns the stream
+            var hashingInputStream = new HashingInputStream(bufferedContent);
+            writeBlobFile(targetFile, blobDescriptor.compression(), path.lastNameElseFail(), hashingInputStream);
 
-        descriptorsByPath.put(blobDescriptor.path(), blobDescriptor);
-        log.info("Blob written {}", blobDescriptor);
+            var attributes = new HashMap<String, String>();
+            attributes.put("uncompressed-size", "" + hashingInputStream.count());
+            attributes.put(ContentStore.SHA256_ATTRIBUTE, hashingInputStream.sha256Hex());
+            attributes.putAll(blobDescriptor.attributes());
+            blobDescriptor = blobDescriptor.withAttributes(Map.copyOf(attributes));
 
-        return blobDescriptor;
+            if(contentStore!=null) {
+                // the content hash is the reference to the blob file
+                blobDescriptor = blobDescriptor.withAttribute(ContentStore.SHA256_ATTRIBUTE, hashingInputStream.sha256Hex());
+                contentStore.storeWritten(blobDescriptor, targetFile);
+            } else {
+                moveIntoPlace(targetFile, plainLocator.blobFile());
+            }
+
+            var locator = locate(blobDescriptor);
+            return writeDescriptor(locator, blobDescriptor
+                .withSize(locator.blobFile().length()), previous, BlobChange.Type.PUT);
+        });
     }
 
-    @Override @Synchronized
+    @Override
     public Can<BlobDescriptor> listDescriptors(
             final @Nullable NamedPath path,
             final @Nullable Can<BlobQualifier> qualifiers,
             final boolean recursive) {
-        var qualifierDiscriminator = satisfiesAll(qualifiers);
+        return streamDescriptors(path, qualifiers, recursive, null)
+                .collect(Can.toCan());
+    }
+
+    /**
+     * Iterates the in-memory index in key order, that is, by parent path compared name by name, then by name.
+     * Hence the blobs of a folder are listed before those of its sub-folders.
+     */
+    @Override
+    public Stream<BlobDescriptor> streamDescriptors(
+            final @Nullable NamedPath path,
+            final @Nullable Can<BlobQualifier> qualifiers,
+            final boolean recursive,
+            final @Nullable NamedPath after) {
+        if(writeBehind!=null
+                && writeBehind.isAnyPending()) {
+            writeBehind.drain();
+        }
+        if(path==null
+                && !recursive) {
+            return Stream.empty();
+        }
+        var folder = path!=null
+                ? path
+                : NamedPath.empty();
+        if(qualifiers!=null
+                && !qualifiers.isEmpty()) {
+            return descriptorTree.streamQualified(folder, qualifiers, recursive, after);
+        }
         return recursive
-                ? descriptorsByPath.values().stream()
-                    .filter(descriptor->descriptor.path().startsWith(path))
-                    .filter(qualifierDiscriminator)
-                    .collect(Can.toCan())
-                : descriptorsByPath.values().stream()
-                    .filter(descriptor->descriptor.path().parentElseFail().equals(path))
-                    .filter(qualifierDiscriminator)
-                    .collect(Can.toCan());
+                ? descriptorTree.streamSubtree(folder, after)
+                : descriptorTree.streamChildren(folder, after);
     }
 
-    @Override @Synchronized
+    @Override
     public Optional<BlobDescriptor> lookupDescriptor(final @Nullable NamedPath path) {
-        return Optional.ofNullable(descriptorsByPath.get(path));
+        awaitPending(path);
+        return descriptorTree.get(path);
     }
 
 	@Override
 	public Optional<BlobDescriptor> updateDescriptor(
 			final NamedPath path,
 			final UnaryOperator<BlobDescriptor> customizer) {
-		return lookupDescriptor(path)
-			.map(customizer::apply)
-			.map(updatedDescriptor->{
-				var locator = FileLocator.of(rootDirectory, updatedDescriptor);
+		awaitPending(path);
+		return pathLocks.write(path, ()->descriptorTree.get(path)
+			.map(descriptor->{
+				var updatedDescriptor = customizer.apply(descriptor);
+				if(contentStore!=null) {
+					// the content reference must not be altered
+					updatedDescriptor = updatedDescriptor.withAttribute(ContentStore.SHA256_ATTRIBUTE,
+						descriptor.attributes().get(ContentStore.SHA256_ATTRIBUTE));
+				}
+				var locator = locate(updatedDescriptor);
 				DescriptorDto.of(updatedDescriptor).writeTo(locator.manifestFile());
-				descriptorsByPath.put(path, updatedDescriptor);
+				descriptorTree.put(updatedDescriptor);
+				recordChange(BlobChange.Type.UPDATE, path, updatedDescriptor);
+				indexJournal.appendPut(updatedDescriptor);
 				return updatedDescriptor;
-			});
+			}));
 	}
 
     @Override
     public Optional<Blob> lookupBlob(final @Nullable NamedPath path) {
+        awaitPending(path);
         return lookupBlob(path, null);
     }
 
     @Override
     public Optional<Blob> lookupBlobAndUncompress(final @Nullable NamedPath path) {
+        awaitPending(path);
         return lookupBlob(path, Compression.NONE);
     }
 
-    @Synchronized
     private Optional<Blob> lookupBlob(
             @Nullable final NamedPath path,
             @Nullable final Compression desiredCompression) {
-        var descriptor = lookupDescriptor(path).orElse(null);
-        if(descriptor==null) {
-            return Optional.empty();
-        }
-        var locator = FileLocator.of(rootDirectory, descriptor);
-        _Assert.assertTrue(locator.hasBlob(),
-                ()->String.format("missing blob for path %s", path));
-        var blobAsStored =  Blob.tryRead(
-                descriptor.path().lastNameElseFail(),
-                switch (descriptor.compression()) {
-                    case NONE -> descriptor.mimeType();
-                    case ZIP -> CommonMimeType.ZIP;
-                    case SEVEN_ZIP -> CommonMimeType._7Z;
-                },
-                locator.blobFile())
-                .getValue();
-        return desiredCompression!=null
-                ? blobAsStored.map(blob->CompressUtils.recompressBlob(
-                                blob,
-                                descriptor.mimeType(),
-                                descriptor.compression(),
-                                desiredCompression))
-                : blobAsStored;
-    }
-
-    @Override @Synchronized
+        return pathLocks.read(path, ()->locateBlob(path)
+            .flatMap(locator->{
+                var descriptor = locator.blobDescriptor();
+                if(desiredCompression==Compression.NONE
+                        && descriptor.compression()!=Compression.NONE) {
+                    // uncompress on the fly, without holding the compressed bytes in memory
+                    return Optional.of(readUncompressed(locator));
+                }
+                var name = descriptor.path().lastNameElseFail();
+                var blobAsStored = Blob.tryRead(name, descriptor.mimeType(), locator.blobFile())
+                        .getValue()
+                        .map(blob->descriptor.compression()!=Compression.NONE
+                                ? CompressUtils.asStored(name, descriptor.compression(), blob.bytes())
+                                : blob);
+                return desiredCompression!=null
+                        ? blobAsStored.map(blob->CompressUtils.recompressBlob(
+                                        blob,
+                                        descriptor.mimeType(),
+                                        descriptor.compression(),
+                                        desiredCompression,
+                                        codecSettings))
+                        : blobAsStored;
+            }));
+    }
+
+    /**
+     * Memory-maps the blob file (read-only), such that no copy is made and no heap is allocated.
+     * Blobs are limited to {@link Integer#MAX_VALUE} bytes.
+     */
+    @Override
+    public Optional<ByteBuffer> mapBlob(final @Nullable NamedPath path) {
+        awaitPending(path);
+        return pathLocks.read(path, ()->locateBlob(path)
+            .map(locator->mapReadOnly(locator.blobFile())));
+    }
+
+    /**
+     * Uncompressed blobs are read positioned, {@link Compression#LZ4} and {@link Compression#ZSTD} blobs
+     * only have the blocks (frames) decompressed, that the range touches.
+     */
+    @Override
+    public Optional<byte[]> readRange(final @Nullable NamedPath path, final long offset, final int length) {
+        if(offset<0
+                || length<0) throw new IllegalArgumentException("invalid range: offset %d, length %d".formatted(offset, length));
+        awaitPending(path);
+        return pathLocks.read(path, ()->locateBlob(path)
+            .map(locator->CompressUtils.readRange(
+                locator.blobFile(),
+                locator.blobDescriptor().compression(),
+                offset,
+                length,
+                codecSettings)));
+    }
+
+    @Override
+    public Optional<InputStream> openBlob(final @Nullable NamedPath path) {
+        return openBlob(path, false);
+    }
+
+    @Override
+    public Optional<InputStream> openBlobAndUncompress(final @Nullable NamedPath path) {
+        return openBlob(path, true);
+    }
+
+    private Optional<InputStream> openBlob(
+            @Nullable final NamedPath path,
+            final boolean uncompress) {
+        awaitPending(path);
+        return pathLocks.read(path, ()->locateBlob(path)
+            .map(locator->BlobContentCodec.uncompressingInputStream(
+                locator.blobFile(),
+                uncompress
+                    ? locator.blobDescriptor().compression()
+                    : Compression.NONE,
+                codecSettings)));
+    }
+
+    @Override
     public void deleteBlob(final @Nullable NamedPath path) {
-        var descriptor = lookupDescriptor(path).orElse(null);
-        if(descriptor==null) return;
+        awaitPending(path);
+        delete(path);
+    }
 
-        var locator = FileLocator.of(rootDirectory, descriptor);
-        var manifestFile = locator.manifestFile();
-        var blobFile = locator.blobFile();
+    private void delete(final @Nullable NamedPath path) {
+        pathLocks.write(path, ()->{
+            var descriptor = descriptorTree.get(path).orElse(null);
+            if(descriptor==null) return;
 
-        if(blobFile.exists()) {
-            Try.run(()->FileUtils.deleteFile(blobFile));
-        }
-        if(manifestFile.exists()) {
-            Try.run(()->FileUtils.deleteFile(manifestFile));
-        }
-        descriptorsByPath.remove(path);
+            var locator = locate(descriptor);
+            var manifestFile = locator.manifestFile();
+
+            indexJournal.appendIntent(path);
+            releaseBlobFile(descriptor);
+            if(manifestFile.exists()) {
+                Try.run(()->FileUtils.deleteFile(manifestFile));
+            }
+            descriptorTree.remove(path);
+            recordChange(BlobChange.Type.DELETE, path, null);
+            indexJournal.appendDelete(path);
+        });
     }
 
     @Override
     public Optional<BlobDescriptor> compress(
             final @NonNull BlobDescriptor blobDescriptor,
             final BlobDescriptor.@NonNull Compression compression) {
-        var oldCompression = blobDescriptor.compression();
-        if(oldCompression.equals(compression)) return Optional.of(blobDescriptor);
+        var path = blobDescriptor.path();
+        awaitPending(path);
+        return pathLocks.write(path, ()->locateBlob(path)
+            .map(oldLocator->{
+                // derive from the current descriptor, as given one might be stale (eg. a listing snapshot)
+                var previous = oldLocator.blobDescriptor();
+                if(previous.compression().equals(compression)) return previous;
+                var newDescriptor = previous.withCompression(compression);
+                // stream from the old file into a temp file, leaving the old blob in place until replaced
+                indexJournal.appendIntent(path);
+                var tempFile = contentStore!=null
+                        ? contentStore.newTempFile()
+                        : FileLocator.tempFileFor(locate(newDescriptor).blobFile());
+                try {
+                    transcode(oldLocator.blobFile(), previous.compression(),
+                            tempFile, compression, path.lastNameElseFail());
+                    if(contentStore!=null) {
+                        contentStore.storeWritten(newDescriptor, tempFile);
+                    } else {
+                        moveIntoPlace(tempFile, locate(newDescriptor).blobFile());
+                    }
+                } finally {
+                    if(tempFile.exists()) {
+                        Try.run(()->FileUtils.deleteFile(tempFile));
+                    }
+                }
+                // switch the manifest over, then release the old blob file
+                var newLocator = locate(newDescriptor);
+                return writeDescriptor(newLocator, newDescriptor
+                    .withSize(newLocator.blobFile().length()), previous, BlobChange.Type.UPDATE);
+            }));
+    }
+
+    /**
+     * Recompresses all blobs under given prefix (recursively) that are not already compressed as requested,
+     * using a bounded pool of {@value #PROPERTY_COMPRESS_THREADS} workers.
+     */
+    @Override
+    public Can<BlobDescriptor> compressAll(
+            final @Nullable NamedPath prefix,
+            final BlobDescriptor.@NonNull Compression compression) {
+        var candidates = listDescriptors(prefix!=null ? prefix : NamedPath.empty(), true)
+            .filter(descriptor->descriptor.compression()!=compression);
+        if(candidates.isEmpty()) return Can.empty();
+        try(var executor = Executors.newFixedThreadPool(Math.min(compressThreads, candidates.size()))) {
+            var futures = candidates.stream()
+                .map(descriptor->CompletableFuture.supplyAsync(()->compress(descriptor, compression), executor))
+                .toList();
+            return futures.stream()
+                .map(CompletableFuture::join)
+                .flatMap(Optional::stream)
+                .collect(Can.toCan());
+        }
+    }
 
-        var oldBlob = lookupBlob(blobDescriptor.path()).orElse(null);
-        if(oldBlob==null) return Optional.empty();
+    // -- SCRUBBING
 
-        var newDescriptor = blobDescriptor.withCompression(compression);
-        deleteBlob(blobDescriptor.path());
-        return Optional.of(putBlob(
-            blobDescriptor.path(),
-            CompressUtils.uncompressBlob(
-                    oldBlob, blobDescriptor.mimeType(),
-                    oldCompression),
-            desc->newDescriptor));
+    /**
+     * Folder reserved for the store's own bookkeeping, see {@link FileLocator#INTERNAL_FOLDER}.
+     */
+    File internalFolder() {
+        return rootDirectory.relativeFile(NamedPath.of(FileLocator.INTERNAL_FOLDER));
+    }
+
+    /**
+     * Opens the blob file of given descriptor for the {@link BlobScrubber} to verify, uncompressing on the fly.
+     * The path lock is held only while opening, such that writers are not blocked by the (throttled) read.
+     * A blob file replaced meanwhile is still read as opened.
+     * @return empty if the blob file is missing
+     */
+    Optional<InputStream> openForVerification(final BlobDescriptor descriptor) {
+        var path = descriptor.path();
+        awaitPending(path);
+        return pathLocks.read(path, ()->{
+            var locator = locate(descriptor);
+            return locator.hasBlob()
+                    ? Optional.of(BlobContentCodec.uncompressingInputStream(
+                            locator.blobFile(), descriptor.compression(), codecSettings))
+                    : Optional.<InputStream>empty();
+        });
     }
 
     // -- HELPER
 
+    /**
+     * Reconciles the paths, that a crash might have left inconsistent, with the file-system:
+     * <ul>
+     * <li>temporary files are deleted,</li>
+     * <li>a manifest without blob file is deleted, along with its descriptor,</li>
+     * <li>a blob file without manifest is adopted, as a full scan would,</li>
+     * <li>otherwise the descriptor is read from the manifest, with size and checksum updated to match the blob file.</li>
+     * </ul>
+     */
+    private RecoveryReport recover(final Set<NamedPath> intents) {
+        if(intents.isEmpty()) return new RecoveryReport(Can.empty(), Can.empty());
+        log.warn("recovering {} paths with unfinished writes", intents.size());
+        var reconciled = new ArrayList<NamedPath>();
+        var orphans = new ArrayList<File>();
+        for(var path : intents) {
+            var manifestFile = FileLocator.manifestFile(rootDirectory, sharding, path);
+            var baseName = path.lastNameElseFail();
+            var tempFiles = manifestFile.getParentFile()
+                    .listFiles((dir, name)->name.startsWith(baseName) && name.endsWith(FileLocator.TEMP_SUFFIX));
+            if(tempFiles!=null) {
+                orphans.addAll(List.of(tempFiles));
+            }
+            var recovered = manifestFile.exists()
+                    ? recoverFromManifest(manifestFile, orphans)
+                    : recoverFromBlobFile(path);
+            var before = descriptorTree.get(path).orElse(null);
+            if(recovered!=null) {
+                if(!recovered.equals(before)) {
+                    reconciled.add(path);
+                    recordChange(BlobChange.Type.PUT, path, recovered);
+                }
+                descriptorTree.put(recovered);
+                indexJournal.appendPut(recovered);
+            } else {
+                if(before!=null) {
+                    reconciled.add(path);
+                    recordChange(BlobChange.Type.DELETE, path, null);
+                }
+                descriptorTree.remove(path);
+                indexJournal.appendDelete(path);
+            }
+        }
+        indexJournal.writeSnapshot();
+        var report = new RecoveryReport(Can.ofCollection(reconciled), deleteOrphans(orphans));
+        log.warn("recovery reconciled {}, deleted orphans {}", report.reconciled(), report.orphans());
+        return report;
+    }
+
+    private @Nullable BlobDescriptor recoverFromManifest(final File manifestFile, final List<File> orphans) {
+        var descriptor = FileLocator.forManifestFile(rootDirectory, sharding, manifestFile).blobDescriptor();
+        var locator = locate(descriptor);
+        if(!locator.hasBlob()) {
+            orphans.add(manifestFile);
+            return null;
+        }
+        var reconciled = descriptor.withSize(locator.blobFile().length());
+        if(contentStore==null
+                && descriptor.attributes().containsKey(ContentStore.SHA256_ATTRIBUTE)) {
+            // the blob file might stem from a later write than the manifest
+            try(var in = new HashingInputStream(
+                    BlobContentCodec.uncompressingInputStream(locator.blobFile(), descriptor.compression(), codecSettings))) {
+                in.transferTo(OutputStream.nullOutputStream());
+                var sha256 = in.sha256Hex();
+                if(!sha256.equals(descriptor.attributes().get(ContentStore.SHA256_ATTRIBUTE))) {
+                    reconciled = reconciled
+                        .withAttribute(ContentStore.SHA256_ATTRIBUTE, sha256)
+                        .withAttribute("uncompressed-size", "" + in.count());
+                }
+            } catch (Exception e) {
+                log.error("blob file {} is unreadable", locator.blobFile(), e);
+            }
+        }
+        return reconciled;
+    }
+
+    private @Nullable BlobDescriptor recoverFromBlobFile(final NamedPath path) {
+        if(contentStore!=null) return null; // content files are not associated with a path, without manifest
+        var parent = FileLocator.manifestFile(rootDirectory, sharding, path).getParentFile();
+        for(var compression : Compression.values()) {
+            var blobFile = new File(parent, path.lastNameElseFail() + compression.fileSuffix());
+            if(blobFile.isFile()) return FileLocator.forBlobFile(rootDirectory, sharding, blobFile).blobDescriptor();
+        }
+        return null;
+    }
+
+    private static Can<File> deleteOrphans(final List<File> orphans) {
+        orphans.forEach(orphan->Try.run(()->FileUtils.deleteFile(orphan)));
+        return Can.ofCollection(orphans);
+    }
+
+    /**
+     * Read-your-writes: drains the write-behind queue, if it holds a write to given path.
+     * Must not be called while holding a path lock, as the batch writer acquires path locks.
+     */
+    private void awaitPending(final @Nullable NamedPath path) {
+        if(writeBehind!=null
+                && writeBehind.isPending(path)) {
+            writeBehind.drain();
+        }
+    }
+
+    /**
+     * Writes a write-behind batch, then syncs all files involved at once, before completing the futures.
+     */
+    private void writeBatch(final List<WriteBehindQueue.PendingPut> batch) {
+        var written = new ArrayList<Map.Entry<WriteBehindQueue.PendingPut, BlobDescriptor>>(batch.size());
+        var filesToSync = new ArrayList<File>(batch.size() * 2);
+        for(var pendingPut : batch) {
+            try {
+                var descriptor = writeBlob(pendingPut.path(), pendingPut.blob(), pendingPut.customizer());
+                var locator = locate(descriptor);
+                filesToSync.add(locator.blobFile());
+                filesToSync.add(locator.manifestFile());
+                written.add(Map.entry(pendingPut, descriptor));
+            } catch (Exception e) {
+                pendingPut.fail(e);
+            }
+        }
+        filesToSync.forEach(LocalFsBlobStore::sync);
+        indexJournal.sync();
+        written.forEach(entry->entry.getKey().complete(entry.getValue()));
+        log.debug("write-behind batch of {} blobs synced", written.size());
+    }
+
+    @SneakyThrows
+    private static void sync(final File file) {
+        if(!file.exists()) return; // e.g. content file released by a later put
+        try(var channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private static BlobDescriptor customize(
+            final BlobDescriptor blobDescriptor,
+            final @Nullable UnaryOperator<BlobDescriptor> customizer) {
+        return customizer!=null
+            ? Optional
+                .ofNullable(customizer.apply(blobDescriptor))
+                .orElse(blobDescriptor)
+            : blobDescriptor;
+    }
+
+    /**
+     * Optionally returns the {@link FileLocator} for given path, based on existence.
+     * Fails if the descriptor exists, but the blob file does not.
+     */
+    private Optional<FileLocator> locateBlob(final @Nullable NamedPath path) {
+        return descriptorTree.get(path)
+            .map(descriptor->{
+                var locator = locate(descriptor);
+                _Assert.assertTrue(locator.hasBlob(),
+                        ()->String.format("missing blob for path %s", path));
+                return locator;
+            });
+    }
+
+    /**
+     * Streams the content of the source file into the target file, uncompressing and compressing on the fly.
+     */
+    @SneakyThrows
+    private void transcode(
+            final File source, final Compression sourceCompression,
+            final File target, final Compression targetCompression,
+            final String entryName) {
+        try(var in = BlobContentCodec.uncompressingInputStream(source, sourceCompression, codecSettings)) {
+            writeBlobFile(target, targetCompression, entryName, in);
+        }
+    }
+
+    @SneakyThrows
+    private static void moveIntoPlace(final File tempFile, final File target) {
+        Files.move(tempFile.toPath(), target.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @SneakyThrows
+    private static byte[] peek(final BufferedInputStream in, final int maxLength) {
+        in.mark(maxLength);
+        var bytes = in.readNBytes(maxLength);
+        in.reset();
+        return bytes;
+    }
+
+    @SneakyThrows
+    private static byte[] readDictionary(final String dictionaryFile) {
+        return Files.readAllBytes(new File(dictionaryFile).toPath());
+    }
+
+    @SneakyThrows
+    private static ByteBuffer mapReadOnly(final File file) {
+        // the mapping stays valid after the channel is closed
+        try(var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Resolves manifest and blob file of given descriptor, honoring the {@link Layout}.
+     */
+    private FileLocator locate(final BlobDescriptor descriptor) {
+        var locator = FileLocator.of(rootDirectory, sharding, descriptor);
+        return contentStore!=null
+                ? locator.withBlobFile(contentStore.contentFile(descriptor))
+                : locator;
+    }
+
+    /**
+     * Streams given content to given file, compressing on the fly.
+     */
+    @SneakyThrows
+    private void writeBlobFile(
+            final File blobFile,
+            final Compression compression,
+            final String entryName,
+            final InputStream content) {
+        try(var out = BlobContentCodec.compressingOutputStream(blobFile, entryName, compression, codecSettings)) {
+            content.transferTo(out);
+        }
+    }
+
+    /**
+     * Deletes the blob file of given descriptor, or with {@link Layout#CONTENT_ADDRESSED}
+     * releases the reference to its content.
+     */
+    private void releaseBlobFile(final BlobDescriptor descriptor) {
+        if(contentStore!=null) {
+            contentStore.release(descriptor);
+            return;
+        }
+        var blobFile = FileLocator.of(rootDirectory, sharding, descriptor).blobFile();
+        if(blobFile.exists()) {
+            Try.run(()->FileUtils.deleteFile(blobFile));
+        }
+    }
+
+    @SneakyThrows
+    private Blob readUncompressed(final FileLocator locator) {
+        var descriptor = locator.blobDescriptor();
+        try(var in = BlobContentCodec.uncompressingInputStream(locator.blobFile(), descriptor.compression(), codecSettings)) {
+            return Blob.of(descriptor.path().lastNameElseFail(), descriptor.mimeType(), in.readAllBytes());
+        }
+    }
+
+    /**
+     * Writes the manifest and registers the descriptor, then releases the blob file of the previous
+     * descriptor at the same path (if any), unless it is the very same file.
+     */
+    private BlobDescriptor writeDescriptor(
+            final FileLocator locator,
+            final BlobDescriptor blobDescriptor,
+            final @Nullable BlobDescriptor previous,
+            final BlobChange.Type changeType) {
+        DescriptorDto.of(blobDescriptor).writeTo(locator.manifestFile());
+        if(previous!=null) {
+            if(contentStore!=null) {
+                contentStore.release(previous);
+            } else if(previous.compression()!=blobDescriptor.compression()) {
+                // blob file name differs by compression suffix, so the old one is stale
+                releaseBlobFile(previous);
+            }
+        }
+        descriptorTree.put(blobDescriptor);
+        recordChange(changeType, blobDescriptor.path(), blobDescriptor);
+        indexJournal.appendPut(blobDescriptor);
+        log.debug("Blob written {}", blobDescriptor);
+        return blobDescriptor;
+    }
+
+    /**
+     * Records the change ahead of resolving the intent with the index journal, such that
+     * a change is never lost by a crash in between (but may be emitted twice).
+     */
+    private void recordChange(final BlobChange.Type type, final NamedPath path, final @Nullable BlobDescriptor descriptor) {
+        if(changeLog==null) return;
+        changeLog.append(type, path, descriptor);
+    }
+
     /** used for serializing to file */
     static record DescriptorDto(
             CommonMimeType mimeType,
@@ -250,8 +967,18 @@ public class LocalFsBlobStore implements BlobStore {
                     blobDescriptor.attributes(),
                     blobDescriptor.qualifiers());
         }
+        /**
+         * Reads a binary manifest, or a YAML manifest as written before binary ones were introduced.
+         */
+        @SneakyThrows
         static DescriptorDto readFrom(final File file) {
-            var descriptorDto = YamlUtils.tryRead(DescriptorDto.class, DataSource.ofFile(file))
+            var bytes = Files.readAllBytes(file.toPath());
+            if(BlobDescriptorCodec.isEncoded(bytes)) {
+                return Try.call(()->of(BlobDescriptorCodec.decodeManifest(bytes, NamedPath.empty())))
+                        .mapFailure(ex->new UnrecoverableException("failed to decode file %s".formatted(file), ex))
+                        .valueAsNonNullElseFail();
+            }
+            var descriptorDto = YamlUtils.tryRead(DescriptorDto.class, DataSource.ofBytes(bytes))
                     .mapFailure(ex->new UnrecoverableException("failed to parse file %s".formatted(file), ex))
                     .valueAsNonNullElseFail();
             return descriptorDto;
@@ -270,11 +997,9 @@ public class LocalFsBlobStore implements BlobStore {
                     ? fileNameParts.names().getRelativeToLastElseFail(-1).toUpperCase()
                     : null;
 
-            final Compression compression = switch(last) {
-                case "ZIP" -> Compression.ZIP;
-                case "7Z" -> Compression.SEVEN_ZIP;
-                default -> Compression.NONE;
-            };
+            final Compression compression = fileNameParts.nameCount()>1
+                    ? Compression.valueOfFileName(blobFile.getName())
+                    : Compression.NONE;
 
             final CommonMimeType mime = compression == Compression.NONE
                     ? CommonMimeType.valueOfFileExtension(last)
@@ -295,8 +1020,14 @@ public class LocalFsBlobStore implements BlobStore {
                     Can.empty());
             return blobDescriptor;
         }
+        /**
+         * Writes a binary manifest to a temporary file first, then atomically replaces given file.
+         */
+        @SneakyThrows
         void writeTo(final File file) {
-            YamlUtils.write(this, DataSink.ofFile(file));
+            var tempFile = FileLocator.tempFileFor(file);
+            Files.write(tempFile.toPath(), BlobDescriptorCodec.encodeManifest(toBlobDescriptor(NamedPath.empty())));
+            moveIntoPlace(tempFile, file);
         }
         BlobDescriptor toBlobDescriptor(final NamedPath path) {
             var blobDescriptor = new BlobDescriptor(
@@ -312,12 +1043,4 @@ public class LocalFsBlobStore implements BlobStore {
         }
     }
 
-    private Predicate<BlobDescriptor> satisfiesAll(final @Nullable Can<BlobQualifier> requiredQualifiers) {
-        if(requiredQualifiers==null
-                || requiredQualifiers.isEmpty())
-			return _Predicates.alwaysTrue();
-        var required = requiredQualifiers.toSet();
-        return desc -> desc.qualifiers().toSet().containsAll(required);
-    }
-
 }
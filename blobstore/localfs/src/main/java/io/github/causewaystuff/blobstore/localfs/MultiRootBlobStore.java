@@ -0,0 +1,433 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.localfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import org.apache.causeway.applib.value.Blob;
+import org.apache.causeway.applib.value.NamedWithMimeType.CommonMimeType;
+import org.apache.causeway.commons.collections.Can;
+import org.apache.causeway.commons.internal.assertions._Assert;
+import org.apache.causeway.commons.internal.exceptions._Exceptions;
+
+import lombok.extern.slf4j.Slf4j;
+
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor;
+import io.github.causewaystuff.blobstore.applib.BlobQualifier;
+import io.github.causewaystuff.blobstore.applib.BlobStore;
+import io.github.causewaystuff.blobstore.applib.BlobStoreFactory.BlobStoreConfiguration;
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+/**
+ * {@link BlobStore} spanning multiple root directories (e.g. one per disk), each managed by its own {@link LocalFsBlobStore}.
+ * <p>
+ * The {@link BlobStoreConfiguration#resource()} lists the roots, separated by comma,
+ * each optionally followed by a capacity weight, e.g. {@code /mnt/nvme0=2,/mnt/nvme1=1}.
+ * Weights default to {@code 1}. All other configuration is passed on to each root's store.
+ * <p>
+ * Each path is owned by exactly one root, as chosen by weighted rendezvous hashing on the path:
+ * the expected share of blobs per root is proportional to its weight,
+ * and adding or removing a root only re-assigns the paths owned by that root.
+ * Roots are identified by their absolute directory, hence must not be renamed.
+ * <p>
+ * Blobs are written to their owning root. Reads fall back to the other roots, such that blobs
+ * stored before the set of roots changed remain accessible, until moved by {@link #rebalance()}
+ * or overwritten.
+ */
+@Slf4j
+public class MultiRootBlobStore implements BlobStore, AutoCloseable {
+
+    /**
+     * @param directory root directory of the store
+     * @param weight relative capacity
+     * @param store manages the directory
+     * @param seed derived from the directory, for the rendezvous hash
+     */
+    record Root(
+            File directory,
+            double weight,
+            LocalFsBlobStore store,
+            long seed) {
+        Root {
+            _Assert.assertTrue(weight>0, ()->"root weight must be positive, got " + weight);
+        }
+        /**
+         * Weighted rendezvous score of given path hash, the root with highest score owns the path.
+         */
+        double score(final long pathHash) {
+            // uniform in (0, 1), using the upper 53 bits
+            var uniform = ((mix(pathHash ^ seed) >>> 11) + 0.5) / (1L << 53);
+            return -weight / Math.log(uniform);
+        }
+    }
+
+    private final List<Root> roots;
+
+    public MultiRootBlobStore(final BlobStoreConfiguration config) {
+        this.roots = Stream.of(config.resource().split(","))
+                .map(String::trim)
+                .filter(entry->!entry.isEmpty())
+                .map(entry->parseRoot(entry, config))
+                .toList();
+        if(roots.isEmpty()) throw _Exceptions.illegalArgument("no root directories configured in '%s'", config.resource());
+        if(roots.stream().map(Root::directory).distinct().count()!=roots.size()) throw _Exceptions.illegalArgument(
+                "root directories must be distinct, got '%s'", config.resource());
+    }
+
+    /**
+     * The root directory, that new blobs of given path are written to.
+     */
+    public File ownerOf(final @NonNull NamedPath path) {
+        return owner(path).directory();
+    }
+
+    /**
+     * Moves all blobs not stored in their owning root (e.g. after a root was added) over to it,
+     * keeping compression, attributes, qualifiers and creation metadata.
+     * @return the descriptors of the blobs moved
+     */
+    public Can<BlobDescriptor> rebalance() {
+        return roots.stream()
+            .flatMap(root->root.store().listDescriptors(NamedPath.empty(), true).stream()
+                .filter(descriptor->owner(descriptor.path())!=root)
+                .map(descriptor->move(descriptor, root)))
+            .collect(Can.toCan());
+    }
+
+    @Override
+    public void close() {
+        roots.forEach(root->root.store().close());
+    }
+
+    // -- WRITE
+
+    @Override
+    public BlobDescriptor putBlob(final @NonNull NamedPath path, final @NonNull Blob blob,
+            final @Nullable UnaryOperator<BlobDescriptor> customizer) {
+        var owner = owner(path);
+        var descriptor = owner.store().putBlob(path, blob, customizer);
+        deleteFromOthers(path, owner);
+        return descriptor;
+    }
+
+    @Override
+    public BlobDescriptor putBlob(final @NonNull NamedPath path, final @NonNull CommonMimeType mimeType,
+            final @NonNull InputStream content, final @Nullable UnaryOperator<BlobDescriptor> customizer) {
+        var owner = owner(path);
+        var descriptor = owner.store().putBlob(path, mimeType, content, customizer);
+        deleteFromOthers(path, owner);
+        return descriptor;
+    }
+
+    @Override
+    public CompletableFuture<BlobDescriptor> putBlobAsync(final @NonNull NamedPath path, final @NonNull Blob blob,
+            final @Nullable UnaryOperator<BlobDescriptor> customizer) {
+        var owner = owner(path);
+        // the owner is looked up first, hence serves the pending write, once stale copies are gone
+        deleteFromOthers(path, owner);
+        return owner.store().putBlobAsync(path, blob, customizer);
+    }
+
+    @Override
+    public void flush() {
+        roots.forEach(root->root.store().flush());
+    }
+
+    @Override
+    public Optional<BlobDescriptor> updateDescriptor(final @NonNull NamedPath path,
+            final @Nullable UnaryOperator<BlobDescriptor> customizer) {
+        return holder(path)
+            .flatMap(root->root.store().updateDescriptor(path, customizer));
+    }
+
+    @Override
+    public void deleteBlob(final @Nullable NamedPath path) {
+        if(path==null) return;
+        roots.forEach(root->root.store().deleteBlob(path));
+    }
+
+    @Override
+    public Optional<BlobDescriptor> compress(final @NonNull BlobDescriptor blobDescriptor,
+            final BlobDescriptor.@NonNull Compression compression) {
+        return holder(blobDescriptor.path())
+            .flatMap(root->root.store().compress(blobDescriptor, compression));
+    }
+
+    /**
+     * Recompresses each root concurrently, as roots typically reside on separate devices,
+     * one thread per root, each using the root's own bounded pool of workers.
+     */
+    @Override
+    public Can<BlobDescriptor> compressAll(final @Nullable NamedPath prefix,
+            final BlobDescriptor.@NonNull Compression compression) {
+        try(var executor = Executors.newFixedThreadPool(roots.size())) {
+            var futures = roots.stream()
+                .map(root->CompletableFuture.supplyAsync(()->root.store().compressAll(prefix, compression), executor))
+                .toList();
+            return futures.stream()
+                .map(CompletableFuture::join)
+                .flatMap(Can::stream)
+                .collect(Can.toCan());
+        }
+    }
+
+    // -- READ
+
+    /**
+     * Merges the listings of all roots. A path found in multiple roots is listed once,
+     * preferring its owning root.
+     */
+    @Override
+    public Can<BlobDescriptor> listDescriptors(final @Nullable NamedPath path,
+            final @Nullable Can<BlobQualifier> qualifiers, final boolean recursive) {
+        try(var descriptors = streamDescriptors(path, qualifiers, recursive, null)) {
+            return descriptors.collect(Can.toCan());
+        }
+    }
+
+    /**
+     * Merges the ordered streams of all roots lazily, in the order of a single {@link LocalFsBlobStore}.
+     * A path found in multiple roots is listed once, preferring its owning root.
+     */
+    @Override
+    public Stream<BlobDescriptor> streamDescriptors(final @Nullable NamedPath path,
+            final @Nullable Can<BlobQualifier> qualifiers, final boolean recursive, final @Nullable NamedPath after) {
+        var streams = new ArrayList<Stream<BlobDescriptor>>(roots.size());
+        var heads = new PriorityQueue<MergeHead>((a, b)->
+            DescriptorTree.Key.comparePaths(a.current.path(), b.current.path()));
+        for(var root : roots) {
+            var stream = root.store().streamDescriptors(path, qualifiers, recursive, after);
+            streams.add(stream);
+            var head = new MergeHead(root, stream.iterator());
+            if(head.advance()) {
+                heads.add(head);
+            }
+        }
+        var merged = new Iterator<BlobDescriptor>() {
+            @Override public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+            @Override public BlobDescriptor next() {
+                if(heads.isEmpty()) throw new NoSuchElementException();
+                // all heads at the same path
+                var polled = new ArrayList<MergeHead>(roots.size());
+                polled.add(heads.poll());
+                var nextPath = polled.get(0).current.path();
+                while(!heads.isEmpty()
+                        && heads.peek().current.path().equals(nextPath)) {
+                    polled.add(heads.poll());
+                }
+                var owner = owner(nextPath);
+                var next = polled.stream()
+                    .filter(head->head.root==owner)
+                    .findFirst()
+                    .orElse(polled.get(0))
+                    .current;
+                for(var head : polled) {
+                    if(head.advance()) {
+                        heads.add(head);
+                    }
+                }
+                return next;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(()->streams.forEach(Stream::close));
+    }
+
+    @Override
+    public Optional<BlobDescriptor> lookupDescriptor(final @Nullable NamedPath path) {
+        if(path==null) return Optional.empty();
+        return candidates(path)
+            .flatMap(root->root.store().lookupDescriptor(path).stream())
+            .findFirst();
+    }
+
+    @Override
+    public Optional<Blob> lookupBlob(final @Nullable NamedPath path) {
+        return holder(path).flatMap(root->root.store().lookupBlob(path));
+    }
+
+    @Override
+    public Optional<Blob> lookupBlobAndUncompress(final @Nullable NamedPath path) {
+        return holder(path).flatMap(root->root.store().lookupBlobAndUncompress(path));
+    }
+
+    @Override
+    public Optional<ByteBuffer> mapBlob(final @Nullable NamedPath path) {
+        return holder(path).flatMap(root->root.store().mapBlob(path));
+    }
+
+    @Override
+    public Optional<InputStream> openBlob(final @Nullable NamedPath path) {
+        return holder(path).flatMap(root->root.store().openBlob(path));
+    }
+
+    @Override
+    public Optional<InputStream> openBlobAndUncompress(final @Nullable NamedPath path) {
+        return holder(path).flatMap(root->root.store().openBlobAndUncompress(path));
+    }
+
+    @Override
+    public Optional<byte[]> readRange(final @Nullable NamedPath path, final long offset, final int length) {
+        return holder(path).flatMap(root->root.store().readRange(path, offset, length));
+    }
+
+    // -- HELPER
+
+    /**
+     * Current element of a root's ordered stream, while merging.
+     */
+    private static final class MergeHead {
+        private final Root root;
+        private final Iterator<BlobDescriptor> iterator;
+        private BlobDescriptor current;
+        MergeHead(final Root root, final Iterator<BlobDescriptor> iterator) {
+            this.root = root;
+            this.iterator = iterator;
+        }
+        boolean advance() {
+            if(!iterator.hasNext()) return false;
+            this.current = iterator.next();
+            return true;
+        }
+    }
+
+    private Root owner(final NamedPath path) {
+        var pathHash = hash(path);
+        Root owner = null;
+        var maxScore = Double.NEGATIVE_INFINITY;
+        for(var root : roots) {
+            var score = root.score(pathHash);
+            if(score>maxScore) {
+                maxScore = score;
+                owner = root;
+            }
+        }
+        return owner;
+    }
+
+    /**
+     * All roots, the owner first.
+     */
+    private Stream<Root> candidates(final NamedPath path) {
+        var owner = owner(path);
+        return Stream.concat(Stream.of(owner), roots.stream().filter(root->root!=owner));
+    }
+
+    /**
+     * The root, that currently stores given path.
+     */
+    private Optional<Root> holder(final @Nullable NamedPath path) {
+        if(path==null) return Optional.empty();
+        return candidates(path)
+            .filter(root->root.store().lookupDescriptor(path).isPresent())
+            .findFirst();
+    }
+
+    private void deleteFromOthers(final NamedPath path, final Root owner) {
+        for(var root : roots) {
+            if(root!=owner
+                    && root.store().lookupDescriptor(path).isPresent()) {
+                root.store().deleteBlob(path);
+            }
+        }
+    }
+
+    private BlobDescriptor move(final BlobDescriptor descriptor, final Root from) {
+        var path = descriptor.path();
+        var owner = owner(path);
+        log.info("moving {} from {} to {}", path, from.directory(), owner.directory());
+        try(var content = from.store().openBlobAndUncompress(path).orElseThrow()) {
+            var moved = owner.store().putBlob(path, descriptor.mimeType(), content, desc->desc
+                    .withCreatedBy(descriptor.createdBy())
+                    .withCreatedOn(descriptor.createdOn())
+                    .withCompression(descriptor.compression())
+                    .withAttributes(descriptor.attributes())
+                    .withQualifiers(descriptor.qualifiers()));
+            from.store().deleteBlob(path);
+            return moved;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Root parseRoot(final String entry, final BlobStoreConfiguration config) {
+        var separatorIndex = entry.lastIndexOf('=');
+        var directory = new File(separatorIndex<0
+                ? entry
+                : entry.substring(0, separatorIndex).trim()).getAbsoluteFile();
+        var weight = separatorIndex<0
+                ? 1.
+                : Double.parseDouble(entry.substring(separatorIndex + 1).trim());
+        var store = new LocalFsBlobStore(new BlobStoreConfiguration(
+                LocalFsBlobStore.class, directory.getPath(), config.properties(), config.compressionPolicy()));
+        return new Root(directory, weight, store, hash(directory.getPath()));
+    }
+
+    private static long hash(final NamedPath path) {
+        return hash(path.toString("/"));
+    }
+
+    /**
+     * 64-bit FNV-1a, finalized by {@link #mix(long)}.
+     */
+    private static long hash(final String string) {
+        var hash = 0xcbf29ce484222325L;
+        for(var b : string.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Finalizer of MurmurHash3, spreads all input bits over the result.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.localfs;
+
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+import org.jspecify.annotations.Nullable;
+
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+/**
+ * Striped read/write locks, such that operations on unrelated {@link NamedPath}(s) proceed in parallel,
+ * while operations on the same path are serialized (multiple readers or a single writer).
+ * <p>
+ * Locks are reentrant. A thread holding the write lock of a path may also acquire its read lock,
+ * but not vice versa.
+ */
+final class PathLocks {
+
+    private final ReentrantReadWriteLock[] stripes;
+
+    PathLocks() {
+        this(Runtime.getRuntime().availableProcessors() * 8);
+    }
+
+    PathLocks(final int minStripeCount) {
+        // round up to a power of 2, so the stripe index is a simple bit mask
+        var stripeCount = Integer.highestOneBit(Math.max(16, minStripeCount) - 1) << 1;
+        this.stripes = new ReentrantReadWriteLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    <T> T read(final @Nullable NamedPath path, final Supplier<T> action) {
+        return callLocked(stripe(path).readLock(), action);
+    }
+
+    <T> T write(final @Nullable NamedPath path, final Supplier<T> action) {
+        return callLocked(stripe(path).writeLock(), action);
+    }
+
+    void write(final @Nullable NamedPath path, final Runnable action) {
+        write(path, ()->{
+            action.run();
+            return null;
+        });
+    }
+
+    // -- HELPER
+
+    private ReentrantReadWriteLock stripe(final @Nullable NamedPath path) {
+        int h = Objects.hashCode(path);
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+
+    private static <T> T callLocked(final Lock lock, final Supplier<T> action) {
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.localfs;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.causeway.commons.collections.Can;
+
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor;
+import io.github.causewaystuff.blobstore.applib.BlobQualifier;
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+/**
+ * Inverted index from {@link BlobQualifier} to the paths of the blobs that carry it.
+ * <p>
+ * Qualified paths are assigned dense int ids (recycled on removal), such that posting lists are {@link BitSet}(s)
+ * and a query for multiple qualifiers is a bitwise intersection, starting with the shortest posting list.
+ */
+final class QualifierIndex {
+
+    private final Map<NamedPath, Integer> idsByPath = new HashMap<>();
+    private final List<NamedPath> pathsById = new ArrayList<>();
+    private final List<Can<BlobQualifier>> qualifiersById = new ArrayList<>();
+    private final BitSet freeIds = new BitSet();
+    private final Map<BlobQualifier, BitSet> postings = new HashMap<>();
+
+    synchronized void put(final BlobDescriptor descriptor) {
+        remove(descriptor.path());
+        var qualifiers = descriptor.qualifiers();
+        if(qualifiers==null
+                || qualifiers.isEmpty()) return;
+        int id = allocateId(descriptor.path(), qualifiers);
+        qualifiers.forEach(qualifier->postings.computeIfAbsent(qualifier, __->new BitSet()).set(id));
+    }
+
+    synchronized void remove(final NamedPath path) {
+        var id = idsByPath.remove(path);
+        if(id==null) return;
+        qualifiersById.get(id).forEach(qualifier->{
+            var posting = postings.get(qualifier);
+            posting.clear(id);
+            if(posting.isEmpty()) {
+                postings.remove(qualifier);
+            }
+        });
+        pathsById.set(id, null);
+        qualifiersById.set(id, null);
+        freeIds.set(id);
+    }
+
+    /**
+     * Paths of all blobs that carry <em>all</em> of given (non-empty) qualifiers, in no particular order.
+     */
+    synchronized List<NamedPath> lookupAll(final Can<BlobQualifier> requiredQualifiers) {
+        var requiredPostings = new ArrayList<BitSet>(requiredQualifiers.size());
+        for(var qualifier : requiredQualifiers) {
+            var posting = postings.get(qualifier);
+            if(posting==null) return List.of();
+            requiredPostings.add(posting);
+        }
+        requiredPostings.sort(Comparator.comparingInt(BitSet::cardinality));
+        var matches = (BitSet) requiredPostings.get(0).clone();
+        for (int i = 1; i < requiredPostings.size() && !matches.isEmpty(); i++) {
+            matches.and(requiredPostings.get(i));
+        }
+        return matches.stream()
+                .mapToObj(pathsById::get)
+                .toList();
+    }
+
+    // -- HELPER
+
+    private int allocateId(final NamedPath path, final Can<BlobQualifier> qualifiers) {
+        int id = freeIds.nextSetBit(0);
+        if(id!=-1) {
+            freeIds.clear(id);
+            pathsById.set(id, path);
+            qualifiersById.set(id, qualifiers);
+        } else {
+            id = pathsById.size();
+            pathsById.add(path);
+            qualifiersById.add(qualifiers);
+        }
+        idsByPath.put(path, id);
+        return id;
+    }
+
+}
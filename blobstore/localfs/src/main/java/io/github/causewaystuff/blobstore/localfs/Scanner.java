@@ -18,8 +18,21 @@
  */
 package io.github.causewaystuff.blobstore.localfs;
 
-import java.util.HashMap;
+import java.io.File;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 import org.apache.causeway.commons.io.FileUtils;
 
@@ -30,34 +43,153 @@ import io.github.causewaystuff.blobstore.applib.BlobDescriptor;
 import io.github.causewaystuff.commons.base.types.NamedPath;
 import io.github.causewaystuff.commons.base.types.ResourceFolder;
 
+/**
+ * @param sharding how files are organized on disk, to map them back to their logical path
+ * @param locate resolves manifest and blob file of a descriptor, honoring the store's layout
+ */
 @Slf4j
 record Scanner(
-        ResourceFolder rootDirectory) {
+        ResourceFolder rootDirectory,
+        Sharding sharding,
+        Function<BlobDescriptor, FileLocator> locate) {
+
+    /**
+     * @param descriptors by path
+     * @param orphans left behind by a crash, temporary files and manifests without blob
+     */
+    record ScanResult(
+            Map<NamedPath, BlobDescriptor> descriptors,
+            List<File> orphans) {
+    }
 
     /**
      * Scan all {@link BlobDescriptor}(s), as recovered from file-system on the fly.
+     * <p>
+     * Walks the tree once, then parses manifests and auto-detects manifest-less blobs in parallel.
+     * Descriptor sizes are reconciled with the actual blob files.
+     * Files not found where the store's layout expects them (e.g. after sharding was enabled) are moved into place,
+     * and YAML manifests are converted to binary ones.
      */
     @SneakyThrows
-    Map<NamedPath, BlobDescriptor> scan() {
+    ScanResult scan() {
         log.info("scanning folder {}", rootDirectory);
-        var descriptorsByPath = new HashMap<NamedPath, BlobDescriptor>();
+        var manifestFiles = new HashSet<File>();
+        var blobFiles = new ArrayList<File>();
+        var orphans = Collections.synchronizedList(new ArrayList<File>());
+        Files.walkFileTree(rootDirectory.root().toPath(), new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+                return isBlobFolder(dir.toFile())
+                        ? FileVisitResult.CONTINUE
+                        : FileVisitResult.SKIP_SUBTREE;
+            }
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                if(attrs.isRegularFile()) {
+                    if(FileLocator.isTempFile(file.toFile())) {
+                        orphans.add(file.toFile());
+                    } else if(FileLocator.isManifestFile(file.toFile())) {
+                        manifestFiles.add(file.toFile());
+                    } else {
+                        blobFiles.add(file.toFile());
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        var descriptorsByPath = new ConcurrentHashMap<NamedPath, BlobDescriptor>();
         // read all manifest files
-        FileUtils.searchFiles(rootDirectory.root(), dir->true, file->file.getName().endsWith(FileLocator.MANIFEST_SUFFIX))
-            .stream()
-            .map(manifestFile->FileLocator.forManifestFile(rootDirectory, manifestFile))
-            .map(FileLocator::blobDescriptor)
-            .forEach(descriptor->descriptorsByPath.put(descriptor.path(), descriptor));
-        // scan non-manifest files and add to scan result
-        FileUtils.searchFiles(rootDirectory.root(), dir->true, file->!file.getName().endsWith(FileLocator.MANIFEST_SUFFIX))
-            .stream()
-            .map(blobFile->FileLocator.forBlobFile(rootDirectory, blobFile))
-            .map(FileLocator::blobDescriptor)
-            .forEach(descriptor->descriptorsByPath.merge(descriptor.path(), descriptor, this::mergeBlobDescriptors));
-        return descriptorsByPath;
+        manifestFiles.parallelStream()
+            .filter(manifestFile->!isSupersededYamlManifest(manifestFile, manifestFiles, orphans))
+            .map(manifestFile->FileLocator.forManifestFile(rootDirectory, sharding, manifestFile))
+            .forEach(found->{
+                var descriptor = found.blobDescriptor();
+                var locator = locate.apply(descriptor);
+                if(FileLocator.isYamlManifestFile(found.manifestFile())) {
+                    migrate(found, locator);
+                } else if(!locator.manifestFile().equals(found.manifestFile())) {
+                    relocate(found.manifestFile(), locator.manifestFile());
+                    if(found.hasBlob()) {
+                        relocate(found.blobFile(), new File(locator.manifestFile().getParentFile(), found.blobFile().getName()));
+                    }
+                }
+                if(!locator.hasBlob()) {
+                    orphans.add(locator.manifestFile());
+                    return;
+                }
+                descriptorsByPath.put(descriptor.path(), descriptor.withSize(locator.blobFile().length()));
+            });
+        // add blob files that have no manifest to scan result
+        blobFiles.parallelStream()
+            .filter(blobFile->!manifestFiles.contains(manifestFileFor(blobFile, FileLocator.MANIFEST_SUFFIX))
+                    && !manifestFiles.contains(manifestFileFor(blobFile, FileLocator.YAML_MANIFEST_SUFFIX)))
+            .map(blobFile->FileLocator.forBlobFile(rootDirectory, sharding, blobFile))
+            .forEach(found->{
+                var descriptor = found.blobDescriptor();
+                var targetFolder = locate.apply(descriptor).manifestFile().getParentFile();
+                if(!targetFolder.equals(found.blobFile().getParentFile())) {
+                    relocate(found.blobFile(), new File(targetFolder, found.blobFile().getName()));
+                }
+                descriptorsByPath.merge(descriptor.path(), descriptor, this::mergeBlobDescriptors);
+            });
+        log.info("scanned {} descriptors", descriptorsByPath.size());
+        if(!orphans.isEmpty()) {
+            log.warn("found {} orphans: {}", orphans.size(), orphans);
+        }
+        return new ScanResult(descriptorsByPath, List.copyOf(orphans));
+    }
+
+    private boolean isBlobFolder(final File dir) {
+        return !(dir.getName().equals(FileLocator.INTERNAL_FOLDER)
+                && rootDirectory.root().equals(dir.getParentFile()));
+    }
+
+    @SneakyThrows
+    private static void relocate(final File file, final File target) {
+        log.info("relocating {} to {}", file, target);
+        Files.createDirectories(target.getParentFile().toPath());
+        Files.move(file.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Converts a YAML manifest to a binary one, written where the store's layout expects it,
+     * moving the blob file along if required.
+     */
+    private static void migrate(final FileLocator found, final FileLocator locator) {
+        log.info("migrating {} to {}", found.manifestFile(), locator.manifestFile());
+        if(found.hasBlob()
+                && !found.blobFile().getParentFile().equals(locator.manifestFile().getParentFile())) {
+            relocate(found.blobFile(), new File(locator.manifestFile().getParentFile(), found.blobFile().getName()));
+        }
+        locator.makeDir();
+        LocalFsBlobStore.DescriptorDto.of(found.blobDescriptor()).writeTo(locator.manifestFile());
+        FileUtils.deleteFile(found.manifestFile());
+    }
+
+    /**
+     * A YAML manifest next to a binary one for the same blob, is left behind by an interrupted migration.
+     * The binary one is authoritative.
+     */
+    private static boolean isSupersededYamlManifest(final File manifestFile, final Set<File> manifestFiles, final List<File> orphans) {
+        if(!FileLocator.isYamlManifestFile(manifestFile)) return false;
+        var name = manifestFile.getName();
+        var binaryManifestFile = new File(manifestFile.getParentFile(),
+                name.substring(0, name.length() - FileLocator.YAML_MANIFEST_SUFFIX.length()) + FileLocator.MANIFEST_SUFFIX);
+        if(!manifestFiles.contains(binaryManifestFile)) return false;
+        orphans.add(manifestFile);
+        return true;
+    }
+
+    private static File manifestFileFor(final File blobFile, final String manifestSuffix) {
+        var blobName = blobFile.getName();
+        var baseName = blobName.substring(0, blobName.length()
+                - BlobDescriptor.Compression.valueOf(blobFile).fileSuffix().length());
+        return new File(blobFile.getParentFile(), baseName + manifestSuffix);
     }
 
     private BlobDescriptor mergeBlobDescriptors(final BlobDescriptor fromManifest, final BlobDescriptor fromBlob) {
-        return fromManifest; //TODO update size?
+        // the manifest is authoritative, except for the size, which the blob file knows best
+        return fromManifest.withSize(fromBlob.size());
     }
 
 }
@@ -0,0 +1,126 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.localfs;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+import org.apache.causeway.commons.internal.exceptions._Exceptions;
+import org.apache.causeway.commons.io.FileUtils;
+
+import lombok.SneakyThrows;
+
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+/**
+ * Fan-out of the files of a logical folder into shard sub-folders, named by a hash prefix of the blob's base name,
+ * such that no single directory has to hold more than a fraction of a large folder's entries.
+ * <p>
+ * E.g. with a width of 2, manifest and blob file of {@code docs/a.pdf} are stored in {@code docs/~3f/}.
+ * Shard folders are transparent to the {@link NamedPath} API. With sharding enabled,
+ * folder names that consist of {@value #FOLDER_PREFIX} followed by up to {@value #MAX_WIDTH} hex digits are reserved.
+ *
+ * @param width number of hex digits of shard folder names, resulting in {@code 16^width} shards per folder;
+ *      zero disables sharding
+ */
+record Sharding(int width) {
+
+    static final Sharding NONE = new Sharding(0);
+    static final int MAX_WIDTH = 4;
+    static final String FOLDER_PREFIX = "~";
+    /**
+     * Records the width the files on disk are organized by, to detect a changed configuration.
+     */
+    private static final String MARKER_FILE_NAME = "sharding";
+
+    Sharding {
+        if(width<0
+                || width>MAX_WIDTH) throw _Exceptions.illegalArgument(
+                    "shard width must be in range [0, %d], got %d", MAX_WIDTH, width);
+    }
+
+    static Sharding parse(final String literal) {
+        return new Sharding(Integer.parseInt(literal.trim()));
+    }
+
+    boolean isEnabled() {
+        return width>0;
+    }
+
+    /**
+     * Given file of a logical folder, relocated into its shard folder.
+     */
+    File shard(final File file, final String baseName) {
+        return isEnabled()
+                ? new File(new File(file.getParentFile(), folderName(baseName)), file.getName())
+                : file;
+    }
+
+    /**
+     * Given folder (relative to the root) with its trailing shard folder stripped, if any.
+     */
+    NamedPath logicalFolder(final NamedPath folder) {
+        return isEnabled()
+                && folder.lastName().map(Sharding::isShardFolderName).orElse(false)
+                ? folder.parentElseFail()
+                : folder;
+    }
+
+    String folderName(final String baseName) {
+        var crc = new CRC32();
+        crc.update(baseName.getBytes(StandardCharsets.UTF_8));
+        var hex = String.format("%08x", crc.getValue());
+        return FOLDER_PREFIX + hex.substring(hex.length() - width);
+    }
+
+    // -- MARKER
+
+    /**
+     * The sharding, the files in given internal folder's store are organized by,
+     * or empty if not recorded yet.
+     */
+    @SneakyThrows
+    static Optional<Sharding> readMarker(final File internalFolder) {
+        var markerFile = new File(internalFolder, MARKER_FILE_NAME);
+        return markerFile.exists()
+                ? Optional.of(parse(Files.readString(markerFile.toPath())))
+                : Optional.empty();
+    }
+
+    @SneakyThrows
+    void writeMarker(final File internalFolder) {
+        FileUtils.makeDir(internalFolder);
+        Files.writeString(new File(internalFolder, MARKER_FILE_NAME).toPath(), "" + width);
+    }
+
+    // -- HELPER
+
+    private static boolean isShardFolderName(final String name) {
+        if(!name.startsWith(FOLDER_PREFIX)
+                || name.length()==FOLDER_PREFIX.length()
+                || name.length()>FOLDER_PREFIX.length() + MAX_WIDTH) return false;
+        return name.substring(FOLDER_PREFIX.length()).chars()
+                .allMatch(c->Character.digit(c, 16)>=0
+                        && !Character.isUpperCase(c));
+    }
+
+}
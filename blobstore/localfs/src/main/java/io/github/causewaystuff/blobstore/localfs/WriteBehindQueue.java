@@ -0,0 +1,167 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.localfs;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+import org.jspecify.annotations.Nullable;
+
+import org.apache.causeway.applib.value.Blob;
+
+import lombok.extern.slf4j.Slf4j;
+
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor;
+import io.github.causewaystuff.blobstore.applib.ThreadFactories;
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+/**
+ * Buffers {@link LocalFsBlobStore#putBlobAsync} requests for a short window,
+ * then hands them over in batches to a writer, that makes each batch durable at once.
+ * <p>
+ * Overwrites of the same path within a window are deduplicated, such that only the latest blob is written,
+ * while the futures of all superseded requests complete with the descriptor of the latest.
+ */
+@Slf4j
+final class WriteBehindQueue {
+
+    /** when exceeded, the submitting thread drains the queue itself (back-pressure) */
+    static final int MAX_PENDING = 10_000;
+
+    record PendingPut(
+            NamedPath path,
+            Blob blob,
+            @Nullable UnaryOperator<BlobDescriptor> customizer,
+            List<CompletableFuture<BlobDescriptor>> futures) {
+        void complete(final BlobDescriptor descriptor) {
+            futures.forEach(future->future.complete(descriptor));
+        }
+        void fail(final Throwable cause) {
+            futures.forEach(future->future.completeExceptionally(cause));
+        }
+    }
+
+    private final Consumer<List<PendingPut>> batchWriter;
+    private final ScheduledExecutorService scheduler;
+    /** serializes drains, such that batches are written in order */
+    private final Object drainLock = new Object();
+
+    // guarded by this
+    private LinkedHashMap<NamedPath, PendingPut> pending = new LinkedHashMap<>();
+    private final Set<NamedPath> inFlight = new HashSet<>();
+
+    /**
+     * @param batchWriter writes the batch and completes (or fails) each of its futures
+     */
+    WriteBehindQueue(final long windowMillis, final Consumer<List<PendingPut>> batchWriter) {
+        this.batchWriter = batchWriter;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(ThreadFactories.daemon("blobstore-write-behind"));
+        scheduler.scheduleWithFixedDelay(this::drainQuietly, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    CompletableFuture<BlobDescriptor> submit(
+            final NamedPath path,
+            final Blob blob,
+            final @Nullable UnaryOperator<BlobDescriptor> customizer) {
+        var future = new CompletableFuture<BlobDescriptor>();
+        final boolean isFull;
+        synchronized (this) {
+            var futures = new ArrayList<CompletableFuture<BlobDescriptor>>(1);
+            var superseded = pending.remove(path);
+            if(superseded!=null) {
+                futures.addAll(superseded.futures());
+            }
+            futures.add(future);
+            pending.put(path, new PendingPut(path, blob, customizer, futures));
+            isFull = pending.size()>=MAX_PENDING;
+        }
+        if(isFull) {
+            drain();
+        }
+        return future;
+    }
+
+    /**
+     * Whether a write to given path is pending or in progress.
+     */
+    synchronized boolean isPending(final @Nullable NamedPath path) {
+        return path!=null
+                && (pending.containsKey(path)
+                    || inFlight.contains(path));
+    }
+
+    synchronized boolean isAnyPending() {
+        return !pending.isEmpty()
+                || !inFlight.isEmpty();
+    }
+
+    /**
+     * Blocks until all puts submitted before were written.
+     */
+    void drain() {
+        synchronized (drainLock) {
+            final List<PendingPut> batch;
+            synchronized (this) {
+                if(pending.isEmpty()) return;
+                batch = List.copyOf(pending.values());
+                inFlight.addAll(pending.keySet());
+                pending = new LinkedHashMap<>();
+            }
+            try {
+                batchWriter.accept(batch);
+            } catch (Throwable e) {
+                batch.forEach(pendingPut->pendingPut.fail(e));
+                throw e;
+            } finally {
+                synchronized (this) {
+                    inFlight.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drains the queue, then stops the background thread.
+     */
+    void close() {
+        scheduler.shutdown();
+        drain();
+    }
+
+    // -- HELPER
+
+    private void drainQuietly() {
+        try {
+            drain();
+        } catch (Throwable e) {
+            // already propagated to the futures of the batch
+            log.error("write-behind batch failed", e);
+        }
+    }
+
+}
@@ -18,19 +18,64 @@
  */
 package io.github.causewaystuff.blobstore.localfs;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.EnumSource;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.causeway.applib.value.Blob;
+import org.apache.causeway.applib.value.NamedWithMimeType.CommonMimeType;
+import org.apache.causeway.commons.collections.Can;
+import org.apache.causeway.commons.io.DataSink;
 import org.apache.causeway.commons.io.FileUtils;
+import org.apache.causeway.commons.io.YamlUtils;
+
+import lombok.SneakyThrows;
+
+import io.github.causewaystuff.blobstore.applib.AdaptiveCompressionPolicy;
+import io.github.causewaystuff.blobstore.applib.BlobChange;
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor;
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor.Compression;
+import io.github.causewaystuff.blobstore.applib.BlobDescriptorCodec;
+import io.github.causewaystuff.blobstore.applib.BlobQualifier;
 
 import io.github.causewaystuff.blobstore.applib.BlobStoreFactory;
 import io.github.causewaystuff.blobstore.applib.BlobStoreFactory.BlobStoreConfiguration;
+import io.github.causewaystuff.blobstore.applib.BlobStoreReplicator;
+import io.github.causewaystuff.blobstore.applib.CachingBlobStore;
+import io.github.causewaystuff.blobstore.applib.CompressionPolicy;
+import io.github.causewaystuff.blobstore.applib.TieredBlobStore;
+import io.github.causewaystuff.blobstore.test.BlobStoreStressTester;
 import io.github.causewaystuff.blobstore.test.BlobStoreTester;
 import io.github.causewaystuff.blobstore.test.BlobStoreTester.Scenario;
+import io.github.causewaystuff.commons.base.types.NamedPath;
+import io.github.causewaystuff.commons.base.types.ResourceFolder;
 
 class LocalFsBlobStoreTest {
 
@@ -57,14 +102,662 @@ class LocalFsBlobStoreTest {
         var tester = new BlobStoreTester(blobStore);
         tester.setup(scenario);
         tester.assertExpectations(scenario);
+        assertSameResultsFromIndex(scenario);
         assertSameResultsFromScan(scenario);
         tester.cleanup(scenario);
     }
 
+    @ParameterizedTest
+    @EnumSource(Compression.class)
+    @SneakyThrows
+    void streamingRoundtrip(final Compression compression) {
+        var bytes = new byte[256 * 1024];
+        new Random(1L).nextBytes(bytes);
+        var path = NamedPath.of("streaming", "payload.bin");
+
+        var descriptor = blobStore.putBlob(path, CommonMimeType.BIN, new ByteArrayInputStream(bytes),
+                desc->desc.withCompression(compression));
+
+        assertEquals(compression, descriptor.compression());
+        assertEquals("" + bytes.length, descriptor.attributes().get("uncompressed-size"));
+        try(var in = blobStore.openBlobAndUncompress(path).orElseThrow()) {
+            assertArrayEquals(bytes, in.readAllBytes());
+        }
+        assertArrayEquals(bytes, blobStore.lookupBlobAndUncompress(path).orElseThrow().bytes());
+    }
+
+    @ParameterizedTest
+    @EnumSource(Compression.class)
+    void rangeReads(final Compression compression) {
+        var bytes = "0123456789abcdef".repeat(200_000).getBytes(); // spans multiple blocks and frames
+        var path = NamedPath.of("ranges", "payload.txt");
+        blobStore.putBlob(path, CommonMimeType.TXT, new ByteArrayInputStream(bytes),
+                desc->desc.withCompression(compression));
+
+        assertRange(bytes, path, 0, 100);
+        assertRange(bytes, path, 1024 * 1024 - 10, 20); // crosses a ZSTD frame boundary
+        assertRange(bytes, path, 64 * 1024 - 3, 70_000); // crosses LZ4 block boundaries
+        assertRange(bytes, path, bytes.length - 5, 100); // cut short by the end
+        assertEquals(0, blobStore.readRange(path, bytes.length + 10, 5).orElseThrow().length);
+        // open-ended, as for an HTTP "Range: bytes=n-", must not be sized by the requested length
+        assertArrayEquals(Arrays.copyOfRange(bytes, bytes.length - 100_000, bytes.length),
+                blobStore.readRange(path, bytes.length - 100_000, Integer.MAX_VALUE).orElseThrow());
+    }
+
+    @Test
+    void concurrentPutAndLookup() {
+        // each put is read back by its thread and all are listed afterwards, failures propagate from the workers
+        var result = new BlobStoreStressTester(blobStore).run(4, 20, 4 * 1024, Compression.ZIP);
+        assertEquals(80, result.operationCount());
+        // the tester deletes its blobs
+        assertTrue(blobStore.listDescriptors(NamedPath.of("stress-4"), true).isEmpty());
+    }
+
+    @Test
+    void adaptiveCompressionPolicy() {
+        try(var adaptiveStore = new LocalFsBlobStore(config.withCompressionPolicy(AdaptiveCompressionPolicy.defaults()))) {
+            var folder = NamedPath.of("adaptive");
+            var random = new byte[64 * 1024];
+            new Random(4L).nextBytes(random);
+
+            var tiny = adaptiveStore.putBlob(folder.add("tiny.txt"), Blob.of("tiny.txt", CommonMimeType.TXT, "hello".getBytes()));
+            var text = adaptiveStore.putBlob(folder.add("text.txt"), Blob.of("text.txt", CommonMimeType.TXT, "hello world ".repeat(5000).getBytes()));
+            var noise = adaptiveStore.putBlob(folder.add("noise.bin"), Blob.of("noise.bin", CommonMimeType.BIN, random));
+            var image = adaptiveStore.putBlob(folder.add("image.png"), Blob.of("image.png", CommonMimeType.PNG, "hello world ".repeat(5000).getBytes()));
+            var explicit = adaptiveStore.putBlob(folder.add("explicit.txt"), Blob.of("explicit.txt", CommonMimeType.TXT, "hello world ".repeat(5000).getBytes()),
+                    desc->desc.withCompression(Compression.ZIP));
+
+            assertEquals(Compression.NONE, tiny.compression());
+            assertEquals(Compression.ZSTD, text.compression());
+            assertEquals(Compression.NONE, noise.compression());
+            assertEquals(Compression.NONE, image.compression());
+            assertEquals(Compression.ZIP, explicit.compression());
+            assertEquals("adaptive", text.attributes().get(CompressionPolicy.ATTRIBUTE));
+            // pass-through does not record itself
+            assertNull(blobStore.putBlob(folder.add("plain.txt"), Blob.of("plain.txt", CommonMimeType.TXT, "hello".getBytes()))
+                    .attributes().get(CompressionPolicy.ATTRIBUTE));
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    void contentAddressedDeduplication() {
+        var casStore = new LocalFsBlobStore(config.withProperty(
+                LocalFsBlobStore.PROPERTY_LAYOUT, "content-addressed"));
+        var bytes = new byte[64 * 1024];
+        new Random(2L).nextBytes(bytes);
+        var path1 = NamedPath.of("cas", "a.bin");
+        var path2 = NamedPath.of("cas", "b.bin");
+
+        casStore.putBlob(path1, CommonMimeType.BIN, new ByteArrayInputStream(bytes), null);
+        casStore.putBlob(path2, CommonMimeType.BIN, new ByteArrayInputStream(bytes), null);
+
+        var contentFolder = new File(new File(root, FileLocator.INTERNAL_FOLDER), "content");
+        assertEquals(1, countFiles(contentFolder));
+        assertArrayEquals(bytes, casStore.lookupBlob(path1).orElseThrow().bytes());
+        assertArrayEquals(bytes, casStore.lookupBlob(path2).orElseThrow().bytes());
+
+        casStore.deleteBlob(path1);
+        assertEquals(1, countFiles(contentFolder));
+        assertArrayEquals(bytes, casStore.lookupBlob(path2).orElseThrow().bytes());
+
+        casStore.deleteBlob(path2);
+        assertEquals(0, countFiles(contentFolder));
+
+        // simulate a crash after the content was stored, but before the manifest was written
+        casStore.putBlob(path1, CommonMimeType.BIN, new ByteArrayInputStream(bytes), null);
+        casStore.close();
+        var orphan = new File(new File(contentFolder, "ff"), "f".repeat(64));
+        FileUtils.makeDir(orphan.getParentFile());
+        Files.write(orphan.toPath(), bytes);
+        try(var reopenedStore = new LocalFsBlobStore(config.withProperty(
+                LocalFsBlobStore.PROPERTY_LAYOUT, "content-addressed"))) {
+            assertEquals(List.of(orphan), reopenedStore.recoveryReport().orphans().toList());
+            assertFalse(orphan.exists());
+            assertEquals(1, countFiles(contentFolder));
+            assertArrayEquals(bytes, reopenedStore.lookupBlob(path1).orElseThrow().bytes());
+        }
+    }
+
+    @Test
+    void cachingDecorator() {
+        var cachingStore = new CachingBlobStore(blobStore, 1024 * 1024);
+        var scenario = BlobStoreTester.ScenarioSample.values()[0].create();
+        var tester = new BlobStoreTester(cachingStore);
+        tester.setup(scenario);
+        tester.assertExpectations(scenario);
+        tester.assertExpectations(scenario);
+        tester.cleanup(scenario);
+
+        var path = NamedPath.of("cached", "a.bin");
+        var bytes = new byte[1024];
+        new Random(3L).nextBytes(bytes);
+        cachingStore.putBlob(path, Blob.of("a.bin", CommonMimeType.BIN, bytes));
+        var hitsBefore = cachingStore.stats().hits();
+        cachingStore.lookupBlobAndUncompress(path);
+        cachingStore.lookupBlobAndUncompress(path);
+        assertEquals(hitsBefore + 1, cachingStore.stats().hits());
+
+        // overwriting invalidates
+        bytes[0]++;
+        cachingStore.putBlob(path, Blob.of("a.bin", CommonMimeType.BIN, bytes));
+        assertArrayEquals(bytes, cachingStore.lookupBlobAndUncompress(path).orElseThrow().bytes());
+
+        // so does updating the descriptor
+        cachingStore.lookupBlobAndUncompress(path);
+        var hitsBeforeUpdate = cachingStore.stats().hits();
+        cachingStore.updateDescriptor(path, desc->desc.withQualifiers(BlobQualifier.of("updated")));
+        cachingStore.lookupBlobAndUncompress(path);
+        assertEquals(hitsBeforeUpdate, cachingStore.stats().hits());
+        assertEquals(BlobQualifier.of("updated").toList(), cachingStore.lookupDescriptor(path).orElseThrow().qualifiers().toList());
+    }
+
+    @Test
+    void writeBehind() {
+        try(var writeBehindStore = new LocalFsBlobStore(config.withProperty(
+                LocalFsBlobStore.PROPERTY_WRITE_BEHIND_MILLIS, "20"))) {
+            var futures = new ArrayList<CompletableFuture<BlobDescriptor>>();
+            for (int i = 0; i < 200; i++) {
+                // every path is overwritten once
+                var name = "blob-%d.txt".formatted(i % 100);
+                futures.add(writeBehindStore.putBlobAsync(NamedPath.of("write-behind", name),
+                        Blob.of(name, CommonMimeType.TXT, ("" + i).getBytes()), null));
+            }
+            // read-your-writes, even before the batch is written
+            assertArrayEquals("199".getBytes(),
+                    writeBehindStore.lookupBlob(NamedPath.of("write-behind", "blob-99.txt")).orElseThrow().bytes());
+
+            writeBehindStore.flush();
+            futures.forEach(future->assertTrue(future.isDone() && !future.isCompletedExceptionally()));
+            assertEquals(100, writeBehindStore.listDescriptors(NamedPath.of("write-behind"), false).size());
+            assertArrayEquals("150".getBytes(),
+                    writeBehindStore.lookupBlob(NamedPath.of("write-behind", "blob-50.txt")).orElseThrow().bytes());
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    void changeFeed() {
+        var feedConfig = config.withProperty(LocalFsBlobStore.PROPERTY_CHANGE_FEED_RETENTION, "1000");
+        var a = NamedPath.of("feed", "a.txt");
+        var b = NamedPath.of("other", "b.txt");
+        long resumeAfter;
+        try(var feedStore = new LocalFsBlobStore(feedConfig)) {
+            var feed = feedStore.changeFeed().orElseThrow();
+            var delivered = new LinkedBlockingQueue<BlobChange>();
+            try(var subscription = feed.subscribe(0L, NamedPath.of("feed"), delivered::add)) {
+                feedStore.putBlob(a, Blob.of("a.txt", CommonMimeType.TXT, "a".getBytes()));
+                feedStore.putBlob(b, Blob.of("b.txt", CommonMimeType.TXT, "b".getBytes()));
+                feedStore.updateDescriptor(a, descriptor->descriptor.withAttribute("k", "v"));
+
+                var first = delivered.poll(5, TimeUnit.SECONDS);
+                var second = delivered.poll(5, TimeUnit.SECONDS);
+                assertEquals(BlobChange.Type.PUT, first.type());
+                assertEquals(BlobChange.Type.UPDATE, second.type());
+                assertEquals("v", second.descriptor().attributes().get("k"));
+                // filtered out by prefix
+                assertNull(delivered.poll(100, TimeUnit.MILLISECONDS));
+            }
+            resumeAfter = feed.lastSequence();
+            assertEquals(3L, resumeAfter);
+            feedStore.deleteBlob(a);
+        }
+        // resume after a restart
+        try(var reopenedStore = new LocalFsBlobStore(feedConfig)) {
+            var feed = reopenedStore.changeFeed().orElseThrow();
+            assertTrue(feed.canResumeAfter(resumeAfter));
+            var changes = feed.readAfter(resumeAfter, 10);
+            assertEquals(1, changes.size());
+            var deleted = changes.getFirstElseFail();
+            assertEquals(4L, deleted.sequence());
+            assertEquals(BlobChange.Type.DELETE, deleted.type());
+            assertEquals(a, deleted.path());
+            assertEquals(3, feed.readAfter(0L, 3).size());
+        }
+        assertTrue(blobStore.changeFeed().isEmpty());
+    }
+
+    @Test
+    void compressAll() {
+        var folder = NamedPath.of("sweep");
+        for (int i = 0; i < 10; i++) {
+            var name = "blob-%d.txt".formatted(i);
+            blobStore.putBlob(folder.add(name), Blob.of(name, CommonMimeType.TXT, name.repeat(100).getBytes()));
+        }
+
+        var recompressed = blobStore.compressAll(folder, Compression.SEVEN_ZIP);
+
+        assertEquals(10, recompressed.size());
+        blobStore.listDescriptors(folder, true).forEach(descriptor->{
+            assertEquals(Compression.SEVEN_ZIP, descriptor.compression());
+            var name = descriptor.path().lastNameElseFail();
+            assertArrayEquals(name.repeat(100).getBytes(),
+                    blobStore.lookupBlobAndUncompress(descriptor.path()).orElseThrow().bytes());
+        });
+        // old blob files are gone
+        assertEquals(20, countFiles(new File(root, "sweep")));
+    }
+
+    @Test
+    void compressStaleDescriptor() {
+        var path = NamedPath.of("stale", "a.txt");
+        var bytes = "hello world ".repeat(100).getBytes();
+        blobStore.putBlob(path, Blob.of("a.txt", CommonMimeType.TXT, bytes));
+        // as taken by compressAll from its listing
+        var staleDescriptor = blobStore.listDescriptors(NamedPath.of("stale"), false).getFirstElseFail();
+
+        blobStore.updateDescriptor(path, desc->desc
+                .withQualifiers(BlobQualifier.of("updated"))
+                .withAttribute("origin", "update"));
+        var compressed = blobStore.compress(staleDescriptor, Compression.ZSTD).orElseThrow();
+
+        assertEquals(Compression.ZSTD, compressed.compression());
+        assertEquals(BlobQualifier.of("updated").toList(), compressed.qualifiers().toList());
+        assertEquals("update", compressed.attributes().get("origin"));
+        var current = blobStore.lookupDescriptor(path).orElseThrow();
+        assertEquals(Compression.ZSTD, current.compression());
+        assertEquals(compressed.attributes(), current.attributes());
+        assertArrayEquals(bytes, blobStore.lookupBlobAndUncompress(path).orElseThrow().bytes());
+
+        // the no-op check is against the current descriptor, not the stale one
+        blobStore.updateDescriptor(path, desc->desc.withAttribute("origin", "second update"));
+        var unchanged = blobStore.compress(staleDescriptor.withCompression(Compression.ZSTD), Compression.ZSTD).orElseThrow();
+        assertEquals("second update", unchanged.attributes().get("origin"));
+    }
+
+    @Test
+    @SneakyThrows
+    void recoveryAfterCrash() {
+        var folder = NamedPath.of("crash");
+        blobStore.putBlob(folder.add("a.bin"), Blob.of("a.bin", CommonMimeType.BIN, new byte[] {1, 2, 3}));
+        blobStore.close();
+
+        // simulate a crash: blob files replaced or written, but manifests not (yet) written
+        var journal = new IndexJournal(new File(root, FileLocator.INTERNAL_FOLDER + "/index"), List::of);
+        assertTrue(journal.tryLoad().isPresent());
+        journal.appendIntent(folder.add("a.bin"));
+        journal.appendIntent(folder.add("b.bin"));
+        journal.close();
+        var crashFolder = new File(root, "crash");
+        Files.write(new File(crashFolder, "a.bin").toPath(), new byte[] {4, 5, 6, 7});
+        Files.write(new File(crashFolder, "b.bin").toPath(), new byte[] {8});
+        var tempFile = new File(crashFolder, "a.bin" + FileLocator.MANIFEST_SUFFIX + FileLocator.TEMP_SUFFIX);
+        Files.write(tempFile.toPath(), new byte[] {0});
+
+        try(var recoveredStore = new LocalFsBlobStore(config)) {
+            var report = recoveredStore.recoveryReport();
+            assertEquals(2, report.reconciled().size());
+            assertEquals(1, report.orphans().size());
+            assertFalse(tempFile.exists());
+            assertEquals(4L, recoveredStore.lookupDescriptor(folder.add("a.bin")).orElseThrow().size());
+            assertArrayEquals(new byte[] {8}, recoveredStore.lookupBlob(folder.add("b.bin")).orElseThrow().bytes());
+        }
+        // consistent again
+        try(var reopenedStore = new LocalFsBlobStore(config)) {
+            assertTrue(reopenedStore.recoveryReport().isClean());
+            assertEquals(2, reopenedStore.listDescriptors(folder, false).size());
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    void tornJournalTail() {
+        var folder = NamedPath.of("torn");
+        for (int i = 0; i < 5; i++) {
+            var name = "blob-%d.txt".formatted(i);
+            blobStore.putBlob(folder.add(name), Blob.of(name, CommonMimeType.TXT, name.getBytes()));
+        }
+        blobStore.close();
+
+        // simulate a crash while appending the last put record
+        var journalFile = new File(root, FileLocator.INTERNAL_FOLDER + "/index/journal.bin");
+        try(var file = new RandomAccessFile(journalFile, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        try(var recoveredStore = new LocalFsBlobStore(config)) {
+            // loaded from the index rather than by a full scan, with the intent of the torn put reconciled
+            var report = recoveredStore.recoveryReport();
+            assertEquals(List.of(folder.add("blob-4.txt")), report.reconciled().toList());
+            assertEquals(5, recoveredStore.listDescriptors(folder, false).size());
+        }
+        // consistent again
+        try(var reopenedStore = new LocalFsBlobStore(config)) {
+            assertTrue(reopenedStore.recoveryReport().isClean());
+            assertEquals(5, reopenedStore.listDescriptors(folder, false).size());
+        }
+    }
+
+    @Test
+    void shardedLayout() {
+        var folder = NamedPath.of("flat");
+        for (int i = 0; i < 100; i++) {
+            var name = "blob-%d.txt".formatted(i);
+            blobStore.putBlob(folder.add(name), Blob.of(name, CommonMimeType.TXT, name.getBytes()));
+        }
+        blobStore.close();
+
+        // enabling sharding on an existing store moves its files into shard folders
+        var shardedConfig = config.withProperty(LocalFsBlobStore.PROPERTY_SHARD_WIDTH, "1");
+        try(var shardedStore = new LocalFsBlobStore(shardedConfig)) {
+            var flatFolder = new File(root, "flat");
+            var shardFolders = flatFolder.listFiles(File::isDirectory);
+            assertEquals(16, shardFolders.length);
+            assertEquals(0, flatFolder.listFiles(File::isFile).length);
+
+            assertEquals(100, shardedStore.listDescriptors(folder, false).size());
+            assertArrayEquals("blob-42.txt".getBytes(),
+                    shardedStore.lookupBlob(folder.add("blob-42.txt")).orElseThrow().bytes());
+            shardedStore.putBlob(folder.add("more.txt"), Blob.of("more.txt", CommonMimeType.TXT, new byte[] {1}));
+            shardedStore.deleteBlob(folder.add("blob-0.txt"));
+        }
+        // shard folders are transparent to a full scan
+        FileUtils.deleteDirectory(new File(root, FileLocator.INTERNAL_FOLDER));
+        try(var rescannedStore = new LocalFsBlobStore(shardedConfig)) {
+            var descriptors = rescannedStore.listDescriptors(folder, false);
+            assertEquals(100, descriptors.size());
+            descriptors.forEach(descriptor->assertEquals(folder, descriptor.path().parentElseFail()));
+        }
+    }
+
+    @Test
+    void yamlManifestMigration() {
+        var path = NamedPath.of("legacy", "a.txt");
+        var descriptor = blobStore.putBlob(path, Blob.of("a.txt", CommonMimeType.TXT, "legacy".getBytes()),
+                desc->desc.withAttribute("note", "from before").withQualifiers(BlobQualifier.of("old")));
+        blobStore.close();
+
+        // turn the store into one written before binary manifests
+        var legacyFolder = new File(root, "legacy");
+        var binaryManifest = new File(legacyFolder, "a.txt" + FileLocator.MANIFEST_SUFFIX);
+        var yamlManifest = new File(legacyFolder, "a.txt" + FileLocator.YAML_MANIFEST_SUFFIX);
+        YamlUtils.write(LocalFsBlobStore.DescriptorDto.of(descriptor), DataSink.ofFile(yamlManifest));
+        FileUtils.deleteFile(binaryManifest);
+        FileUtils.deleteDirectory(new File(root, FileLocator.INTERNAL_FOLDER));
+
+        try(var migratedStore = new LocalFsBlobStore(config)) {
+            assertTrue(binaryManifest.exists());
+            assertFalse(yamlManifest.exists());
+            assertEquals(descriptor, migratedStore.lookupDescriptor(path).orElseThrow());
+            assertEquals(descriptor, FileLocator.forManifestFile(
+                    ResourceFolder.ofFile(root), Sharding.NONE, binaryManifest).blobDescriptor());
+        }
+    }
+
+    @Test
+    void manifestEncodingRoundtrip() {
+        var path = NamedPath.of("docs", "report.pdf");
+        var descriptor = new BlobDescriptor(path, CommonMimeType.PDF, "someone", Instant.now(), 123_456L, Compression.ZSTD,
+                Map.of("sha256", "ab".repeat(32), "uncompressed-size", "654321"), BlobQualifier.of("archived", "2024"));
+        var yaml = YamlUtils.toStringUtf8(LocalFsBlobStore.DescriptorDto.of(descriptor));
+        assertEquals(descriptor, YamlUtils.tryRead(LocalFsBlobStore.DescriptorDto.class, yaml)
+                .valueAsNonNullElseFail().toBlobDescriptor(path));
+        assertEquals(descriptor, BlobDescriptorCodec.decodeManifest(BlobDescriptorCodec.encodeManifest(descriptor), path));
+    }
+
+    @Test
+    void multiRoot() {
+        var root0 = new File(root, "disk0");
+        var root1 = new File(root, "disk1");
+        var multiConfig = new BlobStoreConfiguration(MultiRootBlobStore.class,
+                root0.getPath() + "=1," + root1.getPath() + "=3");
+        var folder = NamedPath.of("spread");
+        try(var multiRootStore = new MultiRootBlobStore(multiConfig)) {
+            var scenario = BlobStoreTester.ScenarioSample.values()[0].create();
+            var tester = new BlobStoreTester(multiRootStore);
+            tester.setup(scenario);
+            tester.assertExpectations(scenario);
+            tester.cleanup(scenario);
+
+            for (int i = 0; i < 400; i++) {
+                var name = "blob-%d.txt".formatted(i);
+                multiRootStore.putBlob(folder.add(name), Blob.of(name, CommonMimeType.TXT, name.getBytes()));
+            }
+            assertEquals(400, multiRootStore.listDescriptors(folder, false).size());
+            // placement follows the weights
+            var count0 = countFiles(new File(root0, "spread"));
+            var count1 = countFiles(new File(root1, "spread"));
+            assertEquals(800, count0 + count1);
+            assertTrue(count1 > 2 * count0);
+        }
+
+        // adding a root re-assigns only some paths, which rebalance moves over
+        var root2 = new File(root, "disk2");
+        try(var multiRootStore = new MultiRootBlobStore(new BlobStoreConfiguration(MultiRootBlobStore.class,
+                multiConfig.resource() + "," + root2.getPath() + "=4"))) {
+            assertEquals(400, multiRootStore.listDescriptors(folder, false).size());
+            var moved = multiRootStore.rebalance();
+            assertTrue(moved.size() > 0 && moved.size() < 400);
+            assertEquals(400, multiRootStore.listDescriptors(folder, false).size());
+            moved.forEach(descriptor->{
+                assertEquals(root2.getAbsoluteFile(), multiRootStore.ownerOf(descriptor.path()));
+                assertArrayEquals(descriptor.path().lastNameElseFail().getBytes(),
+                        multiRootStore.lookupBlob(descriptor.path()).orElseThrow().bytes());
+            });
+            assertTrue(multiRootStore.rebalance().isEmpty());
+        }
+    }
+
+    @Test
+    void pagedListing() {
+        var tester = new BlobStoreTester(blobStore);
+        var count = tester.setupTree(NamedPath.empty(), 7);
+        try(var all = blobStore.streamDescriptors(NamedPath.empty(), true)) {
+            assertEquals(count, all.count());
+        }
+        for(var pageSize : new int[] {1, 3, 7, 100}) {
+            tester.assertPagedListing(NamedPath.empty(), true, pageSize);
+            tester.assertPagedListing(NamedPath.of("a"), true, pageSize);
+            tester.assertPagedListing(NamedPath.of("a"), false, pageSize);
+        }
+        // qualified listings page in the same order
+        var qualified = NamedPath.of("a", "nested", "blob-03.txt");
+        blobStore.updateDescriptor(qualified, descriptor->descriptor.withQualifiers(BlobQualifier.of("q")));
+        var page = blobStore.listDescriptors(NamedPath.empty(), BlobQualifier.of("q"), true, null, 1);
+        assertEquals(qualified, page.descriptors().getFirstElseFail().path());
+        assertFalse(page.hasNext());
+
+        // merged across roots
+        var multiConfig = new BlobStoreConfiguration(MultiRootBlobStore.class,
+                new File(root, "disk0").getPath() + "," + new File(root, "disk1").getPath());
+        try(var multiRootStore = new MultiRootBlobStore(multiConfig)) {
+            var multiRootTester = new BlobStoreTester(multiRootStore);
+            assertEquals(count, multiRootTester.setupTree(NamedPath.empty(), 7));
+            multiRootTester.assertPagedListing(NamedPath.empty(), true, 5);
+            multiRootTester.assertPagedListing(NamedPath.of("a"), false, 2);
+        }
+    }
+
+    @Test
+    void replication() {
+        var sourceConfig = new BlobStoreConfiguration(LocalFsBlobStore.class, new File(root, "source").getAbsolutePath())
+                .withProperty(LocalFsBlobStore.PROPERTY_CHANGE_FEED_RETENTION, "1000");
+        var targetConfig = new BlobStoreConfiguration(LocalFsBlobStore.class, new File(root, "target").getAbsolutePath());
+        var folder = NamedPath.of("replicated");
+        try(var source = new LocalFsBlobStore(sourceConfig);
+                var target = new LocalFsBlobStore(targetConfig)) {
+            for (int i = 0; i < 50; i++) {
+                var name = "blob-%d.txt".formatted(i);
+                source.putBlob(folder.add(name), Blob.of(name, CommonMimeType.TXT, name.repeat(100).getBytes()),
+                        desc->desc.withCompression(Compression.ZSTD));
+            }
+            // pre-existing in the target: identical, stale and extraneous
+            target.putBlob(folder.add("blob-0.txt"), Blob.of("blob-0.txt", CommonMimeType.TXT, "blob-0.txt".repeat(100).getBytes()));
+            target.putBlob(folder.add("blob-1.txt"), Blob.of("blob-1.txt", CommonMimeType.TXT, "stale".getBytes()));
+            target.putBlob(folder.add("extraneous.txt"), Blob.of("extraneous.txt", CommonMimeType.TXT, new byte[1]));
+
+            long checkpoint;
+            try(var replicator = new BlobStoreReplicator(source, target, BlobStoreReplicator.Options.defaults())) {
+                var report = replicator.sync();
+                assertTrue(report.fullSync() && report.isClean());
+                assertEquals(49, report.transferred());
+                // same content, but created and compressed differently
+                assertEquals(1, report.updated());
+                assertEquals(1, report.deleted());
+                source.listDescriptors(folder, false).forEach(descriptor->{
+                    var replicated = target.lookupDescriptor(descriptor.path()).orElseThrow();
+                    assertEquals(descriptor.attributes(), replicated.attributes());
+                    assertEquals(descriptor.compression(), replicated.compression());
+                    assertEquals(descriptor.createdOn(), replicated.createdOn());
+                });
+                assertEquals(50, target.listDescriptors(folder, false).size());
+                checkpoint = replicator.checkpoint();
+                assertEquals(source.changeFeed().orElseThrow().lastSequence(), checkpoint);
+            }
+
+            source.putBlob(folder.add("new.txt"), Blob.of("new.txt", CommonMimeType.TXT, "new".getBytes()));
+            source.updateDescriptor(folder.add("blob-2.txt"), desc->desc.withAttribute("k", "v"));
+            source.deleteBlob(folder.add("blob-3.txt"));
+
+            // resumes from the persisted checkpoint, throttled
+            var options = BlobStoreReplicator.Options.defaults()
+                    .withBytesPerSecond(20_000);
+            try(var replicator = new BlobStoreReplicator(source, target, options, checkpoint)) {
+                var startedAt = System.nanoTime();
+                var report = replicator.sync();
+                assertFalse(report.fullSync());
+                assertEquals(1, report.transferred());
+                assertEquals(1, report.updated());
+                assertEquals(1, report.deleted());
+                assertEquals("v", target.lookupDescriptor(folder.add("blob-2.txt")).orElseThrow().attributes().get("k"));
+                assertTrue(target.lookupDescriptor(folder.add("blob-3.txt")).isEmpty());
+
+                // nothing changed since, hence neither sync transfers anything
+                assertEquals(0, replicator.sync().transferred());
+                try(var fullReplicator = new BlobStoreReplicator(source, target, options)) {
+                    var fullReport = fullReplicator.sync();
+                    assertTrue(fullReport.fullSync());
+                    assertEquals(0, fullReport.transferred() + fullReport.updated() + fullReport.deleted());
+                    assertEquals(50, fullReport.skipped());
+                }
+
+                // transferring 4 KB at 20 KB/s takes at least 100 ms (after a burst of up to 2 KB)
+                source.putBlob(folder.add("large.bin"), Blob.of("large.bin", CommonMimeType.BIN, new byte[4096]));
+                replicator.sync();
+                assertTrue(System.nanoTime() - startedAt >= TimeUnit.MILLISECONDS.toNanos(100));
+            }
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    void scrubbing() {
+        var folder = NamedPath.of("scrubbed");
+        for (int i = 0; i < 10; i++) {
+            var name = "blob-%d.txt".formatted(i);
+            blobStore.putBlob(folder.add(name), Blob.of(name, CommonMimeType.TXT, name.repeat(100).getBytes()),
+                    desc->desc.withCompression(Compression.NONE));
+        }
+        var corruptPath = folder.add("blob-4.txt");
+        var corruptFile = new File(root, "scrubbed/blob-4.txt");
+        var intactBytes = Files.readAllBytes(corruptFile.toPath());
+        Files.write(corruptFile.toPath(), "tampered".getBytes());
+        var missingPath = folder.add("blob-6.txt");
+        FileUtils.deleteFile(new File(root, "scrubbed/blob-6.txt"));
+
+        var options = BlobScrubber.Options.defaults()
+                .withCheckpointInterval(2);
+        try(var scrubber = new BlobScrubber(blobStore, options)) {
+            var report = scrubber.scrub(5);
+            assertFalse(report.passCompleted());
+            assertEquals(4, report.verified());
+            assertEquals(List.of(corruptPath), report.corrupt().toList());
+            assertTrue(report.missing().isEmpty());
+        }
+        // resumes from the checkpoint, as after a restart
+        try(var scrubber = new BlobScrubber(blobStore, options)) {
+            var report = scrubber.scrub();
+            assertTrue(report.passCompleted());
+            assertEquals(4, report.verified());
+            assertTrue(report.corrupt().isEmpty());
+            assertEquals(List.of(missingPath), report.missing().toList());
+        }
+        assertEquals(List.of(corruptPath), blobStore.listDescriptors(folder, Can.of(BlobScrubber.CORRUPT), false)
+                .map(BlobDescriptor::path).toList());
+        assertEquals(List.of(missingPath), blobStore.listDescriptors(folder, Can.of(BlobScrubber.MISSING), false)
+                .map(BlobDescriptor::path).toList());
+
+        // once restored, the tag is removed by the next pass, which is paced
+        Files.write(corruptFile.toPath(), intactBytes);
+        try(var scrubber = new BlobScrubber(blobStore, options.withBytesPerSecond(200_000))) {
+            var startedAt = System.nanoTime();
+            var report = scrubber.scrub();
+            // 9 blob files of 1 KB, each accounted with another 4 KB for opening, take at least 100 ms
+            assertTrue(System.nanoTime() - startedAt >= TimeUnit.MILLISECONDS.toNanos(100));
+            assertTrue(report.passCompleted());
+            assertEquals(9, report.verified());
+            assertEquals(List.of(missingPath), report.missing().toList());
+        }
+        assertTrue(blobStore.listDescriptors(folder, Can.of(BlobScrubber.CORRUPT), false).isEmpty());
+    }
+
+    @Test
+    void tieredDemotionAndPromotion() {
+        var now = new AtomicReference<>(Instant.parse("2026-01-01T00:00:00Z"));
+        var clock = new Clock() {
+            @Override public ZoneId getZone() { return ZoneOffset.UTC; }
+            @Override public Clock withZone(final ZoneId zone) { return this; }
+            @Override public Instant instant() { return now.get(); }
+        };
+        try(var hotStore = new LocalFsBlobStore(new BlobStoreConfiguration(LocalFsBlobStore.class, new File(root, "hot").getPath()));
+            var coldStore = new LocalFsBlobStore(new BlobStoreConfiguration(LocalFsBlobStore.class, new File(root, "cold").getPath()));
+            var tieredStore = new TieredBlobStore(hotStore, coldStore, Compression.ZSTD, Duration.ofDays(1), null, clock)) {
+            var readPath = NamedPath.of("tiered", "read.txt");
+            var idlePath = NamedPath.of("tiered", "idle.txt");
+            var bytes = "tiered".repeat(100).getBytes();
+            tieredStore.putBlob(readPath, Blob.of("read.txt", CommonMimeType.TXT, bytes),
+                    desc->desc.withCompression(Compression.ZIP));
+            tieredStore.putBlob(idlePath, Blob.of("idle.txt", CommonMimeType.TXT, bytes));
+            // the hot tier stores uncompressed
+            assertEquals(Compression.NONE, hotStore.lookupDescriptor(readPath).orElseThrow().compression());
+
+            now.set(now.get().plus(Duration.ofHours(20)));
+            tieredStore.lookupBlob(readPath);
+            now.set(now.get().plus(Duration.ofHours(20)));
+
+            var demoted = tieredStore.demote();
+            assertEquals(1, demoted.size());
+            assertEquals(idlePath, demoted.getFirstElseFail().path());
+            assertEquals(Compression.ZSTD, coldStore.lookupDescriptor(idlePath).orElseThrow().compression());
+            assertTrue(hotStore.lookupDescriptor(idlePath).isEmpty());
+            assertEquals("1", hotStore.lookupDescriptor(readPath).orElseThrow()
+                    .attributes().get(TieredBlobStore.ATTRIBUTE_READ_COUNT));
+
+            // served from the cold tier, promoted in the background
+            assertArrayEquals(bytes, tieredStore.lookupBlobAndUncompress(idlePath).orElseThrow().bytes());
+            tieredStore.awaitPromotions();
+            var promoted = hotStore.lookupDescriptor(idlePath).orElseThrow();
+            assertEquals(Compression.NONE, promoted.compression());
+            assertEquals("1", promoted.attributes().get(TieredBlobStore.ATTRIBUTE_READ_COUNT));
+            assertTrue(coldStore.lookupDescriptor(idlePath).isEmpty());
+            assertEquals(2, tieredStore.listDescriptors(NamedPath.of("tiered"), false).size());
+        }
+    }
+
+    void assertRange(final byte[] bytes, final NamedPath path, final int offset, final int length) {
+        var expected = Arrays.copyOfRange(bytes, offset, Math.min(bytes.length, offset + length));
+        assertArrayEquals(expected, blobStore.readRange(path, offset, length).orElseThrow());
+    }
+
+    void assertSameResultsFromIndex(final Scenario scenario) {
+        var secondaryBlobStore = new LocalFsBlobStore(config);
+        var tester = new BlobStoreTester(secondaryBlobStore);
+        tester.assertExpectations(scenario);
+    }
+
     void assertSameResultsFromScan(final Scenario scenario) {
+        // forces a full scan
+        FileUtils.deleteDirectory(new File(root, FileLocator.INTERNAL_FOLDER));
         var secondaryBlobStore = new LocalFsBlobStore(config);
         var tester = new BlobStoreTester(secondaryBlobStore);
         tester.assertExpectations(scenario);
     }
 
+    @SneakyThrows
+    private static long countFiles(final File folder) {
+        try(var files = Files.walk(folder.toPath())) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
 }
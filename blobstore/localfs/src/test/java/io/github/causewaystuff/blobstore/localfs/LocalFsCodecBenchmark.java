@@ -0,0 +1,42 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.localfs;
+
+import org.apache.causeway.commons.io.FileUtils;
+
+import io.github.causewaystuff.blobstore.applib.BlobStoreFactory.BlobStoreConfiguration;
+import io.github.causewaystuff.blobstore.test.BlobStoreCodecBenchmark;
+
+/**
+ * Compares write and read cost as well as ratio of the {@link LocalFsBlobStore}'s compression codecs.
+ * Not part of the test suite, run from the IDE or via {@code exec:java} with test classpath.
+ */
+class LocalFsCodecBenchmark {
+
+    public static void main(final String[] args) {
+        var root = FileUtils.tempDir("causewaystuff-benchmark");
+        try(var blobStore = new LocalFsBlobStore(new BlobStoreConfiguration(LocalFsBlobStore.class, root.getAbsolutePath()))) {
+            new BlobStoreCodecBenchmark(blobStore).run(1024 * 1024, 3)
+                .forEach(System.out::println);
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.localfs;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.apache.causeway.applib.value.NamedWithMimeType.CommonMimeType;
+import org.apache.causeway.commons.io.YamlUtils;
+
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor;
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor.Compression;
+import io.github.causewaystuff.blobstore.applib.BlobDescriptorCodec;
+import io.github.causewaystuff.blobstore.applib.BlobQualifier;
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+/**
+ * Compares size and encoding cost of YAML and binary manifests.
+ * Not part of the test suite, run from the IDE or via {@code exec:java} with test classpath.
+ */
+class ManifestEncodingBenchmark {
+
+    private static final int ITERATIONS = 20_000;
+
+    public static void main(final String[] args) throws Exception {
+        var path = NamedPath.of("docs", "report.pdf");
+        var descriptor = new BlobDescriptor(path, CommonMimeType.PDF, "someone", Instant.now(), 123_456L, Compression.ZSTD,
+                Map.of("sha256", "ab".repeat(32), "uncompressed-size", "654321"), BlobQualifier.of("archived", "2024"));
+        var dto = LocalFsBlobStore.DescriptorDto.of(descriptor);
+        var yaml = YamlUtils.toStringUtf8(dto);
+        var binary = BlobDescriptorCodec.encodeManifest(descriptor);
+
+        System.out.printf("yaml   %4d bytes, encode %8.0f ns, decode %8.0f ns%n", yaml.getBytes(StandardCharsets.UTF_8).length,
+                nanosPerCall(()->YamlUtils.toStringUtf8(dto)),
+                nanosPerCall(()->YamlUtils.tryRead(LocalFsBlobStore.DescriptorDto.class, yaml).valueAsNonNullElseFail()));
+        System.out.printf("binary %4d bytes, encode %8.0f ns, decode %8.0f ns%n", binary.length,
+                nanosPerCall(()->BlobDescriptorCodec.encodeManifest(descriptor)),
+                nanosPerCall(()->BlobDescriptorCodec.decodeManifest(binary, path)));
+    }
+
+    /**
+     * Average of {@link #ITERATIONS} timed calls, preceded by as many untimed warm-up calls.
+     */
+    private static double nanosPerCall(final Callable<?> call) throws Exception {
+        for (int i = 0; i < ITERATIONS; i++) {
+            call.call();
+        }
+        var startedAt = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            call.call();
+        }
+        return (System.nanoTime() - startedAt) / (double) ITERATIONS;
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.localfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
+
+import org.apache.causeway.applib.value.NamedWithMimeType.CommonMimeType;
+import org.apache.causeway.commons.io.FileUtils;
+
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor.Compression;
+import io.github.causewaystuff.blobstore.applib.BlobStoreFactory.BlobStoreConfiguration;
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+/**
+ * Compares serving an uncompressed blob via {@link LocalFsBlobStore#mapBlob} with the
+ * {@link LocalFsBlobStore#lookupBlob} path (which reads the file via {@code Blob.tryRead} into a fresh byte array),
+ * for 1 KB, 1 MB and 512 MB blobs. Both variants write the content to a discarding channel, as a download would.
+ * Not part of the test suite, run from the IDE or via {@code exec:java} with test classpath,
+ * the 512 MB case requires a heap of at least 1 GB.
+ */
+class MapBlobBenchmark {
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    public static void main(final String[] args) throws Exception {
+        var root = FileUtils.tempDir("causewaystuff-benchmark");
+        try(var blobStore = new LocalFsBlobStore(new BlobStoreConfiguration(LocalFsBlobStore.class, root.getAbsolutePath()))) {
+            var sink = Channels.newChannel(OutputStream.nullOutputStream());
+            for(var size : new int[] {1024, CHUNK_SIZE, 512 * CHUNK_SIZE}) {
+                var path = NamedPath.of("map", "blob-" + size + ".bin");
+                blobStore.putBlob(path, CommonMimeType.BIN, content(size),
+                        desc->desc.withCompression(Compression.NONE));
+                // fewer iterations for larger blobs, bounded by 3 and 10k
+                var iterations = (int) Math.max(3L, Math.min(10_000L, 1024L * CHUNK_SIZE / size));
+                System.out.printf("%9d bytes: tryRead %12.0f ns, mapBlob %12.0f ns%n", size,
+                        nanosPerCall(iterations, ()->write(sink, blobStore.lookupBlob(path).orElseThrow().bytes())),
+                        nanosPerCall(iterations, ()->write(sink, blobStore.mapBlob(path).orElseThrow())));
+                blobStore.deleteBlob(path);
+            }
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    /**
+     * Random content of given size, repeating a chunk, such that the largest blob need not be held in memory to be put.
+     */
+    private static InputStream content(final int size) {
+        var chunk = new byte[Math.min(size, CHUNK_SIZE)];
+        new Random(size).nextBytes(chunk);
+        var chunks = Stream.<InputStream>generate(()->new ByteArrayInputStream(chunk))
+                .limit(size / chunk.length)
+                .toList();
+        return new SequenceInputStream(Collections.enumeration(chunks));
+    }
+
+    private static int write(final WritableByteChannel sink, final byte[] bytes) throws Exception {
+        return write(sink, ByteBuffer.wrap(bytes));
+    }
+
+    private static int write(final WritableByteChannel sink, final ByteBuffer buffer) throws Exception {
+        var written = 0;
+        while(buffer.hasRemaining()) {
+            written += sink.write(buffer);
+        }
+        return written;
+    }
+
+    /**
+     * Average of given number of timed calls, preceded by as many untimed warm-up calls.
+     */
+    private static double nanosPerCall(final int iterations, final Callable<?> call) throws Exception {
+        for (int i = 0; i < iterations; i++) {
+            call.call();
+        }
+        var startedAt = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            call.call();
+        }
+        return (System.nanoTime() - startedAt) / (double) iterations;
+    }
+
+}
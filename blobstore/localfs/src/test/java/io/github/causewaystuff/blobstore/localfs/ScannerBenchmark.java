@@ -0,0 +1,110 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.localfs;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.apache.causeway.applib.value.Blob;
+import org.apache.causeway.applib.value.NamedWithMimeType.CommonMimeType;
+import org.apache.causeway.commons.io.FileUtils;
+
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor;
+import io.github.causewaystuff.blobstore.applib.BlobStoreFactory.BlobStoreConfiguration;
+import io.github.causewaystuff.commons.base.types.NamedPath;
+import io.github.causewaystuff.commons.base.types.ResourceFolder;
+
+/**
+ * Compares the single-pass, parallel {@link Scanner#scan()} with the former two-pass, sequential scan
+ * on a synthetic tree of 100k blobs (1000 folders of 100 blobs each, with manifests), built once.
+ * Not part of the test suite, run from the IDE or via {@code exec:java} with test classpath.
+ */
+class ScannerBenchmark {
+
+    private static final int FOLDER_COUNT = 1000;
+    private static final int BLOBS_PER_FOLDER = 100;
+    private static final int ROUNDS = 3;
+
+    public static void main(final String[] args) throws Exception {
+        var root = FileUtils.tempDir("causewaystuff-benchmark");
+        try {
+            var config = new BlobStoreConfiguration(LocalFsBlobStore.class, root.getAbsolutePath());
+            try(var blobStore = new LocalFsBlobStore(config)) {
+                for (int f = 0; f < FOLDER_COUNT; f++) {
+                    var folder = NamedPath.of("folder-" + f);
+                    for (int b = 0; b < BLOBS_PER_FOLDER; b++) {
+                        var name = "blob-%d.txt".formatted(b);
+                        blobStore.putBlob(folder.add(name), Blob.of(name, CommonMimeType.TXT, name.getBytes()));
+                    }
+                }
+            }
+            var rootDirectory = ResourceFolder.ofFile(root);
+            var scanner = new Scanner(rootDirectory, Sharding.NONE,
+                    descriptor->FileLocator.of(rootDirectory, Sharding.NONE, descriptor));
+
+            var before = millisPerCall(()->twoPassScan(rootDirectory));
+            var after = millisPerCall(()->scanner.scan().descriptors());
+            System.out.printf("%d blobs: two-pass %6.0f ms, single-pass %6.0f ms (%.2fx)%n",
+                    FOLDER_COUNT * BLOBS_PER_FOLDER, before, after, before / after);
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    /**
+     * The scan as it was before walking the tree once: searches manifests, then all other files,
+     * resolving each sequentially.
+     */
+    private static Map<NamedPath, BlobDescriptor> twoPassScan(final ResourceFolder rootDirectory) {
+        var descriptorsByPath = new HashMap<NamedPath, BlobDescriptor>();
+        FileUtils.searchFiles(rootDirectory.root(), dir->isBlobFolder(rootDirectory, dir), FileLocator::isManifestFile)
+            .stream()
+            .map(manifestFile->FileLocator.forManifestFile(rootDirectory, Sharding.NONE, manifestFile))
+            .map(FileLocator::blobDescriptor)
+            .forEach(descriptor->descriptorsByPath.put(descriptor.path(), descriptor));
+        FileUtils.searchFiles(rootDirectory.root(), dir->isBlobFolder(rootDirectory, dir), file->!FileLocator.isManifestFile(file))
+            .stream()
+            .map(blobFile->FileLocator.forBlobFile(rootDirectory, Sharding.NONE, blobFile))
+            .map(FileLocator::blobDescriptor)
+            .forEach(descriptor->descriptorsByPath.merge(descriptor.path(), descriptor,
+                    (fromManifest, fromBlob)->fromManifest.withSize(fromBlob.size())));
+        return descriptorsByPath;
+    }
+
+    private static boolean isBlobFolder(final ResourceFolder rootDirectory, final File dir) {
+        return !(dir.getName().equals(FileLocator.INTERNAL_FOLDER)
+                && rootDirectory.root().equals(dir.getParentFile()));
+    }
+
+    /**
+     * Average of {@link #ROUNDS} timed calls, preceded by an untimed warm-up call.
+     */
+    private static double millisPerCall(final Callable<Map<NamedPath, BlobDescriptor>> scan) throws Exception {
+        var expected = FOLDER_COUNT * BLOBS_PER_FOLDER;
+        if(scan.call().size()!=expected) throw new IllegalStateException("expected %d descriptors".formatted(expected));
+        var startedAt = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            scan.call();
+        }
+        return (System.nanoTime() - startedAt) / 1_000_000d / ROUNDS;
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.mvstore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.h2.mvstore.MVMap;
+
+import io.github.causewaystuff.blobstore.applib.BlobChange;
+import io.github.causewaystuff.blobstore.applib.ChangeLog;
+
+/**
+ * {@link ChangeLog.Storage} backed by the {@code changes} map, keyed by sequence.
+ * <p>
+ * Changes are appended while the write they record holds its lock, hence land in the same commit.
+ * Only committed changes count as durable, for uncommitted ones are lost by a crash, along with their writes.
+ */
+final class ChangeStorage implements ChangeLog.Storage {
+
+    private final MVMap<Long, byte[]> changes;
+    private volatile long lastSequence;
+    private volatile long durableSequence;
+
+    ChangeStorage(final MVMap<Long, byte[]> changes) {
+        this.changes = changes;
+        var lastKey = changes.lastKey();
+        this.lastSequence = lastKey!=null
+                ? lastKey
+                : 0L;
+        this.durableSequence = lastSequence;
+    }
+
+    @Override
+    public void append(final BlobChange change) {
+        changes.put(change.sequence(), ChangeLog.encode(change));
+        this.lastSequence = change.sequence();
+    }
+
+    @Override
+    public List<BlobChange> readAfter(final long sequence, final int limit) {
+        var result = new ArrayList<BlobChange>(Math.min(limit, 1024));
+        var cursor = changes.cursor(sequence + 1);
+        while(cursor.hasNext()
+                && result.size()<limit) {
+            cursor.next();
+            result.add(ChangeLog.decode(cursor.getValue()));
+        }
+        return result;
+    }
+
+    @Override
+    public long lastSequence() {
+        return lastSequence;
+    }
+
+    @Override
+    public long firstSequence() {
+        var firstKey = changes.firstKey();
+        return firstKey!=null
+                ? firstKey
+                : lastSequence + 1;
+    }
+
+    @Override
+    public long durableSequence() {
+        return durableSequence;
+    }
+
+    /**
+     * To be called once committed, while no write is in progress.
+     */
+    void markDurable() {
+        this.durableSequence = lastSequence;
+    }
+
+    @Override
+    public void discardBefore(final long sequence) {
+        Long firstKey;
+        while((firstKey = changes.firstKey())!=null
+                && firstKey<sequence) {
+            changes.remove(firstKey);
+        }
+    }
+
+    @Override
+    public void close() {
+        // the map is closed along with the store
+    }
+
+}
@@ -0,0 +1,548 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.mvstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import org.springframework.stereotype.Repository;
+
+import jakarta.activation.MimeType;
+
+import org.apache.causeway.applib.value.Blob;
+import org.apache.causeway.applib.value.NamedWithMimeType.CommonMimeType;
+import org.apache.causeway.commons.collections.Can;
+import org.apache.causeway.commons.internal.exceptions._Exceptions;
+import org.apache.causeway.commons.io.FileUtils;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+import io.github.causewaystuff.blobstore.applib.BlobChange;
+import io.github.causewaystuff.blobstore.applib.BlobChangeFeed;
+import io.github.causewaystuff.blobstore.applib.BlobContentCodec;
+import io.github.causewaystuff.blobstore.applib.BlobContentCodec.CodecSettings;
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor;
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor.Compression;
+import io.github.causewaystuff.blobstore.applib.BlobQualifier;
+import io.github.causewaystuff.blobstore.applib.BlobStore;
+import io.github.causewaystuff.blobstore.applib.BlobStoreFactory.BlobStoreConfiguration;
+import io.github.causewaystuff.blobstore.applib.ChangeLog;
+import io.github.causewaystuff.blobstore.applib.CompressionPolicy;
+import io.github.causewaystuff.blobstore.applib.HashingInputStream;
+import io.github.causewaystuff.blobstore.applib.ThreadFactories;
+import io.github.causewaystuff.commons.base.types.NamedPath;
+import io.github.causewaystuff.commons.compression.ZstdUtils;
+
+/**
+ * {@link BlobStore} backed by an embedded, memory-mapped key-value store (H2's MVStore),
+ * held in a single file as addressed by {@link BlobStoreConfiguration#resource()}, e.g. {@code /var/lib/app/blobs.mv}.
+ * <p>
+ * Suits many small blobs, which on a file system would cost a blob file plus a manifest each.
+ * Keys are the blob paths joined by {@code /}, which sort such that all blobs of a folder are adjacent.
+ * Hence listings are served by iterating over a key range. Two maps are kept:
+ * <ul>
+ * <li>{@code descriptors}, the encoded {@link BlobDescriptor} only, serving listings without touching any content</li>
+ * <li>{@code blobs}, the descriptor along with the stored (compressed) content, serving lookups</li>
+ * </ul>
+ * <p>
+ * Content is held in memory as a whole, also when streamed in or out,
+ * which is why blobs are bounded by {@value #PROPERTY_MAX_BLOB_SIZE}.
+ * <p>
+ * Writes are committed in groups, every {@value #PROPERTY_COMMIT_INTERVAL} milliseconds, by {@link #flush()} and on {@link #close()}.
+ * A commit never interleaves with a write, such that both maps are always persisted in agreement.
+ * A crash loses the writes of the last interval at most.
+ * <p>
+ * With {@value #PROPERTY_CHANGE_FEED_RETENTION} configured, changes are kept in a third map {@code changes},
+ * written along with the blob maps, and delivered by the {@link #changeFeed()} once committed.
+ */
+@Repository
+@Slf4j
+public class MvStoreBlobStore implements BlobStore, AutoCloseable {
+
+    /**
+     * Configuration property, that toggles memory-mapped file access, e.g. {@code memory-mapped=false}.
+     * Defaults to {@code true}.
+     */
+    public static final String PROPERTY_MEMORY_MAPPED = "memory-mapped";
+    /**
+     * Configuration property, that sets the page cache size in MiB, e.g. {@code cache-size=64}.
+     * Defaults to {@code 16}.
+     */
+    public static final String PROPERTY_CACHE_SIZE = "cache-size";
+    /**
+     * Configuration property, that sets the interval in milliseconds at which writes are committed, e.g. {@code commit-interval=200}.
+     * Defaults to {@code 1000}.
+     */
+    public static final String PROPERTY_COMMIT_INTERVAL = "commit-interval";
+    /**
+     * Configuration property, that bounds the uncompressed size in bytes of a single blob, e.g. {@code max-blob-size=1048576}.
+     * Defaults to 16 MiB.
+     */
+    public static final String PROPERTY_MAX_BLOB_SIZE = "max-blob-size";
+    /**
+     * Configuration property, that sets the {@link Compression#ZSTD} level, e.g. {@code zstd-level=6}.
+     */
+    public static final String PROPERTY_ZSTD_LEVEL = "zstd-level";
+    /**
+     * Configuration property, that enables the {@link #changeFeed()}, retaining at least the given number of changes,
+     * e.g. {@code change-feed-retention=100000}.
+     */
+    public static final String PROPERTY_CHANGE_FEED_RETENTION = "change-feed-retention";
+
+    private static final String DESCRIPTORS_MAP = "descriptors";
+    private static final String BLOBS_MAP = "blobs";
+    private static final String CHANGES_MAP = "changes";
+    private static final int LOCK_STRIPES = 64;
+
+    private final MVStore store;
+    private final MVMap<String, byte[]> descriptors;
+    private final MVMap<String, byte[]> blobs;
+    private final int maxBlobSize;
+    private final CodecSettings codecSettings;
+    private final CompressionPolicy compressionPolicy;
+    /** writes hold the read lock, commits the write lock */
+    private final ReentrantReadWriteLock commitLock = new ReentrantReadWriteLock();
+    private final Object[] lockStripes = new Object[LOCK_STRIPES];
+    private final ScheduledExecutorService committer;
+    /** non-null only if {@value #PROPERTY_CHANGE_FEED_RETENTION} is configured */
+    private final @Nullable ChangeStorage changeStorage;
+    private final @Nullable ChangeLog changeLog;
+
+    public MvStoreBlobStore(final BlobStoreConfiguration config) {
+        var file = new File(config.resource()).getAbsoluteFile();
+        if(file.getParentFile()!=null) {
+            FileUtils.makeDir(file.getParentFile());
+        }
+        var memoryMapped = config.property(PROPERTY_MEMORY_MAPPED)
+                .map(Boolean::parseBoolean)
+                .orElse(true);
+        this.store = new MVStore.Builder()
+                .fileName(memoryMapped
+                        ? "nioMapped:" + file.getPath()
+                        : file.getPath())
+                .cacheSize(config.property(PROPERTY_CACHE_SIZE)
+                        .map(Integer::parseInt)
+                        .orElse(16))
+                // commits are issued by this store, never in between the updates of both maps
+                .autoCommitDisabled()
+                .open();
+        this.descriptors = store.openMap(DESCRIPTORS_MAP);
+        this.blobs = store.openMap(BLOBS_MAP);
+        this.maxBlobSize = config.property(PROPERTY_MAX_BLOB_SIZE)
+                .map(Integer::parseInt)
+                .orElse(16 * 1024 * 1024);
+        this.codecSettings = CodecSettings.ofZstdLevel(config.property(PROPERTY_ZSTD_LEVEL)
+                .map(Integer::parseInt)
+                .orElse(ZstdUtils.DEFAULT_LEVEL));
+        this.compressionPolicy = config.compressionPolicy();
+        var changeFeedRetention = config.property(PROPERTY_CHANGE_FEED_RETENTION)
+                .map(Long::parseLong)
+                .orElse(0L);
+        this.changeStorage = changeFeedRetention>0
+                ? new ChangeStorage(store.openMap(CHANGES_MAP))
+                : null;
+        this.changeLog = changeStorage!=null
+                ? new ChangeLog(changeStorage, changeFeedRetention)
+                : null;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            lockStripes[i] = new Object();
+        }
+        var commitInterval = config.property(PROPERTY_COMMIT_INTERVAL)
+                .map(Long::parseLong)
+                .orElse(1000L);
+        this.committer = Executors.newSingleThreadScheduledExecutor(ThreadFactories.daemon("blobstore-mvstore-commit"));
+        committer.scheduleWithFixedDelay(this::commit, commitInterval, commitInterval, TimeUnit.MILLISECONDS);
+        log.info("opened {} with {} blobs", file, descriptors.size());
+    }
+
+    /**
+     * Commits and syncs all writes issued before to the file.
+     */
+    @Override
+    public void flush() {
+        commit();
+        store.sync();
+    }
+
+    @Override
+    public Optional<BlobChangeFeed> changeFeed() {
+        return Optional.ofNullable(changeLog);
+    }
+
+    @Override
+    public void close() {
+        committer.shutdown();
+        if(changeLog!=null) {
+            changeLog.close();
+        }
+        commitLock.writeLock().lock();
+        try {
+            store.close();
+        } finally {
+            commitLock.writeLock().unlock();
+        }
+    }
+
+    // -- WRITE
+
+    @Override
+    public BlobDescriptor putBlob(final @NonNull NamedPath path, final @NonNull Blob blob,
+            final @Nullable UnaryOperator<BlobDescriptor> customizer) {
+        var bytes = blob.bytes();
+        checkSize(path, bytes.length);
+        var descriptor = initialDescriptor(path, CommonMimeType.valueOf(blob.mimeType()).orElseThrow(), bytes,
+                Map.of("uncompressed-size", "" + bytes.length), customizer);
+        return store(descriptor, bytes);
+    }
+
+    /**
+     * Reads the content into memory, as bounded by {@value #PROPERTY_MAX_BLOB_SIZE}.
+     */
+    @SneakyThrows
+    @Override
+    public BlobDescriptor putBlob(final @NonNull NamedPath path, final @NonNull CommonMimeType mimeType,
+            final @NonNull InputStream content, final @Nullable UnaryOperator<BlobDescriptor> customizer) {
+        var bytes = content.readNBytes(maxBlobSize + 1);
+        checkSize(path, bytes.length);
+        var descriptor = initialDescriptor(path, mimeType, bytes, Map.of(), customizer);
+        // as promised by the streaming API, unless set by the customizer
+        if(!descriptor.attributes().containsKey("sha256")) {
+            descriptor = descriptor.withAttribute("sha256", HashingInputStream.sha256Hex(bytes));
+        }
+        if(!descriptor.attributes().containsKey("uncompressed-size")) {
+            descriptor = descriptor.withAttribute("uncompressed-size", "" + bytes.length);
+        }
+        return store(descriptor, bytes);
+    }
+
+    @Override
+    public Optional<BlobDescriptor> updateDescriptor(final @NonNull NamedPath path,
+            final @NonNull UnaryOperator<BlobDescriptor> customizer) {
+        var key = key(path);
+        return write(path, ()->Optional.ofNullable(blobs.get(key))
+            .map(StoredBlob::decode)
+            .map(stored->{
+                // the content is not altered, hence neither is its compression
+                var updated = customizer.apply(stored.descriptor())
+                        .withCompression(stored.descriptor().compression())
+                        .withSize(stored.descriptor().size());
+                put(key, new StoredBlob(updated, stored.content()));
+                recordChange(BlobChange.Type.UPDATE, path, updated);
+                return updated;
+            }));
+    }
+
+    @Override
+    public void deleteBlob(final @Nullable NamedPath path) {
+        if(path==null
+                || path.isEmpty()) return;
+        var key = key(path);
+        write(path, ()->{
+            if(blobs.remove(key)!=null) {
+                recordChange(BlobChange.Type.DELETE, path, null);
+            }
+            descriptors.remove(key);
+            return null;
+        });
+    }
+
+    @Override
+    public Optional<BlobDescriptor> compress(final @NonNull BlobDescriptor blobDescriptor,
+            final @NonNull Compression compression) {
+        var path = blobDescriptor.path();
+        var key = key(path);
+        return write(path, ()->Optional.ofNullable(blobs.get(key))
+            .map(StoredBlob::decode)
+            .map(stored->{
+                var current = stored.descriptor();
+                if(current.compression()==compression) return current;
+                var name = path.lastNameElseFail();
+                var content = BlobContentCodec.compress(
+                        BlobContentCodec.uncompress(stored.content(), name, current.compression(), codecSettings),
+                        name, compression, codecSettings);
+                var recompressed = current
+                        .withCompression(compression)
+                        .withSize(content.length);
+                put(key, new StoredBlob(recompressed, content));
+                recordChange(BlobChange.Type.UPDATE, path, recompressed);
+                return recompressed;
+            }));
+    }
+
+    // -- READ
+
+    @Override
+    public Can<BlobDescriptor> listDescriptors(final @Nullable NamedPath path,
+            final @Nullable Can<BlobQualifier> qualifiers, final boolean recursive) {
+        return streamDescriptors(path, qualifiers, recursive, null)
+            .collect(Can.toCan());
+    }
+
+    /**
+     * Iterates the {@code descriptors} map lazily, in key order, that is, by path joined with {@code /}, compared as strings.
+     */
+    @Override
+    public Stream<BlobDescriptor> streamDescriptors(final @Nullable NamedPath path,
+            final @Nullable Can<BlobQualifier> qualifiers, final boolean recursive, final @Nullable NamedPath after) {
+        if(path==null
+                && !recursive) return Stream.empty();
+        var folder = path!=null
+                ? path
+                : NamedPath.empty();
+        var keyPrefix = folder.isEmpty()
+                ? ""
+                : key(folder) + "/";
+        var afterKey = after!=null
+                && !after.isEmpty()
+                ? key(after)
+                : null;
+        // like other stores, a recursive listing includes a blob at the folder's path itself, which sorts before its descendants
+        var self = recursive
+                && !folder.isEmpty()
+                && (afterKey==null || afterKey.compareTo(key(folder))<0)
+                ? Stream.ofNullable(descriptors.get(key(folder)))
+                : Stream.<byte[]>empty();
+        var cursor = descriptors.cursor(afterKey!=null && afterKey.compareTo(keyPrefix)>0
+                ? afterKey
+                : keyPrefix);
+        var encodedDescriptors = new Iterator<byte[]>() {
+            private byte @Nullable [] next = advance();
+            @Override public boolean hasNext() {
+                return next!=null;
+            }
+            @Override public byte[] next() {
+                if(next==null) throw new NoSuchElementException();
+                var current = next;
+                this.next = advance();
+                return current;
+            }
+            private byte @Nullable [] advance() {
+                while(cursor.hasNext()) {
+                    var key = cursor.next();
+                    if(!key.startsWith(keyPrefix)) return null;
+                    if(key.equals(afterKey)
+                            || (!recursive && key.indexOf('/', keyPrefix.length())>=0)) continue;
+                    return cursor.getValue();
+                }
+                return null;
+            }
+        };
+        return Stream.concat(self,
+                StreamSupport.stream(Spliterators.spliteratorUnknownSize(encodedDescriptors, Spliterator.ORDERED), false))
+            .map(StoredBlob::decodeDescriptor)
+            .filter(descriptor->qualifiers==null
+                    || qualifiers.stream().allMatch(descriptor.qualifiers()::contains));
+    }
+
+    @Override
+    public Optional<BlobDescriptor> lookupDescriptor(final @Nullable NamedPath path) {
+        if(path==null
+                || path.isEmpty()) return Optional.empty();
+        return Optional.ofNullable(descriptors.get(key(path)))
+            .map(StoredBlob::decodeDescriptor);
+    }
+
+    @Override
+    public Optional<Blob> lookupBlob(final @Nullable NamedPath path) {
+        return lookupStored(path)
+            .map(stored->{
+                var descriptor = stored.descriptor();
+                return descriptor.compression()==Compression.NONE
+                        ? Blob.of(path.lastNameElseFail(), descriptor.mimeType(), stored.content())
+                        : asStored(path.lastNameElseFail(), descriptor.compression(), stored.content());
+            });
+    }
+
+    @Override
+    public Optional<Blob> lookupBlobAndUncompress(final @Nullable NamedPath path) {
+        return lookupStored(path)
+            .map(stored->Blob.of(path.lastNameElseFail(), stored.descriptor().mimeType(), uncompress(stored)));
+    }
+
+    @Override
+    public Optional<InputStream> openBlob(final @Nullable NamedPath path) {
+        return lookupStored(path)
+            .map(stored->new ByteArrayInputStream(stored.content()));
+    }
+
+    @Override
+    public Optional<InputStream> openBlobAndUncompress(final @Nullable NamedPath path) {
+        return lookupStored(path)
+            .map(stored->new ByteArrayInputStream(uncompress(stored)));
+    }
+
+    @Override
+    public Optional<byte[]> readRange(final @Nullable NamedPath path, final long offset, final int length) {
+        if(offset<0
+                || length<0) throw _Exceptions.illegalArgument("offset and length must not be negative, got %d, %d", offset, length);
+        return lookupStored(path)
+            .map(stored->{
+                var content = uncompress(stored);
+                if(offset>=content.length) return new byte[0];
+                return Arrays.copyOfRange(content, (int) offset, (int) Math.min(content.length, offset + length));
+            });
+    }
+
+    // -- HELPER
+
+    private BlobDescriptor initialDescriptor(
+            final NamedPath path,
+            final CommonMimeType mimeType,
+            final byte[] bytes,
+            final Map<String, String> attributes,
+            final @Nullable UnaryOperator<BlobDescriptor> customizer) {
+        var initialDescriptor = new BlobDescriptor(
+                path,
+                mimeType,
+                null,
+                Instant.now(),
+                0L,
+                Compression.NONE,
+                attributes,
+                Can.empty());
+        return customize(compressionPolicy.applyTo(initialDescriptor, bytes.length,
+                Arrays.copyOf(bytes, Math.min(bytes.length, CompressionPolicy.SAMPLE_SIZE))), customizer);
+    }
+
+    private BlobDescriptor store(final BlobDescriptor descriptor, final byte[] bytes) {
+        var path = descriptor.path();
+        var content = BlobContentCodec.compress(bytes, path.lastNameElseFail(), descriptor.compression(), codecSettings);
+        var stored = new StoredBlob(descriptor.withSize(content.length), content);
+        write(path, ()->{
+            put(key(path), stored);
+            recordChange(BlobChange.Type.PUT, path, stored.descriptor());
+            return null;
+        });
+        return stored.descriptor();
+    }
+
+    /**
+     * Updates both maps, to be called while holding the write lock of the blob's path.
+     */
+    private void put(final String key, final StoredBlob stored) {
+        blobs.put(key, stored.encode());
+        descriptors.put(key, StoredBlob.encodeDescriptor(stored.descriptor()));
+    }
+
+    /**
+     * Appends to the {@code changes} map, to be called while holding the write lock of the blob's path,
+     * such that the change is committed along with the write.
+     */
+    private void recordChange(final BlobChange.Type type, final NamedPath path, final @Nullable BlobDescriptor descriptor) {
+        if(changeLog==null) return;
+        changeLog.append(type, path, descriptor);
+    }
+
+    private Optional<StoredBlob> lookupStored(final @Nullable NamedPath path) {
+        if(path==null
+                || path.isEmpty()) return Optional.empty();
+        return Optional.ofNullable(blobs.get(key(path)))
+            .map(StoredBlob::decode);
+    }
+
+    private static byte[] uncompress(final StoredBlob stored) {
+        var descriptor = stored.descriptor();
+        return BlobContentCodec.uncompress(stored.content(), descriptor.path().lastNameElseFail(), descriptor.compression(), codecSettings);
+    }
+
+    /**
+     * Serializes writes of the same path, while excluding commits for the duration of the write.
+     */
+    private <T> T write(final NamedPath path, final Supplier<T> action) {
+        commitLock.readLock().lock();
+        try {
+            synchronized (lockStripes[Math.floorMod(path.hashCode(), LOCK_STRIPES)]) {
+                return action.get();
+            }
+        } finally {
+            commitLock.readLock().unlock();
+        }
+    }
+
+    private void commit() {
+        commitLock.writeLock().lock();
+        try {
+            if(!store.isClosed()
+                    && store.hasUnsavedChanges()) {
+                store.commit();
+                if(changeStorage!=null) {
+                    changeStorage.markDurable();
+                    changeLog.publish();
+                }
+            }
+        } catch (Exception e) {
+            log.error("failed to commit", e);
+        } finally {
+            commitLock.writeLock().unlock();
+        }
+    }
+
+    private void checkSize(final NamedPath path, final int size) {
+        if(size>maxBlobSize) throw _Exceptions.illegalArgument(
+                "blob %s exceeds the maximum size of %d bytes, as configured by '%s'",
+                path, maxBlobSize, PROPERTY_MAX_BLOB_SIZE);
+    }
+
+    private static String key(final NamedPath path) {
+        for(var name : path) {
+            if(name.indexOf('/')>=0) throw _Exceptions.illegalArgument(
+                    "path names must not contain '/', got '%s' in %s", name, path);
+        }
+        return path.toString("/");
+    }
+
+    private static BlobDescriptor customize(
+            final BlobDescriptor blobDescriptor,
+            final @Nullable UnaryOperator<BlobDescriptor> customizer) {
+        return customizer!=null
+            ? Optional
+                .ofNullable(customizer.apply(blobDescriptor))
+                .orElse(blobDescriptor)
+            : blobDescriptor;
+    }
+
+    @SneakyThrows
+    private static Blob asStored(final String name, final Compression compression, final byte[] bytes) {
+        return new Blob(name, new MimeType(compression.mimeTypeBase()), bytes);
+    }
+
+}
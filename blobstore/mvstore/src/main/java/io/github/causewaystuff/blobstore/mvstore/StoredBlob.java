@@ -0,0 +1,70 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.mvstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import lombok.SneakyThrows;
+
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor;
+import io.github.causewaystuff.blobstore.applib.BlobDescriptorCodec;
+
+/**
+ * Value of the content map, that keeps the descriptor along with the stored (compressed) content,
+ * such that a reader always sees both from the same write.
+ * <p>
+ * Encoded as the length of the encoded descriptor, the descriptor and the content.
+ */
+record StoredBlob(
+        BlobDescriptor descriptor,
+        byte[] content) {
+
+    @SneakyThrows
+    static StoredBlob decode(final byte[] value) {
+        var in = new DataInputStream(new ByteArrayInputStream(value));
+        var descriptorLength = in.readInt();
+        var descriptor = decodeDescriptor(in.readNBytes(descriptorLength));
+        return new StoredBlob(descriptor, in.readAllBytes());
+    }
+
+    @SneakyThrows
+    static BlobDescriptor decodeDescriptor(final byte[] value) {
+        return BlobDescriptorCodec.decode(value);
+    }
+
+    static byte[] encodeDescriptor(final BlobDescriptor descriptor) {
+        return BlobDescriptorCodec.encode(descriptor);
+    }
+
+    @SneakyThrows
+    byte[] encode() {
+        var encodedDescriptor = encodeDescriptor(descriptor);
+        var bytes = new ByteArrayOutputStream(Integer.BYTES + encodedDescriptor.length + content.length);
+        try(var out = new DataOutputStream(bytes)) {
+            out.writeInt(encodedDescriptor.length);
+            out.write(encodedDescriptor);
+            out.write(content);
+        }
+        return bytes.toByteArray();
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.mvstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.causeway.applib.value.Blob;
+import org.apache.causeway.applib.value.NamedWithMimeType.CommonMimeType;
+import org.apache.causeway.commons.collections.Can;
+import org.apache.causeway.commons.io.FileUtils;
+
+import io.github.causewaystuff.blobstore.applib.BlobChange;
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor.Compression;
+import io.github.causewaystuff.blobstore.applib.BlobQualifier;
+import io.github.causewaystuff.blobstore.applib.BlobStoreFactory.BlobStoreConfiguration;
+import io.github.causewaystuff.blobstore.test.BlobStoreTester;
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+class MvStoreBlobStoreTest {
+
+    private File root;
+    private BlobStoreConfiguration config;
+    private MvStoreBlobStore blobStore;
+
+    @BeforeEach
+    void setup() {
+        this.root = FileUtils.tempDir("causewaystuff-test");
+        this.config = new BlobStoreConfiguration(MvStoreBlobStore.class, new File(root, "blobs.mv").getAbsolutePath());
+        this.blobStore = new MvStoreBlobStore(config);
+    }
+
+    @AfterEach
+    void cleanup() {
+        blobStore.close();
+        FileUtils.deleteDirectory(root);
+    }
+
+    @ParameterizedTest
+    @EnumSource(BlobStoreTester.ScenarioSample.class)
+    void roundtrip(final BlobStoreTester.ScenarioSample scenarioSample) {
+        var scenario = scenarioSample.create();
+        var tester = new BlobStoreTester(blobStore);
+        tester.setup(scenario);
+        tester.assertExpectations(scenario);
+        tester.cleanup(scenario);
+    }
+
+    @Test
+    void listingByKeyRange() {
+        for(var folder : new String[] {"a", "ab", "a-b"}) {
+            blobStore.putBlob(NamedPath.of(folder, "x.txt"), Blob.of("x.txt", CommonMimeType.TXT, new byte[1]),
+                    desc->desc.withQualifiers(BlobQualifier.of(folder)));
+        }
+        blobStore.putBlob(NamedPath.of("a", "nested", "y.txt"), Blob.of("y.txt", CommonMimeType.TXT, new byte[1]));
+
+        // sibling folders sharing a name prefix do not leak into the listing
+        assertEquals(1, blobStore.listDescriptors(NamedPath.of("a"), false).size());
+        assertEquals(2, blobStore.listDescriptors(NamedPath.of("a"), true).size());
+        assertEquals(4, blobStore.listDescriptors(NamedPath.empty(), true).size());
+        assertEquals(1, blobStore.listDescriptors(NamedPath.empty(), BlobQualifier.of("ab"), true).size());
+        assertThrows(IllegalArgumentException.class, ()->
+            blobStore.lookupDescriptor(new NamedPath(Can.of("a/b"))));
+    }
+
+    @Test
+    void pagedListing() {
+        var tester = new BlobStoreTester(blobStore);
+        tester.setupTree(NamedPath.empty(), 5);
+        for(var pageSize : new int[] {1, 4, 100}) {
+            tester.assertPagedListing(NamedPath.empty(), true, pageSize);
+            tester.assertPagedListing(NamedPath.of("a"), true, pageSize);
+            tester.assertPagedListing(NamedPath.of("a"), false, pageSize);
+        }
+        assertThrows(IllegalArgumentException.class, ()->
+            blobStore.listDescriptors(NamedPath.empty(), null, true, "not a token!", 10));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Compression.class)
+    void survivesReopen(final Compression compression) {
+        var bytes = "persisted content ".repeat(100).getBytes();
+        var path = NamedPath.of("persisted", "data.txt");
+        var descriptor = blobStore.putBlob(path, CommonMimeType.TXT, new ByteArrayInputStream(bytes),
+                desc->desc.withCompression(compression));
+        assertTrue(descriptor.attributes().containsKey("sha256"));
+        blobStore.close();
+
+        this.blobStore = new MvStoreBlobStore(config);
+        assertEquals(descriptor, blobStore.lookupDescriptor(path).orElseThrow());
+        assertArrayEquals(bytes, blobStore.lookupBlobAndUncompress(path).orElseThrow().bytes());
+        assertArrayEquals("content".getBytes(), blobStore.readRange(path, 10, 7).orElseThrow());
+    }
+
+    @Test
+    void changeFeedDeliversCommittedChanges() {
+        var feedConfig = new BlobStoreConfiguration(MvStoreBlobStore.class, new File(root, "feed.mv").getAbsolutePath())
+                .withProperty(MvStoreBlobStore.PROPERTY_CHANGE_FEED_RETENTION, "1000")
+                // no commits, other than issued by flush
+                .withProperty(MvStoreBlobStore.PROPERTY_COMMIT_INTERVAL, "3600000");
+        var path = NamedPath.of("feed", "a.txt");
+        try(var feedStore = new MvStoreBlobStore(feedConfig)) {
+            var feed = feedStore.changeFeed().orElseThrow();
+            feedStore.putBlob(path, Blob.of("a.txt", CommonMimeType.TXT, "a".getBytes()));
+            feedStore.deleteBlob(path);
+            // not yet committed
+            assertEquals(0L, feed.lastSequence());
+            assertTrue(feed.readAfter(0L, 10).isEmpty());
+
+            feedStore.flush();
+            assertEquals(2L, feed.lastSequence());
+            var changes = feed.readAfter(0L, 10);
+            assertEquals(BlobChange.Type.PUT, changes.getElseFail(0).type());
+            assertEquals(BlobChange.Type.DELETE, changes.getElseFail(1).type());
+        }
+        try(var reopenedStore = new MvStoreBlobStore(feedConfig)) {
+            var feed = reopenedStore.changeFeed().orElseThrow();
+            assertEquals(2L, feed.lastSequence());
+            assertEquals(path, feed.readAfter(1L, 10).getFirstElseFail().path());
+        }
+    }
+
+    @Test
+    void oversizedBlobIsRejected() {
+        try(var boundedStore = new MvStoreBlobStore(new BlobStoreConfiguration(
+                    MvStoreBlobStore.class, new File(root, "bounded.mv").getAbsolutePath())
+                .withProperty(MvStoreBlobStore.PROPERTY_MAX_BLOB_SIZE, "16"))) {
+            var path = NamedPath.of("oversized.bin");
+            assertThrows(IllegalArgumentException.class, ()->
+                boundedStore.putBlob(path, CommonMimeType.BIN, new ByteArrayInputStream(new byte[17]), null));
+            assertTrue(boundedStore.lookupDescriptor(path).isEmpty());
+        }
+    }
+
+}
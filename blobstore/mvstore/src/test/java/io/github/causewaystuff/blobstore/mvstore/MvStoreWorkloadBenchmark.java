@@ -0,0 +1,52 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.mvstore;
+
+import java.io.File;
+
+import org.apache.causeway.commons.io.FileUtils;
+
+import io.github.causewaystuff.blobstore.applib.BlobStore;
+import io.github.causewaystuff.blobstore.applib.BlobStoreFactory.BlobStoreConfiguration;
+import io.github.causewaystuff.blobstore.localfs.LocalFsBlobStore;
+import io.github.causewaystuff.blobstore.test.BlobStoreWorkloadBenchmark;
+
+/**
+ * Compares the {@link MvStoreBlobStore} with the {@link LocalFsBlobStore} for many small and fewer medium-sized blobs.
+ * Not part of the test suite, run from the IDE or via {@code exec:java} with test classpath.
+ */
+class MvStoreWorkloadBenchmark {
+
+    public static void main(final String[] args) {
+        var root = FileUtils.tempDir("causewaystuff-benchmark");
+        try(var localFsStore = new LocalFsBlobStore(new BlobStoreConfiguration(LocalFsBlobStore.class,
+                    new File(root, "localfs").getAbsolutePath()));
+                var mvStore = new MvStoreBlobStore(new BlobStoreConfiguration(MvStoreBlobStore.class,
+                    new File(root, "blobs.mv").getAbsolutePath()))) {
+            for(var store : new BlobStore[] {localFsStore, mvStore}) {
+                var benchmark = new BlobStoreWorkloadBenchmark(store);
+                System.out.println(benchmark.run(2000, 512, 20));
+                System.out.println(benchmark.run(500, 16 * 1024, 5));
+            }
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.s3;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.MetadataDirective;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+/**
+ * {@link ObjectStore} backed by a bucket of Amazon S3 or any S3 compatible service (e.g. MinIO, Ceph),
+ * using the AWS SDK. Credentials are resolved by the SDK's default provider chain.
+ * <p>
+ * {@link #replaceMetadata} is implemented by an in-place copy, which S3 limits to objects of up to 5 GB.
+ */
+public class AwsObjectStore implements ObjectStore {
+
+    private static final int NOT_FOUND = 404;
+    private static final int RANGE_NOT_SATISFIABLE = 416;
+
+    private final S3Client client;
+    private final String bucket;
+
+    public AwsObjectStore(final @NonNull S3Client client, final @NonNull String bucket) {
+        this.client = client;
+        this.bucket = bucket;
+    }
+
+    /**
+     * @param endpoint of an S3 compatible service, or {@code null} for Amazon S3
+     * @param region or {@code null} to resolve by the SDK's default provider chain
+     * @param pathStyle whether to address the bucket by path instead of by host name, as required by some S3 compatible services
+     */
+    public static AwsObjectStore of(
+            final @NonNull String bucket,
+            final @Nullable URI endpoint,
+            final @Nullable String region,
+            final boolean pathStyle) {
+        var builder = S3Client.builder()
+                .forcePathStyle(pathStyle);
+        if(endpoint!=null) {
+            builder.endpointOverride(endpoint);
+        }
+        if(region!=null) {
+            builder.region(Region.of(region));
+        }
+        return new AwsObjectStore(builder.build(), bucket);
+    }
+
+    @Override
+    public void putObject(final String key, final Map<String, String> metadata, final byte[] content) {
+        client.putObject(PutObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .metadata(metadata)
+                .build(),
+            RequestBody.fromBytes(content));
+    }
+
+    @Override
+    public String createMultipartUpload(final String key, final Map<String, String> metadata) {
+        return client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .metadata(metadata)
+                .build())
+            .uploadId();
+    }
+
+    @Override
+    public String uploadPart(final String key, final String uploadId, final int partNumber, final byte[] content) {
+        return client.uploadPart(UploadPartRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .build(),
+            RequestBody.fromBytes(content))
+            .eTag();
+    }
+
+    @Override
+    public void completeMultipartUpload(final String key, final String uploadId, final List<String> partETags) {
+        var parts = IntStream.range(0, partETags.size())
+            .mapToObj(index->CompletedPart.builder()
+                    .partNumber(index + 1)
+                    .eTag(partETags.get(index))
+                    .build())
+            .toList();
+        client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                .build());
+    }
+
+    @Override
+    public void abortMultipartUpload(final String key, final String uploadId) {
+        client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .uploadId(uploadId)
+                .build());
+    }
+
+    @Override
+    public Optional<ObjectInfo> headObject(final String key) {
+        return ifFound(()->{
+            var response = client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .build());
+            return new ObjectInfo(key, response.contentLength(), response.metadata());
+        });
+    }
+
+    @Override
+    public Optional<InputStream> getObject(final String key, final long offset, final long length) {
+        var request = GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(key);
+        if(offset>0
+                || length>=0) {
+            request.range(length>=0
+                    ? "bytes=%d-%d".formatted(offset, offset + length - 1)
+                    : "bytes=%d-".formatted(offset));
+        }
+        try {
+            return ifFound(()->client.getObject(request.build()));
+        } catch (S3Exception e) {
+            // the range starts beyond the end of the object
+            if(e.statusCode()==RANGE_NOT_SATISFIABLE) return Optional.of(InputStream.nullInputStream());
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean replaceMetadata(final String key, final Map<String, String> metadata) {
+        return ifFound(()->client.copyObject(CopyObjectRequest.builder()
+                .sourceBucket(bucket)
+                .sourceKey(key)
+                .destinationBucket(bucket)
+                .destinationKey(key)
+                .metadata(metadata)
+                .metadataDirective(MetadataDirective.REPLACE)
+                .build()))
+            .isPresent();
+    }
+
+    @Override
+    public Stream<String> listKeys(final String prefix, final boolean recursive, final @Nullable String startAfter) {
+        return client.listObjectsV2Paginator(ListObjectsV2Request.builder()
+                .bucket(bucket)
+                .prefix(prefix)
+                .delimiter(recursive ? null : "/")
+                .startAfter(startAfter)
+                .build())
+            .contents()
+            .stream()
+            .map(S3Object::key);
+    }
+
+    @Override
+    public void deleteObject(final String key) {
+        client.deleteObject(DeleteObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .build());
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+
+    // -- HELPER
+
+    private static <T> Optional<T> ifFound(final Supplier<T> request) {
+        try {
+            return Optional.of(request.get());
+        } catch (S3Exception e) {
+            if(e.statusCode()==NOT_FOUND) return Optional.empty();
+            throw e;
+        }
+    }
+
+}
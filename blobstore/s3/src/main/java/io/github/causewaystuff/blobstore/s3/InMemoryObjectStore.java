@@ -0,0 +1,218 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.s3;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+import org.jspecify.annotations.Nullable;
+
+import org.apache.causeway.commons.internal.exceptions._Exceptions;
+
+import lombok.Getter;
+
+/**
+ * In-process {@link ObjectStore}, that mimics the S3 semantics relevant to {@link S3BlobStore}
+ * (minimum part size, atomic completion, lower-case ASCII metadata), intended for testing.
+ */
+public class InMemoryObjectStore implements ObjectStore {
+
+    /** minimum size of all but the last part of a multipart upload, as enforced by S3 */
+    public static final int S3_MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private static final Map<String, InMemoryObjectStore> SHARED = new ConcurrentHashMap<>();
+
+    private record StoredObject(byte[] content, Map<String, String> metadata) {}
+    private record Upload(String key, Map<String, String> metadata, Map<Integer, byte[]> parts) {}
+
+    private final ConcurrentSkipListMap<String, StoredObject> objects = new ConcurrentSkipListMap<>();
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    private final int minPartSize;
+
+    /** number of requests served, by operation name, e.g. {@code uploadPart} */
+    @Getter
+    private final Map<String, Integer> requestCounts = new ConcurrentHashMap<>();
+
+    public InMemoryObjectStore() {
+        this(S3_MIN_PART_SIZE);
+    }
+
+    /**
+     * @param minPartSize minimum size of all but the last part of a multipart upload,
+     *      smaller than for S3 to exercise multipart uploads with small blobs
+     */
+    public InMemoryObjectStore(final int minPartSize) {
+        this.minPartSize = minPartSize;
+    }
+
+    /**
+     * The store shared by all callers, that ask for the same bucket, e.g. as resolved by {@link S3BlobStore}
+     * for resources like {@code memory://bucket/prefix}.
+     */
+    public static InMemoryObjectStore shared(final String bucket) {
+        return SHARED.computeIfAbsent(bucket, __->new InMemoryObjectStore());
+    }
+
+    @Override
+    public void putObject(final String key, final Map<String, String> metadata, final byte[] content) {
+        count("putObject");
+        objects.put(key, new StoredObject(content.clone(), validate(metadata)));
+    }
+
+    @Override
+    public String createMultipartUpload(final String key, final Map<String, String> metadata) {
+        count("createMultipartUpload");
+        var uploadId = UUID.randomUUID().toString();
+        uploads.put(uploadId, new Upload(key, validate(metadata), new ConcurrentHashMap<>()));
+        return uploadId;
+    }
+
+    @Override
+    public String uploadPart(final String key, final String uploadId, final int partNumber, final byte[] content) {
+        count("uploadPart");
+        var upload = upload(key, uploadId);
+        upload.parts().put(partNumber, content.clone());
+        return eTag(content);
+    }
+
+    @Override
+    public void completeMultipartUpload(final String key, final String uploadId, final List<String> partETags) {
+        count("completeMultipartUpload");
+        var upload = upload(key, uploadId);
+        var parts = new ArrayList<byte[]>();
+        for (int partNumber = 1; partNumber <= partETags.size(); partNumber++) {
+            var part = upload.parts().get(partNumber);
+            if(part==null
+                    || !eTag(part).equals(partETags.get(partNumber - 1))) throw _Exceptions.illegalArgument(
+                        "part %d of upload %s is missing or does not match its entity tag", partNumber, uploadId);
+            if(partNumber < partETags.size()
+                    && part.length < minPartSize) throw _Exceptions.illegalArgument(
+                        "part %d of upload %s is smaller than the minimum of %d bytes", partNumber, uploadId, minPartSize);
+            parts.add(part);
+        }
+        var size = parts.stream().mapToInt(part->part.length).sum();
+        var content = new byte[size];
+        var offset = 0;
+        for(var part : parts) {
+            System.arraycopy(part, 0, content, offset, part.length);
+            offset += part.length;
+        }
+        objects.put(key, new StoredObject(content, upload.metadata()));
+        uploads.remove(uploadId);
+    }
+
+    @Override
+    public void abortMultipartUpload(final String key, final String uploadId) {
+        count("abortMultipartUpload");
+        uploads.remove(uploadId);
+    }
+
+    @Override
+    public Optional<ObjectInfo> headObject(final String key) {
+        count("headObject");
+        return Optional.ofNullable(objects.get(key))
+            .map(object->new ObjectInfo(key, object.content().length, object.metadata()));
+    }
+
+    @Override
+    public Optional<InputStream> getObject(final String key, final long offset, final long length) {
+        count("getObject");
+        return Optional.ofNullable(objects.get(key))
+            .map(object->{
+                var content = object.content();
+                var from = (int) Math.min(offset, content.length);
+                var to = length<0
+                        ? content.length
+                        : (int) Math.min(content.length, offset + length);
+                return new ByteArrayInputStream(Arrays.copyOfRange(content, from, to));
+            });
+    }
+
+    @Override
+    public boolean replaceMetadata(final String key, final Map<String, String> metadata) {
+        count("replaceMetadata");
+        var validated = validate(metadata);
+        return objects.computeIfPresent(key, (__, object)->new StoredObject(object.content(), validated))!=null;
+    }
+
+    @Override
+    public Stream<String> listKeys(final String prefix, final boolean recursive, final @Nullable String startAfter) {
+        count("listKeys");
+        var keys = startAfter!=null
+                && startAfter.compareTo(prefix)>=0
+                ? objects.tailMap(startAfter, false)
+                : objects.tailMap(prefix);
+        return keys.keySet().stream()
+            .takeWhile(key->key.startsWith(prefix))
+            .filter(key->recursive
+                    || key.indexOf('/', prefix.length())<0)
+            .toList()
+            .stream();
+    }
+
+    @Override
+    public void deleteObject(final String key) {
+        count("deleteObject");
+        objects.remove(key);
+    }
+
+    /**
+     * Number of multipart uploads neither completed nor aborted.
+     */
+    public int pendingUploadCount() {
+        return uploads.size();
+    }
+
+    // -- HELPER
+
+    private Upload upload(final String key, final String uploadId) {
+        var upload = uploads.get(uploadId);
+        if(upload==null
+                || !upload.key().equals(key)) throw _Exceptions.noSuchElement("no upload %s for key %s", uploadId, key);
+        return upload;
+    }
+
+    private static Map<String, String> validate(final Map<String, String> metadata) {
+        metadata.forEach((key, value)->{
+            if(!key.equals(key.toLowerCase(Locale.ROOT))
+                    || !(key + value).chars().allMatch(c->c>=0x20 && c<0x7f)) throw _Exceptions.illegalArgument(
+                        "metadata must be lower-case keys and printable ASCII, got %s=%s", key, value);
+        });
+        return Map.copyOf(metadata);
+    }
+
+    private static String eTag(final byte[] content) {
+        return Integer.toHexString(Arrays.hashCode(content)) + "-" + content.length;
+    }
+
+    private void count(final String operation) {
+        requestCounts.merge(operation, 1, Integer::sum);
+    }
+
+}
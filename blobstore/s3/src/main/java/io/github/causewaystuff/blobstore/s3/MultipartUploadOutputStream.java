@@ -0,0 +1,181 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.s3;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Streams to an object, uploading parts of fixed size concurrently as they fill up,
+ * such that memory use is bounded by the part size times the number of parts in flight.
+ * <p>
+ * Content that fits into a single part is uploaded by a single request on {@link #close()}.
+ * Otherwise the object becomes visible once the multipart upload is completed on {@link #close()}.
+ * Once failed, the upload is aborted and the object left as is.
+ */
+@Slf4j
+class MultipartUploadOutputStream extends OutputStream {
+
+    private final ObjectStore objectStore;
+    private final String key;
+    private final Supplier<Map<String, String>> metadata;
+    private final Executor executor;
+    private final Semaphore partsInFlight;
+
+    private byte[] buffer;
+    private int bufferCount;
+    private long size;
+    private String uploadId;
+    private final List<CompletableFuture<String>> partETags = new ArrayList<>();
+    private boolean closed;
+
+    /**
+     * @param metadata evaluated once the upload starts, that is, with content of a single part not before {@link #close()}
+     * @param maxPartsInFlight bounds the memory held by parts not uploaded yet
+     */
+    MultipartUploadOutputStream(
+            final ObjectStore objectStore,
+            final String key,
+            final Supplier<Map<String, String>> metadata,
+            final int partSize,
+            final Executor executor,
+            final int maxPartsInFlight) {
+        this.objectStore = objectStore;
+        this.key = key;
+        this.metadata = metadata;
+        this.executor = executor;
+        this.partsInFlight = new Semaphore(maxPartsInFlight);
+        this.buffer = new byte[partSize];
+    }
+
+    /**
+     * Number of bytes written so far.
+     */
+    long size() {
+        return size;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while(len>0) {
+            var chunk = Math.min(len, buffer.length - bufferCount);
+            System.arraycopy(b, off, buffer, bufferCount, chunk);
+            bufferCount += chunk;
+            size += chunk;
+            off += chunk;
+            len -= chunk;
+            if(bufferCount==buffer.length) {
+                uploadPart();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(closed) return;
+        closed = true;
+        try {
+            if(uploadId==null) {
+                objectStore.putObject(key, metadata.get(), Arrays.copyOf(buffer, bufferCount));
+                return;
+            }
+            if(bufferCount>0) {
+                uploadPart();
+            }
+            var eTags = partETags.stream()
+                    .map(CompletableFuture::join)
+                    .toList();
+            objectStore.completeMultipartUpload(key, uploadId, eTags);
+        } catch (CompletionException e) {
+            abort();
+            throw new IOException("failed to upload part of " + key, e.getCause());
+        } catch (RuntimeException e) {
+            abort();
+            throw e;
+        } finally {
+            buffer = null;
+        }
+    }
+
+    /**
+     * Discards the upload, e.g. because the content could not be produced.
+     */
+    void abort() {
+        closed = true;
+        buffer = null;
+        if(uploadId==null) return;
+        partETags.forEach(future->future.cancel(false));
+        try {
+            objectStore.abortMultipartUpload(key, uploadId);
+        } catch (RuntimeException e) {
+            log.warn("failed to abort upload {} of {}", uploadId, key, e);
+        }
+    }
+
+    // -- HELPER
+
+    private void uploadPart() throws IOException {
+        if(uploadId==null) {
+            uploadId = objectStore.createMultipartUpload(key, metadata.get());
+        }
+        try {
+            partsInFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+            throw new IOException("interrupted while uploading " + key, e);
+        }
+        var part = buffer;
+        var partLength = bufferCount;
+        var partNumber = partETags.size() + 1;
+        partETags.add(CompletableFuture.supplyAsync(()->{
+            try {
+                return objectStore.uploadPart(key, uploadId, partNumber,
+                        partLength==part.length ? part : Arrays.copyOf(part, partLength));
+            } finally {
+                partsInFlight.release();
+            }
+        }, executor));
+        // the uploading part keeps its buffer
+        buffer = new byte[buffer.length];
+        bufferCount = 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if(closed) throw new IOException("upload of %s is closed".formatted(key));
+    }
+
+}
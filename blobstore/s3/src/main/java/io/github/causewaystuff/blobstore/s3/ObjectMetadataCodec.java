@@ -0,0 +1,153 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.s3;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.jspecify.annotations.Nullable;
+
+import org.apache.causeway.applib.value.NamedWithMimeType.CommonMimeType;
+import org.apache.causeway.commons.collections.Can;
+import org.apache.causeway.commons.internal.exceptions._Exceptions;
+
+import lombok.experimental.UtilityClass;
+
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor;
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor.Compression;
+import io.github.causewaystuff.blobstore.applib.BlobQualifier;
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+/**
+ * Encodes a {@link BlobDescriptor} as S3 user metadata, such that descriptors can be listed without fetching content.
+ * <p>
+ * The path is given by the object key and the size by the object's content length.
+ * Values are URL-encoded, as S3 only preserves ASCII.
+ */
+@UtilityClass
+class ObjectMetadataCodec {
+
+    /** upper bound for the user metadata of an object, as enforced by S3 */
+    final int MAX_METADATA_BYTES = 2048;
+
+    private final String MIME_TYPE = "blob-mime-type";
+    private final String COMPRESSION = "blob-compression";
+    private final String CREATED_BY = "blob-created-by";
+    private final String CREATED_ON = "blob-created-on";
+    private final String ATTRIBUTES = "blob-attributes";
+    private final String QUALIFIERS = "blob-qualifiers";
+
+    Map<String, String> encode(final BlobDescriptor descriptor) {
+        var metadata = new HashMap<String, String>();
+        metadata.put(MIME_TYPE, descriptor.mimeType().name());
+        metadata.put(COMPRESSION, descriptor.compression().name());
+        if(descriptor.createdBy()!=null) {
+            metadata.put(CREATED_BY, encode(descriptor.createdBy()));
+        }
+        if(descriptor.createdOn()!=null) {
+            metadata.put(CREATED_ON, descriptor.createdOn().toString());
+        }
+        if(descriptor.attributes()!=null
+                && !descriptor.attributes().isEmpty()) {
+            // sorted, for a stable encoding
+            metadata.put(ATTRIBUTES, new TreeMap<>(descriptor.attributes()).entrySet().stream()
+                .map(entry->encode(entry.getKey()) + "=" + encode(entry.getValue()))
+                .collect(Collectors.joining("&")));
+        }
+        if(descriptor.qualifiers()!=null
+                && !descriptor.qualifiers().isEmpty()) {
+            metadata.put(QUALIFIERS, descriptor.qualifiers().stream()
+                .map(qualifier->encode(qualifier.name()))
+                .collect(Collectors.joining(",")));
+        }
+        var metadataBytes = metadata.entrySet().stream()
+            .mapToInt(entry->entry.getKey().length() + entry.getValue().length())
+            .sum();
+        if(metadataBytes > MAX_METADATA_BYTES) throw _Exceptions.illegalArgument(
+                "descriptor of %s exceeds the object metadata limit of %d bytes, got %d bytes",
+                descriptor.path(), MAX_METADATA_BYTES, metadataBytes);
+        return metadata;
+    }
+
+    /**
+     * Objects not written by {@link S3BlobStore} are described by their key's file extension.
+     */
+    BlobDescriptor decode(final NamedPath path, final long size, final Map<String, String> metadata) {
+        var mimeType = metadata.containsKey(MIME_TYPE)
+                ? CommonMimeType.valueOf(metadata.get(MIME_TYPE))
+                : CommonMimeType.valueOfFileExtension(extension(path.lastNameElseFail()))
+                    .orElse(CommonMimeType.BIN);
+        var compression = metadata.containsKey(COMPRESSION)
+                ? Compression.valueOf(metadata.get(COMPRESSION))
+                : Compression.NONE;
+        var attributes = new HashMap<String, String>();
+        split(metadata.get(ATTRIBUTES), "&").forEach(entry->{
+            var separatorIndex = entry.indexOf('=');
+            attributes.put(decode(entry.substring(0, separatorIndex)), decode(entry.substring(separatorIndex + 1)));
+        });
+        var qualifiers = split(metadata.get(QUALIFIERS), ",")
+            .map(name->new BlobQualifier(decode(name)))
+            .collect(Can.toCan());
+        return new BlobDescriptor(
+                path,
+                mimeType,
+                metadata.containsKey(CREATED_BY)
+                    ? decode(metadata.get(CREATED_BY))
+                    : null,
+                metadata.containsKey(CREATED_ON)
+                    ? Instant.parse(metadata.get(CREATED_ON))
+                    : null,
+                size,
+                compression,
+                Map.copyOf(attributes),
+                qualifiers);
+    }
+
+    // -- HELPER
+
+    private Stream<String> split(final @Nullable String value, final String separator) {
+        return value==null
+                || value.isEmpty()
+                ? Stream.empty()
+                : Stream.of(value.split(separator));
+    }
+
+    private String extension(final String name) {
+        var dotIndex = name.lastIndexOf('.');
+        return dotIndex<0
+                ? ""
+                : name.substring(dotIndex + 1);
+    }
+
+    private String encode(final String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private String decode(final String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+
+}
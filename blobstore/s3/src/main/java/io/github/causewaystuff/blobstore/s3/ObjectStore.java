@@ -0,0 +1,118 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.s3;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Minimal S3 style object storage API, as required by {@link S3BlobStore}.
+ * <p>
+ * Object keys are {@code /} separated. User metadata keys are lower-case and values are ASCII,
+ * as S3 does not preserve anything else.
+ *
+ * @see AwsObjectStore
+ * @see InMemoryObjectStore
+ */
+public interface ObjectStore extends AutoCloseable {
+
+    /**
+     * @param key object key
+     * @param size content length in bytes
+     * @param metadata user metadata
+     */
+    record ObjectInfo(
+            String key,
+            long size,
+            Map<String, String> metadata) {
+    }
+
+    /**
+     * Stores given content in a single request, replacing any existing object.
+     */
+    void putObject(String key, Map<String, String> metadata, byte[] content);
+
+    /**
+     * Starts a multipart upload, the object becomes visible only once completed.
+     * @return the upload id
+     */
+    String createMultipartUpload(String key, Map<String, String> metadata);
+
+    /**
+     * Uploads a part, all but the last part of an upload must have at least the minimum part size
+     * of the backend (5 MiB for S3).
+     * @param partNumber 1-based
+     * @return the entity tag of the part, as required to complete the upload
+     */
+    String uploadPart(String key, String uploadId, int partNumber, byte[] content);
+
+    /**
+     * Atomically replaces any existing object with the concatenated parts.
+     * @param partETags in part number order
+     */
+    void completeMultipartUpload(String key, String uploadId, List<String> partETags);
+
+    void abortMultipartUpload(String key, String uploadId);
+
+    /**
+     * Size and metadata of the object, without fetching its content.
+     */
+    Optional<ObjectInfo> headObject(String key);
+
+    /**
+     * Opens the content of the object, or a range of it.
+     * @param offset first byte of the range
+     * @param length number of bytes of the range, or a negative value to read to the end
+     */
+    Optional<InputStream> getObject(String key, long offset, long length);
+
+    /**
+     * Replaces the metadata of the object, keeping its content (which S3 implements as an in-place copy).
+     * @return whether the object exists
+     */
+    boolean replaceMetadata(String key, Map<String, String> metadata);
+
+    /**
+     * Keys of the objects, that start with given prefix.
+     * @param recursive whether to include keys with a {@code /} following the prefix
+     */
+    default Stream<String> listKeys(final String prefix, final boolean recursive) {
+        return listKeys(prefix, recursive, null);
+    }
+
+    /**
+     * Keys of the objects, that start with given prefix, in lexicographical order,
+     * starting after given key (exclusive).
+     * @param recursive whether to include keys with a {@code /} following the prefix
+     * @param startAfter if not {@code null}, only keys that sort after given key
+     */
+    Stream<String> listKeys(String prefix, boolean recursive, @Nullable String startAfter);
+
+    void deleteObject(String key);
+
+    @Override
+    default void close() {
+    }
+
+}
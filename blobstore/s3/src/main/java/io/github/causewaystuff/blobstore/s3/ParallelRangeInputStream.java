@@ -0,0 +1,133 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Reads an object by fetching consecutive ranges concurrently, keeping a bounded number of ranges ahead of the reader.
+ */
+class ParallelRangeInputStream extends InputStream {
+
+    private final ObjectStore objectStore;
+    private final String key;
+    private final long size;
+    private final int rangeSize;
+    private final Executor executor;
+    private final int rangesAhead;
+
+    private final ArrayDeque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+    private long nextOffset;
+    private byte[] current = new byte[0];
+    private int position;
+    private boolean closed;
+
+    /**
+     * @param size of the object, as known from its metadata
+     * @param rangesAhead number of ranges fetched concurrently
+     */
+    ParallelRangeInputStream(
+            final ObjectStore objectStore,
+            final String key,
+            final long size,
+            final int rangeSize,
+            final Executor executor,
+            final int rangesAhead) {
+        this.objectStore = objectStore;
+        this.key = key;
+        this.size = size;
+        this.rangeSize = rangeSize;
+        this.executor = executor;
+        this.rangesAhead = Math.max(1, rangesAhead);
+        fetchAhead();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(!ensureAvailable()) return -1;
+        return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if(len==0) return 0;
+        if(!ensureAvailable()) return -1;
+        var chunk = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, chunk);
+        position += chunk;
+        return chunk;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        pending.forEach(future->future.cancel(false));
+        pending.clear();
+    }
+
+    // -- HELPER
+
+    private boolean ensureAvailable() throws IOException {
+        if(closed) throw new IOException("stream of %s is closed".formatted(key));
+        while(position>=current.length) {
+            var next = pending.poll();
+            if(next==null) return false;
+            try {
+                current = next.join();
+            } catch (CompletionException e) {
+                close();
+                throw new IOException("failed to read range of " + key, e.getCause());
+            }
+            position = 0;
+            fetchAhead();
+        }
+        return true;
+    }
+
+    private void fetchAhead() {
+        while(pending.size()<rangesAhead
+                && nextOffset<size) {
+            var offset = nextOffset;
+            var length = (int) Math.min(rangeSize, size - offset);
+            pending.add(CompletableFuture.supplyAsync(()->readRange(offset, length), executor));
+            nextOffset += length;
+        }
+    }
+
+    private byte[] readRange(final long offset, final int length) {
+        try(var in = objectStore.getObject(key, offset, length)
+                .orElseThrow(()->new IllegalStateException("object %s vanished while reading".formatted(key)))) {
+            var bytes = in.readNBytes(length);
+            if(bytes.length!=length) throw new IllegalStateException(
+                    "object %s changed while reading, expected %d bytes at offset %d, got %d"
+                    .formatted(key, length, offset, bytes.length));
+            return bytes;
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+}
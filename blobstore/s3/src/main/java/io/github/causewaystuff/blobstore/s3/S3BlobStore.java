@@ -0,0 +1,531 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.s3;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import org.springframework.stereotype.Repository;
+
+import jakarta.activation.MimeType;
+
+import org.apache.causeway.applib.value.Blob;
+import org.apache.causeway.applib.value.NamedWithMimeType.CommonMimeType;
+import org.apache.causeway.commons.collections.Can;
+import org.apache.causeway.commons.internal.exceptions._Exceptions;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+import io.github.causewaystuff.blobstore.applib.BlobContentCodec;
+import io.github.causewaystuff.blobstore.applib.BlobContentCodec.CodecSettings;
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor;
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor.Compression;
+import io.github.causewaystuff.blobstore.applib.BlobDescriptorPage;
+import io.github.causewaystuff.blobstore.applib.BlobQualifier;
+import io.github.causewaystuff.blobstore.applib.BlobStore;
+import io.github.causewaystuff.blobstore.applib.BlobStoreFactory.BlobStoreConfiguration;
+import io.github.causewaystuff.blobstore.applib.CompressionPolicy;
+import io.github.causewaystuff.blobstore.applib.HashingInputStream;
+import io.github.causewaystuff.blobstore.applib.ThreadFactories;
+import io.github.causewaystuff.commons.base.types.NamedPath;
+import io.github.causewaystuff.commons.compression.ZstdUtils;
+
+/**
+ * {@link BlobStore} backed by an S3 style {@link ObjectStore}, one object per blob.
+ * <p>
+ * The {@link BlobStoreConfiguration#resource()} addresses bucket and an optional key prefix,
+ * e.g. {@code s3://my-bucket/blobs}. With scheme {@code memory} the store is backed by
+ * an {@link InMemoryObjectStore#shared(String) in-process stand-in}, e.g. for testing.
+ * <p>
+ * Blobs are stored compressed as described, their descriptor is kept as object metadata,
+ * such that listings do not fetch any content. Content is uploaded in parts as it is streamed,
+ * and large objects are downloaded by fetching parts concurrently.
+ * Compressed blobs have no random access, hence {@link #readRange} is served by uncompressing on the fly,
+ * while uncompressed blobs are read by a ranged request.
+ * <p>
+ * Writes of the same path are last-writer-wins, as provided by S3.
+ */
+@Repository
+@Slf4j
+public class S3BlobStore implements BlobStore, AutoCloseable {
+
+    /**
+     * Configuration property, that sets the endpoint of an S3 compatible service, e.g. {@code endpoint=http://localhost:9000}.
+     */
+    public static final String PROPERTY_ENDPOINT = "endpoint";
+    /**
+     * Configuration property, that sets the region, e.g. {@code region=eu-central-1}.
+     * Defaults to the SDK's region resolution.
+     */
+    public static final String PROPERTY_REGION = "region";
+    /**
+     * Configuration property, that addresses the bucket by path rather than by host name, e.g. {@code path-style=true},
+     * as required by some S3 compatible services.
+     */
+    public static final String PROPERTY_PATH_STYLE = "path-style";
+    /**
+     * Configuration property, that sets the size in bytes of parts uploaded and ranges downloaded,
+     * e.g. {@code part-size=16777216}. Defaults to 8 MiB, S3 requires at least 5 MiB.
+     */
+    public static final String PROPERTY_PART_SIZE = "part-size";
+    /**
+     * Configuration property, that bounds the number of concurrent part transfers, e.g. {@code transfer-threads=4}.
+     * Defaults to {@code 8}.
+     */
+    public static final String PROPERTY_TRANSFER_THREADS = "transfer-threads";
+    /**
+     * Configuration property, that sets the {@link Compression#ZSTD} level, e.g. {@code zstd-level=6}.
+     */
+    public static final String PROPERTY_ZSTD_LEVEL = "zstd-level";
+
+    private static final int DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+    private static final int DEFAULT_TRANSFER_THREADS = 8;
+    private static final String SHA256_ATTRIBUTE = "sha256";
+    private static final String UNCOMPRESSED_SIZE_ATTRIBUTE = "uncompressed-size";
+
+    private final ObjectStore objectStore;
+    /** without trailing slash, empty if blobs are stored at the bucket's root */
+    private final String keyPrefix;
+    private final int partSize;
+    private final int transferThreads;
+    private final CodecSettings codecSettings;
+    private final CompressionPolicy compressionPolicy;
+    private final ExecutorService transferExecutor;
+
+    public S3BlobStore(final BlobStoreConfiguration config) {
+        this(objectStore(config), keyPrefix(URI.create(config.resource())), config);
+    }
+
+    /**
+     * @param objectStore backend, closed along with this store
+     * @param keyPrefix prepended to all object keys, e.g. {@code blobs}
+     * @param config properties and compression policy, the resource is ignored
+     */
+    public S3BlobStore(
+            final @NonNull ObjectStore objectStore,
+            final @NonNull String keyPrefix,
+            final @NonNull BlobStoreConfiguration config) {
+        this.objectStore = objectStore;
+        this.keyPrefix = trimSlashes(keyPrefix);
+        this.partSize = config.property(PROPERTY_PART_SIZE)
+                .map(Integer::parseInt)
+                .orElse(DEFAULT_PART_SIZE);
+        this.transferThreads = config.property(PROPERTY_TRANSFER_THREADS)
+                .map(Integer::parseInt)
+                .orElse(DEFAULT_TRANSFER_THREADS);
+        this.codecSettings = CodecSettings.ofZstdLevel(config.property(PROPERTY_ZSTD_LEVEL)
+                .map(Integer::parseInt)
+                .orElse(ZstdUtils.DEFAULT_LEVEL));
+        this.compressionPolicy = config.compressionPolicy();
+        this.transferExecutor = Executors.newFixedThreadPool(transferThreads, ThreadFactories.daemon("blobstore-s3-transfer"));
+    }
+
+    @Override
+    public void close() {
+        transferExecutor.shutdown();
+        objectStore.close();
+    }
+
+    // -- WRITE
+
+    @Override
+    public BlobDescriptor putBlob(final @NonNull NamedPath path, final @NonNull Blob blob,
+            final @Nullable UnaryOperator<BlobDescriptor> customizer) {
+        var bytes = blob.bytes();
+        var initialDescriptor = new BlobDescriptor(
+                path,
+                CommonMimeType.valueOf(blob.mimeType()).orElseThrow(),
+                null,
+                Instant.now(),
+                0L,
+                Compression.NONE,
+                Map.of(UNCOMPRESSED_SIZE_ATTRIBUTE, "" + bytes.length),
+                Can.empty());
+        // the checksum is recorded by the upload
+        var descriptor = customize(compressionPolicy.applyTo(initialDescriptor, bytes.length,
+                Arrays.copyOf(bytes, Math.min(bytes.length, CompressionPolicy.SAMPLE_SIZE))), customizer);
+        return upload(descriptor, new ByteArrayInputStream(bytes));
+    }
+
+    @Override
+    public BlobDescriptor putBlob(final @NonNull NamedPath path, final @NonNull CommonMimeType mimeType,
+            final @NonNull InputStream content, final @Nullable UnaryOperator<BlobDescriptor> customizer) {
+        // peek at the leading bytes, without consuming them
+        var bufferedContent = new BufferedInputStream(content, 2 * CompressionPolicy.SAMPLE_SIZE);
+        var descriptor = customize(compressionPolicy.applyTo(new BlobDescriptor(
+                path,
+                mimeType,
+                null,
+                Instant.now(),
+                0L,
+                Compression.NONE,
+                Map.of(),
+                Can.empty()), -1L, peek(bufferedContent, CompressionPolicy.SAMPLE_SIZE)), customizer);
+        return upload(descriptor, bufferedContent);
+    }
+
+    @Override
+    public Optional<BlobDescriptor> updateDescriptor(final @NonNull NamedPath path,
+            final @NonNull UnaryOperator<BlobDescriptor> customizer) {
+        return lookupDescriptor(path)
+            .flatMap(descriptor->{
+                // the content is not altered, hence neither is its compression
+                var updated = customizer.apply(descriptor)
+                        .withCompression(descriptor.compression())
+                        .withSize(descriptor.size());
+                return objectStore.replaceMetadata(key(path), ObjectMetadataCodec.encode(updated))
+                        ? Optional.of(updated)
+                        : Optional.empty();
+            });
+    }
+
+    @Override
+    public void deleteBlob(final @Nullable NamedPath path) {
+        if(path==null
+                || path.isEmpty()) return;
+        objectStore.deleteObject(key(path));
+    }
+
+    /**
+     * Streams the blob through the new compression into a replacing upload.
+     */
+    @Override
+    public Optional<BlobDescriptor> compress(final @NonNull BlobDescriptor blobDescriptor,
+            final @NonNull Compression compression) {
+        if(blobDescriptor.compression()==compression) return Optional.of(blobDescriptor);
+        var path = blobDescriptor.path();
+        return lookupDescriptor(path)
+            .map(current->{
+                try(var content = openBlobAndUncompress(path).orElseThrow()) {
+                    return upload(current.withCompression(compression), content);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+    }
+
+    // -- READ
+
+    @Override
+    public Can<BlobDescriptor> listDescriptors(final @Nullable NamedPath path,
+            final @Nullable Can<BlobQualifier> qualifiers, final boolean recursive) {
+        return describe(listKeys(path, recursive, null).toList(), qualifiers);
+    }
+
+    /**
+     * Streams in key order, as listed by the object store, fetching metadata one object at a time.
+     */
+    @Override
+    public Stream<BlobDescriptor> streamDescriptors(final @Nullable NamedPath path,
+            final @Nullable Can<BlobQualifier> qualifiers, final boolean recursive, final @Nullable NamedPath after) {
+        return listKeys(path, recursive, after)
+            .map(objectStore::headObject)
+            .flatMap(Optional::stream)
+            .map(this::toDescriptor)
+            .filter(descriptor->qualifiers==null
+                    || qualifiers.stream().allMatch(descriptor.qualifiers()::contains));
+    }
+
+    /**
+     * Lists a page of keys, resuming after the key of the continuation token, then fetches their metadata concurrently.
+     * Unless qualifiers are given, which might filter out some of the keys, such that pages are streamed instead.
+     */
+    @Override
+    public BlobDescriptorPage listDescriptors(final @Nullable NamedPath path,
+            final @Nullable Can<BlobQualifier> qualifiers, final boolean recursive,
+            final @Nullable String continuationToken, final int pageSize) {
+        var after = BlobDescriptorPage.resumeAfter(continuationToken).orElse(null);
+        if(qualifiers!=null
+                && !qualifiers.isEmpty()) {
+            return BlobDescriptorPage.of(streamDescriptors(path, qualifiers, recursive, after), pageSize);
+        }
+        if(pageSize<1) throw _Exceptions.illegalArgument("pageSize must be positive, got %d", pageSize);
+        var keys = listKeys(path, recursive, after)
+                .limit(pageSize + 1L)
+                .toList();
+        var pageKeys = keys.size()>pageSize
+                ? keys.subList(0, pageSize)
+                : keys;
+        // objects deleted in between are omitted, yet the token resumes after the last key listed
+        return new BlobDescriptorPage(describe(pageKeys, null),
+                keys.size()>pageSize
+                    ? BlobDescriptorPage.continuationToken(path(pageKeys.get(pageSize - 1)))
+                    : null);
+    }
+
+    @Override
+    public Optional<BlobDescriptor> lookupDescriptor(final @Nullable NamedPath path) {
+        if(path==null
+                || path.isEmpty()) return Optional.empty();
+        return objectStore.headObject(key(path))
+            .map(this::toDescriptor);
+    }
+
+    @Override
+    public Optional<Blob> lookupBlob(final @Nullable NamedPath path) {
+        return lookupDescriptor(path)
+            .map(descriptor->{
+                var bytes = readAllBytes(open(descriptor));
+                return descriptor.compression()==Compression.NONE
+                        ? Blob.of(path.lastNameElseFail(), descriptor.mimeType(), bytes)
+                        : asStored(path.lastNameElseFail(), descriptor.compression(), bytes);
+            });
+    }
+
+    @Override
+    public Optional<Blob> lookupBlobAndUncompress(final @Nullable NamedPath path) {
+        return lookupDescriptor(path)
+            .map(descriptor->Blob.of(path.lastNameElseFail(), descriptor.mimeType(),
+                    readAllBytes(BlobContentCodec.uncompressingInputStream(open(descriptor), descriptor.compression(), codecSettings))));
+    }
+
+    @Override
+    public Optional<InputStream> openBlob(final @Nullable NamedPath path) {
+        return lookupDescriptor(path)
+            .map(this::open);
+    }
+
+    @Override
+    public Optional<InputStream> openBlobAndUncompress(final @Nullable NamedPath path) {
+        return lookupDescriptor(path)
+            .map(descriptor->BlobContentCodec.uncompressingInputStream(open(descriptor), descriptor.compression(), codecSettings));
+    }
+
+    @Override
+    public Optional<byte[]> readRange(final @Nullable NamedPath path, final long offset, final int length) {
+        if(offset<0
+                || length<0) throw _Exceptions.illegalArgument("offset and length must not be negative, got %d, %d", offset, length);
+        return lookupDescriptor(path)
+            .map(descriptor->{
+                if(descriptor.compression()!=Compression.NONE) {
+                    return BlobStore.super.readRange(path, offset, length).orElse(new byte[0]);
+                }
+                return objectStore.getObject(key(path), offset, length)
+                    .map(S3BlobStore::readAllBytes)
+                    .orElse(new byte[0]);
+            });
+    }
+
+    // -- HELPER
+
+    /**
+     * Uploads given content, recording its {@code sha256} and {@code uncompressed-size} attributes
+     * (unless given descriptor has its own).
+     * <p>
+     * A single part upload is only started once the content is consumed, hence carries the attributes.
+     * A multipart upload records the metadata when it starts, hence has it replaced once complete.
+     */
+    private BlobDescriptor upload(final BlobDescriptor descriptor, final InputStream content) {
+        var key = key(descriptor.path());
+        // not closing, as the caller owns the stream
+        var hashingContent = new HashingInputStream(content);
+        var hashedDescriptor = new AtomicReference<BlobDescriptor>();
+        var recordedWithoutContentAttributes = new AtomicBoolean();
+        var out = new MultipartUploadOutputStream(objectStore, key, ()->{
+                var recorded = hashedDescriptor.get();
+                if(recorded==null) {
+                    recordedWithoutContentAttributes.set(true);
+                    recorded = descriptor;
+                }
+                return ObjectMetadataCodec.encode(recorded);
+            },
+            partSize, transferExecutor, transferThreads);
+        try(var compressingOut = BlobContentCodec.compressingOutputStream(out, descriptor.path().lastNameElseFail(),
+                descriptor.compression(), codecSettings)) {
+            hashingContent.transferTo(compressingOut);
+            hashedDescriptor.set(withContentAttributes(descriptor, hashingContent));
+        } catch (IOException | RuntimeException e) {
+            out.abort();
+            throw e instanceof IOException ioe
+                    ? new UncheckedIOException(ioe)
+                    : (RuntimeException) e;
+        }
+        var uploaded = hashedDescriptor.get();
+        if(recordedWithoutContentAttributes.get()) {
+            objectStore.replaceMetadata(key, ObjectMetadataCodec.encode(uploaded));
+        }
+        log.debug("uploaded {} ({} bytes)", key, out.size());
+        return uploaded.withSize(out.size());
+    }
+
+    private static BlobDescriptor withContentAttributes(
+            final BlobDescriptor descriptor,
+            final HashingInputStream hashedContent) {
+        var attributes = new HashMap<String, String>();
+        attributes.put(UNCOMPRESSED_SIZE_ATTRIBUTE, "" + hashedContent.count());
+        attributes.put(SHA256_ATTRIBUTE, hashedContent.sha256Hex());
+        attributes.putAll(descriptor.attributes());
+        return descriptor.withAttributes(Map.copyOf(attributes));
+    }
+
+    /**
+     * Opens the stored (compressed) content, large objects are fetched in parallel ranges.
+     */
+    private InputStream open(final BlobDescriptor descriptor) {
+        var key = key(descriptor.path());
+        return descriptor.size() > partSize
+                ? new ParallelRangeInputStream(objectStore, key, descriptor.size(), partSize, transferExecutor, transferThreads)
+                : objectStore.getObject(key, 0L, -1L)
+                    .orElseThrow(()->_Exceptions.noSuchElement("object %s vanished", key));
+    }
+
+    private BlobDescriptor toDescriptor(final ObjectStore.ObjectInfo objectInfo) {
+        return ObjectMetadataCodec.decode(path(objectInfo.key()), objectInfo.size(), objectInfo.metadata());
+    }
+
+    /**
+     * Keys of given listing in lexicographical order, starting after the key of given path.
+     */
+    private Stream<String> listKeys(final @Nullable NamedPath path, final boolean recursive, final @Nullable NamedPath after) {
+        if(path==null
+                && !recursive) return Stream.empty();
+        var folder = path!=null
+                ? path
+                : NamedPath.empty();
+        var listPrefix = folder.isEmpty()
+                ? (keyPrefix.isEmpty() ? "" : keyPrefix + "/")
+                : key(folder) + "/";
+        var afterKey = after!=null
+                && !after.isEmpty()
+                ? key(after)
+                : null;
+        // like other stores, a recursive listing includes a blob at the folder's path itself, which sorts before its descendants
+        var self = recursive
+                && !folder.isEmpty()
+                && (afterKey==null || afterKey.compareTo(key(folder))<0)
+                ? Stream.of(key(folder))
+                : Stream.<String>empty();
+        return Stream.concat(self, objectStore.listKeys(listPrefix, recursive, afterKey));
+    }
+
+    /**
+     * Fetches the metadata of given objects concurrently, omitting objects that do not exist.
+     */
+    private Can<BlobDescriptor> describe(final List<String> keys, final @Nullable Can<BlobQualifier> qualifiers) {
+        var futures = keys.stream()
+            .map(key->CompletableFuture.supplyAsync(()->objectStore.headObject(key), transferExecutor))
+            .toList();
+        return futures.stream()
+            .map(CompletableFuture::join)
+            .flatMap(Optional::stream)
+            .map(this::toDescriptor)
+            .filter(descriptor->qualifiers==null
+                    || qualifiers.stream().allMatch(descriptor.qualifiers()::contains))
+            .collect(Can.toCan());
+    }
+
+    private String key(final NamedPath path) {
+        var relativeKey = path.toString("/");
+        return keyPrefix.isEmpty()
+                ? relativeKey
+                : keyPrefix + "/" + relativeKey;
+    }
+
+    private NamedPath path(final String key) {
+        var relativeKey = keyPrefix.isEmpty()
+                ? key
+                : key.substring(keyPrefix.length() + 1);
+        return NamedPath.parse(relativeKey, "/");
+    }
+
+    private static BlobDescriptor customize(
+            final BlobDescriptor blobDescriptor,
+            final @Nullable UnaryOperator<BlobDescriptor> customizer) {
+        return customizer!=null
+            ? Optional
+                .ofNullable(customizer.apply(blobDescriptor))
+                .orElse(blobDescriptor)
+            : blobDescriptor;
+    }
+
+    @SneakyThrows
+    private static Blob asStored(final String name, final Compression compression, final byte[] bytes) {
+        return new Blob(name, new MimeType(compression.mimeTypeBase()), bytes);
+    }
+
+    @SneakyThrows
+    private static byte[] readAllBytes(final InputStream in) {
+        try(in) {
+            return in.readAllBytes();
+        }
+    }
+
+    @SneakyThrows
+    private static byte[] peek(final BufferedInputStream in, final int maxLength) {
+        in.mark(maxLength);
+        var bytes = in.readNBytes(maxLength);
+        in.reset();
+        return bytes;
+    }
+
+    private static ObjectStore objectStore(final BlobStoreConfiguration config) {
+        var uri = URI.create(config.resource());
+        var bucket = uri.getHost();
+        if(bucket==null) throw _Exceptions.illegalArgument(
+                "resource must address a bucket, e.g. s3://my-bucket/prefix, got '%s'", config.resource());
+        return switch (uri.getScheme()) {
+            case "s3" -> AwsObjectStore.of(bucket,
+                    config.property(PROPERTY_ENDPOINT).map(URI::create).orElse(null),
+                    config.property(PROPERTY_REGION).orElse(null),
+                    config.property(PROPERTY_PATH_STYLE).map(Boolean::parseBoolean).orElse(false));
+            case "memory" -> InMemoryObjectStore.shared(bucket);
+            default -> throw _Exceptions.illegalArgument(
+                    "unsupported scheme '%s', expected s3 or memory", uri.getScheme());
+        };
+    }
+
+    private static String keyPrefix(final URI uri) {
+        return uri.getPath()!=null
+                ? uri.getPath()
+                : "";
+    }
+
+    private static String trimSlashes(final String keyPrefix) {
+        var trimmed = keyPrefix;
+        while(trimmed.startsWith("/")) {
+            trimmed = trimmed.substring(1);
+        }
+        while(trimmed.endsWith("/")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        return trimmed;
+    }
+
+}
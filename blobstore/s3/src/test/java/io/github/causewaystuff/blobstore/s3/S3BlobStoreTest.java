@@ -0,0 +1,203 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.s3;
+
+import java.io.ByteArrayInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.causeway.applib.value.Blob;
+import org.apache.causeway.applib.value.NamedWithMimeType.CommonMimeType;
+
+import lombok.SneakyThrows;
+
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor.Compression;
+import io.github.causewaystuff.blobstore.applib.BlobQualifier;
+import io.github.causewaystuff.blobstore.applib.BlobStoreFactory.BlobStoreConfiguration;
+import io.github.causewaystuff.blobstore.test.BlobStoreTester;
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+class S3BlobStoreTest {
+
+    private static final int PART_SIZE = 1024;
+
+    private InMemoryObjectStore objectStore;
+    private S3BlobStore blobStore;
+
+    @BeforeEach
+    void setup() {
+        // small parts, to exercise multipart transfers
+        this.objectStore = new InMemoryObjectStore(PART_SIZE);
+        this.blobStore = new S3BlobStore(objectStore, "blobs",
+                new BlobStoreConfiguration(S3BlobStore.class, "memory://unused")
+                    .withProperty(S3BlobStore.PROPERTY_PART_SIZE, "" + PART_SIZE)
+                    .withProperty(S3BlobStore.PROPERTY_TRANSFER_THREADS, "3"));
+    }
+
+    @AfterEach
+    void cleanup() {
+        blobStore.close();
+    }
+
+    @ParameterizedTest
+    @EnumSource(BlobStoreTester.ScenarioSample.class)
+    void roundtrip(final BlobStoreTester.ScenarioSample scenarioSample) {
+        var scenario = scenarioSample.create();
+        var tester = new BlobStoreTester(blobStore);
+        tester.setup(scenario);
+        tester.assertExpectations(scenario);
+        tester.cleanup(scenario);
+    }
+
+    @ParameterizedTest
+    @EnumSource(Compression.class)
+    void multipartStreamingRoundtrip(final Compression compression) {
+        var bytes = new byte[10 * PART_SIZE + 17];
+        new Random(compression.ordinal()).nextBytes(bytes);
+        var path = NamedPath.of("streamed", "data.bin");
+
+        var descriptor = blobStore.putBlob(path, CommonMimeType.BIN, new ByteArrayInputStream(bytes),
+                desc->desc.withCompression(compression));
+
+        assertEquals(0, objectStore.pendingUploadCount());
+        assertTrue(objectStore.getRequestCounts().getOrDefault("uploadPart", 0) > 1);
+        assertEquals(descriptor, blobStore.lookupDescriptor(path).orElseThrow());
+        // downloaded in parallel ranges
+        assertArrayEquals(bytes, blobStore.lookupBlobAndUncompress(path).orElseThrow().bytes());
+        assertArrayEquals(Arrays.copyOfRange(bytes, 3000, 3100), blobStore.readRange(path, 3000, 100).orElseThrow());
+        assertEquals(0, blobStore.readRange(path, bytes.length, 10).orElseThrow().length);
+
+        var recompressed = blobStore.compress(descriptor, Compression.NONE).orElseThrow();
+        assertEquals(Compression.NONE, recompressed.compression());
+        assertEquals(bytes.length, recompressed.size());
+        assertArrayEquals(bytes, blobStore.lookupBlob(path).orElseThrow().bytes());
+    }
+
+    @Test
+    void contentAttributesRecorded() {
+        var bytes = new byte[10 * PART_SIZE + 17];
+        new Random(7).nextBytes(bytes);
+        var smallBytes = Arrays.copyOf(bytes, 100);
+
+        // single part, metadata written along with the content
+        var small = blobStore.putBlob(NamedPath.of("small.bin"), Blob.of("small.bin", CommonMimeType.BIN, smallBytes),
+                desc->desc.withCompression(Compression.ZSTD));
+        assertEquals(sha256Hex(smallBytes), small.attributes().get("sha256"));
+        assertEquals("100", small.attributes().get("uncompressed-size"));
+        assertEquals(0, objectStore.getRequestCounts().getOrDefault("replaceMetadata", 0));
+
+        // multipart, metadata replaced once the content is hashed
+        var streamed = blobStore.putBlob(NamedPath.of("streamed.bin"), CommonMimeType.BIN, new ByteArrayInputStream(bytes),
+                desc->desc.withCompression(Compression.ZSTD));
+        assertEquals(sha256Hex(bytes), streamed.attributes().get("sha256"));
+        assertEquals("" + bytes.length, streamed.attributes().get("uncompressed-size"));
+        assertEquals(streamed, blobStore.lookupDescriptor(NamedPath.of("streamed.bin")).orElseThrow());
+    }
+
+    @Test
+    void listingFetchesMetadataOnly() {
+        for (int i = 0; i < 5; i++) {
+            var name = "blob-%d.txt".formatted(i);
+            var qualifiers = BlobQualifier.of(i % 2 == 0 ? "even" : "odd");
+            blobStore.putBlob(NamedPath.of("list", name), Blob.of(name, CommonMimeType.TXT, name.getBytes()),
+                    desc->desc.withQualifiers(qualifiers)
+                        .withAttribute("note", "ünïcödé & more=stuff"));
+        }
+        blobStore.putBlob(NamedPath.of("list", "nested", "deep.txt"), Blob.of("deep.txt", CommonMimeType.TXT, new byte[1]));
+        var getCount = objectStore.getRequestCounts().getOrDefault("getObject", 0);
+
+        assertEquals(5, blobStore.listDescriptors(NamedPath.of("list"), false).size());
+        assertEquals(6, blobStore.listDescriptors(NamedPath.of("list"), true).size());
+        assertEquals(3, blobStore.listDescriptors(NamedPath.of("list"), BlobQualifier.of("even"), false).size());
+        blobStore.listDescriptors(NamedPath.of("list"), false).forEach(descriptor->
+            assertEquals("ünïcödé & more=stuff", descriptor.attributes().get("note")));
+
+        assertEquals(getCount, objectStore.getRequestCounts().getOrDefault("getObject", 0));
+    }
+
+    @Test
+    void pagedListing() {
+        var tester = new BlobStoreTester(blobStore);
+        tester.setupTree(NamedPath.empty(), 4);
+        var listCount = objectStore.getRequestCounts().getOrDefault("listKeys", 0);
+        tester.assertPagedListing(NamedPath.empty(), true, 3);
+        tester.assertPagedListing(NamedPath.of("a"), false, 3);
+        // each page is a listing of its own, resuming after the token's key
+        assertTrue(objectStore.getRequestCounts().getOrDefault("listKeys", 0) - listCount > 2);
+    }
+
+    @Test
+    void updateDescriptorKeepsContent() {
+        var path = NamedPath.of("update.txt");
+        blobStore.putBlob(path, Blob.of("update.txt", CommonMimeType.TXT, "content".getBytes()),
+                desc->desc.withCompression(Compression.ZSTD));
+
+        var updated = blobStore.updateDescriptor(path, desc->desc
+                .withCreatedBy("someone")
+                .withCompression(Compression.NONE)).orElseThrow();
+
+        assertEquals("someone", updated.createdBy());
+        assertEquals(Compression.ZSTD, updated.compression());
+        assertEquals(updated, blobStore.lookupDescriptor(path).orElseThrow());
+        assertArrayEquals("content".getBytes(), blobStore.lookupBlobAndUncompress(path).orElseThrow().bytes());
+    }
+
+    @Test
+    void oversizedMetadataIsRejected() {
+        var path = NamedPath.of("oversized.txt");
+        assertThrows(IllegalArgumentException.class, ()->
+            blobStore.putBlob(path, Blob.of("oversized.txt", CommonMimeType.TXT, new byte[1]),
+                    desc->desc.withAttributes(Map.of("huge", "x".repeat(4096)))));
+        assertTrue(blobStore.lookupDescriptor(path).isEmpty());
+    }
+
+    @Test
+    void createdThroughConfiguration() {
+        try(var configuredStore = new S3BlobStore(new BlobStoreConfiguration(S3BlobStore.class, "memory://shared-bucket/prefix"))) {
+            var path = NamedPath.of("a.txt");
+            configuredStore.putBlob(path, Blob.of("a.txt", CommonMimeType.TXT, new byte[] {1}));
+            assertTrue(InMemoryObjectStore.shared("shared-bucket").headObject("prefix/a.txt").isPresent());
+            configuredStore.deleteBlob(path);
+            assertNull(InMemoryObjectStore.shared("shared-bucket").headObject("prefix/a.txt").orElse(null));
+        }
+    }
+
+    // -- HELPER
+
+    @SneakyThrows
+    private static String sha256Hex(final byte[] bytes) {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+    }
+
+}
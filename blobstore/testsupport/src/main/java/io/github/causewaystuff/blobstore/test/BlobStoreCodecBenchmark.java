@@ -0,0 +1,155 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import org.apache.causeway.applib.value.NamedWithMimeType.CommonMimeType;
+
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor.Compression;
+import io.github.causewaystuff.blobstore.applib.BlobStore;
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+/**
+ * Measures compression ratio, write and read throughput for each {@link Compression}
+ * over a set of representative payloads, going through the {@link BlobStore} API end to end
+ * (streaming put, then streaming read back with uncompression).
+ * <p>
+ * Timings include the store's own overhead (manifest, index), hence are most meaningful relative to each other.
+ */
+@RequiredArgsConstructor
+public class BlobStoreCodecBenchmark {
+
+    public enum Payload {
+        /** incompressible */
+        RANDOM,
+        /** JSON-like records, repetitive keys with varying values */
+        JSON,
+        /** natural language like text */
+        TEXT;
+        public byte[] create(final int size) {
+            var random = new Random(size);
+            return switch (this) {
+                case RANDOM -> {
+                    var bytes = new byte[size];
+                    random.nextBytes(bytes);
+                    yield bytes;
+                }
+                case JSON -> repeatUntil(size, i->"{\"id\":%d,\"name\":\"item-%d\",\"price\":%.2f,\"tags\":[\"a\",\"b%d\"]},\n"
+                        .formatted(i, random.nextInt(1000), random.nextDouble() * 100, i % 7));
+                case TEXT -> {
+                    var words = List.of("the", "blob", "store", "keeps", "a", "manifest", "next", "to", "each",
+                            "file", "and", "compresses", "content", "on", "demand", "while", "readers", "stream");
+                    yield repeatUntil(size, i->words.get(random.nextInt(words.size())) + (i % 12 == 11 ? ".\n" : " "));
+                }
+            };
+        }
+        private static byte[] repeatUntil(final int size, final IntFunction<String> chunk) {
+            var sb = new StringBuilder(size + 128);
+            for (int i = 0; sb.length() < size; i++) {
+                sb.append(chunk.apply(i));
+            }
+            return sb.substring(0, size).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    public static record Result(
+            Compression compression,
+            Payload payload,
+            long uncompressedSize,
+            long compressedSize,
+            Duration writeTime,
+            Duration readTime) {
+        public double ratio() {
+            return (double) uncompressedSize / Math.max(1L, compressedSize);
+        }
+        public double writeMegabytesPerSecond() {
+            return megabytesPerSecond(writeTime);
+        }
+        public double readMegabytesPerSecond() {
+            return megabytesPerSecond(readTime);
+        }
+        @Override
+        public String toString() {
+            return String.format("%-9s %-6s ratio %6.2f, in %8.1f MB/s, out %8.1f MB/s",
+                    compression, payload, ratio(), writeMegabytesPerSecond(), readMegabytesPerSecond());
+        }
+        private double megabytesPerSecond(final Duration duration) {
+            return uncompressedSize / (1024d * 1024d) / Math.max(1e-9, duration.toNanos() / 1e9);
+        }
+    }
+
+    final BlobStore blobStore;
+
+    /**
+     * Runs the full matrix of all compressions by all payloads. Blobs are deleted afterwards.
+     * @param iterations number of timed put/read cycles per cell, preceded by one untimed warm-up cycle
+     */
+    public List<Result> run(final int payloadSize, final int iterations) {
+        var results = new ArrayList<Result>();
+        for(var payload : Payload.values()) {
+            var bytes = payload.create(payloadSize);
+            for(var compression : Compression.values()) {
+                results.add(measure(compression, payload, bytes, iterations));
+            }
+        }
+        return results;
+    }
+
+    // -- HELPER
+
+    @SneakyThrows
+    private Result measure(final Compression compression, final Payload payload, final byte[] bytes, final int iterations) {
+        var path = NamedPath.of("codec-benchmark", payload.name().toLowerCase() + ".bin");
+        long writeNanos = 0L;
+        long readNanos = 0L;
+        long compressedSize = 0L;
+        for (int i = 0; i <= iterations; i++) {
+            var startedAt = System.nanoTime();
+            var descriptor = blobStore.putBlob(path, CommonMimeType.BIN, new ByteArrayInputStream(bytes),
+                    desc->desc.withCompression(compression));
+            var writtenAt = System.nanoTime();
+            final byte[] readBack;
+            try(var in = blobStore.openBlobAndUncompress(path).orElseThrow()) {
+                readBack = in.readAllBytes();
+            }
+            var readAt = System.nanoTime();
+            assertArrayEquals(bytes, readBack);
+            if(i==0) continue; // warm-up
+            writeNanos += writtenAt - startedAt;
+            readNanos += readAt - writtenAt;
+            compressedSize = descriptor.size();
+        }
+        blobStore.deleteBlob(path);
+        return new Result(compression, payload, bytes.length, compressedSize,
+                Duration.ofNanos(writeNanos / iterations), Duration.ofNanos(readNanos / iterations));
+    }
+
+}
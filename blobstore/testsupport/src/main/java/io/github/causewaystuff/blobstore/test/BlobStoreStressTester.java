@@ -0,0 +1,107 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.apache.causeway.applib.value.Blob;
+import org.apache.causeway.applib.value.NamedWithMimeType.CommonMimeType;
+
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor.Compression;
+import io.github.causewaystuff.blobstore.applib.BlobStore;
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+/**
+ * Concurrently puts and reads back blobs, each thread on its own folder,
+ * such that a store that does not serialize unrelated paths scales with the number of threads.
+ */
+@RequiredArgsConstructor
+public class BlobStoreStressTester {
+
+    public static record Result(
+            int threadCount,
+            int operationCount,
+            Duration elapsed) {
+        public double operationsPerSecond() {
+            return operationCount * 1000d / Math.max(1L, elapsed.toMillis());
+        }
+        @Override
+        public String toString() {
+            return String.format("%2d threads: %6d ops in %5d ms (%.1f ops/s)",
+                    threadCount, operationCount, elapsed.toMillis(), operationsPerSecond());
+        }
+    }
+
+    final BlobStore blobStore;
+
+    /**
+     * Each of the given number of threads performs {@code operationsPerThread} put and read-back cycles,
+     * cycling over 10 distinct blob names within its own folder. Blobs are deleted afterwards.
+     */
+    @SneakyThrows
+    public Result run(final int threadCount, final int operationsPerThread, final int payloadSize, final Compression compression) {
+        var folder = NamedPath.of("stress-" + threadCount);
+        var startSignal = new CountDownLatch(1);
+        var futures = new ArrayList<Future<?>>();
+        try(var executor = Executors.newFixedThreadPool(threadCount)) {
+            for (int t = 0; t < threadCount; t++) {
+                var threadFolder = folder.add("t" + t);
+                var random = new Random(t);
+                futures.add(executor.submit(()->{
+                    startSignal.await();
+                    for (int i = 0; i < operationsPerThread; i++) {
+                        var payload = new byte[payloadSize];
+                        random.nextBytes(payload);
+                        var name = "blob" + (i % 10) + ".bin";
+                        blobStore.putBlob(threadFolder.add(name), Blob.of(name, CommonMimeType.BIN, payload),
+                                desc->desc.withCompression(compression));
+                        var readBack = blobStore.lookupBlobAndUncompress(threadFolder.add(name)).orElseThrow();
+                        assertArrayEquals(payload, readBack.bytes());
+                    }
+                    return null;
+                }));
+            }
+            var startedAt = System.nanoTime();
+            startSignal.countDown();
+            for(var future : futures) {
+                future.get(); // propagates assertion errors
+            }
+            var elapsed = Duration.ofNanos(System.nanoTime() - startedAt);
+
+            var expectedBlobCount = threadCount * Math.min(10, operationsPerThread);
+            var descriptors = blobStore.listDescriptors(folder, true);
+            assertEquals(expectedBlobCount, descriptors.size());
+            descriptors.forEach(desc->blobStore.deleteBlob(desc.path()));
+
+            return new Result(threadCount, threadCount * operationsPerThread, elapsed);
+        }
+    }
+
+}
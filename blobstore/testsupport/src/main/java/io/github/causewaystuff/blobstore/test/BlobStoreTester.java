@@ -18,11 +18,17 @@
  */
 package io.github.causewaystuff.blobstore.test;
 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.jspecify.annotations.NonNull;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -33,6 +39,7 @@ import org.apache.causeway.commons.collections.Can;
 import org.apache.causeway.commons.collections.Cardinality;
 
 import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
 
 import io.github.causewaystuff.blobstore.applib.BlobDescriptor;
 import io.github.causewaystuff.blobstore.applib.BlobDescriptor.Compression;
@@ -154,6 +161,10 @@ public class BlobStoreTester {
         var blobRecovered = blobStore.lookupBlob(path).orElse(null);
         assertNotNull(blobRecovered);
         assertEquals(scenario.blob(), blobRecovered);
+        var blobMapped = blobStore.mapBlob(path).orElse(null);
+        assertNotNull(blobMapped);
+        assertTrue(blobMapped.isReadOnly());
+        assertArrayEquals(blobRecovered.bytes(), toBytes(blobMapped));
         assertEquals(scenario.expectedAttributes().entrySet(), blobDescRecovered.attributes().entrySet());
 
         // no qualifiers
@@ -192,6 +203,9 @@ public class BlobStoreTester {
             var zippedBlob = blobStore.lookupBlob(zipDescriptor.path())
                     .orElseThrow();
             assertEquals(CommonMimeType.ZIP.mimeType().getBaseType(), zippedBlob.mimeType().getBaseType());
+            // verify streaming yields the same as lookup
+            assertArrayEquals(zippedBlob.bytes(), readAll(blobStore.openBlob(zipDescriptor.path()).orElseThrow()));
+            assertArrayEquals(scenario.blob().bytes(), readAll(blobStore.openBlobAndUncompress(zipDescriptor.path()).orElseThrow()));
         }
 
         // 7z re-compress
@@ -207,6 +221,9 @@ public class BlobStoreTester {
             var sevenZBlob = blobStore.lookupBlob(sevenZDescriptor.path())
                     .orElseThrow();
             assertEquals(CommonMimeType._7Z.mimeType().getBaseType(), sevenZBlob.mimeType().getBaseType());
+            // verify streaming yields the same as lookup
+            assertArrayEquals(sevenZBlob.bytes(), readAll(blobStore.openBlob(sevenZDescriptor.path()).orElseThrow()));
+            assertArrayEquals(scenario.blob().bytes(), readAll(blobStore.openBlobAndUncompress(sevenZDescriptor.path()).orElseThrow()));
         }
 
         // un-zip
@@ -226,6 +243,59 @@ public class BlobStoreTester {
 
     }
 
+    /**
+     * Puts small blobs into nested folders, including folders that share a name prefix, as to exercise listing order.
+     * @return number of blobs put
+     */
+    public int setupTree(final NamedPath root, final int blobsPerFolder) {
+        var folders = Can.of(root, root.add("a"), root.add("a-b"), root.add("a").add("nested"), root.add("b"));
+        for(var folder : folders) {
+            for (int i = 0; i < blobsPerFolder; i++) {
+                var name = "blob-%02d.txt".formatted(i);
+                blobStore.putBlob(folder.add(name), Blob.of(name, CommonMimeType.TXT, name.getBytes()));
+            }
+        }
+        return folders.size() * blobsPerFolder;
+    }
+
+    /**
+     * Pages through given listing, asserting that the pages follow the stream's order
+     * and add up to the full listing, without duplicates.
+     */
+    public void assertPagedListing(final NamedPath path, final boolean recursive, final int pageSize) {
+        List<NamedPath> streamed;
+        try(var stream = blobStore.streamDescriptors(path, Can.empty(), recursive, null)) {
+            streamed = stream.map(BlobDescriptor::path).toList();
+        }
+        var paged = new ArrayList<NamedPath>();
+        String continuationToken = null;
+        do {
+            var page = blobStore.listDescriptors(path, Can.empty(), recursive, continuationToken, pageSize);
+            assertTrue(page.descriptors().size()<=pageSize);
+            page.descriptors().forEach(descriptor->paged.add(descriptor.path()));
+            continuationToken = page.continuationToken();
+        } while(continuationToken!=null);
+
+        assertEquals(streamed, paged);
+        assertEquals(streamed.size(), Set.copyOf(streamed).size());
+        assertEquals(
+                Set.copyOf(blobStore.listDescriptors(path, recursive).map(BlobDescriptor::path).toList()),
+                Set.copyOf(streamed));
+    }
+
+    @SneakyThrows
+    private static byte[] readAll(final InputStream inputStream) {
+        try(inputStream) {
+            return inputStream.readAllBytes();
+        }
+    }
+
+    private static byte[] toBytes(final ByteBuffer buffer) {
+        var bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
     private Can<BlobDescriptor> descriptors() {
         return blobStore.listDescriptors(NamedPath.empty(), true);
     }
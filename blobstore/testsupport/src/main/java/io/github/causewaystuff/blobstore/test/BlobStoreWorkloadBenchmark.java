@@ -0,0 +1,139 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.blobstore.test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.apache.causeway.applib.value.Blob;
+
+import lombok.RequiredArgsConstructor;
+
+import io.github.causewaystuff.blobstore.applib.BlobDescriptor;
+import io.github.causewaystuff.blobstore.applib.BlobStore;
+import io.github.causewaystuff.blobstore.test.BlobStoreCodecBenchmark.Payload;
+import io.github.causewaystuff.blobstore.test.BlobStoreTester.Scenario;
+import io.github.causewaystuff.blobstore.test.BlobStoreTester.ScenarioSample;
+import io.github.causewaystuff.commons.base.types.NamedPath;
+
+/**
+ * Measures put, get and list throughput of many (small) blobs, going through the {@link BlobStore} API,
+ * such that different implementations can be compared on the same workload.
+ * <p>
+ * The workload cycles through the {@link ScenarioSample}(s), hence puts blobs with the scenarios' descriptors
+ * (attributes, qualifiers, compression), but with a payload of given size,
+ * spread over a number of folders.
+ */
+@RequiredArgsConstructor
+public class BlobStoreWorkloadBenchmark {
+
+    public static record Result(
+            String storeName,
+            int blobCount,
+            int blobSize,
+            Duration putTime,
+            Duration getTime,
+            Duration listTime,
+            int listCount) {
+        public double putsPerSecond() {
+            return perSecond(blobCount, putTime);
+        }
+        public double getsPerSecond() {
+            return perSecond(blobCount, getTime);
+        }
+        public double listsPerSecond() {
+            return perSecond(listCount, listTime);
+        }
+        @Override
+        public String toString() {
+            return String.format("%-20s %6d x %7d bytes, put %9.0f ops/s, get %9.0f ops/s, list %7.0f ops/s",
+                    storeName, blobCount, blobSize, putsPerSecond(), getsPerSecond(), listsPerSecond());
+        }
+        private static double perSecond(final int count, final Duration duration) {
+            return count / Math.max(1e-9, duration.toNanos() / 1e9);
+        }
+    }
+
+    final BlobStore blobStore;
+
+    /**
+     * Puts, gets and lists given number of blobs, preceded by one untimed warm-up cycle. Blobs are deleted afterwards.
+     * @param folderCount number of folders the blobs are spread over, each listed (non-recursively) once
+     */
+    public Result run(final int blobCount, final int blobSize, final int folderCount) {
+        measure(blobCount, blobSize, folderCount); // warm-up
+        return measure(blobCount, blobSize, folderCount);
+    }
+
+    // -- HELPER
+
+    private Result measure(final int blobCount, final int blobSize, final int folderCount) {
+        var payload = Payload.JSON.create(blobSize);
+        var scenarios = workload(blobCount, folderCount, payload);
+
+        var startedAt = System.nanoTime();
+        scenarios.forEach(scenario->
+            blobStore.putBlob(scenario.path(), scenario.blob(), scenario::customize));
+        blobStore.flush();
+        var putAt = System.nanoTime();
+        scenarios.forEach(scenario->
+            assertArrayEquals(payload, blobStore.lookupBlobAndUncompress(scenario.path()).orElseThrow().bytes()));
+        var gotAt = System.nanoTime();
+        int listed = 0;
+        for (int folder = 0; folder < folderCount; folder++) {
+            listed += blobStore.listDescriptors(folderPath(folder), false).size();
+        }
+        var listedAt = System.nanoTime();
+        assertEquals(blobCount, listed);
+
+        scenarios.forEach(scenario->blobStore.deleteBlob(scenario.path()));
+        blobStore.flush();
+        return new Result(blobStore.getClass().getSimpleName(), blobCount, blobSize,
+                Duration.ofNanos(putAt - startedAt), Duration.ofNanos(gotAt - putAt), Duration.ofNanos(listedAt - gotAt),
+                folderCount);
+    }
+
+    private static List<Scenario> workload(final int blobCount, final int folderCount, final byte[] payload) {
+        var samples = ScenarioSample.values();
+        var scenarios = new ArrayList<Scenario>(blobCount);
+        for (int i = 0; i < blobCount; i++) {
+            var sample = samples[i % samples.length].create();
+            var sampleDescriptor = sample.blobDescriptor();
+            var name = "blob-%06d.bin".formatted(i);
+            var path = folderPath(i % folderCount).add(name);
+            scenarios.add(new Scenario(
+                    new BlobDescriptor(path, sampleDescriptor.mimeType(), sampleDescriptor.createdBy(), sampleDescriptor.createdOn(),
+                            payload.length, sampleDescriptor.compression(), sampleDescriptor.attributes(), sampleDescriptor.qualifiers()),
+                    Blob.of(name, sampleDescriptor.mimeType(), payload),
+                    sample.expectedAttributes(),
+                    sample.matchingQualifiers(),
+                    sample.excludingQualifiers()));
+        }
+        return scenarios;
+    }
+
+    private static NamedPath folderPath(final int folder) {
+        return NamedPath.of("workload-benchmark", "folder-%03d".formatted(folder));
+    }
+
+}
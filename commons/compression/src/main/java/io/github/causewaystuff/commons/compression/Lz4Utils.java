@@ -0,0 +1,170 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.commons.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import org.apache.commons.compress.compressors.lz4.BlockLZ4CompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream.BlockSize;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import org.apache.causeway.commons.internal.base._Bytes;
+
+import lombok.SneakyThrows;
+import lombok.experimental.UtilityClass;
+
+/**
+ * LZ4 frame format (de-)compression.
+ * <p>
+ * Frames are written with independent blocks of {@link #BLOCK_SIZE}, without block checksums,
+ * but with a content checksum.
+ */
+@UtilityClass
+public class Lz4Utils {
+
+    /**
+     * Maximum uncompressed size of a frame block. Blocks are independent of each other,
+     * so smaller blocks allow to skip more precisely, when reading at an offset.
+     */
+    public final BlockSize BLOCK_SIZE = BlockSize.K64;
+
+    private final int FRAME_MAGIC = 0x184D2204;
+
+    // -- DE-COMPRESSION
+
+    @SneakyThrows
+    @Nullable
+    public byte[] decompress(final @Nullable byte[] inputData) {
+        if(inputData==null) return null;
+        try(var in = decompressingInputStream(new ByteArrayInputStream(inputData))) {
+            return _Bytes.of(in);
+        }
+    }
+
+    /**
+     * Returns an {@link InputStream} that decompresses the LZ4 frames read from given stream.
+     * Closing the returned stream also closes given stream.
+     */
+    @SneakyThrows
+    public InputStream decompressingInputStream(final @NonNull InputStream in) {
+        return new FramedLZ4CompressorInputStream(in, true);
+    }
+
+    /**
+     * Reads a range of the uncompressed content of given LZ4 frame, only decompressing the blocks the range touches.
+     * <p>
+     * Relies on the frame having independent blocks, all (but the last) filled up to the maximum block size,
+     * as written by {@link #compressingOutputStream(OutputStream)}.
+     * @return up to {@code length} bytes, fewer if the end of the content is reached,
+     *      or {@code null} if the frame does not qualify (dependent blocks)
+     */
+    @SneakyThrows
+    public byte @Nullable [] readRange(final @NonNull FileChannel channel, final long offset, final int length) {
+        var header = read(channel, 0L, 7);
+        if(header.getInt()!=FRAME_MAGIC) throw new IOException("not an LZ4 frame");
+        var flags = header.get();
+        var blockDescriptor = header.get();
+        if((flags & 0x20)==0) return null; // dependent blocks
+        var hasBlockChecksum = (flags & 0x10)!=0;
+        var hasContentSize = (flags & 0x08)!=0;
+        var hasDictionaryId = (flags & 0x01)!=0;
+        var blockMaxSize = 1 << (8 + 2 * ((blockDescriptor >> 4) & 0x7));
+
+        // an open-ended range must not size the result beyond the content, which (if not recorded)
+        // is only known once all blocks are read, hence then the result grows block by block
+        var initialCapacity = hasContentSize
+                ? Math.max(0L, Math.min(length, read(channel, 6L, 8).getLong() - offset))
+                : Math.min(length, blockMaxSize);
+        var result = new ByteArrayOutputStream((int) initialCapacity);
+        var position = 4L + 2 + (hasContentSize ? 8 : 0) + (hasDictionaryId ? 4 : 0) + 1;
+        var blockStart = 0L; // uncompressed offset of the current block
+        var end = offset + length;
+        while(blockStart < end) {
+            var blockHeader = read(channel, position, 4).getInt();
+            if(blockHeader==0) break; // end mark
+            var isUncompressed = (blockHeader & 0x80000000)!=0;
+            var blockSize = blockHeader & 0x7FFFFFFF;
+            position += 4;
+            if(blockStart + blockMaxSize > offset) {
+                var blockBytes = new byte[blockSize];
+                read(channel, position, blockSize).get(blockBytes);
+                var uncompressed = isUncompressed
+                        ? blockBytes
+                        : _Bytes.of(new BlockLZ4CompressorInputStream(new ByteArrayInputStream(blockBytes)));
+                var from = (int) Math.max(0L, offset - blockStart);
+                var to = (int) Math.min(uncompressed.length, end - blockStart);
+                if(from<to) {
+                    result.write(uncompressed, from, to - from);
+                }
+            }
+            position += blockSize + (hasBlockChecksum ? 4 : 0);
+            blockStart += blockMaxSize;
+        }
+        return result.toByteArray();
+    }
+
+    // -- COMPRESSION
+
+    @SneakyThrows
+    @Nullable
+    public byte[] compress(final @Nullable byte[] inputData) {
+        if(inputData==null) return null;
+        var bytes = new ByteArrayOutputStream(inputData.length / 2 + 64);
+        try(var out = compressingOutputStream(bytes)) {
+            out.write(inputData);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns an {@link OutputStream} that compresses on the fly and writes an LZ4 frame to given stream.
+     * The frame is finalized, and given stream closed, when the returned stream is closed.
+     */
+    @SneakyThrows
+    public OutputStream compressingOutputStream(final @NonNull OutputStream out) {
+        return new FramedLZ4CompressorOutputStream(out,
+                new FramedLZ4CompressorOutputStream.Parameters(BLOCK_SIZE, true, false, false));
+    }
+
+    // -- HELPER
+
+    /**
+     * Reads exactly {@code length} bytes at given position, as little-endian buffer.
+     */
+    private ByteBuffer read(final FileChannel channel, final long position, final int length) throws IOException {
+        var buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position())<0) throw new EOFException("LZ4 frame is truncated");
+        }
+        return buffer.flip();
+    }
+
+}
@@ -18,6 +18,11 @@
  */
 package io.github.causewaystuff.commons.compression;
 
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.attribute.FileTime;
 import java.time.Instant;
 
@@ -69,23 +74,42 @@ public class SevenZUtils {
         return Blob.of(inputBlob.name(), resultingMimeType, decompress(inputBlob.bytes()));
     }
 
+    /**
+     * Opens given 7z archive for streaming decompression of its first entry.
+     * Closing the returned {@link InputStream} also closes the archive.
+     */
+    @SneakyThrows
+    public InputStream decompressingInputStream(final @NonNull File inputFile) {
+        var sevenZFile = SevenZFile.builder()
+                .setFile(inputFile)
+                .get();
+        var firstEntry = sevenZFile.getNextEntry();
+        if(firstEntry==null) {
+            sevenZFile.close();
+            throw new IOException("7z archive %s has no entries".formatted(inputFile));
+        }
+        return new FilterInputStream(sevenZFile.getInputStream(firstEntry)) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    sevenZFile.close();
+                }
+            }
+        };
+    }
+
     // -- COMPRESSION
 
     @SneakyThrows
     @Nullable
     public byte[] compress(final @Nullable byte[] inputData, final @NonNull String entryName, final @NonNull SevenZMethod method) {
         if(inputData==null) return null;
-        var now = FileTime.from(Instant.now());
         var channel = new SeekableInMemoryByteChannel();
         try(var sevenZOutput = new SevenZOutputFile(channel)) {
             sevenZOutput.setContentCompression(method);
-            var entry = new SevenZArchiveEntry();
-            entry.setDirectory(false);
-            entry.setName(entryName);
-            entry.setLastModifiedTime(now);
-            entry.setCreationTime(now);
-            entry.setAccessTime(now);
-            sevenZOutput.putArchiveEntry(entry);
+            sevenZOutput.putArchiveEntry(newEntry(entryName));
             sevenZOutput.write(inputData);
             sevenZOutput.closeArchiveEntry();
             sevenZOutput.finish();
@@ -107,4 +131,47 @@ public class SevenZUtils {
         return Blob.of(inputBlob.name(), CommonMimeType._7Z, compress(inputBlob.bytes(), inputBlob.name(), method));
     }
 
+    /**
+     * Creates given 7z archive with a single entry, that the returned {@link OutputStream} writes to.
+     * Content is compressed on the fly, the archive is finalized when the returned stream is closed.
+     */
+    @SneakyThrows
+    public OutputStream compressingOutputStream(final @NonNull File outputFile, final @NonNull String entryName, final @NonNull SevenZMethod method) {
+        var sevenZOutput = new SevenZOutputFile(outputFile);
+        sevenZOutput.setContentCompression(method);
+        sevenZOutput.putArchiveEntry(newEntry(entryName));
+        return new OutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                sevenZOutput.write(b);
+            }
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                sevenZOutput.write(b, off, len);
+            }
+            @Override
+            public void close() throws IOException {
+                try {
+                    sevenZOutput.closeArchiveEntry();
+                    sevenZOutput.finish();
+                } finally {
+                    sevenZOutput.close();
+                }
+            }
+        };
+    }
+
+    // -- HELPER
+
+    private SevenZArchiveEntry newEntry(final String entryName) {
+        var now = FileTime.from(Instant.now());
+        var entry = new SevenZArchiveEntry();
+        entry.setDirectory(false);
+        entry.setName(entryName);
+        entry.setLastModifiedTime(now);
+        entry.setCreationTime(now);
+        entry.setAccessTime(now);
+        return entry;
+    }
+
 }
@@ -0,0 +1,288 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package io.github.causewaystuff.commons.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import org.apache.causeway.commons.internal.base._Bytes;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.experimental.UtilityClass;
+
+/**
+ * Zstandard (de-)compression, optionally using a pre-trained dictionary.
+ * <p>
+ * Content compressed with a dictionary can only be decompressed with that same dictionary.
+ * <p>
+ * Content may be written in Zstandard's seekable format, that supports reading ranges
+ * without decompressing everything up to the range.
+ */
+@UtilityClass
+public class ZstdUtils {
+
+    /**
+     * Zstandard's own default, a good trade-off between speed and ratio.
+     */
+    public final int DEFAULT_LEVEL = 3;
+
+    /**
+     * Uncompressed size of each frame written by {@link #seekableCompressingOutputStream(OutputStream, int, byte[])}.
+     */
+    public final int SEEKABLE_FRAME_SIZE = 1024 * 1024;
+
+    private final int SKIPPABLE_FRAME_MAGIC = 0x184D2A5E;
+    private final int SEEKABLE_MAGIC = 0x8F92EAB1;
+    private final int SEEK_TABLE_FOOTER_SIZE = 9;
+
+    // -- DE-COMPRESSION
+
+    @SneakyThrows
+    @Nullable
+    public byte[] decompress(final @Nullable byte[] inputData, final byte @Nullable [] dictionary) {
+        if(inputData==null) return null;
+        try(var in = decompressingInputStream(new ByteArrayInputStream(inputData), dictionary)) {
+            return _Bytes.of(in);
+        }
+    }
+
+    /**
+     * Returns an {@link InputStream} that decompresses the Zstandard frames read from given stream.
+     * Closing the returned stream also closes given stream.
+     */
+    @SneakyThrows
+    public InputStream decompressingInputStream(final @NonNull InputStream in, final byte @Nullable [] dictionary) {
+        var zstdIn = new ZstdInputStream(in);
+        if(dictionary!=null) {
+            zstdIn.setDict(dictionary);
+        }
+        return zstdIn;
+    }
+
+    /**
+     * Reads a range of the uncompressed content of given file, that was written in the seekable format
+     * (see {@link #seekableCompressingOutputStream(OutputStream, int, byte[])}),
+     * only decompressing the frames the range touches.
+     * @return up to {@code length} bytes, fewer if the end of the content is reached,
+     *      or {@code null} if the file has no seek table
+     */
+    @SneakyThrows
+    public byte @Nullable [] readRange(final @NonNull FileChannel channel, final long offset, final int length,
+            final byte @Nullable [] dictionary) {
+        var fileSize = channel.size();
+        if(fileSize < SEEK_TABLE_FOOTER_SIZE + 8) return null;
+        var footer = read(channel, fileSize - SEEK_TABLE_FOOTER_SIZE, SEEK_TABLE_FOOTER_SIZE);
+        var frameCount = footer.getInt();
+        var tableDescriptor = footer.get();
+        if(footer.getInt()!=SEEKABLE_MAGIC) return null;
+        var entrySize = (tableDescriptor & 0x80)!=0 ? 12 : 8; // with or without checksums
+        var tableSize = frameCount * entrySize;
+        var skippableFramePosition = fileSize - SEEK_TABLE_FOOTER_SIZE - tableSize - 8;
+        if(read(channel, skippableFramePosition, 4).getInt()!=SKIPPABLE_FRAME_MAGIC) throw new IOException("corrupt seek table");
+        var table = read(channel, skippableFramePosition + 8, tableSize);
+
+        // an open-ended range must not size the result beyond the content
+        var totalUncompressedSize = 0L;
+        for (int i = 0; i < frameCount; i++) {
+            totalUncompressedSize += Integer.toUnsignedLong(table.getInt(i * entrySize + 4));
+        }
+        var result = new ByteArrayOutputStream((int) Math.max(0L, Math.min(length, totalUncompressedSize - offset)));
+        var end = offset + length;
+        var compressedPosition = 0L;
+        var frameStart = 0L; // uncompressed offset of the current frame
+        for (int i = 0; i < frameCount && frameStart < end; i++) {
+            var compressedSize = table.getInt();
+            var uncompressedSize = Integer.toUnsignedLong(table.getInt());
+            if(entrySize==12) {
+                table.getInt(); // checksum
+            }
+            if(frameStart + uncompressedSize > offset) {
+                var frame = new byte[compressedSize];
+                read(channel, compressedPosition, compressedSize).get(frame);
+                var uncompressed = decompress(frame, dictionary);
+                var from = (int) Math.max(0L, offset - frameStart);
+                var to = (int) Math.min(uncompressed.length, end - frameStart);
+                if(from<to) {
+                    result.write(uncompressed, from, to - from);
+                }
+            }
+            compressedPosition += compressedSize;
+            frameStart += uncompressedSize;
+        }
+        return result.toByteArray();
+    }
+
+    // -- COMPRESSION
+
+    @SneakyThrows
+    @Nullable
+    public byte[] compress(final @Nullable byte[] inputData, final int level, final byte @Nullable [] dictionary) {
+        if(inputData==null) return null;
+        var bytes = new ByteArrayOutputStream(inputData.length / 2 + 64);
+        try(var out = compressingOutputStream(bytes, level, dictionary)) {
+            out.write(inputData);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns an {@link OutputStream} that compresses on the fly and writes a Zstandard frame to given stream.
+     * The frame is finalized, and given stream closed, when the returned stream is closed.
+     * @param level compression level, 1 (fastest) to 22 (strongest), see {@link #DEFAULT_LEVEL}
+     */
+    @SneakyThrows
+    public OutputStream compressingOutputStream(final @NonNull OutputStream out, final int level, final byte @Nullable [] dictionary) {
+        var zstdOut = new ZstdOutputStream(out, level);
+        if(dictionary!=null) {
+            zstdOut.setDict(dictionary);
+        }
+        return zstdOut;
+    }
+
+    /**
+     * Like {@link #compressingOutputStream(OutputStream, int, byte[])}, but splits the content into independent frames
+     * of {@link #SEEKABLE_FRAME_SIZE} and appends a seek table (as specified by Zstandard's seekable format),
+     * which enables {@link #readRange(FileChannel, long, int, byte[])}.
+     * The output remains regular Zstandard, since decoders skip the seek table.
+     */
+    public OutputStream seekableCompressingOutputStream(final @NonNull OutputStream out, final int level, final byte @Nullable [] dictionary) {
+        return new SeekableOutputStream(out, level, dictionary);
+    }
+
+    // -- DICTIONARY
+
+    /**
+     * Trains a dictionary from given samples, which pays off for many small and similar payloads.
+     * @param dictionarySize upper bound of the dictionary size in bytes, typically 16 to 112 KiB
+     */
+    public byte[] trainDictionary(final @NonNull Iterable<byte[]> samples, final int dictionarySize) {
+        var sampleSize = 0;
+        for(var sample : samples) {
+            sampleSize += sample.length;
+        }
+        var trainer = new ZstdDictTrainer(sampleSize, dictionarySize);
+        samples.forEach(trainer::addSample);
+        return trainer.trainSamples();
+    }
+
+    // -- HELPER
+
+    /**
+     * Reads exactly {@code length} bytes at given position, as little-endian buffer.
+     */
+    private ByteBuffer read(final FileChannel channel, final long position, final int length) throws IOException {
+        var buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position())<0) throw new EOFException("zstd file is truncated");
+        }
+        return buffer.flip();
+    }
+
+    @RequiredArgsConstructor
+    private final class SeekableOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final int level;
+        private final byte @Nullable [] dictionary;
+        private final byte[] frameBuffer = new byte[SEEKABLE_FRAME_SIZE];
+        /** seek table entries, each compressed and uncompressed size of a frame */
+        private ByteBuffer entries = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+        private int frameLength;
+        private int frameCount;
+        private boolean closed;
+
+        @Override
+        public void write(final int b) throws IOException {
+            frameBuffer[frameLength++] = (byte) b;
+            if(frameLength==frameBuffer.length) {
+                writeFrame();
+            }
+        }
+
+        @Override
+        public void write(final byte[] b, int off, int len) throws IOException {
+            while(len>0) {
+                var chunk = Math.min(len, frameBuffer.length - frameLength);
+                System.arraycopy(b, off, frameBuffer, frameLength, chunk);
+                frameLength += chunk;
+                off += chunk;
+                len -= chunk;
+                if(frameLength==frameBuffer.length) {
+                    writeFrame();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(closed) return;
+            closed = true;
+            try {
+                if(frameLength>0
+                        || frameCount==0) {
+                    writeFrame();
+                }
+                var tableSize = entries.position();
+                var trailer = ByteBuffer.allocate(8 + tableSize + SEEK_TABLE_FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                trailer.putInt(SKIPPABLE_FRAME_MAGIC);
+                trailer.putInt(tableSize + SEEK_TABLE_FOOTER_SIZE);
+                trailer.put(entries.array(), 0, tableSize);
+                trailer.putInt(frameCount);
+                trailer.put((byte) 0); // no checksums
+                trailer.putInt(SEEKABLE_MAGIC);
+                out.write(trailer.array());
+            } finally {
+                out.close();
+            }
+        }
+
+        private void writeFrame() throws IOException {
+            var uncompressed = Arrays.copyOf(frameBuffer, frameLength);
+            var compressed = dictionary!=null
+                    ? Zstd.compressUsingDict(uncompressed, dictionary, level)
+                    : Zstd.compress(uncompressed, level);
+            out.write(compressed);
+            if(entries.remaining()<8) {
+                entries = ByteBuffer.allocate(entries.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN)
+                        .put(entries.flip());
+            }
+            entries.putInt(compressed.length);
+            entries.putInt(frameLength);
+            frameCount++;
+            frameLength = 0;
+        }
+    }
+
+}
@@ -23,6 +23,7 @@ module io.github.causewaystuff.commons.compression {
     requires transitive org.apache.causeway.commons;
     requires transitive org.apache.causeway.applib;
     requires transitive org.apache.commons.compress;
+    requires com.github.luben.zstd_jni;
     requires org.slf4j;
     requires io.github.causewaystuff.commons.base;
 